@@ -43,6 +43,11 @@ android {
         targetCompatibility = JavaVersion.VERSION_11
     }
 
+    // JVM 单元测试中 android.util.Log 等框架方法返回默认值（AppLog 会调用 Log）
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
+
 }
 
 dependencies {
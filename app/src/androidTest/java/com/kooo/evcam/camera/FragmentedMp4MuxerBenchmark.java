@@ -0,0 +1,184 @@
+package com.kooo.evcam.camera;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * fMP4 与 MediaMuxer 写入开销对比（设备上运行）
+ *
+ * 先用硬件编码器编码一个 GOP，取得真实的 csd-0/csd-1 和编码样本，
+ * 再把这个 GOP 循环喂给两个 RecordingMuxer 实现（相同的 1 分钟时间线），
+ * 比较 writeSampleData 的耗时分布、stop() 耗时和文件大小。
+ */
+@RunWith(AndroidJUnit4.class)
+public class FragmentedMp4MuxerBenchmark {
+    private static final String TAG = "FragmentedMp4MuxerBenchmark";
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int FPS = 30;
+    private static final int BITRATE = 8000000;
+    private static final int SECONDS = 60;
+    private static final long TIMEOUT_US = 10000;
+
+    private File dir;
+    private MediaFormat outputFormat;
+    private final List<byte[]> gop = new ArrayList<>();
+    private final List<Boolean> gopKeyFrames = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dir = new File(context.getCacheDir(), "muxer_bench");
+        dir.mkdirs();
+        encodeGop();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void compareWithMediaMuxer() throws Exception {
+        // 预热一次，避免首次类加载和 JIT 计入结果
+        run(new MediaMuxerAdapter(new File(dir, "warmup.mp4").getAbsolutePath()), "warmup.mp4");
+
+        String mediaMuxer = run(new MediaMuxerAdapter(new File(dir, "mediamuxer.mp4").getAbsolutePath()), "mediamuxer.mp4");
+        String fragmented = run(new FragmentedMp4Muxer(new File(dir, "fmp4.mp4").getAbsolutePath(), FPS, 1000), "fmp4.mp4");
+        Log.i(TAG, "MediaMuxer: " + mediaMuxer);
+        Log.i(TAG, "fMP4:       " + fragmented);
+    }
+
+    private String run(RecordingMuxer muxer, String name) {
+        int samples = SECONDS * FPS;
+        long[] latencyNs = new long[samples];
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        ByteBuffer data = ByteBuffer.allocateDirect(maxFrameSize());
+
+        int track = muxer.addTrack(outputFormat);
+        muxer.start();
+        for (int i = 0; i < samples; i++) {
+            byte[] frame = gop.get(i % gop.size());
+            data.clear();
+            data.put(frame);
+            data.flip();
+            boolean key = gopKeyFrames.get(i % gop.size());
+            info.set(0, frame.length, i * 1000000L / FPS, key ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            long start = System.nanoTime();
+            muxer.writeSampleData(track, data, info);
+            latencyNs[i] = System.nanoTime() - start;
+        }
+        long stopStart = System.nanoTime();
+        muxer.stop();
+        long stopNs = System.nanoTime() - stopStart;
+        muxer.release();
+
+        File file = new File(dir, name);
+        assertTrue(file.length() > 0);
+        Arrays.sort(latencyNs);
+        long totalNs = 0;
+        for (long ns : latencyNs) {
+            totalNs += ns;
+        }
+        return String.format(Locale.US, "%d samples, write total %d ms, p50 %d us / p99 %d us / max %d us, stop %d ms, %d KB",
+                samples, totalNs / 1000000, latencyNs[samples / 2] / 1000, latencyNs[samples * 99 / 100] / 1000,
+                latencyNs[samples - 1] / 1000, stopNs / 1000000, file.length() / 1024);
+    }
+
+    private int maxFrameSize() {
+        int max = 0;
+        for (byte[] frame : gop) {
+            max = Math.max(max, frame.length);
+        }
+        return max;
+    }
+
+    /**
+     * 用 H.264 编码器编码 FPS 帧（一个 GOP）灰度渐变画面
+     */
+    private void encodeGop() throws Exception {
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, WIDTH, HEIGHT);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BITRATE);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FPS);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+
+        MediaCodec encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        encoder.start();
+        try {
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int queued = 0;
+            boolean inputDone = false;
+            boolean outputDone = false;
+            while (!outputDone) {
+                if (!inputDone) {
+                    int inputIndex = encoder.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        if (queued == FPS) {
+                            encoder.queueInputBuffer(inputIndex, 0, 0, queued * 1000000L / FPS,
+                                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            ByteBuffer input = encoder.getInputBuffer(inputIndex);
+                            int size = Math.min(input.capacity(), WIDTH * HEIGHT * 3 / 2);
+                            for (int i = 0; i < size; i++) {
+                                input.put(i, (byte) ((i / WIDTH + queued * 4) & 0xFF));
+                            }
+                            encoder.queueInputBuffer(inputIndex, 0, size, queued * 1000000L / FPS, 0);
+                            queued++;
+                        }
+                    }
+                }
+                int outputIndex = encoder.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    outputFormat = encoder.getOutputFormat();
+                } else if (outputIndex >= 0) {
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                        ByteBuffer output = encoder.getOutputBuffer(outputIndex);
+                        byte[] frame = new byte[info.size];
+                        output.position(info.offset);
+                        output.get(frame);
+                        gop.add(frame);
+                        gopKeyFrames.add((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+                    }
+                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                    encoder.releaseOutputBuffer(outputIndex, false);
+                }
+            }
+        } finally {
+            encoder.stop();
+            encoder.release();
+        }
+        assertNotNull("encoder produced no output format", outputFormat);
+        assertFalse(gop.isEmpty());
+        assertTrue("first encoded frame must be a key frame", gopKeyFrames.get(0));
+    }
+}
@@ -44,14 +44,56 @@ public class AppConfig {
     private static final String KEY_VIDEO_STORAGE_LIMIT_GB = "video_storage_limit_gb";  // 视频存储限制（GB）
     private static final String KEY_PHOTO_STORAGE_LIMIT_GB = "photo_storage_limit_gb";  // 图片存储限制（GB）
     
+    // 中转传输配置
+    private static final String KEY_TRANSFER_WORKERS_PER_VOLUME = "transfer_workers_per_volume";  // 每个目标存储卷的传输线程数
+    private static final String KEY_TRANSFER_BANDWIDTH_LIMIT_MBPS = "transfer_bandwidth_limit_mbps";  // 中转复制带宽上限（MB/s，0 表示不限制）
+    
+    // U盘测速配置
+    private static final String KEY_AUTO_STORAGE_MODE = "auto_storage_mode";  // 根据U盘测速自动选择直接写入/中转写入
+    private static final String KEY_STORAGE_BENCHMARK_PREFIX = "storage_benchmark_";  // 测速结果缓存（后接存储卷 UUID）
+    private static final String KEY_USB_DIRECT_WRITE = "usb_direct_write";  // 当前U盘是否可以直接写入
+    private static final String KEY_USB_BITRATE_CEILING = "usb_bitrate_ceiling";  // 当前U盘的录制总码率上限（bps，0 表示不限制）
+    private static final String KEY_LAST_RECORDING_BITRATE = "last_recording_bitrate_total";  // 上次录制的总码率（bps）
+    
     // 分段录制配置
     private static final String KEY_SEGMENT_DURATION_MINUTES = "segment_duration_minutes";  // 分段时长（分钟）
     
+    private static final String KEY_SEAMLESS_SEGMENT_SWITCH = "seamless_segment_switch";  // 无缝分段切换（仅 Codec 录制模式）
+    private static final String KEY_TIMELAPSE_INTERVAL_SECONDS = "timelapse_interval_seconds";  // 延时录影取帧间隔（秒，0 表示关闭，仅 Codec 录制模式）
+    private static final String KEY_TIMELAPSE_SEGMENT_MINUTES = "timelapse_segment_minutes";  // 延时录影分段时长（分钟）
+    
+    private static final String KEY_FRAGMENTED_MP4_ENABLED = "fragmented_mp4_enabled";  // fMP4 封装（仅 Codec 录制模式）
+    private static final String KEY_FRAGMENT_DURATION_SECONDS = "fragment_duration_seconds";  // fMP4 分片时长（秒）
+    
+    private static final String KEY_SHARED_GL_CONTEXT = "shared_gl_context";  // 多路共享 GL 渲染线程（仅 Codec 录制模式）
+    private static final String KEY_ASYNC_ENCODER = "async_encoder";  // 异步编码回调（仅 Codec 录制模式）
+    private static final String KEY_ADAPTIVE_BITRATE = "adaptive_bitrate";  // 自适应码率（仅 Codec 录制模式）
+    private static final String KEY_ADAPTIVE_BITRATE_MIN_PERCENT = "adaptive_bitrate_min_percent";  // 自适应码率下限（占配置码率的百分比）
+    private static final String KEY_PROXY_STREAM = "proxy_stream";  // 低分辨率代理子码流（仅 Codec 录制模式）
+    
+    // 拼接录制配置（仅 Codec 录制模式）
+    private static final String KEY_MOSAIC_RECORDING = "mosaic_recording";  // 2x2 拼接录制（一个编码器录制所有摄像头）
+    private static final String KEY_MOSAIC_LAYOUT = "mosaic_layout";  // 格子布局（左上,右上,左下,右下）
+    private static final String KEY_MOSAIC_TILE_RESOLUTION = "mosaic_tile_resolution";  // 每个格子的分辨率
+    public static final String DEFAULT_MOSAIC_LAYOUT = "front,back,left,right";
+    public static final String DEFAULT_MOSAIC_TILE_RESOLUTION = "640x400";
+    
+    // 预录缓冲配置（仅 Codec 录制模式）
+    private static final String KEY_PRE_EVENT_SECONDS = "pre_event_seconds";  // 预录时长（秒，0=禁用）
+    private static final String KEY_PRE_EVENT_BUFFER_MB = "pre_event_buffer_mb";  // 每路摄像头预录缓冲内存上限（MB）
+    public static final int DEFAULT_PRE_EVENT_BUFFER_MB = 16;
+    
     // 录制状态显示配置
     private static final String KEY_RECORDING_STATS_ENABLED = "recording_stats_enabled";  // 录制状态显示开关
     
     // 时间角标配置
     private static final String KEY_TIMESTAMP_WATERMARK_ENABLED = "timestamp_watermark_enabled";  // 时间角标开关
+    private static final String KEY_WATERMARK_GLYPH_ATLAS = "watermark_glyph_atlas";  // 时间角标使用字形图集渲染（仅 Codec 录制模式）
+    private static final String KEY_STILL_CAPTURE_IMAGE_READER = "still_capture_image_reader";  // 拍照/抓图使用 ImageReader JPEG 输出
+    private static final String KEY_MOTION_ANALYSIS = "motion_analysis";  // 附加低分辨率 YUV 运动分析流
+    
+    // 远程画面变化检测配置
+    private static final String KEY_FRAME_CHANGE_THRESHOLD = "frame_change_threshold";  // 画面无变化判定阈值（0 表示关闭）
     
     // 录制摄像头选择配置
     private static final String KEY_RECORDING_CAMERA_FRONT_ENABLED = "recording_camera_front_enabled";  // 前摄像头参与录制
@@ -1120,11 +1162,131 @@ public class AppConfig {
     
     /**
      * 检查当前是否应该使用中转写入
-     * 当选择U盘存储时，始终使用中转写入以避免U盘慢速写入导致录制卡顿
+     * 当选择U盘存储时默认使用中转写入以避免U盘慢速写入导致录制卡顿；
+     * 自动模式下，如果当前U盘测速结果足以承受录制码率且写入延迟稳定，则直接写入U盘
      * @return true 表示应该使用中转写入
      */
     public boolean shouldUseRelayWrite() {
-        return isUsingExternalSdCard();
+        if (!isUsingExternalSdCard()) {
+            return false;
+        }
+        return !(isAutoStorageModeEnabled() && isUsbDirectWriteCapable());
+    }
+    
+    /**
+     * 设置每个目标存储卷的中转传输线程数
+     * @param workers 线程数（1-4）
+     */
+    public void setTransferWorkersPerVolume(int workers) {
+        int value = Math.max(1, Math.min(4, workers));
+        prefs.edit().putInt(KEY_TRANSFER_WORKERS_PER_VOLUME, value).apply();
+        AppLog.d(TAG, "中转传输线程数设置: " + value);
+    }
+    
+    /**
+     * 获取每个目标存储卷的中转传输线程数
+     * @return 线程数，默认 2（4 路分段同时完成时并行传输，又不至于让U盘随机写过多）
+     */
+    public int getTransferWorkersPerVolume() {
+        return prefs.getInt(KEY_TRANSFER_WORKERS_PER_VOLUME, 2);
+    }
+    
+    /**
+     * 设置中转复制带宽上限（避免复制占满U盘带宽影响录制写入）
+     * @param mbps 上限（MB/s），0 表示不限制
+     */
+    public void setTransferBandwidthLimitMbps(int mbps) {
+        prefs.edit().putInt(KEY_TRANSFER_BANDWIDTH_LIMIT_MBPS, Math.max(0, mbps)).apply();
+        AppLog.d(TAG, "中转复制带宽上限设置: " + (mbps <= 0 ? "不限制" : mbps + " MB/s"));
+    }
+    
+    /**
+     * 获取中转复制带宽上限
+     * @return 上限（MB/s），0 表示不限制
+     */
+    public int getTransferBandwidthLimitMbps() {
+        // 默认不限制，与原来行为一致
+        return prefs.getInt(KEY_TRANSFER_BANDWIDTH_LIMIT_MBPS, 0);
+    }
+    
+    /**
+     * 设置是否根据U盘测速自动选择录制路径和码率上限
+     */
+    public void setAutoStorageModeEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_AUTO_STORAGE_MODE, enabled).apply();
+        AppLog.d(TAG, "U盘自动存储模式设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 是否根据U盘测速自动选择录制路径和码率上限
+     * @return 默认 true（未测速的U盘仍使用中转写入，与原来行为一致）
+     */
+    public boolean isAutoStorageModeEnabled() {
+        return prefs.getBoolean(KEY_AUTO_STORAGE_MODE, true);
+    }
+    
+    /**
+     * 保存存储卷的测速结果
+     * @param volumeUuid 存储卷 UUID
+     * @param encodedResult StorageBenchmark.Result.encode() 的结果
+     */
+    public void setStorageBenchmark(String volumeUuid, String encodedResult) {
+        prefs.edit().putString(KEY_STORAGE_BENCHMARK_PREFIX + volumeUuid, encodedResult).apply();
+    }
+    
+    /**
+     * 获取存储卷的测速结果
+     * @return 未测速时返回 null
+     */
+    public String getStorageBenchmark(String volumeUuid) {
+        return prefs.getString(KEY_STORAGE_BENCHMARK_PREFIX + volumeUuid, null);
+    }
+    
+    /**
+     * 保存当前U盘的存储决策（由 StorageBenchmarkManager 根据测速结果更新）
+     * @param directWrite 是否可以直接写入
+     * @param bitrateCeilingBps 录制总码率上限，0 表示不限制
+     */
+    public void setUsbStorageDecision(boolean directWrite, long bitrateCeilingBps) {
+        prefs.edit()
+                .putBoolean(KEY_USB_DIRECT_WRITE, directWrite)
+                .putLong(KEY_USB_BITRATE_CEILING, Math.max(0, bitrateCeilingBps))
+                .apply();
+        AppLog.d(TAG, "U盘存储决策: " + (directWrite ? "直接写入" : "中转写入") + "，码率上限 "
+                + (bitrateCeilingBps > 0 ? formatBitrate((int) Math.min(bitrateCeilingBps, Integer.MAX_VALUE)) : "不限制"));
+    }
+    
+    /**
+     * 当前U盘是否可以直接写入
+     * @return 默认 false（未测速时使用中转写入）
+     */
+    public boolean isUsbDirectWriteCapable() {
+        return prefs.getBoolean(KEY_USB_DIRECT_WRITE, false);
+    }
+    
+    /**
+     * 获取当前U盘的录制总码率上限（所有路合计）
+     * @return 上限（bps），0 表示不限制
+     */
+    public long getUsbBitrateCeiling() {
+        return prefs.getLong(KEY_USB_BITRATE_CEILING, 0);
+    }
+    
+    /**
+     * 记录上次录制的总码率（用于判断U盘能否承受）
+     */
+    public void setLastRecordingBitrateTotal(long bitrateBps) {
+        if (bitrateBps > 0 && bitrateBps != getLastRecordingBitrateTotal()) {
+            prefs.edit().putLong(KEY_LAST_RECORDING_BITRATE, bitrateBps).apply();
+        }
+    }
+    
+    /**
+     * 获取上次录制的总码率
+     * @return 码率（bps），从未录制过时返回 0
+     */
+    public long getLastRecordingBitrateTotal() {
+        return prefs.getLong(KEY_LAST_RECORDING_BITRATE, 0);
     }
     
     // ==================== 悬浮窗配置相关方法 ====================
@@ -1279,6 +1441,280 @@ public class AppConfig {
         return getSegmentDurationMinutes() * 60 * 1000L;
     }
     
+    /**
+     * 设置无缝分段切换（仅 Codec 录制模式）
+     * @param enabled true 表示分段切换时不重启编码器，在关键帧处切换文件
+     */
+    public void setSeamlessSegmentSwitchEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_SEAMLESS_SEGMENT_SWITCH, enabled).apply();
+        AppLog.d(TAG, "无缝分段切换设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取无缝分段切换设置
+     * @return true 表示启用，默认禁用（保持原来的重建编码器切换方式，在设置中开启；失败时录制器会自动回退）
+     */
+    public boolean isSeamlessSegmentSwitchEnabled() {
+        return prefs.getBoolean(KEY_SEAMLESS_SEGMENT_SWITCH, false);
+    }
+    
+    /**
+     * 设置延时录影取帧间隔（仅 Codec 录制模式，驻车过夜录制用）
+     * 每隔该时长编码一帧，按录制帧率输出正常速度播放的视频
+     * @param seconds 取帧间隔（秒），0 表示关闭
+     */
+    public void setTimelapseIntervalSeconds(int seconds) {
+        prefs.edit().putInt(KEY_TIMELAPSE_INTERVAL_SECONDS, Math.max(0, seconds)).apply();
+        AppLog.d(TAG, "延时录影取帧间隔设置: " + (seconds <= 0 ? "关闭" : seconds + " 秒"));
+    }
+    
+    /**
+     * 获取延时录影取帧间隔
+     * @return 取帧间隔（秒），0 表示关闭
+     */
+    public int getTimelapseIntervalSeconds() {
+        // 默认关闭，正常录制
+        return prefs.getInt(KEY_TIMELAPSE_INTERVAL_SECONDS, 0);
+    }
+    
+    /**
+     * 是否启用延时录影
+     */
+    public boolean isTimelapseEnabled() {
+        return getTimelapseIntervalSeconds() > 0;
+    }
+    
+    /**
+     * 设置延时录影分段时长
+     * @param minutes 分段时长（分钟，墙钟时间）
+     */
+    public void setTimelapseSegmentMinutes(int minutes) {
+        prefs.edit().putInt(KEY_TIMELAPSE_SEGMENT_MINUTES, Math.max(1, minutes)).apply();
+        AppLog.d(TAG, "延时录影分段时长设置: " + minutes + " 分钟");
+    }
+    
+    /**
+     * 获取延时录影分段时长
+     * @return 分段时长（分钟），默认 60 分钟（10 秒取一帧、30fps 时约 12 秒视频）
+     */
+    public int getTimelapseSegmentMinutes() {
+        return prefs.getInt(KEY_TIMELAPSE_SEGMENT_MINUTES, 60);
+    }
+    
+    /**
+     * 设置是否使用 fMP4 封装（仅 Codec 录制模式）
+     * @param enabled true 表示按分片写入，断电后文件仍可播放到最后一个分片
+     */
+    public void setFragmentedMp4Enabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_FRAGMENTED_MP4_ENABLED, enabled).apply();
+        AppLog.d(TAG, "fMP4 封装设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否使用 fMP4 封装
+     * @return true 表示启用，默认禁用（使用 MediaMuxer）
+     */
+    public boolean isFragmentedMp4Enabled() {
+        return prefs.getBoolean(KEY_FRAGMENTED_MP4_ENABLED, false);
+    }
+    
+    /**
+     * 设置 fMP4 分片时长
+     * @param seconds 分片时长（秒，1-10）
+     */
+    public void setFragmentDurationSeconds(int seconds) {
+        int value = Math.max(1, Math.min(10, seconds));
+        prefs.edit().putInt(KEY_FRAGMENT_DURATION_SECONDS, value).apply();
+        AppLog.d(TAG, "fMP4 分片时长设置: " + value + " 秒");
+    }
+    
+    /**
+     * 获取 fMP4 分片时长
+     * @return 分片时长（秒），默认 2 秒
+     */
+    public int getFragmentDurationSeconds() {
+        return prefs.getInt(KEY_FRAGMENT_DURATION_SECONDS, 2);
+    }
+    
+    /**
+     * 设置多路摄像头是否共享 GL 渲染线程和 EGL context（仅 Codec 录制模式）
+     * @param enabled true 表示所有摄像头共用一个渲染线程和 EGL context
+     */
+    public void setSharedGlContextEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_SHARED_GL_CONTEXT, enabled).apply();
+        AppLog.d(TAG, "共享 GL 渲染设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否共享 GL 渲染线程
+     * @return true 表示启用，默认禁用（每路独立线程和 context）
+     */
+    public boolean isSharedGlContextEnabled() {
+        return prefs.getBoolean(KEY_SHARED_GL_CONTEXT, false);
+    }
+    
+    /**
+     * 设置是否使用异步编码回调（仅 Codec 录制模式）
+     * @param enabled true 表示编码输出通过 MediaCodec 回调在专用线程上写入，不再每帧轮询
+     */
+    public void setAsyncEncoderEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_ASYNC_ENCODER, enabled).apply();
+        AppLog.d(TAG, "异步编码回调设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否使用异步编码回调
+     * @return true 表示启用，默认禁用（使用 dequeueOutputBuffer 轮询）
+     */
+    public boolean isAsyncEncoderEnabled() {
+        return prefs.getBoolean(KEY_ASYNC_ENCODER, false);
+    }
+    
+    /**
+     * 设置是否启用自适应码率（仅 Codec 录制模式）
+     * @param enabled true 表示存储或中转跟不上时自动降码率，恢复后逐步回到配置码率
+     */
+    public void setAdaptiveBitrateEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_ADAPTIVE_BITRATE, enabled).apply();
+        AppLog.d(TAG, "自适应码率设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否启用自适应码率
+     * @return true 表示启用，默认禁用（固定码率）
+     */
+    public boolean isAdaptiveBitrateEnabled() {
+        return prefs.getBoolean(KEY_ADAPTIVE_BITRATE, false);
+    }
+    
+    /**
+     * 设置自适应码率下限
+     * @param percent 占配置码率的百分比（10-100）
+     */
+    public void setAdaptiveBitrateMinPercent(int percent) {
+        int value = Math.max(10, Math.min(100, percent));
+        prefs.edit().putInt(KEY_ADAPTIVE_BITRATE_MIN_PERCENT, value).apply();
+        AppLog.d(TAG, "自适应码率下限设置: " + value + "%");
+    }
+    
+    /**
+     * 获取自适应码率下限
+     * @return 占配置码率的百分比，默认 40%
+     */
+    public int getAdaptiveBitrateMinPercent() {
+        return prefs.getInt(KEY_ADAPTIVE_BITRATE_MIN_PERCENT, 40);
+    }
+    
+    /**
+     * 设置是否同时录制低分辨率代理子码流（仅 Codec 录制模式）
+     * @param enabled true 表示每路额外编码一路小尺寸低码率视频，远程上传优先使用
+     */
+    public void setProxyStreamEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_PROXY_STREAM, enabled).apply();
+        AppLog.d(TAG, "代理子码流设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否录制低分辨率代理子码流
+     * @return true 表示启用，默认禁用
+     */
+    public boolean isProxyStreamEnabled() {
+        return prefs.getBoolean(KEY_PROXY_STREAM, false);
+    }
+    
+    // ==================== 拼接录制配置相关方法 ====================
+    
+    /**
+     * 设置是否使用 2x2 拼接录制（仅 Codec 录制模式）
+     * @param enabled true 表示所有摄像头合成到一个画面，只使用一个编码器，每个分段一个文件
+     */
+    public void setMosaicRecordingEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_MOSAIC_RECORDING, enabled).apply();
+        AppLog.d(TAG, "拼接录制设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否使用拼接录制
+     * @return true 表示启用，默认禁用（每路摄像头独立编码）
+     */
+    public boolean isMosaicRecordingEnabled() {
+        return prefs.getBoolean(KEY_MOSAIC_RECORDING, false);
+    }
+    
+    /**
+     * 设置拼接布局
+     * @param layout 逗号分隔的摄像头位置，顺序为 左上,右上,左下,右下（如 "front,back,left,right"），空项表示空格子
+     */
+    public void setMosaicLayout(String layout) {
+        prefs.edit().putString(KEY_MOSAIC_LAYOUT, layout).apply();
+        AppLog.d(TAG, "拼接布局设置: " + layout);
+    }
+    
+    /**
+     * 获取拼接布局
+     * @return 布局字符串，默认 "front,back,left,right"
+     */
+    public String getMosaicLayout() {
+        return prefs.getString(KEY_MOSAIC_LAYOUT, DEFAULT_MOSAIC_LAYOUT);
+    }
+    
+    /**
+     * 设置拼接格子分辨率
+     * @param resolution 分辨率字符串（如 "640x400"），合成画面为其 2 倍宽高
+     */
+    public void setMosaicTileResolution(String resolution) {
+        prefs.edit().putString(KEY_MOSAIC_TILE_RESOLUTION, resolution).apply();
+        AppLog.d(TAG, "拼接格子分辨率设置: " + resolution);
+    }
+    
+    /**
+     * 获取拼接格子分辨率
+     * @return [width, height]，默认 640x400（合成 1280x800）
+     */
+    public int[] getMosaicTileSize() {
+        int[] size = parseResolution(prefs.getString(KEY_MOSAIC_TILE_RESOLUTION, DEFAULT_MOSAIC_TILE_RESOLUTION));
+        if (size == null || size[0] <= 0 || size[1] <= 0) {
+            size = parseResolution(DEFAULT_MOSAIC_TILE_RESOLUTION);
+        }
+        return size;
+    }
+    
+    // ==================== 预录缓冲配置相关方法 ====================
+    
+    /**
+     * 设置预录时长
+     * @param seconds 事件前保留的时长（秒），0 表示禁用预录缓冲
+     */
+    public void setPreEventSeconds(int seconds) {
+        prefs.edit().putInt(KEY_PRE_EVENT_SECONDS, Math.max(0, seconds)).apply();
+        AppLog.d(TAG, "预录时长设置: " + seconds + " 秒");
+    }
+    
+    /**
+     * 获取预录时长
+     * @return 预录时长（秒），默认 0（禁用）
+     */
+    public int getPreEventSeconds() {
+        return prefs.getInt(KEY_PRE_EVENT_SECONDS, 0);
+    }
+    
+    /**
+     * 设置每路摄像头预录缓冲内存上限
+     * @param megabytes 内存上限（MB）
+     */
+    public void setPreEventBufferMb(int megabytes) {
+        prefs.edit().putInt(KEY_PRE_EVENT_BUFFER_MB, Math.max(1, megabytes)).apply();
+        AppLog.d(TAG, "预录缓冲上限设置: " + megabytes + " MB/路");
+    }
+    
+    /**
+     * 获取每路摄像头预录缓冲内存上限
+     * @return 内存上限（MB），默认 16MB
+     */
+    public int getPreEventBufferMb() {
+        return prefs.getInt(KEY_PRE_EVENT_BUFFER_MB, DEFAULT_PRE_EVENT_BUFFER_MB);
+    }
+    
     // ==================== 录制状态显示配置相关方法 ====================
     
     /**
@@ -1319,6 +1755,88 @@ public class AppConfig {
         return prefs.getBoolean(KEY_TIMESTAMP_WATERMARK_ENABLED, false);
     }
     
+    /**
+     * 设置时间角标是否使用字形图集渲染
+     * 启用后数字字形只光栅化和上传一次，避免每秒重绘并上传整张水印位图
+     * @param enabled true 表示使用字形图集
+     */
+    public void setWatermarkGlyphAtlasEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_WATERMARK_GLYPH_ATLAS, enabled).apply();
+        AppLog.d(TAG, "时间角标字形图集设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取时间角标是否使用字形图集渲染
+     * @return true 表示使用字形图集
+     */
+    public boolean isWatermarkGlyphAtlasEnabled() {
+        // 默认关闭，使用原有位图水印
+        return prefs.getBoolean(KEY_WATERMARK_GLYPH_ATLAS, false);
+    }
+    
+    // ==================== 拍照抓图配置相关方法 ====================
+    
+    /**
+     * 设置拍照/抓图是否使用 ImageReader（需重新打开摄像头生效）
+     * 启用后会话额外附加一路 JPEG 输出，拍照和远程抓图不依赖 TextureView，息屏时也可用
+     * 部分车机平台输出路数受限，会话配置失败时会自动去掉该输出
+     * @param enabled true 表示使用 ImageReader
+     */
+    public void setStillCaptureEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_STILL_CAPTURE_IMAGE_READER, enabled).apply();
+        AppLog.d(TAG, "ImageReader 抓拍设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取拍照/抓图是否使用 ImageReader
+     * @return true 表示使用 ImageReader
+     */
+    public boolean isStillCaptureEnabled() {
+        // 默认关闭，使用 TextureView 截图
+        return prefs.getBoolean(KEY_STILL_CAPTURE_IMAGE_READER, false);
+    }
+    
+    /**
+     * 设置是否启用低分辨率运动分析流（需重新打开摄像头生效）
+     * 启用后每路摄像头附加一路约 160x120 的 YUV 输出，以约 5fps 做运动检测，
+     * 录制中检测到运动时自动保存事件片段（需启用预录缓冲）
+     * @param enabled true 表示启用
+     */
+    public void setMotionAnalysisEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_MOTION_ANALYSIS, enabled).apply();
+        AppLog.d(TAG, "运动分析流设置: " + (enabled ? "启用" : "禁用"));
+    }
+    
+    /**
+     * 获取是否启用低分辨率运动分析流
+     * @return true 表示启用
+     */
+    public boolean isMotionAnalysisEnabled() {
+        // 默认关闭
+        return prefs.getBoolean(KEY_MOTION_ANALYSIS, false);
+    }
+    
+    // ==================== 远程画面变化检测配置相关方法 ====================
+    
+    /**
+     * 设置远程画面变化检测阈值（微信预览流和心跳推图共用）
+     * 画面亮度网格与上次发送时的平均差低于该值时跳过上传，0 表示关闭
+     * @param threshold 阈值（0-255 亮度）
+     */
+    public void setFrameChangeThreshold(int threshold) {
+        prefs.edit().putInt(KEY_FRAME_CHANGE_THRESHOLD, Math.max(0, threshold)).apply();
+        AppLog.d(TAG, "画面变化检测阈值设置: " + (threshold <= 0 ? "关闭" : threshold));
+    }
+    
+    /**
+     * 获取远程画面变化检测阈值
+     * @return 阈值，0 表示关闭
+     */
+    public int getFrameChangeThreshold() {
+        // 默认关闭，每个间隔都上传完整画面
+        return prefs.getInt(KEY_FRAME_CHANGE_THRESHOLD, 0);
+    }
+    
     // ==================== 录制摄像头选择配置相关方法 ====================
     
     /**
@@ -5,12 +5,18 @@ import android.os.Handler;
 import android.os.HandlerThread;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 文件传输管理器
@@ -19,10 +25,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 工作原理：
  * 1. 录制时先写入内部存储的临时目录（高速）
  * 2. 分段完成后，将文件加入传输队列
- * 3. 后台线程负责将文件移动/复制到目标目录
+ * 3. 每个目标存储卷有独立的传输线程（数量可配置），阻塞等待任务，加入任务即唤醒，无轮询
  * 4. 传输完成后删除临时文件
  * 
- * 这样可以避免U盘慢速写入影响录制性能
+ * 这样可以避免U盘慢速写入影响录制性能。
+ * 4 路摄像头同时切换分段时多个文件并行传输，积压更快清空；
+ * 可选的带宽上限（所有线程共享）避免中转复制挤占录制写入。
+ * 同一个源文件重复加入时合并为一个任务，不会并发复制同一文件。
+ * 任务状态写入传输日志（TransferJournal），应用被杀后再次启动时立即重放未完成的任务，
+ * 部分复制的文件从最后的检查点继续复制（重放和续传协议见 TransferRecovery）。
+ * 加入记录需要 fsync，在专用的日志线程上写入后再入队，不阻塞调用方（分段完成回调可能在主线程）。
+ * 跨文件系统复制使用 ResumableFileCopier：逐块读回校验、CRC32C、完成后 fsync，U 盘短暂卡顿时从最后可信偏移重试。
  */
 public class FileTransferManager {
     private static final String TAG = "FileTransferManager";
@@ -34,17 +47,57 @@ public class FileTransferManager {
     private static class TransferTask {
         final File sourceFile;      // 源文件（临时目录中）
         final File targetFile;      // 目标文件（最终存储位置）
-        final TransferCallback callback;
+        final List<TransferCallback> callbacks = new ArrayList<>();  // 由 activeTasks 锁保护
+        final long createdMs;       // 加入时间（用于端到端延迟统计）
+        long enqueuedMs;            // 最近一次入队时间（用于排队等待统计）
+        long resumeOffset;          // 续传偏移（从日志检查点恢复或停止时中断的位置）
         int retryCount;             // 重试次数
         
         TransferTask(File source, File target, TransferCallback callback) {
             this.sourceFile = source;
             this.targetFile = target;
-            this.callback = callback;
+            if (callback != null) {
+                this.callbacks.add(callback);
+            }
+            this.createdMs = System.currentTimeMillis();
             this.retryCount = 0;
         }
     }
     
+    // 目标存储卷的传输线程组
+    private class VolumeWorkers {
+        final String volumeKey;
+        final LinkedBlockingQueue<TransferTask> queue = new LinkedBlockingQueue<>();
+        final List<Thread> threads = new ArrayList<>();
+        
+        VolumeWorkers(String volumeKey) {
+            this.volumeKey = volumeKey;
+        }
+        
+        synchronized void ensureStarted(int count) {
+            while (threads.size() < count) {
+                Thread thread = new Thread(() -> workerLoop(this),
+                        "FileTransfer-" + new File(volumeKey).getName() + "-" + threads.size());
+                threads.add(thread);
+                thread.start();
+            }
+        }
+        
+        synchronized void stop() {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join(1000);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+            }
+            threads.clear();
+        }
+    }
+    
     // 传输回调
     public interface TransferCallback {
         void onTransferComplete(File sourceFile, File targetFile);
@@ -55,29 +108,44 @@ public class FileTransferManager {
     private static FileTransferManager instance;
     
     private final Context context;
-    private final ConcurrentLinkedQueue<TransferTask> transferQueue;
-    private HandlerThread transferThread;
+    private final Map<String, VolumeWorkers> volumes = new HashMap<>();       // 按目标存储卷分组
+    private final Map<String, TransferTask> activeTasks = new HashMap<>();    // 按源文件路径去重
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final TransferRateLimiter rateLimiter = new TransferRateLimiter(0);
+    private final TransferJournal journal;
+    private final ExecutorService journalExecutor =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "TransferJournal"));  // 日志重放和加入记录
+    private final ThreadLocal<ResumableFileCopier> copiers = ThreadLocal.withInitial(ResumableFileCopier::new);  // 每个传输线程复用缓冲区
+    private boolean journalReplayed = false;
+    private HandlerThread transferThread;   // 调度线程（重试、过期清理）
     private Handler transferHandler;
     private final AtomicBoolean isRunning;
-    private final AtomicBoolean isProcessing;
+    private volatile int workersPerVolume = 2;
     
     // 配置
     private static final int MAX_RETRY_COUNT = 3;           // 最大重试次数
     private static final long RETRY_DELAY_MS = 5000;        // 重试延迟（毫秒）
-    private static final long TRANSFER_CHECK_INTERVAL_MS = 1000;  // 检查队列间隔
     private static final long STARTUP_CLEANUP_DELAY_MS = 60 * 1000;  // 启动后清理延迟：1分钟
     private static final long TEMP_FILE_EXPIRE_MS = 60 * 60 * 1000;  // 临时文件过期时间：1小时
+    private static final long CHECKPOINT_INTERVAL_BYTES = 8 * 1024 * 1024; // 复制进度写入日志的间隔
+    private static final String JOURNAL_FILE = "transfer.journal";
     
     // 统计
-    private long totalTransferred = 0;      // 已传输文件数
-    private long totalFailed = 0;           // 失败文件数
-    private long totalBytesTransferred = 0; // 已传输字节数
+    private final AtomicLong totalTransferred = new AtomicLong();      // 已传输文件数
+    private final AtomicLong totalFailed = new AtomicLong();           // 失败文件数
+    private final AtomicLong totalBytesTransferred = new AtomicLong(); // 已传输字节数
+    private final AtomicLong totalCopiedBytes = new AtomicLong();      // 跨文件系统复制的字节数
+    private final AtomicLong totalCopyNanos = new AtomicLong();        // 复制耗时
+    private final AtomicLong totalResumedBytes = new AtomicLong();     // 续传省去的字节数
+    private final AtomicLong totalCopyRetries = new AtomicLong();      // U 盘卡顿/出错后的重试次数
+    private final AtomicLong totalQueueWaitMs = new AtomicLong();      // 排队等待时间之和
+    private final AtomicLong totalLatencyMs = new AtomicLong();        // 端到端延迟之和（加入到完成）
+    private final AtomicLong maxLatencyMs = new AtomicLong();          // 最大端到端延迟
     
     private FileTransferManager(Context context) {
         this.context = context.getApplicationContext();
-        this.transferQueue = new ConcurrentLinkedQueue<>();
         this.isRunning = new AtomicBoolean(false);
-        this.isProcessing = new AtomicBoolean(false);
+        this.journal = new TransferJournal(new File(this.context.getFilesDir(), JOURNAL_FILE));
     }
     
     /**
@@ -99,17 +167,42 @@ public class FileTransferManager {
             return;
         }
         
+        reloadSettings();
+        
         transferThread = new HandlerThread("FileTransfer");
         transferThread.start();
         transferHandler = new Handler(transferThread.getLooper());
         
-        // 启动定期检查队列
-        scheduleNextCheck();
+        // 重放上次运行未完成的任务（只在进程内第一次启动时，在日志线程上执行）
+        if (!journalReplayed) {
+            journalReplayed = true;
+            journalExecutor.execute(this::replayJournal);
+        }
+        
+        // 启动停止期间积压了任务的存储卷
+        synchronized (volumes) {
+            for (VolumeWorkers workers : volumes.values()) {
+                if (!workers.queue.isEmpty()) {
+                    workers.ensureStarted(workersPerVolume);
+                }
+            }
+        }
         
         // 启动后1分钟检查并清理过期的临时文件
         transferHandler.postDelayed(this::cleanupExpiredTempFiles, STARTUP_CLEANUP_DELAY_MS);
         
-        AppLog.d(TAG, "File transfer service started");
+        AppLog.d(TAG, "File transfer service started: " + workersPerVolume + " worker(s) per volume, bandwidth limit "
+                + (rateLimiter.isLimited() ? formatSize(rateLimiter.getRate()) + "/s" : "none"));
+    }
+    
+    /**
+     * 重新读取传输线程数和带宽上限设置（设置页修改后调用）
+     * 带宽上限立即生效；线程数增加时在下一个任务入队时补足，减少时在服务重启后生效
+     */
+    public void reloadSettings() {
+        AppConfig appConfig = new AppConfig(context);
+        workersPerVolume = appConfig.getTransferWorkersPerVolume();
+        rateLimiter.setRate(appConfig.getTransferBandwidthLimitMbps() * 1024L * 1024L);
     }
     
     /**
@@ -135,8 +228,16 @@ public class FileTransferManager {
             transferThread = null;
         }
         
-        AppLog.d(TAG, "File transfer service stopped. Stats: transferred=" + totalTransferred + 
-                ", failed=" + totalFailed + ", bytes=" + formatSize(totalBytesTransferred));
+        // 停止传输线程（未处理的任务留在队列中，下次启动继续）
+        List<VolumeWorkers> allWorkers;
+        synchronized (volumes) {
+            allWorkers = new ArrayList<>(volumes.values());
+        }
+        for (VolumeWorkers workers : allWorkers) {
+            workers.stop();
+        }
+        
+        AppLog.d(TAG, "File transfer service stopped. Stats: " + getThroughputSummary());
     }
     
     /**
@@ -154,15 +255,31 @@ public class FileTransferManager {
             return;
         }
         
-        TransferTask task = new TransferTask(sourceFile, targetFile, callback);
-        transferQueue.offer(task);
+        TransferTask task;
+        String key = sourceFile.getAbsolutePath();
+        synchronized (activeTasks) {
+            TransferTask existing = activeTasks.get(key);
+            if (existing != null && existing.targetFile.equals(targetFile)) {
+                // 同一文件已在传输中，合并回调，避免并发复制同一文件
+                if (callback != null) {
+                    existing.callbacks.add(callback);
+                }
+                AppLog.d(TAG, "Transfer task already queued, merged: " + sourceFile.getName());
+                return;
+            }
+            task = new TransferTask(sourceFile, targetFile, callback);
+            activeTasks.put(key, task);
+        }
+        pendingCount.incrementAndGet();
         
         AppLog.d(TAG, "Added transfer task: " + sourceFile.getName() + " -> " + targetFile.getAbsolutePath());
         
-        // 如果服务在运行，立即触发处理
-        if (isRunning.get() && transferHandler != null) {
-            transferHandler.post(this::processQueue);
-        }
+        // 在日志线程上记录加入（fsync）后放入目标存储卷的队列，空闲的传输线程立即被唤醒；
+        // 先记录再入队，开始/完成记录总在加入记录之后
+        journalExecutor.execute(() -> {
+            journal.recordEnqueue(sourceFile, targetFile);
+            enqueue(task);
+        });
     }
     
     /**
@@ -237,34 +354,133 @@ public class FileTransferManager {
      * 获取队列中等待传输的任务数
      */
     public int getQueueSize() {
-        return transferQueue.size();
+        return pendingCount.get();
     }
     
     /**
      * 获取传输统计信息
      */
     public String getStats() {
-        return String.format("已传输: %d 个文件 (%s), 失败: %d, 队列: %d, 临时文件: %d",
-                totalTransferred, formatSize(totalBytesTransferred), 
-                totalFailed, getQueueSize(), getPendingFileCount());
+        return String.format("已传输: %d 个文件 (%s), 失败: %d, 队列: %d, 临时文件: %d, %s",
+                totalTransferred.get(), formatSize(totalBytesTransferred.get()), 
+                totalFailed.get(), getQueueSize(), getPendingFileCount(), getThroughputSummary());
+    }
+    
+    /**
+     * 吞吐量和延迟统计
+     */
+    public String getThroughputSummary() {
+        long count = totalTransferred.get();
+        long copyNanos = totalCopyNanos.get();
+        long copyRate = copyNanos > 0 ? totalCopiedBytes.get() * 1000000000L / copyNanos : 0;
+        return String.format(java.util.Locale.US, "transferred=%d (%s), failed=%d, copy rate=%s/s, avg queue wait=%dms, avg latency=%dms, max latency=%dms, throttled=%dms, resumed=%s, copy retries=%d",
+                count, formatSize(totalBytesTransferred.get()), totalFailed.get(), formatSize(copyRate),
+                count > 0 ? totalQueueWaitMs.get() / count : 0, count > 0 ? totalLatencyMs.get() / count : 0,
+                maxLatencyMs.get(), rateLimiter.getTotalWaitMs(), formatSize(totalResumedBytes.get()),
+                totalCopyRetries.get());
     }
     
     // ===== 私有方法 =====
     
     /**
-     * 调度下一次队列检查
+     * 目标文件所在的存储卷（同一存储卷的任务共享传输线程）
+     * /storage/emulated/0/...、/storage/XXXX-XXXX/...、/mnt/media_rw/XXXX/...，其他情况按目标目录区分
      */
-    private void scheduleNextCheck() {
-        if (!isRunning.get() || transferHandler == null) {
-            return;
+    static String volumeKeyOf(File target) {
+        String path = target.getAbsolutePath();
+        String[] parts = path.split("/");
+        if (parts.length > 3 && "storage".equals(parts[1])) {
+            if ("emulated".equals(parts[2]) && parts.length > 4) {
+                return "/storage/emulated/" + parts[3];
+            }
+            return "/storage/" + parts[2];
         }
-        
-        transferHandler.postDelayed(() -> {
-            if (isRunning.get()) {
-                processQueue();
-                scheduleNextCheck();
+        if (parts.length > 4 && "mnt".equals(parts[1]) && "media_rw".equals(parts[2])) {
+            return "/mnt/media_rw/" + parts[3];
+        }
+        File parent = target.getParentFile();
+        return parent != null ? parent.getAbsolutePath() : path;
+    }
+    
+    /**
+     * 重放传输日志：未完成的任务立即重新加入队列，带上检查点偏移
+     */
+    private void replayJournal() {
+        List<TransferRecovery.Plan> plans = TransferRecovery.replay(journal);
+        if (journal.getDiscardedLineCount() > 0) {
+            AppLog.w(TAG, "Transfer journal: discarded " + journal.getDiscardedLineCount() + " torn record(s)");
+        }
+        int resumed = 0;
+        for (TransferRecovery.Plan plan : plans) {
+            File source = plan.getSourceFile();
+            File target = plan.getTargetFile();
+            if (plan.getAction() == TransferRecovery.ACTION_ALREADY_DONE) {
+                AppLog.d(TAG, "Journal: transfer already finished before crash: " + source.getName());
+                MediaIndex.getInstance(context).move(source, target);
+                continue;
+            }
+            if (plan.getAction() == TransferRecovery.ACTION_SOURCE_LOST) {
+                AppLog.w(TAG, "Journal: source lost, dropping task: " + source.getName());
+                continue;
+            }
+            
+            TransferTask task = new TransferTask(source, target, null);
+            task.resumeOffset = plan.getResumeOffset();
+            synchronized (activeTasks) {
+                if (activeTasks.containsKey(source.getAbsolutePath())) {
+                    continue;
+                }
+                activeTasks.put(source.getAbsolutePath(), task);
+            }
+            pendingCount.incrementAndGet();
+            enqueue(task);
+            resumed++;
+            AppLog.d(TAG, "Journal: resumed transfer " + source.getName()
+                    + (task.resumeOffset > 0 ? " from offset " + formatSize(task.resumeOffset) : ""));
+        }
+        if (resumed > 0) {
+            AppLog.d(TAG, "Transfer journal replayed: " + resumed + " task(s) resumed");
+        }
+    }
+    
+    /**
+     * 把任务放入目标存储卷的队列（服务运行时确保传输线程已启动）
+     */
+    private void enqueue(TransferTask task) {
+        String volumeKey = volumeKeyOf(task.targetFile);
+        VolumeWorkers workers;
+        synchronized (volumes) {
+            workers = volumes.get(volumeKey);
+            if (workers == null) {
+                workers = new VolumeWorkers(volumeKey);
+                volumes.put(volumeKey, workers);
+            }
+        }
+        task.enqueuedMs = System.currentTimeMillis();
+        workers.queue.offer(task);
+        if (isRunning.get()) {
+            workers.ensureStarted(workersPerVolume);
+        }
+    }
+    
+    /**
+     * 传输线程主循环：阻塞等待任务，加入任务即唤醒
+     */
+    private void workerLoop(VolumeWorkers workers) {
+        while (isRunning.get()) {
+            TransferTask task;
+            try {
+                task = workers.queue.take();
+            } catch (InterruptedException e) {
+                break;
             }
-        }, TRANSFER_CHECK_INTERVAL_MS);
+            if (!isRunning.get()) {
+                // 服务停止，将任务放回队列
+                workers.queue.offer(task);
+                break;
+            }
+            processTask(task);
+        }
     }
     
     /**
@@ -287,6 +503,10 @@ public class FileTransferManager {
         long deletedSize = 0;
         
         for (File file : files) {
+            if (journal.getPending(file) != null) {
+                // 仍在传输队列中（可能是上次运行遗留、正在重放的任务）
+                continue;
+            }
             long fileAge = now - file.lastModified();
             if (fileAge > TEMP_FILE_EXPIRE_MS) {
                 long fileSize = file.length();
@@ -303,42 +523,21 @@ public class FileTransferManager {
         }
     }
     
-    /**
-     * 处理传输队列
-     */
-    private void processQueue() {
-        if (!isRunning.get() || isProcessing.getAndSet(true)) {
-            return;
-        }
-        
-        try {
-            TransferTask task;
-            while ((task = transferQueue.poll()) != null) {
-                if (!isRunning.get()) {
-                    // 服务停止，将任务放回队列
-                    transferQueue.offer(task);
-                    break;
-                }
-                
-                processTask(task);
-            }
-        } finally {
-            isProcessing.set(false);
-        }
-    }
-    
     /**
      * 处理单个传输任务
      */
     private void processTask(TransferTask task) {
+        long startMs = System.currentTimeMillis();
+        totalQueueWaitMs.addAndGet(startMs - task.enqueuedMs);
+        
         if (!task.sourceFile.exists()) {
             AppLog.w(TAG, "Source file no longer exists: " + task.sourceFile.getName());
-            if (task.callback != null) {
-                task.callback.onTransferFailed(task.sourceFile, task.targetFile, "Source file not found");
-            }
-            totalFailed++;
+            totalFailed.incrementAndGet();
+            journal.recordFailed(task.sourceFile, "Source file not found");
+            finishTask(task, false, "Source file not found");
             return;
         }
+        journal.recordStart(task.sourceFile);
         
         // 确保目标目录存在
         File targetDir = task.targetFile.getParentFile();
@@ -359,20 +558,18 @@ public class FileTransferManager {
             AppLog.d(TAG, "File moved successfully: " + task.sourceFile.getName() + 
                     " -> " + task.targetFile.getAbsolutePath() + " (" + formatSize(fileSize) + ")");
             
-            totalTransferred++;
-            totalBytesTransferred += fileSize;
-            
-            if (task.callback != null) {
-                task.callback.onTransferComplete(task.sourceFile, task.targetFile);
-            }
+            recordSuccess(task, fileSize);
+            journal.recordDone(task.sourceFile);
+            MediaIndex.getInstance(context).move(task.sourceFile, task.targetFile);
+            finishTask(task, true, null);
         } else {
             // 移动失败（可能跨文件系统），尝试复制
             AppLog.d(TAG, "Move failed, trying copy: " + task.sourceFile.getName());
             
-            boolean copied = copyFile(task.sourceFile, task.targetFile);
+            boolean copied = copyFile(task);
             
             if (copied) {
-                // 复制成功，删除源文件
+                // 复制成功（已校验），删除源文件
                 long fileSize = task.targetFile.length();
                 
                 if (task.sourceFile.delete()) {
@@ -382,12 +579,15 @@ public class FileTransferManager {
                     AppLog.w(TAG, "File copied but failed to delete source: " + task.sourceFile.getName());
                 }
                 
-                totalTransferred++;
-                totalBytesTransferred += fileSize;
-                
-                if (task.callback != null) {
-                    task.callback.onTransferComplete(task.sourceFile, task.targetFile);
-                }
+                recordSuccess(task, fileSize);
+                journal.recordDone(task.sourceFile);
+                MediaIndex.getInstance(context).move(task.sourceFile, task.targetFile);
+                finishTask(task, true, null);
+            } else if (!isRunning.get()) {
+                // 服务停止导致复制中断，放回队列，下次启动从中断位置继续
+                AppLog.d(TAG, "Copy interrupted by stop at " + formatSize(task.resumeOffset) + ", requeued: "
+                        + task.sourceFile.getName());
+                enqueue(task);
             } else {
                 // 复制也失败
                 handleTransferFailure(task, "Copy failed");
@@ -407,73 +607,90 @@ public class FileTransferManager {
                     task.sourceFile.getName() + " - " + error);
             
             // 延迟后重新加入队列
-            if (transferHandler != null) {
-                transferHandler.postDelayed(() -> {
-                    transferQueue.offer(task);
-                }, RETRY_DELAY_MS);
+            Handler handler = transferHandler;
+            if (handler != null) {
+                handler.postDelayed(() -> enqueue(task), RETRY_DELAY_MS);
             }
         } else {
             // 超过重试次数，放弃
             AppLog.e(TAG, "Transfer failed after " + MAX_RETRY_COUNT + " retries: " + 
                     task.sourceFile.getName() + " - " + error);
             
-            totalFailed++;
-            
-            if (task.callback != null) {
-                task.callback.onTransferFailed(task.sourceFile, task.targetFile, error);
+            totalFailed.incrementAndGet();
+            journal.recordFailed(task.sourceFile, error);
+            finishTask(task, false, error);
+        }
+    }
+    
+    /**
+     * 记录成功传输的统计
+     */
+    private void recordSuccess(TransferTask task, long fileSize) {
+        long latencyMs = System.currentTimeMillis() - task.createdMs;
+        totalTransferred.incrementAndGet();
+        totalBytesTransferred.addAndGet(fileSize);
+        totalLatencyMs.addAndGet(latencyMs);
+        long max;
+        while (latencyMs > (max = maxLatencyMs.get()) && !maxLatencyMs.compareAndSet(max, latencyMs)) {
+            // 重试 CAS
+        }
+    }
+    
+    /**
+     * 任务结束：移出去重表，通知所有回调
+     */
+    private void finishTask(TransferTask task, boolean success, String error) {
+        List<TransferCallback> callbacks;
+        synchronized (activeTasks) {
+            String key = task.sourceFile.getAbsolutePath();
+            if (activeTasks.get(key) == task) {
+                activeTasks.remove(key);
+            }
+            callbacks = new ArrayList<>(task.callbacks);
+        }
+        pendingCount.decrementAndGet();
+        for (TransferCallback callback : callbacks) {
+            if (success) {
+                callback.onTransferComplete(task.sourceFile, task.targetFile);
+            } else {
+                callback.onTransferFailed(task.sourceFile, task.targetFile, error);
             }
         }
     }
     
     /**
-     * 复制文件（使用 NIO Channel，效率较高）
+     * 复制文件（可续传、读回校验、CRC32C、完成后 fsync）
+     * 从 task.resumeOffset 续传，U 盘短暂卡顿时从最后可信偏移重试，复制进度定期写入传输日志
      */
-    private boolean copyFile(File source, File target) {
-        FileChannel sourceChannel = null;
-        FileChannel targetChannel = null;
+    private boolean copyFile(TransferTask task) {
+        File source = task.sourceFile;
+        File target = task.targetFile;
         
         try {
-            sourceChannel = new FileInputStream(source).getChannel();
-            targetChannel = new FileOutputStream(target).getChannel();
+            ResumableFileCopier.Result result = TransferRecovery.copy(copiers.get(), journal, source, target,
+                    task.resumeOffset, CHECKPOINT_INTERVAL_BYTES, rateLimiter, offset -> task.resumeOffset = offset);
             
-            long size = sourceChannel.size();
-            long transferred = 0;
-            
-            // 分块传输，避免内存问题
-            final long CHUNK_SIZE = 8 * 1024 * 1024;  // 8MB chunks
-            
-            while (transferred < size) {
-                long remaining = size - transferred;
-                long toTransfer = Math.min(remaining, CHUNK_SIZE);
-                long actualTransferred = sourceChannel.transferTo(transferred, toTransfer, targetChannel);
-                
-                if (actualTransferred == 0) {
-                    // 传输停滞，可能有问题
-                    AppLog.w(TAG, "Transfer stalled at " + transferred + "/" + size);
-                    break;
-                }
-                
-                transferred += actualTransferred;
-            }
-            
-            return transferred == size;
+            totalCopiedBytes.addAndGet(result.bytesWritten);
+            totalCopyNanos.addAndGet(result.elapsedNs);
+            totalResumedBytes.addAndGet(result.resumedFrom);
+            totalCopyRetries.addAndGet(result.retries);
+            long rate = result.elapsedNs > 0 ? result.bytesWritten * 1000000000L / result.elapsedNs : 0;
+            AppLog.d(TAG, "Copy verified: " + source.getName() + ", wrote " + formatSize(result.bytesWritten)
+                    + " at " + formatSize(rate) + "/s"
+                    + (result.resumedFrom > 0 ? ", resumed from " + formatSize(result.resumedFrom) : "")
+                    + (result.prefixMismatch ? ", resume prefix mismatch (recopied)" : "")
+                    + (result.retries > 0 ? ", retries " + result.retries : "")
+                    + ", crc32c " + Long.toHexString(result.crc32c));
+            return true;
             
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            // 服务停止：已校验的部分已记录为检查点，下次继续
+            Thread.currentThread().interrupt();
+            return false;
         } catch (IOException e) {
-            AppLog.e(TAG, "Error copying file: " + source.getName(), e);
-            
-            // 删除可能不完整的目标文件
-            if (target.exists()) {
-                target.delete();
-            }
-            
+            // 已校验的部分已记录为检查点，重试时从最后可信偏移继续（续传前会再次校验）
+            AppLog.e(TAG, "Error copying file: " + source.getName() + " at " + formatSize(task.resumeOffset), e);
             return false;
-        } finally {
-            try {
-                if (sourceChannel != null) sourceChannel.close();
-                if (targetChannel != null) targetChannel.close();
-            } catch (IOException e) {
-                // Ignore
-            }
         }
     }
     
@@ -0,0 +1,292 @@
+package com.kooo.evcam;
+
+import com.kooo.evcam.playback.VideoGroup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按录制组批量删除
+ *
+ * 清理原来按文件逐个删除，可能留下只剩部分摄像头位置的录制组。本类以录制组为单位删除：
+ * 1. 按 VideoGroup.extractTimestampPrefix 把同一时间戳的多路文件分为一组
+ * 2. 按文件名解析的时间戳排序（来自媒体索引，不 stat）
+ * 3. 选中的组按整组打包成批次，在专用 I/O 线程池上并行删除，一个组不会被拆到两个批次
+ * 4. 组内删除失败的文件重试一次，并统计吞吐量
+ * 正在写入的组不参与删除。主分段对应的代理文件（代理目录下的同名文件）计入组大小，随组一起删除。
+ */
+public class GroupDeletionEngine {
+    private static final String TAG = "GroupDeletionEngine";
+
+    private static final int IO_THREADS = 2;           // U 盘删除主要是元数据写入，并行度不宜过高
+    private static final int FILES_PER_BATCH = 64;     // 每个批次的文件数（按整组累计）
+    private static final long IO_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static ExecutorService ioExecutor;
+
+    /**
+     * 录制组（同一时间戳的多路文件）
+     */
+    public static class MediaGroup {
+        private final String key;
+        private final List<MediaIndex.Entry> entries = new ArrayList<>();
+        private final List<MediaIndex.Entry> proxies = new ArrayList<>();
+        private long timestampMs = Long.MAX_VALUE;
+        private long bytes = 0;
+        private boolean recording = false;
+
+        MediaGroup(String key) {
+            this.key = key;
+        }
+
+        void add(MediaIndex.Entry entry) {
+            entries.add(entry);
+            timestampMs = Math.min(timestampMs, entry.getTimestampMs());
+            bytes += entry.getSize();
+            recording |= entry.getState() == MediaIndex.STATE_RECORDING;
+        }
+
+        void addProxy(MediaIndex.Entry proxy) {
+            proxies.add(proxy);
+            bytes += proxy.getSize();
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public List<MediaIndex.Entry> getEntries() {
+            return entries;
+        }
+
+        /** 组内主分段对应的代理文件 */
+        public List<MediaIndex.Entry> getProxies() {
+            return proxies;
+        }
+
+        public long getTimestampMs() {
+            return timestampMs;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /** 是否包含正在写入的文件 */
+        public boolean isRecording() {
+            return recording;
+        }
+    }
+
+    /**
+     * 删除结果
+     */
+    public static class Result {
+        public int deletedGroups;
+        public int deletedFiles;
+        public int failedFiles;
+        public long deletedBytes;
+        public long elapsedMs;
+
+        /** 吞吐量描述（用于日志） */
+        public String formatThroughput() {
+            double seconds = Math.max(elapsedMs, 1) / 1000.0;
+            return String.format(java.util.Locale.US, "%d 组 / %d 个文件，%s，耗时 %dms（%.0f 文件/秒，%s/秒）",
+                    deletedGroups, deletedFiles, StorageHelper.formatSize(deletedBytes), elapsedMs,
+                    deletedFiles / seconds, StorageHelper.formatSize((long) (deletedBytes / seconds)));
+        }
+    }
+
+    private final MediaIndex mediaIndex;
+
+    public GroupDeletionEngine(MediaIndex mediaIndex) {
+        this.mediaIndex = mediaIndex;
+    }
+
+    /**
+     * 把索引条目按时间戳前缀分组，按时间从旧到新排序
+     */
+    public static List<MediaGroup> buildGroups(List<MediaIndex.Entry> entries) {
+        return buildGroups(entries, Collections.emptyList());
+    }
+
+    /**
+     * 把索引条目按时间戳前缀分组，并把代理文件归入同名主分段所在的组
+     * 主分段已不存在的代理文件不归组（由孤立代理清理处理）
+     *
+     * @param proxies 代理目录中的条目
+     */
+    public static List<MediaGroup> buildGroups(List<MediaIndex.Entry> entries, List<MediaIndex.Entry> proxies) {
+        Map<String, MediaGroup> groupMap = new LinkedHashMap<>();
+        for (MediaIndex.Entry entry : entries) {
+            String key = VideoGroup.extractTimestampPrefix(entry.getName());
+            MediaGroup group = groupMap.get(key);
+            if (group == null) {
+                group = new MediaGroup(key);
+                groupMap.put(key, group);
+            }
+            group.add(entry);
+        }
+        if (!proxies.isEmpty()) {
+            Set<String> mainNames = new HashSet<>();
+            for (MediaIndex.Entry entry : entries) {
+                mainNames.add(entry.getName());
+            }
+            for (MediaIndex.Entry proxy : proxies) {
+                MediaGroup group = groupMap.get(VideoGroup.extractTimestampPrefix(proxy.getName()));
+                if (group != null && mainNames.contains(proxy.getName())) {
+                    group.addProxy(proxy);
+                }
+            }
+        }
+        List<MediaGroup> groups = new ArrayList<>(groupMap.values());
+        groups.sort((a, b) -> {
+            int byTime = Long.compare(a.timestampMs, b.timestampMs);
+            return byTime != 0 ? byTime : a.key.compareTo(b.key);
+        });
+        return groups;
+    }
+
+    /**
+     * 从最旧的组开始选取，直到累计大小达到 bytesToFree（跳过正在写入的组）
+     */
+    public static List<MediaGroup> selectOldest(List<MediaGroup> groups, long bytesToFree) {
+        List<MediaGroup> selected = new ArrayList<>();
+        long selectedBytes = 0;
+        for (MediaGroup group : groups) {
+            if (selectedBytes >= bytesToFree) {
+                break;
+            }
+            if (group.isRecording()) {
+                continue;
+            }
+            selected.add(group);
+            selectedBytes += group.bytes;
+        }
+        return selected;
+    }
+
+    /**
+     * 批量删除录制组（阻塞直到全部完成）
+     *
+     * @param groups 要删除的组
+     * @param typeName 类型名称（用于日志）
+     */
+    public Result deleteGroups(List<MediaGroup> groups, String typeName) {
+        Result result = new Result();
+        if (groups.isEmpty()) {
+            return result;
+        }
+        long startMs = System.currentTimeMillis();
+
+        // 按整组打包批次
+        List<List<MediaGroup>> batches = new ArrayList<>();
+        List<MediaGroup> batch = new ArrayList<>();
+        int batchFiles = 0;
+        for (MediaGroup group : groups) {
+            batch.add(group);
+            batchFiles += group.entries.size();
+            if (batchFiles >= FILES_PER_BATCH) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchFiles = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+
+        List<Future<Result>> futures = new ArrayList<>();
+        ExecutorService executor = getIoExecutor();
+        for (List<MediaGroup> groupBatch : batches) {
+            futures.add(executor.submit(() -> deleteBatch(groupBatch, typeName)));
+        }
+        for (Future<Result> future : futures) {
+            try {
+                Result batchResult = future.get();
+                result.deletedGroups += batchResult.deletedGroups;
+                result.deletedFiles += batchResult.deletedFiles;
+                result.failedFiles += batchResult.failedFiles;
+                result.deletedBytes += batchResult.deletedBytes;
+            } catch (Exception e) {
+                AppLog.e(TAG, typeName + "批量删除任务失败", e);
+            }
+        }
+        result.elapsedMs = System.currentTimeMillis() - startMs;
+
+        AppLog.d(TAG, typeName + "批量删除完成（" + batches.size() + " 个批次）：" + result.formatThroughput());
+        if (result.failedFiles > 0) {
+            AppLog.w(TAG, typeName + "有 " + result.failedFiles + " 个文件删除失败");
+        }
+        return result;
+    }
+
+    /**
+     * 删除一个批次（在 I/O 线程上执行）
+     */
+    private Result deleteBatch(List<MediaGroup> groups, String typeName) {
+        Result result = new Result();
+        for (MediaGroup group : groups) {
+            List<MediaIndex.Entry> failed = new ArrayList<>();
+            for (MediaIndex.Entry entry : group.entries) {
+                if (deleteEntry(entry, result)) {
+                    continue;
+                }
+                failed.add(entry);
+            }
+            // 重试一次，避免留下不完整的组
+            for (MediaIndex.Entry entry : failed) {
+                if (!deleteEntry(entry, result)) {
+                    result.failedFiles++;
+                    AppLog.w(TAG, "删除" + typeName + "失败，录制组 " + group.key + " 不完整: " + entry.getName());
+                }
+            }
+            for (MediaIndex.Entry proxy : group.proxies) {
+                if (!deleteEntry(proxy, result) && !deleteEntry(proxy, result)) {
+                    result.failedFiles++;
+                    AppLog.w(TAG, "删除代理文件失败: " + proxy.getName());
+                }
+            }
+            result.deletedGroups++;
+        }
+        return result;
+    }
+
+    private boolean deleteEntry(MediaIndex.Entry entry, Result result) {
+        File file = entry.getFile();
+        if (file.delete() || !file.exists()) {
+            mediaIndex.remove(file);
+            result.deletedFiles++;
+            result.deletedBytes += entry.getSize();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 共享的删除线程池（空闲时线程自动退出）
+     */
+    private static synchronized ExecutorService getIoExecutor() {
+        if (ioExecutor == null) {
+            AtomicInteger threadIndex = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS,
+                    IO_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    r -> new Thread(r, "StorageDelete-" + threadIndex.incrementAndGet()));
+            executor.allowCoreThreadTimeOut(true);
+            ioExecutor = executor;
+        }
+        return ioExecutor;
+    }
+}
@@ -135,6 +135,9 @@ public class KeepAliveReceiver extends BroadcastReceiver {
             case Intent.ACTION_MEDIA_MOUNTED:
                 AppLog.d(TAG, "【存储】存储已挂载（U盘/SD卡插入）");
                 ensureServicesRunning(context, "存储挂载");
+                // 新插入的U盘：重新检测，没有测速记录时后台测速
+                StorageHelper.clearCache();
+                StorageBenchmarkManager.refreshAsync(context);
                 break;
                 
             case Intent.ACTION_MEDIA_UNMOUNTED:
@@ -414,12 +414,19 @@ public class MainActivity extends AppCompatActivity implements WechatRemoteManag
             AppLog.d(TAG, "WakeLock 未获取（开机自启动未开启）");
         }
         
+        // 后台对账媒体索引（修正上次运行后在外部增删的文件）
+        MediaIndex.getInstance(this).reconcileAsync(
+                StorageHelper.getVideoDir(this), StorageHelper.getPhotoDir(this));
+
         // 启动存储清理任务（如果用户设置了限制）
         storageCleanupManager = new StorageCleanupManager(this);
         storageCleanupManager.start();
         
         // 启动文件传输服务（用于U盘中转写入模式）
         FileTransferManager.getInstance(this).start();
+        
+        // 应用当前U盘的测速结果（没有记录时后台测速），决定直接写入/中转写入和码率上限
+        StorageBenchmarkManager.refreshAsync(this);
 
         // 检查是否是开机自启动
         boolean autoStartFromBoot = getIntent().getBooleanExtra("auto_start_from_boot", false);
@@ -1484,6 +1491,20 @@ public class MainActivity extends AppCompatActivity implements WechatRemoteManag
         runOnUiThread(this::updateRecordingStatsDisplay);
     }
     
+    /**
+     * 按当前录制的码率和分段时长预留接下来几个分段的空间（在存储清理线程上执行）
+     */
+    private void reserveRecordingSpace() {
+        if (cameraManager != null) {
+            // 记录录制总码率，U盘测速决策据此判断能否直接写入
+            appConfig.setLastRecordingBitrateTotal(cameraManager.getRecordingBitrateTotal());
+        }
+        if (storageCleanupManager != null && cameraManager != null) {
+            storageCleanupManager.reserveSpaceForRecording(
+                    cameraManager.getRecordingBitrateTotal(), cameraManager.getRecordingSegmentDurationMs());
+        }
+    }
+
     /**
      * 刷新录制状态显示设置（从设置界面返回时调用）
      */
@@ -1576,6 +1597,11 @@ public class MainActivity extends AppCompatActivity implements WechatRemoteManag
                     cameraManager.clearSegmentDurationOverride();
                 }
             }
+            
+            @Override
+            public boolean saveEventClips(String timestamp, long postRollMs, MultiCameraManager.EventClipsCallback callback) {
+                return cameraManager != null && cameraManager.saveEventClips(timestamp, postRollMs, callback) != null;
+            }
         });
         
         // 设置录制状态监听器
@@ -2147,6 +2173,19 @@ public class MainActivity extends AppCompatActivity implements WechatRemoteManag
     
     @Override
     public byte[] capturePreviewFrame() {
+        // 优先使用 ImageReader 抓拍（在后台线程调用，不依赖 TextureView 和屏幕状态）
+        if (cameraManager != null) {
+            for (String position : new String[]{"front", "back", "left", "right"}) {
+                SingleCamera camera = cameraManager.getCamera(position);
+                if (camera != null && camera.isStillCaptureAvailable()) {
+                    byte[] jpeg = camera.captureStillJpeg(1500);
+                    if (jpeg != null) {
+                        return jpeg;
+                    }
+                }
+            }
+        }
+
         // 从第一个可用的 TextureView 捕获预览帧
         android.view.TextureView targetView = null;
         if (textureFront != null && textureFront.isAvailable()) {
@@ -2269,6 +2308,7 @@ public class MainActivity extends AppCompatActivity implements WechatRemoteManag
         // 设置分段切换回调
         cameraManager.setSegmentSwitchCallback(newSegmentIndex -> {
             onSegmentSwitch(newSegmentIndex);
+            reserveRecordingSpace();
         });
 
         // 设置损坏文件删除回调
@@ -2302,6 +2342,7 @@ public class MainActivity extends AppCompatActivity implements WechatRemoteManag
         // 用于在摄像头真正开始输出数据后启动计时器（分段计时、钉钉录制计时等）
         cameraManager.setFirstDataWrittenCallback(() -> {
             AppLog.d(TAG, "收到首次数据写入回调，录制已真正开始");
+            reserveRecordingSpace();
             runOnUiThread(() -> {
                 // 结束"准备中"状态
                 if (isPreparingRecording) {
@@ -5074,6 +5115,14 @@ public class MainActivity extends AppCompatActivity implements WechatRemoteManag
         return instance;
     }
     
+    /**
+     * 当前是否正在录制
+     * 用于 StorageBenchmarkManager 避免在录制期间测速
+     */
+    public boolean isRecordingActive() {
+        return isRecording || (cameraManager != null && cameraManager.isRecording());
+    }
+    
     /**
      * 显示摄像头预览悬浮窗
      * 
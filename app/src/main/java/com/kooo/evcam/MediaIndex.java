@@ -0,0 +1,774 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 媒体索引
+ *
+ * 回放列表、远程上传查找和存储清理原来都要 listFiles() 整个视频/图片目录并逐个 stat，
+ * U 盘上有上万个分段时要好几秒。本索引按目录在内存中维护文件元数据
+ * （时间戳、摄像头位置、大小、修改时间、时长、状态），以追加写日志持久化到内部存储，重启后直接加载：
+ * 1. 分段开始/完成、中转传输完成、拍照保存、删除时由调用方增量更新（markRecording/put/move/remove）
+ * 2. 查询前只 stat 目录本身：修改时间未变直接返回内存结果；变了只列文件名做增量对账，只 stat 新文件
+ * 3. reconcileAsync() 在后台做完整对账（逐个 stat），修正外部改动，启动时和存储清理任务中定期调用
+ * 每个目录同时维护占用大小账本（getTotalSize/getFileCount），读取为 O(1)，不检查目录。
+ * 日志行数超过存活条目两倍时压缩重写。
+ *
+ * 文件名格式为 yyyyMMdd_HHmmss_位置.扩展名，按文件名排序即按时间排序。
+ * 线程安全：所有公开方法均已同步，目录列举和 stat 在锁外执行。
+ */
+public class MediaIndex {
+    private static final String TAG = "MediaIndex";
+
+    private static final String JOURNAL_FILE = "media_index.journal";
+    private static final String JOURNAL_TMP_FILE = "media_index.journal.tmp";
+    private static final int COMPACT_MIN_LINES = 1024;
+
+    // 日志记录类型
+    private static final String OP_PUT = "P";
+    private static final String OP_DELETE = "D";
+    private static final String OP_DIR = "M";
+
+    // 媒体类型
+    public static final int TYPE_OTHER = 0;
+    public static final int TYPE_VIDEO = 1;
+    public static final int TYPE_PHOTO = 2;
+
+    // 状态
+    public static final int STATE_COMPLETE = 0;
+    public static final int STATE_RECORDING = 1;  // 正在写入（清理时跳过）
+
+    /**
+     * 索引条目（返回给调用方的是快照，修改不影响索引）
+     */
+    public static class Entry {
+        private final File file;
+        private final long timestampMs;
+        private long size;
+        private long modifiedMs;
+        private long durationMs;
+        private int state;
+
+        Entry(File file, long timestampMs, long size, long modifiedMs, long durationMs, int state) {
+            this.file = file;
+            this.timestampMs = timestampMs;
+            this.size = size;
+            this.modifiedMs = modifiedMs;
+            this.durationMs = durationMs;
+            this.state = state;
+        }
+
+        Entry copy() {
+            return new Entry(file, timestampMs, size, modifiedMs, durationMs, state);
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getName() {
+            return file.getName();
+        }
+
+        /**
+         * 存储位置（所在目录）
+         */
+        public File getLocation() {
+            return file.getParentFile();
+        }
+
+        public int getType() {
+            return typeOf(file.getName());
+        }
+
+        /**
+         * 摄像头位置（front/back/left/right/mosaic 等），无法识别时返回 null
+         */
+        public String getPosition() {
+            return positionOf(file.getName());
+        }
+
+        /**
+         * 录制/拍摄时间（由文件名解析，失败时为修改时间）
+         */
+        public long getTimestampMs() {
+            return timestampMs;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModifiedMs() {
+            return modifiedMs;
+        }
+
+        /**
+         * 时长（毫秒），0 表示未知
+         */
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public int getState() {
+            return state;
+        }
+    }
+
+    /**
+     * 单个目录的索引
+     */
+    private static class DirIndex {
+        final TreeMap<String, Entry> entries = new TreeMap<>();
+        long dirModifiedMs = -1;  // 上次对账时目录的修改时间，-1 表示从未对账
+        long totalSize = 0;
+    }
+
+    private static MediaIndex instance;
+
+    private final File journalFile;
+    private final File journalTmpFile;
+    private final Map<String, DirIndex> dirs = new HashMap<>();
+    private final ExecutorService reconcileExecutor = Executors.newSingleThreadExecutor();
+    private BufferedWriter journalWriter;
+    private int journalLines = 0;
+    private int liveEntries = 0;
+
+    // 统计
+    private long queryCount = 0;
+    private long incrementalReconciles = 0;
+    private long fullReconciles = 0;
+
+    MediaIndex(File baseDir) {
+        this.journalFile = new File(baseDir, JOURNAL_FILE);
+        this.journalTmpFile = new File(baseDir, JOURNAL_TMP_FILE);
+        load();
+    }
+
+    /**
+     * 获取单例实例（首次调用时加载索引日志）
+     */
+    public static synchronized MediaIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaIndex(context.getApplicationContext().getFilesDir());
+        }
+        return instance;
+    }
+
+    // ==================== 查询 ====================
+
+    /**
+     * 列出目录中的全部条目（按文件名即时间升序）
+     */
+    public List<Entry> list(File dir) {
+        return query(dir, -1, Long.MIN_VALUE, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * 按类型列出目录中的条目（按时间升序）
+     */
+    public List<Entry> list(File dir, int type) {
+        return query(dir, type, Long.MIN_VALUE, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * 按时间范围和摄像头位置查询
+     *
+     * @param dir 目录
+     * @param type 媒体类型，-1 表示不限
+     * @param fromMs 起始时间（含）
+     * @param toMs 结束时间（含）
+     * @param position 摄像头位置，null 表示不限
+     * @return 条目快照（按时间升序）
+     */
+    public List<Entry> query(File dir, int type, long fromMs, long toMs, String position) {
+        if (dir == null) {
+            return new ArrayList<>();
+        }
+        ensureFresh(dir);
+        synchronized (this) {
+            queryCount++;
+            List<Entry> result = new ArrayList<>();
+            DirIndex index = dirs.get(dir.getAbsolutePath());
+            if (index == null) {
+                return result;
+            }
+            for (Entry entry : index.entries.values()) {
+                if (type >= 0 && entry.getType() != type) {
+                    continue;
+                }
+                if (entry.timestampMs < fromMs || entry.timestampMs > toMs) {
+                    continue;
+                }
+                if (position != null && !position.equalsIgnoreCase(entry.getPosition())) {
+                    continue;
+                }
+                result.add(entry.copy());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 按文件名前缀查找（如录制时间戳 yyyyMMdd_HHmmss）
+     *
+     * @param suffix 文件名后缀（如 ".mp4"），null 表示不限
+     */
+    public List<File> findByPrefix(File dir, String prefix, String suffix) {
+        List<File> result = new ArrayList<>();
+        if (dir == null || prefix == null) {
+            return result;
+        }
+        ensureFresh(dir);
+        synchronized (this) {
+            queryCount++;
+            DirIndex index = dirs.get(dir.getAbsolutePath());
+            if (index == null) {
+                return result;
+            }
+            for (Entry entry : index.entries.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+                if (suffix == null || entry.getName().endsWith(suffix)) {
+                    result.add(entry.file);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 目录占用大小（账本值，O(1)）
+     *
+     * 由分段完成、拍照保存、传输完成、删除时的增量更新维护，不列举目录；
+     * 外部改动由后台对账修正。目录从未索引过时同步建立一次索引。
+     */
+    public long getTotalSize(File dir) {
+        if (dir == null) {
+            return 0;
+        }
+        ensureIndexed(dir);
+        synchronized (this) {
+            DirIndex index = dirs.get(dir.getAbsolutePath());
+            return index == null ? 0 : index.totalSize;
+        }
+    }
+
+    /**
+     * 目录文件数（账本值，O(1)）
+     */
+    public int getFileCount(File dir) {
+        if (dir == null) {
+            return 0;
+        }
+        ensureIndexed(dir);
+        synchronized (this) {
+            DirIndex index = dirs.get(dir.getAbsolutePath());
+            return index == null ? 0 : index.entries.size();
+        }
+    }
+
+    // ==================== 增量更新 ====================
+
+    /**
+     * 标记文件开始写入（录制分段创建时调用，文件可能尚不存在）
+     */
+    public void markRecording(File file) {
+        if (file == null) {
+            return;
+        }
+        synchronized (this) {
+            DirIndex index = getOrCreateDir(file.getParentFile());
+            Entry existing = index.entries.get(file.getName());
+            long duration = existing != null ? existing.durationMs : 0;
+            putLocked(index, new Entry(file, parseTimestamp(file.getName(), System.currentTimeMillis()),
+                    file.length(), System.currentTimeMillis(), duration, STATE_RECORDING));
+        }
+    }
+
+    /**
+     * 记录文件已写入完成（分段完成、拍照保存后调用）
+     */
+    public void put(File file) {
+        put(file, 0);
+    }
+
+    /**
+     * 记录文件已写入完成
+     * @param durationMs 时长（毫秒），0 表示未知
+     */
+    public void put(File file, long durationMs) {
+        if (file == null) {
+            return;
+        }
+        // stat 在锁外执行
+        long size = file.length();
+        long modified = file.lastModified();
+        if (size <= 0 && !file.exists()) {
+            remove(file);
+            return;
+        }
+        synchronized (this) {
+            DirIndex index = getOrCreateDir(file.getParentFile());
+            Entry existing = index.entries.get(file.getName());
+            long duration = durationMs > 0 ? durationMs : (existing != null ? existing.durationMs : 0);
+            putLocked(index, new Entry(file, parseTimestamp(file.getName(), modified), size, modified, duration, STATE_COMPLETE));
+        }
+    }
+
+    /**
+     * 把仍处于写入状态的条目标记为完成（停止录制后调用）
+     */
+    public void completeRecordings() {
+        List<File> recording = new ArrayList<>();
+        synchronized (this) {
+            for (DirIndex index : dirs.values()) {
+                for (Entry entry : index.entries.values()) {
+                    if (entry.state == STATE_RECORDING) {
+                        recording.add(entry.file);
+                    }
+                }
+            }
+        }
+        for (File file : recording) {
+            put(file);
+        }
+    }
+
+    /**
+     * 记录文件已移动（中转传输完成后调用）
+     */
+    public void move(File from, File to) {
+        long durationMs = 0;
+        synchronized (this) {
+            DirIndex index = dirs.get(from.getParentFile().getAbsolutePath());
+            if (index != null) {
+                Entry entry = index.entries.get(from.getName());
+                if (entry != null) {
+                    durationMs = entry.durationMs;
+                    removeLocked(index, from.getName());
+                }
+            }
+        }
+        put(to, durationMs);
+    }
+
+    /**
+     * 记录文件已删除
+     */
+    public synchronized void remove(File file) {
+        if (file == null || file.getParentFile() == null) {
+            return;
+        }
+        DirIndex index = dirs.get(file.getParentFile().getAbsolutePath());
+        if (index != null) {
+            removeLocked(index, file.getName());
+        }
+    }
+
+    // ==================== 对账 ====================
+
+    /**
+     * 后台完整对账（逐个 stat，修正大小变化和外部改动）
+     * 在低优先级线程上执行，不与录制和预览争抢 CPU
+     */
+    public void reconcileAsync(File... targetDirs) {
+        reconcileExecutor.execute(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            for (File dir : targetDirs) {
+                if (dir != null) {
+                    reconcile(dir, true);
+                }
+            }
+        });
+    }
+
+    /**
+     * 对账目录
+     *
+     * @param full true 表示 stat 所有文件；false 只 stat 新文件和正在写入的文件
+     */
+    public void reconcile(File dir, boolean full) {
+        if (dir == null || !dir.isDirectory()) {
+            return;
+        }
+        long startMs = System.currentTimeMillis();
+        long dirModified = dir.lastModified();
+
+        // 1. 锁内取已知条目快照
+        Map<String, Entry> known = new HashMap<>();
+        long ledgerSize = 0;
+        synchronized (this) {
+            DirIndex index = dirs.get(dir.getAbsolutePath());
+            if (index != null) {
+                ledgerSize = index.totalSize;
+                for (Entry entry : index.entries.values()) {
+                    known.put(entry.getName(), entry.copy());
+                }
+            }
+        }
+
+        // 2. 锁外列举文件名，只 stat 需要的文件
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        Set<String> present = new HashSet<>(names.length * 2);
+        List<Entry> updates = new ArrayList<>();
+        for (String name : names) {
+            if (name.startsWith(".")) {
+                continue;  // 隐藏文件和子目录（如代理目录）
+            }
+            Entry entry = known.get(name);
+            if (entry != null && !full && entry.state != STATE_RECORDING) {
+                present.add(name);
+                continue;
+            }
+            File file = new File(dir, name);
+            if (!file.isFile()) {
+                continue;
+            }
+            present.add(name);
+            long size = file.length();
+            long modified = file.lastModified();
+            if (entry != null && entry.size == size && entry.modifiedMs == modified) {
+                continue;
+            }
+            int state = entry != null ? entry.state : STATE_COMPLETE;
+            long duration = entry != null ? entry.durationMs : 0;
+            updates.add(new Entry(file, parseTimestamp(name, modified), size, modified, duration, state));
+        }
+
+        // 3. 锁内应用差异
+        int removed = 0;
+        long reconciledSize;
+        synchronized (this) {
+            DirIndex index = getOrCreateDir(dir);
+            for (Entry update : updates) {
+                Entry current = index.entries.get(update.getName());
+                if (current != null && current.state != update.state) {
+                    update.state = current.state;  // 对账期间状态已被更新
+                }
+                putLocked(index, update);
+            }
+            List<String> missing = new ArrayList<>();
+            for (String name : index.entries.keySet()) {
+                if (!present.contains(name) && known.containsKey(name)) {
+                    missing.add(name);
+                }
+            }
+            for (String name : missing) {
+                if (index.entries.get(name).state != STATE_RECORDING) {
+                    removeLocked(index, name);
+                    removed++;
+                }
+            }
+            index.dirModifiedMs = dirModified;
+            reconciledSize = index.totalSize;
+            appendJournal(OP_DIR + "\t" + dir.getAbsolutePath() + "\t" + dirModified);
+            if (full) {
+                fullReconciles++;
+            } else {
+                incrementalReconciles++;
+            }
+            maybeCompact();
+        }
+        AppLog.d(TAG, (full ? "完整" : "增量") + "对账 " + dir.getName() + ": " + names.length + " 个文件，更新 "
+                + updates.size() + "，移除 " + removed + "，账本偏差 " + (reconciledSize - ledgerSize) / 1024 + " KB，耗时 "
+                + (System.currentTimeMillis() - startMs) + "ms");
+    }
+
+    /**
+     * 统计摘要（用于日志）
+     */
+    public synchronized String getStatsSummary() {
+        return "dirs=" + dirs.size() + ", entries=" + liveEntries + ", journal=" + journalLines
+                + ", queries=" + queryCount + ", reconcile(incremental/full)=" + incrementalReconciles + "/" + fullReconciles;
+    }
+
+    // ==================== 文件名解析 ====================
+
+    /**
+     * 按扩展名判断媒体类型
+     */
+    public static int typeOf(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        if (lower.endsWith(".mp4")) {
+            return TYPE_VIDEO;
+        }
+        if (lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png")) {
+            return TYPE_PHOTO;
+        }
+        return TYPE_OTHER;
+    }
+
+    /**
+     * 从文件名提取摄像头位置（最后一个下划线之后、扩展名之前）
+     */
+    public static String positionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        int underscore = base.lastIndexOf('_');
+        if (underscore > 0 && underscore < base.length() - 1) {
+            return base.substring(underscore + 1).toLowerCase(Locale.US);
+        }
+        return null;
+    }
+
+    // ==================== 私有方法 ====================
+
+    /**
+     * 查询前检查目录是否有变化：从未对账时同步对账，修改时间变化时增量对账
+     */
+    private void ensureFresh(File dir) {
+        long dirModified = dir.lastModified();
+        synchronized (this) {
+            DirIndex index = dirs.get(dir.getAbsolutePath());
+            if (index != null && index.dirModifiedMs >= 0 && index.dirModifiedMs == dirModified) {
+                return;
+            }
+        }
+        if (dirModified == 0) {
+            return;  // 目录不存在（如 U 盘已拔出），保留原索引
+        }
+        reconcile(dir, false);
+    }
+
+    /**
+     * 目录从未索引过时同步建立索引（之后只依赖增量更新和后台对账）
+     */
+    private void ensureIndexed(File dir) {
+        synchronized (this) {
+            DirIndex index = dirs.get(dir.getAbsolutePath());
+            if (index != null && index.dirModifiedMs >= 0) {
+                return;
+            }
+        }
+        reconcile(dir, false);
+    }
+
+    private DirIndex getOrCreateDir(File dir) {
+        String key = dir.getAbsolutePath();
+        DirIndex index = dirs.get(key);
+        if (index == null) {
+            index = new DirIndex();
+            dirs.put(key, index);
+        }
+        return index;
+    }
+
+    private void putLocked(DirIndex index, Entry entry) {
+        Entry previous = index.entries.put(entry.getName(), entry);
+        if (previous != null) {
+            index.totalSize -= previous.size;
+        } else {
+            liveEntries++;
+        }
+        index.totalSize += entry.size;
+        appendJournal(OP_PUT + "\t" + entry.file.getAbsolutePath() + "\t" + entry.timestampMs + "\t" + entry.size
+                + "\t" + entry.modifiedMs + "\t" + entry.durationMs + "\t" + entry.state);
+    }
+
+    private void removeLocked(DirIndex index, String name) {
+        Entry previous = index.entries.remove(name);
+        if (previous == null) {
+            return;
+        }
+        index.totalSize -= previous.size;
+        liveEntries--;
+        appendJournal(OP_DELETE + "\t" + previous.file.getAbsolutePath());
+    }
+
+    /**
+     * 解析文件名开头的 yyyyMMdd_HHmmss（本地时区）
+     * 直接按位解析数字，不使用共享的 SimpleDateFormat（查询、对账和录制线程会并发调用）
+     */
+    static long parseTimestamp(String name, long fallbackMs) {
+        if (name.length() < 15 || name.charAt(8) != '_') {
+            return fallbackMs;
+        }
+        int year = parseDigits(name, 0, 4);
+        int month = parseDigits(name, 4, 6);
+        int day = parseDigits(name, 6, 8);
+        int hour = parseDigits(name, 9, 11);
+        int minute = parseDigits(name, 11, 13);
+        int second = parseDigits(name, 13, 15);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return fallbackMs;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * 解析 [start, end) 范围内的十进制数字，含非数字字符时返回 -1
+     */
+    private static int parseDigits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * 加载索引日志（重放 P/D/M 记录）
+     * 目录修改时间不变时直接可用
+     */
+    private void load() {
+        long startMs = System.currentTimeMillis();
+        if (journalFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    journalLines++;
+                    replay(line);
+                }
+            } catch (IOException e) {
+                AppLog.e(TAG, "读取媒体索引失败，将重新对账", e);
+                dirs.clear();
+                liveEntries = 0;
+            }
+        }
+        // 上次运行中断时遗留的写入中条目：只 stat 这几个文件，存在则标记完成，否则移除
+        for (DirIndex index : dirs.values()) {
+            List<Entry> recording = new ArrayList<>();
+            for (Entry entry : index.entries.values()) {
+                if (entry.state == STATE_RECORDING) {
+                    recording.add(entry);
+                }
+            }
+            for (Entry entry : recording) {
+                if (entry.file.isFile()) {
+                    putLocked(index, new Entry(entry.file, entry.timestampMs, entry.file.length(),
+                            entry.file.lastModified(), entry.durationMs, STATE_COMPLETE));
+                } else {
+                    removeLocked(index, entry.getName());
+                }
+            }
+        }
+        AppLog.d(TAG, "媒体索引已加载: " + liveEntries + " 个条目，" + dirs.size() + " 个目录，耗时 "
+                + (System.currentTimeMillis() - startMs) + "ms");
+        maybeCompact();
+    }
+
+    private void replay(String line) {
+        String[] parts = line.split("\t");
+        try {
+            if (OP_PUT.equals(parts[0]) && parts.length >= 7) {
+                File file = new File(parts[1]);
+                DirIndex index = getOrCreateDir(file.getParentFile());
+                Entry entry = new Entry(file, Long.parseLong(parts[2]), Long.parseLong(parts[3]),
+                        Long.parseLong(parts[4]), Long.parseLong(parts[5]), Integer.parseInt(parts[6]));
+                Entry previous = index.entries.put(file.getName(), entry);
+                if (previous != null) {
+                    index.totalSize -= previous.size;
+                } else {
+                    liveEntries++;
+                }
+                index.totalSize += entry.size;
+            } else if (OP_DELETE.equals(parts[0]) && parts.length >= 2) {
+                File file = new File(parts[1]);
+                DirIndex index = dirs.get(file.getParentFile().getAbsolutePath());
+                if (index != null) {
+                    Entry previous = index.entries.remove(file.getName());
+                    if (previous != null) {
+                        index.totalSize -= previous.size;
+                        liveEntries--;
+                    }
+                }
+            } else if (OP_DIR.equals(parts[0]) && parts.length >= 3) {
+                getOrCreateDir(new File(parts[1])).dirModifiedMs = Long.parseLong(parts[2]);
+            }
+        } catch (RuntimeException e) {
+            // 断电留下的半行，忽略
+        }
+    }
+
+    private void appendJournal(String line) {
+        try {
+            if (journalWriter == null) {
+                journalWriter = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+            }
+            journalWriter.write(line);
+            journalWriter.write('\n');
+            journalWriter.flush();
+            journalLines++;
+        } catch (IOException e) {
+            AppLog.w(TAG, "写入媒体索引失败: " + e.getMessage());
+            closeJournal();
+        }
+    }
+
+    /**
+     * 日志行数远多于存活条目时重写为快照
+     */
+    private void maybeCompact() {
+        if (journalLines < COMPACT_MIN_LINES || journalLines < liveEntries * 2 + dirs.size()) {
+            return;
+        }
+        closeJournal();
+        int lines = 0;
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journalTmpFile), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, DirIndex> dir : dirs.entrySet()) {
+                for (Entry entry : dir.getValue().entries.values()) {
+                    writer.write(OP_PUT + "\t" + entry.file.getAbsolutePath() + "\t" + entry.timestampMs + "\t" + entry.size
+                            + "\t" + entry.modifiedMs + "\t" + entry.durationMs + "\t" + entry.state + "\n");
+                    lines++;
+                }
+                writer.write(OP_DIR + "\t" + dir.getKey() + "\t" + dir.getValue().dirModifiedMs + "\n");
+                lines++;
+            }
+        } catch (IOException e) {
+            AppLog.w(TAG, "压缩媒体索引失败: " + e.getMessage());
+            journalTmpFile.delete();
+            return;
+        }
+        if (journalTmpFile.renameTo(journalFile)) {
+            AppLog.d(TAG, "媒体索引已压缩: " + journalLines + " -> " + lines + " 行");
+            journalLines = lines;
+        } else {
+            journalTmpFile.delete();
+        }
+    }
+
+    private void closeJournal() {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            journalWriter = null;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.kooo.evcam;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * 可续传、带校验的分块复制
+ *
+ * 车机上的 U 盘经常短暂卡顿或报 I/O 错误，原来的 transferTo 复制遇到停滞就放弃并删除目标，100MB 以上的分段要整个重新复制。
+ * 本类：
+ * 1. 按块读源文件、写目标文件，每块写完后读回目标，与源数据一致才推进“最后可信偏移”，
+ *    同时对源数据和读回的目标数据各自流式计算 CRC32C
+ * 2. 停滞（写入无进展）或 I/O 错误时等待片刻，重新打开目标，从最后可信偏移重试
+ * 3. 续传时先对比源和目标已有部分的 CRC32C，不一致（如断电后检查点之后的数据没落盘）则从头复制
+ * 4. 复制完成后 fsync，比较源和目标整个文件的 CRC32C，写入路径上的损坏不会静默通过
+ *
+ * 局限：读回发生在 fsync 之前，读到的通常是内核页缓存而不是 U 盘介质上的数据。它能发现写入路径上
+ * （驱动、文件系统、短写）造成的不一致，但不能发现介质本身写坏；fsync 之后重新读取也同样命中页缓存，
+ * Java 层无法绕过（没有 O_DIRECT），因此不再额外读第二遍。
+ *
+ * 本类不依赖 Android API，可在 JVM 上验证。每个实例同一时间只用于一次复制（缓冲区复用）。
+ */
+public class ResumableFileCopier {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int DEFAULT_MAX_RETRIES = 5;             // 无进展的连续重试次数上限
+    private static final long DEFAULT_RETRY_DELAY_MS = 500;       // 首次重试等待，之后翻倍
+    private static final long MAX_RETRY_DELAY_MS = 8000;
+
+    /**
+     * 复制过程回调
+     */
+    public interface Callback {
+        /** 写入每块之前调用（用于限速），可被中断 */
+        void beforeChunk(long bytes) throws InterruptedException;
+
+        /** 最后可信偏移推进后调用（用于记录检查点） */
+        void onProgress(long verifiedOffset);
+    }
+
+    /**
+     * 复制结果
+     */
+    public static class Result {
+        public long size;
+        public long resumedFrom;        // 续传起点（0 表示从头复制）
+        public long bytesWritten;       // 本次实际写入的字节数
+        public int retries;             // 停滞/错误重试次数
+        public int chunkMismatches;     // 读回校验不一致的块数
+        public boolean prefixMismatch;  // 续传前缀校验不一致，已从头复制
+        public long crc32c;             // 整个文件的 CRC32C
+        public long elapsedNs;
+    }
+
+    private final int chunkSize;
+    private final int maxRetries;
+    private final long retryDelayMs;
+    private final ByteBuffer sourceBuffer;
+    private final ByteBuffer verifyBuffer;
+
+    public ResumableFileCopier() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_RETRIES, DEFAULT_RETRY_DELAY_MS);
+    }
+
+    public ResumableFileCopier(int chunkSize, int maxRetries, long retryDelayMs) {
+        this.chunkSize = chunkSize;
+        this.maxRetries = maxRetries;
+        this.retryDelayMs = retryDelayMs;
+        this.sourceBuffer = ByteBuffer.allocateDirect(chunkSize);
+        this.verifyBuffer = ByteBuffer.allocateDirect(chunkSize);
+    }
+
+    /**
+     * 复制 source 到 target，从 resumeOffset 续传（会先校验已有部分）
+     *
+     * @throws IOException 重试次数用尽或最终校验失败（已写入的可信部分保留，可再次续传）
+     * @throws InterruptedException 复制被中断（已写入的可信部分保留）
+     */
+    public Result copy(File source, File target, long resumeOffset, Callback callback)
+            throws IOException, InterruptedException {
+        long startNs = System.nanoTime();
+        Result result = new Result();
+
+        try (FileChannel sourceChannel = new FileInputStream(source).getChannel()) {
+            long size = sourceChannel.size();
+            result.size = size;
+            CRC32C sourceCrc = new CRC32C();
+            CRC32C targetCrc = new CRC32C();
+            long offset = 0;
+            FileChannel targetChannel = openTarget(target);
+            try {
+                // 续传：核对已有部分
+                long resumeAt = Math.min(Math.max(resumeOffset, 0), Math.min(size, targetChannel.size()));
+                if (resumeAt > 0) {
+                    checksum(sourceChannel, 0, resumeAt, sourceCrc, sourceBuffer);
+                    checksum(targetChannel, 0, resumeAt, targetCrc, verifyBuffer);
+                    if (sourceCrc.getValue() == targetCrc.getValue()) {
+                        offset = resumeAt;
+                        result.resumedFrom = resumeAt;
+                    } else {
+                        result.prefixMismatch = true;
+                        sourceCrc.reset();
+                        targetCrc.reset();
+                    }
+                }
+                // 丢弃可信偏移之后的数据
+                targetChannel.truncate(offset);
+                if (callback != null) {
+                    callback.onProgress(offset);
+                }
+
+                int failures = 0;
+                while (offset < size) {
+                    int length = (int) Math.min(chunkSize, size - offset);
+                    if (callback != null) {
+                        callback.beforeChunk(length);
+                    }
+                    try {
+                        readFully(sourceChannel, sourceBuffer, offset, length);
+                        writeChunk(targetChannel, sourceBuffer, offset);
+                        // 读回的是页缓存（见类注释中的局限）
+                        readFully(targetChannel, verifyBuffer, offset, length);
+                        if (!sourceBuffer.equals(verifyBuffer)) {
+                            result.chunkMismatches++;
+                            throw new IOException("Read-back mismatch at offset " + offset);
+                        }
+                    } catch (ClosedByInterruptException e) {
+                        throw e;
+                    } catch (IOException e) {
+                        failures++;
+                        result.retries++;
+                        if (failures > maxRetries) {
+                            throw new IOException("Copy stalled at " + offset + "/" + size + " after "
+                                    + maxRetries + " retries: " + e.getMessage(), e);
+                        }
+                        // 等待 U 盘恢复，重新打开目标，从最后可信偏移继续
+                        Thread.sleep(Math.min(retryDelayMs << (failures - 1), MAX_RETRY_DELAY_MS));
+                        closeQuietly(targetChannel);
+                        targetChannel = openTarget(target);
+                        targetChannel.truncate(offset);
+                        continue;
+                    }
+                    sourceCrc.update(sourceBuffer);
+                    targetCrc.update(verifyBuffer);
+                    offset += length;
+                    result.bytesWritten += length;
+                    failures = 0;
+                    if (callback != null) {
+                        callback.onProgress(offset);
+                    }
+                }
+
+                targetChannel.force(true);
+
+                // 最终校验：目标整体 CRC32C 与源一致
+                if (targetChannel.size() != size || targetCrc.getValue() != sourceCrc.getValue()) {
+                    throw new IOException("CRC32C mismatch after copy: source=" + Long.toHexString(sourceCrc.getValue())
+                            + ", target=" + Long.toHexString(targetCrc.getValue()));
+                }
+                result.crc32c = sourceCrc.getValue();
+            } finally {
+                closeQuietly(targetChannel);
+            }
+        }
+        result.elapsedNs = System.nanoTime() - startNs;
+        return result;
+    }
+
+    /**
+     * 写入一块（buffer 位于 [0, limit)），可在测试中覆盖以模拟卡顿的存储
+     */
+    protected void writeChunk(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+        ByteBuffer data = buffer.duplicate();
+        data.rewind();
+        long writePosition = position;
+        while (data.hasRemaining()) {
+            int written = target.write(data, writePosition);
+            if (written <= 0) {
+                throw new IOException("Write stalled at " + writePosition);
+            }
+            writePosition += written;
+        }
+    }
+
+    protected FileChannel openTarget(File target) throws IOException {
+        return new RandomAccessFile(target, "rw").getChannel();
+    }
+
+    // ===== 私有方法 =====
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length)
+            throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read <= 0) {
+                throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+    }
+
+    private void checksum(FileChannel channel, long from, long to, CRC32C crc, ByteBuffer buffer)
+            throws IOException {
+        long position = from;
+        while (position < to) {
+            int length = (int) Math.min(chunkSize, to - position);
+            readFully(channel, buffer, position, length);
+            crc.update(buffer);
+            position += length;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
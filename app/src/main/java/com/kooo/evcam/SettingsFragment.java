@@ -32,8 +32,11 @@ import androidx.fragment.app.FragmentTransaction;
 
 import com.google.android.material.switchmaterial.SwitchMaterial;
 
+import com.kooo.evcam.camera.FrameChangeDetector;
+
 import java.io.File;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * 软件设置界面 Fragment
@@ -85,6 +88,28 @@ public class SettingsFragment extends Fragment {
     private boolean isInitializingSegmentDuration = false;
     private int lastAppliedSegmentDuration = -1;
     
+    // 预录缓冲配置相关
+    private Spinner preEventSpinner;
+    private static final String[] PRE_EVENT_OPTIONS = {"关闭", "10秒", "20秒", "30秒"};
+    private static final int[] PRE_EVENT_SECONDS = {0, 10, 20, 30};
+    private boolean isInitializingPreEvent = false;
+    
+    // 延时录影配置相关
+    private Spinner timelapseSpinner;
+    private static final String[] TIMELAPSE_OPTIONS = {"关闭", "每1秒", "每2秒", "每5秒", "每10秒", "每30秒"};
+    private static final int[] TIMELAPSE_SECONDS = {0, 1, 2, 5, 10, 30};
+    private boolean isInitializingTimelapse = false;
+    
+    // 中转传输配置
+    private Spinner transferWorkersSpinner;
+    private static final String[] TRANSFER_WORKERS_OPTIONS = {"1 个线程", "2 个线程", "3 个线程", "4 个线程"};
+    private static final int[] TRANSFER_WORKERS_VALUES = {1, 2, 3, 4};
+    private boolean isInitializingTransferWorkers = false;
+    private Spinner transferBandwidthSpinner;
+    private static final String[] TRANSFER_BANDWIDTH_OPTIONS = {"不限制", "5 MB/s", "10 MB/s", "20 MB/s", "40 MB/s"};
+    private static final int[] TRANSFER_BANDWIDTH_MBPS = {0, 5, 10, 20, 40};
+    private boolean isInitializingTransferBandwidth = false;
+    
     // 存储位置配置相关
     private Spinner storageLocationSpinner;
     private TextView storageLocationDescText;
@@ -163,12 +188,27 @@ public class SettingsFragment extends Fragment {
             // 初始化分段时长配置
             initSegmentDurationConfig(view);
             
+            // 初始化预录缓冲配置
+            initPreEventConfig(view);
+            
+            // 初始化延时录影配置
+            initTimelapseConfig(view);
+            
+            // 初始化 MediaCodec 录制选项开关
+            initCodecOptionSwitches(view);
+            
+            // 初始化远程画面变化检测开关
+            initFrameChangeDetectionSwitch(view);
+            
             // 初始化录制摄像头选择配置
             initRecordingCameraSelectionConfig(view);
             
             // 初始化存储位置配置
             initStorageLocationConfig(view);
             
+            // 初始化中转传输配置
+            initTransferConfig(view);
+            
             // 初始化存储清理配置
             initStorageCleanupConfig(view);
         }
@@ -1063,6 +1103,195 @@ public class SettingsFragment extends Fragment {
         });
     }
     
+    /**
+     * 初始化预录缓冲配置
+     */
+    private void initPreEventConfig(View view) {
+        preEventSpinner = view.findViewById(R.id.spinner_pre_event);
+        
+        if (preEventSpinner == null || getContext() == null) {
+            return;
+        }
+        
+        isInitializingPreEvent = true;
+        
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(
+                getContext(),
+                R.layout.spinner_item,
+                PRE_EVENT_OPTIONS
+        );
+        adapter.setDropDownViewResource(R.layout.spinner_dropdown_item);
+        preEventSpinner.setAdapter(adapter);
+        
+        preEventSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (isInitializingPreEvent) {
+                    return;
+                }
+                
+                int seconds = PRE_EVENT_SECONDS[position];
+                if (seconds == appConfig.getPreEventSeconds()) {
+                    return;
+                }
+                
+                appConfig.setPreEventSeconds(seconds);
+                
+                if (getContext() != null) {
+                    String message = seconds > 0
+                            ? "预录缓冲已设置为「" + PRE_EVENT_OPTIONS[position] + "」，下次录制生效"
+                            : "预录缓冲已关闭，下次录制生效";
+                    Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+                }
+            }
+            
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        
+        // 根据当前配置设置选中项（取不超过当前值的最大选项）
+        int currentSeconds = appConfig.getPreEventSeconds();
+        int selectedIndex = 0;
+        for (int i = 0; i < PRE_EVENT_SECONDS.length; i++) {
+            if (PRE_EVENT_SECONDS[i] <= currentSeconds) {
+                selectedIndex = i;
+            }
+        }
+        preEventSpinner.setSelection(selectedIndex);
+        
+        preEventSpinner.post(() -> {
+            isInitializingPreEvent = false;
+        });
+    }
+    
+    /**
+     * 初始化延时录影配置
+     */
+    private void initTimelapseConfig(View view) {
+        timelapseSpinner = view.findViewById(R.id.spinner_timelapse);
+        
+        if (timelapseSpinner == null || getContext() == null) {
+            return;
+        }
+        
+        isInitializingTimelapse = true;
+        
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(
+                getContext(),
+                R.layout.spinner_item,
+                TIMELAPSE_OPTIONS
+        );
+        adapter.setDropDownViewResource(R.layout.spinner_dropdown_item);
+        timelapseSpinner.setAdapter(adapter);
+        
+        timelapseSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (isInitializingTimelapse) {
+                    return;
+                }
+                
+                int seconds = TIMELAPSE_SECONDS[position];
+                if (seconds == appConfig.getTimelapseIntervalSeconds()) {
+                    return;
+                }
+                
+                appConfig.setTimelapseIntervalSeconds(seconds);
+                
+                if (getContext() != null) {
+                    String message = seconds > 0
+                            ? "延时录影已设置为「" + TIMELAPSE_OPTIONS[position] + "取一帧」，下次录制生效"
+                            : "延时录影已关闭，下次录制生效";
+                    Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+                }
+            }
+            
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        
+        // 根据当前配置设置选中项（取不超过当前值的最大选项）
+        int currentSeconds = appConfig.getTimelapseIntervalSeconds();
+        int selectedIndex = 0;
+        for (int i = 0; i < TIMELAPSE_SECONDS.length; i++) {
+            if (TIMELAPSE_SECONDS[i] <= currentSeconds) {
+                selectedIndex = i;
+            }
+        }
+        timelapseSpinner.setSelection(selectedIndex);
+        
+        timelapseSpinner.post(() -> {
+            isInitializingTimelapse = false;
+        });
+    }
+    
+    /**
+     * 初始化 MediaCodec 录制选项开关（均在下次录制时生效）
+     */
+    private void initCodecOptionSwitches(View view) {
+        initOptionSwitch(view, R.id.switch_seamless_segment, "无缝分段切换",
+                appConfig.isSeamlessSegmentSwitchEnabled(), appConfig::setSeamlessSegmentSwitchEnabled);
+        initOptionSwitch(view, R.id.switch_fragmented_mp4, "断电保护封装",
+                appConfig.isFragmentedMp4Enabled(), appConfig::setFragmentedMp4Enabled);
+        initOptionSwitch(view, R.id.switch_shared_gl_context, "共享渲染线程",
+                appConfig.isSharedGlContextEnabled(), appConfig::setSharedGlContextEnabled);
+        initOptionSwitch(view, R.id.switch_mosaic_recording, "拼接录制",
+                appConfig.isMosaicRecordingEnabled(), appConfig::setMosaicRecordingEnabled);
+        initOptionSwitch(view, R.id.switch_async_encoder, "异步编码输出",
+                appConfig.isAsyncEncoderEnabled(), appConfig::setAsyncEncoderEnabled);
+        initOptionSwitch(view, R.id.switch_adaptive_bitrate, "自适应码率",
+                appConfig.isAdaptiveBitrateEnabled(), appConfig::setAdaptiveBitrateEnabled);
+        initOptionSwitch(view, R.id.switch_watermark_glyph_atlas, "水印字形图集",
+                appConfig.isWatermarkGlyphAtlasEnabled(), appConfig::setWatermarkGlyphAtlasEnabled);
+        initOptionSwitch(view, R.id.switch_still_capture, "ImageReader 抓拍",
+                appConfig.isStillCaptureEnabled(), appConfig::setStillCaptureEnabled);
+    }
+    
+    /**
+     * 初始化远程画面变化检测开关（微信预览流和心跳推图共用，开启时使用默认阈值）
+     */
+    private void initFrameChangeDetectionSwitch(View view) {
+        SwitchMaterial frameChangeSwitch = view.findViewById(R.id.switch_frame_change_detection);
+        if (frameChangeSwitch == null) {
+            return;
+        }
+        frameChangeSwitch.setChecked(appConfig.getFrameChangeThreshold() > 0);
+        frameChangeSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (getContext() != null && appConfig != null) {
+                appConfig.setFrameChangeThreshold(isChecked ? FrameChangeDetector.DEFAULT_THRESHOLD : 0);
+                String message = isChecked ? "画面变化检测已开启" : "画面变化检测已关闭";
+                Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+                AppLog.d("SettingsFragment", message);
+            }
+        });
+        initOptionSwitch(view, R.id.switch_motion_analysis, "运动检测",
+                appConfig.isMotionAnalysisEnabled(), appConfig::setMotionAnalysisEnabled);
+        initOptionSwitch(view, R.id.switch_proxy_stream, "代理子码流",
+                appConfig.isProxyStreamEnabled(), appConfig::setProxyStreamEnabled);
+    }
+    
+    /**
+     * 初始化一个选项开关：显示当前值，切换时保存并提示下次录制生效
+     */
+    private void initOptionSwitch(View view, int switchId, String name, boolean checked,
+                                  Consumer<Boolean> setter) {
+        SwitchMaterial optionSwitch = view.findViewById(switchId);
+        if (optionSwitch == null) {
+            return;
+        }
+        optionSwitch.setChecked(checked);
+        optionSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (getContext() != null && appConfig != null) {
+                setter.accept(isChecked);
+                String message = name + (isChecked ? "已开启" : "已关闭") + "，下次录制生效";
+                Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+                AppLog.d("SettingsFragment", message);
+            }
+        });
+    }
+    
     /**
      * 初始化录制摄像头选择配置
      */
@@ -1284,6 +1513,19 @@ public class SettingsFragment extends Fragment {
                         String pathDesc = StorageHelper.getCurrentStoragePathDesc(getContext());
                         AppLog.d("SettingsFragment", "存储位置已切换为: " + newLocation + "，路径: " + pathDesc);
                     }).start();
+                    
+                    // 切换到U盘时测速，决定直接写入/中转写入和码率上限
+                    if (AppConfig.STORAGE_EXTERNAL_SD.equals(newLocation)) {
+                        StorageBenchmarkManager.runAsync(getContext(), (result, decision, error) -> {
+                            if (getActivity() == null) return;
+                            getActivity().runOnUiThread(() -> {
+                                if (getContext() == null) return;
+                                String message = decision != null ? "U盘测速完成：" + decision.reason
+                                        : "U盘测速失败：" + error;
+                                Toast.makeText(getContext(), message, Toast.LENGTH_LONG).show();
+                            });
+                        });
+                    }
                 }
             }
             
@@ -1594,6 +1836,128 @@ public class SettingsFragment extends Fragment {
                 .show();
     }
     
+    /**
+     * 初始化中转传输配置（U盘自动存储模式、每个存储卷的传输线程数、复制带宽上限）
+     */
+    private void initTransferConfig(View view) {
+        SwitchMaterial autoStorageModeSwitch = view.findViewById(R.id.switch_auto_storage_mode);
+        if (autoStorageModeSwitch != null) {
+            autoStorageModeSwitch.setChecked(appConfig.isAutoStorageModeEnabled());
+            autoStorageModeSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+                if (getContext() != null && appConfig != null) {
+                    appConfig.setAutoStorageModeEnabled(isChecked);
+                    String message = isChecked ? "U盘自动存储模式已开启，下次录制生效" : "U盘自动存储模式已关闭，下次录制使用中转写入";
+                    Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+                    AppLog.d("SettingsFragment", message);
+                }
+            });
+        }
+        
+        transferWorkersSpinner = view.findViewById(R.id.spinner_transfer_workers);
+        transferBandwidthSpinner = view.findViewById(R.id.spinner_transfer_bandwidth);
+        
+        if (transferWorkersSpinner == null || transferBandwidthSpinner == null || getContext() == null) {
+            return;
+        }
+        
+        isInitializingTransferWorkers = true;
+        isInitializingTransferBandwidth = true;
+        
+        ArrayAdapter<String> workersAdapter = new ArrayAdapter<>(
+                getContext(),
+                R.layout.spinner_item,
+                TRANSFER_WORKERS_OPTIONS
+        );
+        workersAdapter.setDropDownViewResource(R.layout.spinner_dropdown_item);
+        transferWorkersSpinner.setAdapter(workersAdapter);
+        
+        ArrayAdapter<String> bandwidthAdapter = new ArrayAdapter<>(
+                getContext(),
+                R.layout.spinner_item,
+                TRANSFER_BANDWIDTH_OPTIONS
+        );
+        bandwidthAdapter.setDropDownViewResource(R.layout.spinner_dropdown_item);
+        transferBandwidthSpinner.setAdapter(bandwidthAdapter);
+        
+        transferWorkersSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (isInitializingTransferWorkers) {
+                    return;
+                }
+                
+                int workers = TRANSFER_WORKERS_VALUES[position];
+                if (workers == appConfig.getTransferWorkersPerVolume()) {
+                    return;
+                }
+                
+                appConfig.setTransferWorkersPerVolume(workers);
+                if (getContext() != null) {
+                    FileTransferManager.getInstance(getContext()).reloadSettings();
+                    Toast.makeText(getContext(), "中转传输线程数已设置为「" + TRANSFER_WORKERS_OPTIONS[position] + "」",
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+            
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        
+        transferBandwidthSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (isInitializingTransferBandwidth) {
+                    return;
+                }
+                
+                int mbps = TRANSFER_BANDWIDTH_MBPS[position];
+                if (mbps == appConfig.getTransferBandwidthLimitMbps()) {
+                    return;
+                }
+                
+                appConfig.setTransferBandwidthLimitMbps(mbps);
+                if (getContext() != null) {
+                    FileTransferManager.getInstance(getContext()).reloadSettings();
+                    String message = mbps > 0
+                            ? "中转复制带宽上限已设置为「" + TRANSFER_BANDWIDTH_OPTIONS[position] + "」"
+                            : "中转复制带宽已不限制";
+                    Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+                }
+            }
+            
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        
+        // 根据当前配置设置选中项（取不超过当前值的最大选项）
+        int currentWorkers = appConfig.getTransferWorkersPerVolume();
+        int workersIndex = 0;
+        for (int i = 0; i < TRANSFER_WORKERS_VALUES.length; i++) {
+            if (TRANSFER_WORKERS_VALUES[i] <= currentWorkers) {
+                workersIndex = i;
+            }
+        }
+        transferWorkersSpinner.setSelection(workersIndex);
+        
+        int currentMbps = appConfig.getTransferBandwidthLimitMbps();
+        int bandwidthIndex = 0;
+        for (int i = 0; i < TRANSFER_BANDWIDTH_MBPS.length; i++) {
+            if (TRANSFER_BANDWIDTH_MBPS[i] <= currentMbps) {
+                bandwidthIndex = i;
+            }
+        }
+        transferBandwidthSpinner.setSelection(bandwidthIndex);
+        
+        transferWorkersSpinner.post(() -> {
+            isInitializingTransferWorkers = false;
+        });
+        transferBandwidthSpinner.post(() -> {
+            isInitializingTransferBandwidth = false;
+        });
+    }
+    
     /**
      * 初始化存储清理配置
      */
@@ -0,0 +1,184 @@
+package com.kooo.evcam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 存储空间预留规划器
+ *
+ * 定时清理只在超过限制或低于 3GB 后才反应，4 路高码率录制时下一个分段可能在清理之前就 ENOSPC。
+ * 本类按当前录制的总码率和分段时长估算接下来 K 个分段需要的字节数，
+ * 在分段切换时提前删除最旧的录制组（同一时间戳的多路文件），保证下一个分段总有空间写入：
+ *   需要释放 = max(预留 - 可用空间, 已用 + 预留 - 用户限制)
+ *
+ * 文件系统通过 Storage 接口访问，本类不依赖 Android API，可在 JVM 上用模拟文件系统验证。
+ * 非线程安全：应只在存储清理线程上调用。
+ */
+public class SpaceReservationPlanner {
+
+    /** 默认预留的分段数（正在写入的分段 + 下一个分段） */
+    public static final int DEFAULT_SEGMENTS_AHEAD = 2;
+
+    /** 默认额外余量（容器开销、码率波动、代理流等） */
+    public static final double DEFAULT_OVERHEAD_RATIO = 0.15;
+
+    /**
+     * 可删除的录制组（同一时间戳的多路文件，整体删除）
+     */
+    public static class Group {
+        private final String key;
+        private final long bytes;
+
+        public Group(String key, long bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * 文件系统访问接口
+     */
+    public interface Storage {
+        /** 存储设备可用空间（字节），-1 表示未知 */
+        long getAvailableBytes();
+
+        /** 录制目录已用大小（字节） */
+        long getUsedBytes();
+
+        /** 可删除的录制组，最旧的在前（不含正在写入的组） */
+        List<Group> getGroupsOldestFirst();
+
+        /**
+         * 批量删除录制组（一次调用删除全部选中的组）
+         * @return 实际释放的字节数
+         */
+        long deleteGroups(List<Group> groups);
+    }
+
+    /**
+     * 规划结果
+     */
+    public static class Result {
+        public long reservationBytes;  // 需要预留的字节数
+        public long needToFreeBytes;   // 需要释放的字节数
+        public long freedBytes;        // 实际释放的字节数
+        public int deletedGroups;      // 删除的组数
+        public List<String> deletedKeys = new ArrayList<>();
+
+        /** 预留是否已满足 */
+        public boolean isSatisfied() {
+            return freedBytes >= needToFreeBytes;
+        }
+    }
+
+    private final int segmentsAhead;
+    private final double overheadRatio;
+
+    public SpaceReservationPlanner() {
+        this(DEFAULT_SEGMENTS_AHEAD, DEFAULT_OVERHEAD_RATIO);
+    }
+
+    /**
+     * @param segmentsAhead 预留的分段数
+     * @param overheadRatio 额外余量比例
+     */
+    public SpaceReservationPlanner(int segmentsAhead, double overheadRatio) {
+        if (segmentsAhead <= 0 || overheadRatio < 0) {
+            throw new IllegalArgumentException("invalid reservation params: " + segmentsAhead + " segments, overhead " + overheadRatio);
+        }
+        this.segmentsAhead = segmentsAhead;
+        this.overheadRatio = overheadRatio;
+    }
+
+    /**
+     * 一个分段的预计大小
+     * @param totalBitrateBps 所有摄像头码率之和（bps）
+     * @param segmentDurationMs 分段时长（毫秒）
+     */
+    public static long estimateSegmentBytes(long totalBitrateBps, long segmentDurationMs) {
+        if (totalBitrateBps <= 0 || segmentDurationMs <= 0) {
+            return 0;
+        }
+        return totalBitrateBps / 8 * segmentDurationMs / 1000;
+    }
+
+    /**
+     * 接下来 K 个分段需要预留的字节数（含余量）
+     */
+    public long computeReservationBytes(long totalBitrateBps, long segmentDurationMs) {
+        long segmentBytes = estimateSegmentBytes(totalBitrateBps, segmentDurationMs);
+        return (long) (segmentBytes * segmentsAhead * (1 + overheadRatio));
+    }
+
+    /**
+     * 计算需要释放的字节数（不删除）
+     *
+     * @param availableBytes 可用空间，-1 表示未知（只按用户限制计算）
+     * @param usedBytes 录制目录已用大小
+     * @param limitBytes 用户设置的存储限制，0 表示不限制
+     */
+    public static long computeNeedToFree(long reservationBytes, long availableBytes, long usedBytes, long limitBytes) {
+        long needToFree = 0;
+        if (availableBytes >= 0) {
+            needToFree = Math.max(needToFree, reservationBytes - availableBytes);
+        }
+        if (limitBytes > 0) {
+            needToFree = Math.max(needToFree, usedBytes + reservationBytes - limitBytes);
+        }
+        return needToFree;
+    }
+
+    /**
+     * 确保预留空间：空间不足时按从旧到新选取录制组，直到累计大小足够或没有可删除的组，然后一次批量删除
+     *
+     * @param storage 文件系统
+     * @param totalBitrateBps 所有摄像头码率之和（bps）
+     * @param segmentDurationMs 分段时长（毫秒）
+     * @param limitBytes 用户设置的存储限制，0 表示不限制
+     */
+    public Result reserve(Storage storage, long totalBitrateBps, long segmentDurationMs, long limitBytes) {
+        Result result = new Result();
+        result.reservationBytes = computeReservationBytes(totalBitrateBps, segmentDurationMs);
+        if (result.reservationBytes <= 0) {
+            return result;
+        }
+        result.needToFreeBytes = computeNeedToFree(result.reservationBytes,
+                storage.getAvailableBytes(), storage.getUsedBytes(), limitBytes);
+        if (result.needToFreeBytes <= 0) {
+            return result;
+        }
+
+        List<Group> groups = storage.getGroupsOldestFirst();
+        List<Group> selected = new ArrayList<>();
+        long selectedBytes = 0;
+        for (Group group : groups == null ? Collections.<Group>emptyList() : groups) {
+            if (selectedBytes >= result.needToFreeBytes) {
+                break;
+            }
+            selected.add(group);
+            selectedBytes += group.getBytes();
+        }
+        if (selected.isEmpty()) {
+            return result;
+        }
+        result.freedBytes = storage.deleteGroups(selected);
+        result.deletedGroups = selected.size();
+        for (Group group : selected) {
+            result.deletedKeys.add(group.getKey());
+        }
+        return result;
+    }
+
+    public int getSegmentsAhead() {
+        return segmentsAhead;
+    }
+}
@@ -0,0 +1,308 @@
+package com.kooo.evcam;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 存储写入性能测试
+ *
+ * 原来只根据是否检测到U盘决定录制路径，不知道U盘能否承受多路同时录制的写入速率。本类在目标目录写一个临时文件测量：
+ * 1. 顺序写入速率（按块写入，定期 fsync，计入 fsync 时间，得到持续写入速率而不是页缓存速率）
+ * 2. 每块 write 的延迟分布（p50/p99/最大值），反映U盘写入卡顿的长尾
+ * 3. 小块写入 + fsync 的延迟分布
+ * 写入块大小和偏移都按 4KB 对齐，使用 direct buffer。测完删除临时文件。
+ *
+ * decide() 根据测速结果和录制总码率决定直接写入U盘还是中转写入，并给出码率上限。
+ * I/O 通过 IoBackend 进行，可在测试中替换为模拟的慢速存储。
+ *
+ * 本类不依赖 Android API，可在 JVM 上验证。
+ */
+public class StorageBenchmark {
+
+    public static final String SCRATCH_FILE_NAME = ".evcam_benchmark.tmp";
+
+    private static final int BLOCK_SIZE = 4096;
+    public static final long DEFAULT_SCRATCH_BYTES = 32L * 1024 * 1024;
+    public static final int DEFAULT_CHUNK_BYTES = 1024 * 1024;
+    private static final int DEFAULT_FSYNC_SAMPLES = 16;
+    private static final long SYNC_INTERVAL_BYTES = 8L * 1024 * 1024;   // 顺序写入阶段的 fsync 间隔
+
+    // 决策参数
+    private static final double SUSTAINABLE_FRACTION = 0.7;             // 录制只用测得速率的 70%（文件系统元数据、中转复制、清理删除）
+    private static final long DIRECT_WRITE_MAX_CHUNK_P99_US = 200000;   // 直接写入允许的单块写入 p99 延迟
+    private static final long DIRECT_WRITE_MAX_FSYNC_P99_US = 500000;   // 直接写入允许的 fsync p99 延迟
+    public static final int MIN_STREAM_BITRATE_BPS = 500000;            // 码率上限不会把单路压到此值以下
+
+    /**
+     * 存储 I/O 接口（默认使用 FileChannel，测试中可替换）
+     */
+    public interface IoBackend {
+        ScratchFile create(File file) throws IOException;
+    }
+
+    /**
+     * 测速用的临时文件
+     */
+    public interface ScratchFile extends Closeable {
+        /** 在 position 处写入 data 的全部剩余字节 */
+        void write(ByteBuffer data, long position) throws IOException;
+
+        void sync() throws IOException;
+
+        /** 关闭并删除 */
+        void delete();
+    }
+
+    /**
+     * 默认实现：RandomAccessFile + FileChannel
+     */
+    public static class FileChannelBackend implements IoBackend {
+        @Override
+        public ScratchFile create(File file) throws IOException {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            final FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+            return new ScratchFile() {
+                @Override
+                public void write(ByteBuffer data, long position) throws IOException {
+                    long writePosition = position;
+                    while (data.hasRemaining()) {
+                        writePosition += channel.write(data, writePosition);
+                    }
+                }
+
+                @Override
+                public void sync() throws IOException {
+                    channel.force(false);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    raf.close();
+                }
+
+                @Override
+                public void delete() {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                    file.delete();
+                }
+            };
+        }
+    }
+
+    /**
+     * 测速结果（可序列化保存）
+     */
+    public static class Result {
+        public long measuredAtMs;
+        public long writeBytesPerSec;   // 持续顺序写入速率
+        public long chunkP50Us;         // 单块 write 延迟
+        public long chunkP99Us;
+        public long chunkMaxUs;
+        public long fsyncP50Us;         // 小块写入 + fsync 延迟
+        public long fsyncP99Us;
+        public long fsyncMaxUs;
+        public long durationMs;
+
+        /** 序列化为一行文本（用于 SharedPreferences 缓存） */
+        public String encode() {
+            return "v1," + measuredAtMs + "," + writeBytesPerSec + "," + chunkP50Us + "," + chunkP99Us + "," + chunkMaxUs
+                    + "," + fsyncP50Us + "," + fsyncP99Us + "," + fsyncMaxUs + "," + durationMs;
+        }
+
+        /** 解析 encode() 的输出，格式不对返回 null */
+        public static Result decode(String text) {
+            if (text == null) {
+                return null;
+            }
+            String[] parts = text.split(",");
+            if (parts.length != 10 || !"v1".equals(parts[0])) {
+                return null;
+            }
+            try {
+                Result result = new Result();
+                result.measuredAtMs = Long.parseLong(parts[1]);
+                result.writeBytesPerSec = Long.parseLong(parts[2]);
+                result.chunkP50Us = Long.parseLong(parts[3]);
+                result.chunkP99Us = Long.parseLong(parts[4]);
+                result.chunkMaxUs = Long.parseLong(parts[5]);
+                result.fsyncP50Us = Long.parseLong(parts[6]);
+                result.fsyncP99Us = Long.parseLong(parts[7]);
+                result.fsyncMaxUs = Long.parseLong(parts[8]);
+                result.durationMs = Long.parseLong(parts[9]);
+                return result;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /** 结果描述（用于日志和调试信息） */
+        public String describe() {
+            return String.format(Locale.US, "写入 %.1f MB/s，块延迟 p50 %dms / p99 %dms / 最大 %dms，fsync p50 %dms / p99 %dms，耗时 %dms",
+                    writeBytesPerSec / (1024.0 * 1024.0), chunkP50Us / 1000, chunkP99Us / 1000, chunkMaxUs / 1000,
+                    fsyncP50Us / 1000, fsyncP99Us / 1000, durationMs);
+        }
+    }
+
+    /**
+     * 录制路径决策
+     */
+    public static class Decision {
+        public final boolean directWrite;       // true：直接写入U盘；false：中转写入
+        public final long bitrateCeilingBps;    // 录制总码率上限（所有路合计）
+        public final String reason;
+
+        Decision(boolean directWrite, long bitrateCeilingBps, String reason) {
+            this.directWrite = directWrite;
+            this.bitrateCeilingBps = bitrateCeilingBps;
+            this.reason = reason;
+        }
+    }
+
+    private final IoBackend backend;
+    private final long scratchBytes;
+    private final int chunkBytes;
+    private final int fsyncSamples;
+
+    public StorageBenchmark() {
+        this(new FileChannelBackend(), DEFAULT_SCRATCH_BYTES, DEFAULT_CHUNK_BYTES, DEFAULT_FSYNC_SAMPLES);
+    }
+
+    /**
+     * @param chunkBytes 顺序写入的块大小（向上对齐到 4KB）
+     */
+    public StorageBenchmark(IoBackend backend, long scratchBytes, int chunkBytes, int fsyncSamples) {
+        this.backend = backend;
+        this.chunkBytes = alignUp(Math.max(chunkBytes, BLOCK_SIZE));
+        this.scratchBytes = Math.max(alignUp(scratchBytes), this.chunkBytes);
+        this.fsyncSamples = Math.max(1, fsyncSamples);
+    }
+
+    /**
+     * 在 dir 中运行测速（阻塞，写入约 scratchBytes 字节）
+     */
+    public Result run(File dir) throws IOException {
+        long startNs = nanoTime();
+        ByteBuffer chunk = ByteBuffer.allocateDirect(chunkBytes);
+        // 随机数据，避免带压缩/去重的控制器测出虚高的速率
+        byte[] pattern = new byte[chunkBytes];
+        new Random(startNs).nextBytes(pattern);
+        chunk.put(pattern);
+
+        Result result = new Result();
+        ScratchFile file = backend.create(new File(dir, SCRATCH_FILE_NAME));
+        try {
+            // 1. 顺序写入
+            int chunks = (int) (scratchBytes / chunkBytes);
+            long[] chunkLatencies = new long[chunks];
+            long position = 0;
+            long unsyncedBytes = 0;
+            long writeStartNs = nanoTime();
+            for (int i = 0; i < chunks; i++) {
+                chunk.clear();
+                long chunkStartNs = nanoTime();
+                file.write(chunk, position);
+                chunkLatencies[i] = (nanoTime() - chunkStartNs) / 1000;
+                position += chunkBytes;
+                unsyncedBytes += chunkBytes;
+                if (unsyncedBytes >= SYNC_INTERVAL_BYTES) {
+                    file.sync();
+                    unsyncedBytes = 0;
+                }
+            }
+            file.sync();
+            long writeNs = Math.max(nanoTime() - writeStartNs, 1);
+            result.writeBytesPerSec = position * 1000000000L / writeNs;
+            Arrays.sort(chunkLatencies);
+            result.chunkP50Us = percentile(chunkLatencies, 0.50);
+            result.chunkP99Us = percentile(chunkLatencies, 0.99);
+            result.chunkMaxUs = chunkLatencies[chunkLatencies.length - 1];
+
+            // 2. 小块写入 + fsync（在文件开头按 4KB 对齐覆盖写）
+            long[] fsyncLatencies = new long[fsyncSamples];
+            for (int i = 0; i < fsyncSamples; i++) {
+                chunk.clear();
+                chunk.limit(BLOCK_SIZE);
+                long syncStartNs = nanoTime();
+                file.write(chunk, (long) i * BLOCK_SIZE);
+                file.sync();
+                fsyncLatencies[i] = (nanoTime() - syncStartNs) / 1000;
+            }
+            Arrays.sort(fsyncLatencies);
+            result.fsyncP50Us = percentile(fsyncLatencies, 0.50);
+            result.fsyncP99Us = percentile(fsyncLatencies, 0.99);
+            result.fsyncMaxUs = fsyncLatencies[fsyncLatencies.length - 1];
+        } finally {
+            file.delete();
+        }
+        result.durationMs = (nanoTime() - startNs) / 1000000L;
+        result.measuredAtMs = System.currentTimeMillis();
+        return result;
+    }
+
+    /**
+     * 根据测速结果决定录制路径和码率上限
+     *
+     * @param requiredBitrateBps 录制总码率（所有路合计）
+     */
+    public static Decision decide(Result result, long requiredBitrateBps) {
+        long ceiling = (long) (result.writeBytesPerSec * 8 * SUSTAINABLE_FRACTION);
+        String speed = String.format(Locale.US, "可持续写入 %.1f Mbps，需要 %.1f Mbps",
+                ceiling / 1000000.0, requiredBitrateBps / 1000000.0);
+        if (ceiling < requiredBitrateBps) {
+            return new Decision(false, ceiling, speed + "，速度不足：中转写入并限制码率");
+        }
+        if (result.chunkP99Us > DIRECT_WRITE_MAX_CHUNK_P99_US || result.fsyncP99Us > DIRECT_WRITE_MAX_FSYNC_P99_US) {
+            return new Decision(false, ceiling, speed + "，写入延迟长尾过高（块 p99 " + result.chunkP99Us / 1000
+                    + "ms，fsync p99 " + result.fsyncP99Us / 1000 + "ms）：中转写入");
+        }
+        return new Decision(true, ceiling, speed + "，延迟稳定：直接写入");
+    }
+
+    /**
+     * 按码率总上限限制单路码率（总上限按路数平分，单路不低于 MIN_STREAM_BITRATE_BPS）
+     * 上限只会降低码率：配置码率本来就低于下限时保持不变
+     *
+     * @param totalCeilingBps 录制总码率上限，0 表示不限制
+     */
+    public static int capStreamBitrate(int bitrate, long totalCeilingBps, int streamCount) {
+        if (totalCeilingBps <= 0 || streamCount <= 0) {
+            return bitrate;
+        }
+        long perStream = Math.max(totalCeilingBps / streamCount, MIN_STREAM_BITRATE_BPS);
+        return (int) Math.min(bitrate, perStream);
+    }
+
+    /**
+     * 当前时间（纳秒），可在测试中覆盖
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    // ===== 私有方法 =====
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static int alignUp(int value) {
+        return (value + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    private static long alignUp(long value) {
+        return (value + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+}
@@ -0,0 +1,236 @@
+package com.kooo.evcam;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * U盘测速调度
+ *
+ * U盘挂载和应用启动时检查当前U盘是否有测速记录（按存储卷 UUID 缓存），没有或已过期则在后台测速；
+ * 也可以按需测速（切换到U盘存储时）。测速会连续写入几十 MB 并多次 fsync，录制期间不测速：
+ * 自动测速推迟到录制停止后，按需测速直接返回失败。测速结果通过 StorageBenchmark.decide() 转为存储决策保存到 AppConfig：
+ * - 直接写入 / 中转写入（AppConfig.shouldUseRelayWrite）
+ * - 录制总码率上限（MultiCameraManager 按路数平分）
+ */
+public class StorageBenchmarkManager {
+    private static final String TAG = "StorageBenchmarkManager";
+
+    private static final long DEFAULT_REQUIRED_BITRATE_BPS = 4 * 8000000L;        // 从未录制过时按 4 路 8Mbps 估算
+    private static final long RESULT_MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;      // 测速结果 30 天后重新测
+    private static final long START_DELAY_MS = 30 * 1000;                         // 自动测速延迟：等开机自动录制先启动
+    private static final long DEFER_RETRY_MS = 60 * 1000;                         // 录制中时每分钟重新检查一次
+
+    private static ScheduledExecutorService executor;
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+    private static final AtomicBoolean refreshPending = new AtomicBoolean(false);
+
+    /**
+     * 测速完成回调（在后台线程调用）
+     */
+    public interface Callback {
+        /**
+         * @param result 测速结果，失败时为 null
+         * @param decision 存储决策，失败时为 null
+         * @param error 失败原因，成功时为 null
+         */
+        void onBenchmarkComplete(StorageBenchmark.Result result, StorageBenchmark.Decision decision, String error);
+    }
+
+    /**
+     * U盘挂载或应用启动时调用：应用当前U盘的缓存结果，没有或已过期时后台测速
+     * 测速延迟启动，且录制期间推迟到录制停止后；多次调用只保留一个待执行的测速
+     */
+    public static void refreshAsync(Context context) {
+        Context appContext = context.getApplicationContext();
+        submit(() -> {
+            File dir = getBenchmarkDir(appContext);
+            if (dir == null) {
+                return;
+            }
+            AppConfig appConfig = new AppConfig(appContext);
+            String uuid = getVolumeUuid(appContext, dir);
+            StorageBenchmark.Result cached = StorageBenchmark.Result.decode(appConfig.getStorageBenchmark(uuid));
+            if (cached != null && System.currentTimeMillis() - cached.measuredAtMs < RESULT_MAX_AGE_MS) {
+                applyDecision(appConfig, uuid, cached);
+                return;
+            }
+            // 新U盘：测速完成前按未测速处理（中转写入，不限码率）
+            appConfig.setUsbStorageDecision(false, 0);
+            if (refreshPending.compareAndSet(false, true)) {
+                schedule(() -> runDeferredRefresh(appContext), START_DELAY_MS);
+            }
+        });
+    }
+
+    /**
+     * 按需测速（忽略缓存）
+     */
+    public static void runAsync(Context context, Callback callback) {
+        Context appContext = context.getApplicationContext();
+        submit(() -> {
+            File dir = getBenchmarkDir(appContext);
+            if (dir == null) {
+                if (callback != null) {
+                    callback.onBenchmarkComplete(null, null, "未检测到U盘");
+                }
+                return;
+            }
+            if (isRecordingActive()) {
+                if (callback != null) {
+                    callback.onBenchmarkComplete(null, null, "正在录制，停止录制后再测速");
+                }
+                return;
+            }
+            runBenchmark(appContext, dir, getVolumeUuid(appContext, dir), callback);
+        });
+    }
+
+    /**
+     * 测速结果描述（用于存储调试信息）
+     */
+    public static List<String> getDebugInfo(Context context) {
+        List<String> info = new ArrayList<>();
+        AppConfig appConfig = new AppConfig(context);
+        File root = StorageHelper.getExternalSdCardRoot(context);
+        if (root == null) {
+            info.add("未检测到U盘");
+            return info;
+        }
+        String uuid = getVolumeUuid(context, root);
+        info.add("存储卷: " + uuid);
+        StorageBenchmark.Result result = StorageBenchmark.Result.decode(appConfig.getStorageBenchmark(uuid));
+        if (result == null) {
+            info.add(running.get() ? "测速中..." : "未测速");
+        } else {
+            info.add(result.describe());
+            info.add(StorageBenchmark.decide(result, getRequiredBitrate(appConfig)).reason);
+        }
+        info.add("自动模式: " + (appConfig.isAutoStorageModeEnabled() ? "启用" : "禁用")
+                + "，当前: " + (appConfig.shouldUseRelayWrite() ? "中转写入" : "直接写入"));
+        return info;
+    }
+
+    // ===== 私有方法 =====
+
+    /**
+     * 延迟的自动测速：仍在录制时稍后再检查，U盘已拔出或已有结果（按需测速完成）时放弃
+     */
+    private static void runDeferredRefresh(Context context) {
+        if (isRecordingActive()) {
+            AppLog.d(TAG, "正在录制，U盘测速推迟到录制停止后");
+            schedule(() -> runDeferredRefresh(context), DEFER_RETRY_MS);
+            return;
+        }
+        refreshPending.set(false);
+        File dir = getBenchmarkDir(context);
+        if (dir == null) {
+            return;
+        }
+        String uuid = getVolumeUuid(context, dir);
+        AppConfig appConfig = new AppConfig(context);
+        StorageBenchmark.Result cached = StorageBenchmark.Result.decode(appConfig.getStorageBenchmark(uuid));
+        if (cached != null && System.currentTimeMillis() - cached.measuredAtMs < RESULT_MAX_AGE_MS) {
+            return;
+        }
+        runBenchmark(context, dir, uuid, null);
+    }
+
+    /**
+     * 是否正在录制（MainActivity 未运行时不会录制）
+     */
+    private static boolean isRecordingActive() {
+        MainActivity activity = MainActivity.getInstance();
+        return activity != null && activity.isRecordingActive();
+    }
+
+    private static void runBenchmark(Context context, File dir, String uuid, Callback callback) {
+        if (!running.compareAndSet(false, true)) {
+            if (callback != null) {
+                callback.onBenchmarkComplete(null, null, "测速正在进行");
+            }
+            return;
+        }
+        try {
+            AppLog.d(TAG, "开始U盘测速: " + dir.getAbsolutePath() + " (" + uuid + ")");
+            StorageBenchmark.Result result = new StorageBenchmark().run(dir);
+            AppConfig appConfig = new AppConfig(context);
+            appConfig.setStorageBenchmark(uuid, result.encode());
+            StorageBenchmark.Decision decision = applyDecision(appConfig, uuid, result);
+            AppLog.d(TAG, "U盘测速完成: " + result.describe());
+            if (callback != null) {
+                callback.onBenchmarkComplete(result, decision, null);
+            }
+        } catch (Exception e) {
+            AppLog.e(TAG, "U盘测速失败", e);
+            if (callback != null) {
+                callback.onBenchmarkComplete(null, null, e.getMessage());
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private static StorageBenchmark.Decision applyDecision(AppConfig appConfig, String uuid, StorageBenchmark.Result result) {
+        StorageBenchmark.Decision decision = StorageBenchmark.decide(result, getRequiredBitrate(appConfig));
+        appConfig.setUsbStorageDecision(decision.directWrite, decision.bitrateCeilingBps);
+        AppLog.d(TAG, "U盘 " + uuid + " 存储决策: " + decision.reason);
+        return decision;
+    }
+
+    private static long getRequiredBitrate(AppConfig appConfig) {
+        long last = appConfig.getLastRecordingBitrateTotal();
+        return last > 0 ? last : DEFAULT_REQUIRED_BITRATE_BPS;
+    }
+
+    /**
+     * 测速目录：U盘上的视频目录（没有U盘时返回 null，不测内部存储）
+     */
+    private static File getBenchmarkDir(Context context) {
+        if (!StorageHelper.hasExternalSdCard(context)) {
+            return null;
+        }
+        File dir = StorageHelper.getVideoDir(context, true);
+        return dir.exists() && dir.canWrite() ? dir : null;
+    }
+
+    /**
+     * 存储卷 UUID（取不到时使用挂载点名称，如 /storage/ABCD-1234 的 ABCD-1234）
+     */
+    static String getVolumeUuid(Context context, File path) {
+        try {
+            StorageManager storageManager = context.getSystemService(StorageManager.class);
+            StorageVolume volume = storageManager != null ? storageManager.getStorageVolume(path) : null;
+            if (volume != null && volume.getUuid() != null) {
+                return volume.getUuid();
+            }
+        } catch (Exception e) {
+            AppLog.w(TAG, "获取存储卷 UUID 失败: " + e.getMessage());
+        }
+        String volumeKey = FileTransferManager.volumeKeyOf(new File(path, "x"));
+        return new File(volumeKey).getName();
+    }
+
+    private static void submit(Runnable task) {
+        schedule(task, 0);
+    }
+
+    private static synchronized void schedule(Runnable task, long delayMs) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "StorageBenchmark"));
+        }
+        executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+}
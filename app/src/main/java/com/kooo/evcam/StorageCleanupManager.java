@@ -7,9 +7,9 @@ import android.widget.Toast;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -22,7 +22,9 @@ import java.util.concurrent.TimeUnit;
  * - 冷启动30秒后执行首次检测
  * - 每隔1小时执行定期检测
  * - 支持分别设置视频和图片的存储限制（GB）
- * - 删除时额外删除20%，避免频繁删除
+ * - 删除时额外删除20%，避免频繁删除；按录制组整体删除，不留下不完整的组
+ * - 占用大小读取媒体索引的账本（O(1)，包含代理目录），超过限制时才列出文件；完整扫描改为低优先级定期对账
+ * - 录制中每个分段切换时预留接下来几个分段的空间（提前删除最旧的录制组）
  */
 public class StorageCleanupManager {
     private static final String TAG = "StorageCleanupManager";
@@ -30,6 +32,7 @@ public class StorageCleanupManager {
     // 定时任务延迟
     private static final long INITIAL_DELAY_MS = 30 * 1000;  // 冷启动后30秒
     private static final long PERIODIC_INTERVAL_MS = 60 * 60 * 1000;  // 每1小时
+    private static final long RECONCILE_INTERVAL_MS = 6 * 60 * 60 * 1000;  // 占用账本每6小时完整对账一次
     
     // 额外删除比例（20%）
     private static final double EXTRA_DELETE_RATIO = 0.20;
@@ -45,6 +48,9 @@ public class StorageCleanupManager {
     
     private final Context context;
     private final AppConfig appConfig;
+    private final MediaIndex mediaIndex;
+    private final GroupDeletionEngine deletionEngine;
+    private final SpaceReservationPlanner reservationPlanner = new SpaceReservationPlanner();
     private ScheduledExecutorService scheduler;
     private Handler mainHandler;
     private boolean isRunning = false;
@@ -52,6 +58,8 @@ public class StorageCleanupManager {
     public StorageCleanupManager(Context context) {
         this.context = context.getApplicationContext();
         this.appConfig = new AppConfig(context);
+        this.mediaIndex = MediaIndex.getInstance(context);
+        this.deletionEngine = new GroupDeletionEngine(mediaIndex);
         this.mainHandler = new Handler(Looper.getMainLooper());
     }
     
@@ -80,6 +88,14 @@ public class StorageCleanupManager {
             TimeUnit.MILLISECONDS
         );
         
+        // 定期在后台完整对账，修正账本与实际文件的偏差（外部删除、损坏文件清理等）
+        scheduler.scheduleWithFixedDelay(
+            this::reconcileUsageLedger,
+            RECONCILE_INTERVAL_MS,
+            RECONCILE_INTERVAL_MS,
+            TimeUnit.MILLISECONDS
+        );
+        
         AppLog.d(TAG, "存储清理任务已启动：30秒后首次检测，之后每1小时检测一次");
         AppLog.d(TAG, "视频限制: " + appConfig.getVideoStorageLimitGb() + " GB, 图片限制: " + appConfig.getPhotoStorageLimitGb() + " GB");
     }
@@ -132,9 +148,43 @@ public class StorageCleanupManager {
             }
         }
         
+        // 清理主视频已删除的代理文件
+        cleanupOrphanProxies();
+        
         AppLog.d(TAG, "存储清理检测完成");
     }
     
+    /**
+     * 删除主视频已不存在的低分辨率代理文件
+     * 代理文件与主分段同名，主分段可能还在中转临时目录中
+     */
+    private void cleanupOrphanProxies() {
+        File proxyDir = StorageHelper.getVideoProxyDir(context);
+        File[] proxies = proxyDir.listFiles(File::isFile);
+        if (proxies == null || proxies.length == 0) {
+            return;
+        }
+        File videoDir = StorageHelper.getVideoDir(context);
+        File tempDir = new File(context.getCacheDir(), FileTransferManager.TEMP_VIDEO_DIR);
+        int deletedCount = 0;
+        long deletedSize = 0;
+        for (File proxy : proxies) {
+            String name = proxy.getName();
+            if (new File(videoDir, name).exists() || new File(tempDir, name).exists()) {
+                continue;
+            }
+            long size = proxy.length();
+            if (proxy.delete()) {
+                mediaIndex.remove(proxy);
+                deletedCount++;
+                deletedSize += size;
+            }
+        }
+        if (deletedCount > 0) {
+            AppLog.d(TAG, "清理代理文件: " + deletedCount + " 个，释放 " + StorageHelper.formatSize(deletedSize));
+        }
+    }
+    
     /**
      * 内部存储低空间时强制清理
      * 当使用内部存储且可用空间低于3GB时，强制清理20%的已用空间
@@ -190,15 +240,16 @@ public class StorageCleanupManager {
             return result;
         }
         
-        File[] files = directory.listFiles(File::isFile);
-        if (files == null || files.length == 0) {
+        // 按录制组（同一时间戳的多路文件）整体删除，按文件名中的时间排序，不 stat
+        List<GroupDeletionEngine.MediaGroup> groups = buildGroups(directory);
+        if (groups.isEmpty()) {
             return result;
         }
         
         // 计算当前总大小
         long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
+        for (GroupDeletionEngine.MediaGroup group : groups) {
+            totalSize += group.getBytes();
         }
         
         result.originalSize = totalSize;
@@ -214,32 +265,17 @@ public class StorageCleanupManager {
         AppLog.d(TAG, typeName + "强制清理：当前占用 " + StorageHelper.formatSize(totalSize) + 
                 "，将删除 " + StorageHelper.formatSize(needToDelete) + " (20%)");
         
-        // 按修改时间排序（最旧的在前）
-        List<File> sortedFiles = new ArrayList<>(Arrays.asList(files));
-        sortedFiles.sort(Comparator.comparingLong(File::lastModified));
-        
-        // 删除最旧的文件直到达到目标大小
-        long deletedSize = 0;
-        int deletedCount = 0;
-        
-        for (File file : sortedFiles) {
-            if (totalSize - deletedSize <= targetSize) {
-                break;
-            }
-            
-            long fileSize = file.length();
-            if (file.delete()) {
-                deletedSize += fileSize;
-                deletedCount++;
-                AppLog.d(TAG, "强制删除旧文件: " + file.getName() + " (" + StorageHelper.formatSize(fileSize) + ")");
-            }
-        }
+        // 删除最旧的录制组直到达到目标大小
+        GroupDeletionEngine.Result deletion = deletionEngine.deleteGroups(
+                GroupDeletionEngine.selectOldest(groups, totalSize - targetSize), typeName);
+        long deletedSize = deletion.deletedBytes;
+        int deletedCount = deletion.deletedFiles;
         
         result.deletedSize = deletedSize;
         result.deletedCount = deletedCount;
         result.finalSize = totalSize - deletedSize;
         
-        AppLog.d(TAG, typeName + "强制清理完成：删除 " + deletedCount + " 个文件，释放 " + StorageHelper.formatSize(deletedSize));
+        AppLog.d(TAG, typeName + "强制清理完成：删除 " + deletion.deletedGroups + " 组 " + deletedCount + " 个文件，释放 " + StorageHelper.formatSize(deletedSize));
         
         return result;
     }
@@ -270,20 +306,14 @@ public class StorageCleanupManager {
             return result;
         }
         
-        // 获取目录中所有文件（不筛选格式）
-        File[] files = directory.listFiles(File::isFile);
+        // 当前占用直接读取账本（不列举目录、不 stat）
+        long totalSize = getLedgerSize(directory);
         
-        if (files == null || files.length == 0) {
+        if (totalSize == 0) {
             AppLog.d(TAG, typeName + "目录为空");
             return result;
         }
         
-        // 计算当前总大小
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
-        }
-        
         result.originalSize = totalSize;
         
         AppLog.d(TAG, typeName + "当前占用: " + StorageHelper.formatSize(totalSize) + 
@@ -295,6 +325,14 @@ public class StorageCleanupManager {
             return result;
         }
         
+        // 超过限制时才从媒体索引获取文件列表（不筛选格式），按录制组整体删除
+        List<GroupDeletionEngine.MediaGroup> groups = buildGroups(directory);
+        totalSize = 0;
+        for (GroupDeletionEngine.MediaGroup group : groups) {
+            totalSize += group.getBytes();
+        }
+        result.originalSize = totalSize;
+        
         // 计算目标大小（限制的80%，即额外删除20%）
         long targetSize = (long) (limitBytes * (1 - EXTRA_DELETE_RATIO));
         long needToDelete = totalSize - targetSize;
@@ -302,41 +340,144 @@ public class StorageCleanupManager {
         AppLog.d(TAG, typeName + "超过限制，需要删除: " + StorageHelper.formatSize(needToDelete) + 
                 "，目标大小: " + StorageHelper.formatSize(targetSize));
         
-        // 按修改时间排序（最旧的在前）
-        List<File> sortedFiles = new ArrayList<>(Arrays.asList(files));
-        sortedFiles.sort(Comparator.comparingLong(File::lastModified));
-        
-        // 删除最旧的文件直到达到目标大小
-        long deletedSize = 0;
-        int deletedCount = 0;
-        
-        for (File file : sortedFiles) {
-            if (totalSize - deletedSize <= targetSize) {
-                break;
-            }
-            
-            long fileSize = file.length();
-            String fileName = file.getName();
-            
-            if (file.delete()) {
-                deletedSize += fileSize;
-                deletedCount++;
-                AppLog.d(TAG, "已删除" + typeName + ": " + fileName + " (" + StorageHelper.formatSize(fileSize) + ")");
-            } else {
-                AppLog.w(TAG, "删除" + typeName + "失败: " + fileName);
-            }
-        }
+        // 按文件名中的时间排序，删除最旧的录制组直到达到目标大小
+        GroupDeletionEngine.Result deletion = deletionEngine.deleteGroups(
+                GroupDeletionEngine.selectOldest(groups, needToDelete), typeName);
+        long deletedSize = deletion.deletedBytes;
+        int deletedCount = deletion.deletedFiles;
         
         result.deletedCount = deletedCount;
         result.deletedSize = deletedSize;
         result.finalSize = totalSize - deletedSize;
         
-        AppLog.d(TAG, typeName + "清理完成：删除 " + deletedCount + " 个文件，释放 " + 
+        AppLog.d(TAG, typeName + "清理完成：删除 " + deletion.deletedGroups + " 组 " + deletedCount + " 个文件，释放 " + 
                 StorageHelper.formatSize(deletedSize) + "，剩余 " + StorageHelper.formatSize(result.finalSize));
         
         return result;
     }
     
+    /**
+     * 为正在进行的录制预留空间（在存储清理线程上执行，不阻塞调用方）
+     * 录制开始和每次分段切换时调用
+     *
+     * @param totalBitrateBps 所有摄像头码率之和（bps）
+     * @param segmentDurationMs 分段时长（毫秒）
+     */
+    public void reserveSpaceForRecording(long totalBitrateBps, long segmentDurationMs) {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null || executor.isShutdown() || totalBitrateBps <= 0 || segmentDurationMs <= 0) {
+            return;
+        }
+        try {
+            executor.execute(() -> performReservation(totalBitrateBps, segmentDurationMs));
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            // 清理任务正在停止
+        }
+    }
+    
+    /**
+     * 执行空间预留：空间不足时提前删除最旧的录制组
+     */
+    private void performReservation(long totalBitrateBps, long segmentDurationMs) {
+        File videoDir = StorageHelper.getVideoDir(context);
+        if (videoDir == null || !videoDir.isDirectory()) {
+            return;
+        }
+        long limitBytes = appConfig.getVideoStorageLimitGb() * GB_TO_BYTES;
+        SpaceReservationPlanner.Result result = reservationPlanner.reserve(
+                new IndexedVideoStorage(videoDir), totalBitrateBps, segmentDurationMs, limitBytes);
+        if (result.needToFreeBytes <= 0) {
+            return;
+        }
+        AppLog.d(TAG, "空间预留：需要 " + StorageHelper.formatSize(result.reservationBytes) + "（"
+                + reservationPlanner.getSegmentsAhead() + " 个分段），提前删除 " + result.deletedGroups + " 组，释放 "
+                + StorageHelper.formatSize(result.freedBytes));
+        if (!result.isSatisfied()) {
+            AppLog.w(TAG, "空间预留未满足：还差 " + StorageHelper.formatSize(result.needToFreeBytes - result.freedBytes)
+                    + "，没有更多可删除的录制");
+        }
+    }
+    
+    /**
+     * 基于媒体索引的视频目录（供空间预留规划器使用）
+     * 录制组按时间戳前缀分组；正在写入的组和最新的组不参与删除
+     */
+    private class IndexedVideoStorage implements SpaceReservationPlanner.Storage {
+        private final File directory;
+        private final Map<String, GroupDeletionEngine.MediaGroup> groupsByKey = new LinkedHashMap<>();
+        
+        IndexedVideoStorage(File directory) {
+            this.directory = directory;
+        }
+        
+        @Override
+        public long getAvailableBytes() {
+            return StorageHelper.getAvailableSpace(directory);
+        }
+        
+        @Override
+        public long getUsedBytes() {
+            return getLedgerSize(directory);
+        }
+        
+        @Override
+        public List<SpaceReservationPlanner.Group> getGroupsOldestFirst() {
+            groupsByKey.clear();
+            List<GroupDeletionEngine.MediaGroup> groups = buildGroups(directory);
+            List<SpaceReservationPlanner.Group> result = new ArrayList<>();
+            // 最新的组可能是刚开始写入的分段，不参与删除
+            for (int i = 0; i < groups.size() - 1; i++) {
+                GroupDeletionEngine.MediaGroup group = groups.get(i);
+                if (!group.isRecording()) {
+                    groupsByKey.put(group.getKey(), group);
+                    result.add(new SpaceReservationPlanner.Group(group.getKey(), group.getBytes()));
+                }
+            }
+            return result;
+        }
+        
+        @Override
+        public long deleteGroups(List<SpaceReservationPlanner.Group> groups) {
+            List<GroupDeletionEngine.MediaGroup> batch = new ArrayList<>();
+            for (SpaceReservationPlanner.Group group : groups) {
+                GroupDeletionEngine.MediaGroup mediaGroup = groupsByKey.get(group.getKey());
+                if (mediaGroup != null) {
+                    batch.add(mediaGroup);
+                }
+            }
+            return deletionEngine.deleteGroups(batch, "预留空间").deletedBytes;
+        }
+    }
+    
+    /**
+     * 完整对账占用账本（后台低优先级执行）
+     */
+    private void reconcileUsageLedger() {
+        mediaIndex.reconcileAsync(StorageHelper.getVideoDir(context), StorageHelper.getVideoProxyDir(context),
+                StorageHelper.getPhotoDir(context));
+    }
+    
+    /**
+     * 目录下的代理文件目录（只有视频目录会有）
+     */
+    private static File getProxyDir(File directory) {
+        return new File(directory, StorageHelper.PROXY_DIR_NAME);
+    }
+    
+    /**
+     * 目录占用账本（包含代理目录）
+     */
+    private long getLedgerSize(File directory) {
+        return mediaIndex.getTotalSize(directory) + mediaIndex.getTotalSize(getProxyDir(directory));
+    }
+    
+    /**
+     * 从媒体索引构建录制组，代理文件归入同名主分段所在的组
+     */
+    private List<GroupDeletionEngine.MediaGroup> buildGroups(File directory) {
+        return GroupDeletionEngine.buildGroups(mediaIndex.list(directory), mediaIndex.list(getProxyDir(directory)));
+    }
+    
     /**
      * 显示清理通知
      */
@@ -373,24 +514,14 @@ public class StorageCleanupManager {
     }
     
     /**
-     * 获取目录中所有文件的总大小
+     * 获取目录中所有文件的总大小（读取账本，O(1)）
      */
     private long getDirectorySize(File directory) {
         if (directory == null || !directory.exists() || !directory.isDirectory()) {
             return 0;
         }
         
-        File[] files = directory.listFiles(File::isFile);
-        
-        if (files == null) {
-            return 0;
-        }
-        
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
-        }
-        return totalSize;
+        return getLedgerSize(directory);
     }
     
     /**
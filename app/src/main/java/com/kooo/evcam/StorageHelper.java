@@ -22,6 +22,7 @@ public class StorageHelper {
     public static final String VIDEO_DIR_NAME = "EVCam_Video";
     public static final String PHOTO_DIR_NAME = "EVCam_Photo";
     public static final String LOG_DIR_NAME = "EVCam_Log";
+    public static final String PROXY_DIR_NAME = ".proxy";  // 视频目录下的代理子码流目录（与主分段同名）
     
     // ==================== 内存缓存（性能优化）====================
     // U盘检测结果缓存（避免重复的文件系统 I/O）
@@ -266,6 +267,27 @@ public class StorageHelper {
         return getVideoDir(context, config.isUsingExternalSdCard());
     }
     
+    /**
+     * 获取低分辨率代理视频目录（最终视频目录下的隐藏子目录）
+     * 代理文件直接写入这里，不经过中转写入
+     * @param context 上下文
+     * @return 代理视频目录
+     */
+    public static File getVideoProxyDir(Context context) {
+        return new File(getFinalVideoDir(context), PROXY_DIR_NAME);
+    }
+    
+    /**
+     * 获取视频对应的代理文件
+     * @param context 上下文
+     * @param videoFile 主视频文件（临时目录或最终目录中）
+     * @return 代理文件，不存在或为空时返回 null
+     */
+    public static File getProxyFile(Context context, File videoFile) {
+        File proxy = new File(getVideoProxyDir(context), videoFile.getName());
+        return proxy.isFile() && proxy.length() > 0 ? proxy : null;
+    }
+    
     /**
      * 检查临时目录是否有足够空间
      * @param context 上下文
@@ -578,6 +600,11 @@ public class StorageHelper {
             info.add("未检测到U盘");
         }
         
+        // 5. U盘测速
+        info.add("");
+        info.add("=== U盘测速 ===");
+        info.addAll(StorageBenchmarkManager.getDebugInfo(context));
+        
         return info;
     }
     
@@ -0,0 +1,325 @@
+package com.kooo.evcam;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 中转传输日志（追加写）
+ *
+ * 传输队列原来只在内存中，应用被杀后临时目录里的分段要等过期清理才被处理。本类把任务状态追加写入日志：
+ * E（加入）、S（开始）、C（复制进度检查点）、O（完成）、F（失败）。
+ * 重启后重放日志，得到未完成的任务和最后的检查点偏移，部分复制的文件可以从检查点继续复制。
+ *
+ * 每条记录一次 write 写入，进程被杀不会丢失已返回的记录；E/O/F 记录额外 fsync，断电也不丢任务。
+ * 没有以换行结尾的最后一行视为写到一半的记录，重放时丢弃并从文件中截掉，不会和新记录拼在一起。
+ * 日志行数远多于未完成任务时重写为快照（先写临时文件再重命名）。
+ *
+ * 本类不依赖 Android API，可在 JVM 上模拟崩溃验证。线程安全。
+ */
+public class TransferJournal {
+
+    private static final String OP_ENQUEUE = "E";
+    private static final String OP_START = "S";
+    private static final String OP_CHECKPOINT = "C";
+    private static final String OP_DONE = "O";
+    private static final String OP_FAILED = "F";
+
+    private static final int COMPACT_MIN_LINES = 256;
+
+    /**
+     * 未完成的传输任务
+     */
+    public static class PendingTransfer {
+        private final File sourceFile;
+        private final File targetFile;
+        private boolean started;
+        private long checkpointOffset;
+
+        PendingTransfer(File sourceFile, File targetFile) {
+            this.sourceFile = sourceFile;
+            this.targetFile = targetFile;
+        }
+
+        public File getSourceFile() {
+            return sourceFile;
+        }
+
+        public File getTargetFile() {
+            return targetFile;
+        }
+
+        /** 崩溃前是否已开始传输 */
+        public boolean isStarted() {
+            return started;
+        }
+
+        /** 最后记录的已复制字节数 */
+        public long getCheckpointOffset() {
+            return checkpointOffset;
+        }
+    }
+
+    private final File journalFile;
+    private final File journalTmpFile;
+    private final Map<String, PendingTransfer> pending = new LinkedHashMap<>();
+    private FileOutputStream journalOut;
+    private boolean loaded = false;
+    private int journalLines = 0;
+    private int discardedLines = 0;
+    private int writeErrors = 0;
+
+    public TransferJournal(File journalFile) {
+        this.journalFile = journalFile;
+        this.journalTmpFile = new File(journalFile.getPath() + ".tmp");
+    }
+
+    /**
+     * 重放日志，返回未完成的任务（按加入顺序）
+     * 只在第一次调用时读取文件，之后返回内存中的状态
+     */
+    public synchronized List<PendingTransfer> load() {
+        if (!loaded) {
+            loaded = true;
+            // 压缩时崩溃留下的临时文件：原日志仍完整，直接丢弃
+            journalTmpFile.delete();
+            readJournal();
+            maybeCompact();
+        }
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized void recordEnqueue(File source, File target) {
+        ensureLoaded();
+        String key = source.getAbsolutePath();
+        pending.remove(key);
+        pending.put(key, new PendingTransfer(source, target));
+        append(OP_ENQUEUE + "\t" + key + "\t" + target.getAbsolutePath(), true);
+    }
+
+    public synchronized void recordStart(File source) {
+        ensureLoaded();
+        String key = source.getAbsolutePath();
+        PendingTransfer transfer = pending.get(key);
+        if (transfer != null) {
+            transfer.started = true;
+            append(OP_START + "\t" + key, false);
+        }
+    }
+
+    public synchronized void recordCheckpoint(File source, long offset) {
+        ensureLoaded();
+        String key = source.getAbsolutePath();
+        PendingTransfer transfer = pending.get(key);
+        if (transfer != null) {
+            transfer.checkpointOffset = offset;
+            append(OP_CHECKPOINT + "\t" + key + "\t" + offset, false);
+        }
+    }
+
+    public synchronized void recordDone(File source) {
+        ensureLoaded();
+        String key = source.getAbsolutePath();
+        if (pending.remove(key) != null) {
+            append(OP_DONE + "\t" + key, true);
+            maybeCompact();
+        }
+    }
+
+    public synchronized void recordFailed(File source, String error) {
+        ensureLoaded();
+        String key = source.getAbsolutePath();
+        if (pending.remove(key) != null) {
+            String reason = error != null ? error.replace('\t', ' ').replace('\n', ' ') : "";
+            append(OP_FAILED + "\t" + key + "\t" + reason, true);
+            maybeCompact();
+        }
+    }
+
+    public synchronized PendingTransfer getPending(File source) {
+        return pending.get(source.getAbsolutePath());
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized int getLineCount() {
+        return journalLines;
+    }
+
+    /** 上次加载时丢弃的损坏行数 */
+    public synchronized int getDiscardedLineCount() {
+        return discardedLines;
+    }
+
+    /** 写入失败次数（日志不可写时任务仍在内存中继续传输） */
+    public synchronized int getWriteErrorCount() {
+        return writeErrors;
+    }
+
+    public synchronized void close() {
+        closeJournal();
+    }
+
+    /**
+     * 计算续传偏移：检查点之后的数据可能没有落盘，不能超过目标文件的实际长度；
+     * 目标不存在或比源文件还长（源文件已变化）时从头复制
+     *
+     * @param targetLength 目标文件长度，不存在时传 -1
+     */
+    public static long resumeOffset(long checkpointOffset, long targetLength, long sourceLength) {
+        if (checkpointOffset <= 0 || targetLength <= 0 || targetLength > sourceLength) {
+            return 0;
+        }
+        return Math.min(checkpointOffset, targetLength);
+    }
+
+    // ===== 私有方法 =====
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            load();
+        }
+    }
+
+    private void readJournal() {
+        if (!journalFile.exists()) {
+            return;
+        }
+        byte[] data;
+        try (FileInputStream in = new FileInputStream(journalFile)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) journalFile.length());
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                buffer.write(chunk, 0, read);
+            }
+            data = buffer.toByteArray();
+        } catch (IOException e) {
+            writeErrors++;
+            return;
+        }
+        int lineStart = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == '\n') {
+                journalLines++;
+                if (!replay(new String(data, lineStart, i - lineStart, StandardCharsets.UTF_8))) {
+                    discardedLines++;
+                }
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < data.length) {
+            // 崩溃时写到一半的记录：截掉（只补换行的话，只差换行符的半行会被当成有效记录）
+            discardedLines++;
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                file.setLength(lineStart);
+            } catch (IOException e) {
+                writeErrors++;
+            }
+        }
+    }
+
+    private boolean replay(String line) {
+        String[] parts = line.split("\t", -1);
+        try {
+            if (OP_ENQUEUE.equals(parts[0]) && parts.length >= 3) {
+                pending.remove(parts[1]);   // 重新加入时排到队尾
+                pending.put(parts[1], new PendingTransfer(new File(parts[1]), new File(parts[2])));
+            } else if (OP_START.equals(parts[0]) && parts.length >= 2) {
+                PendingTransfer transfer = pending.get(parts[1]);
+                if (transfer != null) {
+                    transfer.started = true;
+                }
+            } else if (OP_CHECKPOINT.equals(parts[0]) && parts.length >= 3) {
+                PendingTransfer transfer = pending.get(parts[1]);
+                if (transfer != null) {
+                    transfer.checkpointOffset = Long.parseLong(parts[2]);
+                }
+            } else if ((OP_DONE.equals(parts[0]) || OP_FAILED.equals(parts[0])) && parts.length >= 2) {
+                pending.remove(parts[1]);
+            } else {
+                return false;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void append(String line, boolean sync) {
+        try {
+            if (journalOut == null) {
+                journalOut = new FileOutputStream(journalFile, true);
+            }
+            journalOut.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            if (sync) {
+                journalOut.getFD().sync();
+            }
+            journalLines++;
+        } catch (IOException e) {
+            writeErrors++;
+            closeJournal();
+        }
+    }
+
+    /**
+     * 日志行数远多于未完成任务时重写为快照
+     */
+    private void maybeCompact() {
+        if (journalLines < COMPACT_MIN_LINES || journalLines < pending.size() * 4) {
+            return;
+        }
+        closeJournal();
+        int lines = 0;
+        try (FileOutputStream out = new FileOutputStream(journalTmpFile)) {
+            StringBuilder snapshot = new StringBuilder();
+            for (PendingTransfer transfer : pending.values()) {
+                String key = transfer.sourceFile.getAbsolutePath();
+                snapshot.append(OP_ENQUEUE).append('\t').append(key).append('\t')
+                        .append(transfer.targetFile.getAbsolutePath()).append('\n');
+                lines++;
+                if (transfer.started) {
+                    snapshot.append(OP_START).append('\t').append(key).append('\n');
+                    lines++;
+                }
+                if (transfer.checkpointOffset > 0) {
+                    snapshot.append(OP_CHECKPOINT).append('\t').append(key).append('\t')
+                            .append(transfer.checkpointOffset).append('\n');
+                    lines++;
+                }
+            }
+            out.write(snapshot.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            writeErrors++;
+            journalTmpFile.delete();
+            return;
+        }
+        if (journalTmpFile.renameTo(journalFile)) {
+            journalLines = lines;
+        } else {
+            journalTmpFile.delete();
+        }
+    }
+
+    private void closeJournal() {
+        if (journalOut != null) {
+            try {
+                journalOut.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            journalOut = null;
+        }
+    }
+}
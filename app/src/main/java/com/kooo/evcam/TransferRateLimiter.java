@@ -0,0 +1,92 @@
+package com.kooo.evcam;
+
+/**
+ * 中转复制带宽限制（令牌桶）
+ *
+ * 所有传输线程共享一个令牌桶：每次复制一块数据前先申请相应字节数的令牌，令牌不足时睡眠等待，
+ * 使中转复制的总写入速率不超过上限，U盘带宽留给正在进行的录制写入。
+ * 允许的突发量为 1 秒的配额；申请可以透支，透支部分由后续申请者等待偿还，保证长期速率准确。
+ *
+ * 本类不依赖 Android API，可在 JVM 上直接验证。线程安全。
+ */
+public class TransferRateLimiter {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private long bytesPerSecond;   // 0 表示不限制
+    private double availableBytes;
+    private long lastRefillNs;
+
+    // 统计
+    private long totalWaitNs = 0;
+
+    /**
+     * @param bytesPerSecond 速率上限（字节/秒），0 表示不限制
+     */
+    public TransferRateLimiter(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    /**
+     * 修改速率上限（立即生效）
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.availableBytes = this.bytesPerSecond;
+        this.lastRefillNs = nanoTime();
+    }
+
+    public synchronized boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * 申请写入 bytes 字节，配额不足时阻塞等待
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNs = reserve(bytes);
+        if (waitNs > 0) {
+            Thread.sleep(waitNs / 1000000L, (int) (waitNs % 1000000L));
+        }
+    }
+
+    /**
+     * 预订 bytes 字节的配额
+     * @return 需要等待的时间（纳秒），0 表示可以立即写入
+     */
+    synchronized long reserve(long bytes) {
+        if (bytesPerSecond <= 0 || bytes <= 0) {
+            return 0;
+        }
+        long now = nanoTime();
+        // 补充令牌，最多积累 1 秒的配额
+        availableBytes = Math.min(bytesPerSecond,
+                availableBytes + (now - lastRefillNs) * (double) bytesPerSecond / NANOS_PER_SECOND);
+        lastRefillNs = now;
+        availableBytes -= bytes;
+        if (availableBytes >= 0) {
+            return 0;
+        }
+        long waitNs = (long) (-availableBytes * NANOS_PER_SECOND / bytesPerSecond);
+        totalWaitNs += waitNs;
+        return waitNs;
+    }
+
+    /**
+     * 因限速累计等待的时间（毫秒）
+     */
+    public synchronized long getTotalWaitMs() {
+        return totalWaitNs / 1000000L;
+    }
+
+    /**
+     * 当前时间（纳秒），可在测试中覆盖
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+}
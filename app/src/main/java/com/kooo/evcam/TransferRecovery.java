@@ -0,0 +1,133 @@
+package com.kooo.evcam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * 中转传输的崩溃恢复协议
+ *
+ * 从 FileTransferManager 中拆出，集中了传输日志与续传复制之间的约定：
+ * 1. 重放：源文件还在的任务按检查点续传；源文件已不在但目标存在的任务视为崩溃前已完成；两者都不在的任务放弃
+ * 2. 复制：从续传偏移开始，最后可信偏移每推进一个间隔记录一次检查点；被中断或出错时记录最后可信偏移，
+ *    下次从该偏移续传（续传前由 ResumableFileCopier 再次校验已有部分）
+ *
+ * 本类不依赖 Android API，可在 JVM 上模拟崩溃验证。
+ */
+public class TransferRecovery {
+
+    public static final int ACTION_RESUME = 0;         // 重新加入队列，从 resumeOffset 续传
+    public static final int ACTION_ALREADY_DONE = 1;   // 移动/复制已完成，但崩溃前没来得及记录
+    public static final int ACTION_SOURCE_LOST = 2;    // 源文件和目标都不在，放弃
+
+    /**
+     * 重放得到的单个任务的处理方式
+     */
+    public static class Plan {
+        private final File sourceFile;
+        private final File targetFile;
+        private final int action;
+        private final long resumeOffset;
+
+        Plan(File sourceFile, File targetFile, int action, long resumeOffset) {
+            this.sourceFile = sourceFile;
+            this.targetFile = targetFile;
+            this.action = action;
+            this.resumeOffset = resumeOffset;
+        }
+
+        public File getSourceFile() {
+            return sourceFile;
+        }
+
+        public File getTargetFile() {
+            return targetFile;
+        }
+
+        public int getAction() {
+            return action;
+        }
+
+        /** 续传偏移（仅 ACTION_RESUME） */
+        public long getResumeOffset() {
+            return resumeOffset;
+        }
+    }
+
+    private TransferRecovery() {
+    }
+
+    /**
+     * 重放传输日志：已完成和源文件丢失的任务直接在日志中结束，其余任务计算续传偏移
+     *
+     * @return 每个未完成任务的处理方式（按加入顺序）
+     */
+    public static List<Plan> replay(TransferJournal journal) {
+        List<Plan> plans = new ArrayList<>();
+        for (TransferJournal.PendingTransfer pending : journal.load()) {
+            File source = pending.getSourceFile();
+            File target = pending.getTargetFile();
+            if (!source.exists()) {
+                if (target.exists()) {
+                    journal.recordDone(source);
+                    plans.add(new Plan(source, target, ACTION_ALREADY_DONE, 0));
+                } else {
+                    journal.recordFailed(source, "Source file not found after restart");
+                    plans.add(new Plan(source, target, ACTION_SOURCE_LOST, 0));
+                }
+                continue;
+            }
+            long resumeOffset = TransferJournal.resumeOffset(pending.getCheckpointOffset(),
+                    target.exists() ? target.length() : -1, source.length());
+            plans.add(new Plan(source, target, ACTION_RESUME, resumeOffset));
+        }
+        return plans;
+    }
+
+    /**
+     * 按日志协议复制 source 到 target
+     *
+     * @param resumeOffset 续传偏移
+     * @param checkpointIntervalBytes 记录检查点的间隔
+     * @param rateLimiter 带宽限制，可为 null
+     * @param progress 接收最后可信偏移（调用方据此更新内存中的续传偏移），可为 null
+     * @throws IOException 复制失败，最后可信偏移已记录为检查点
+     * @throws InterruptedException 复制被中断，最后可信偏移已记录为检查点
+     */
+    public static ResumableFileCopier.Result copy(ResumableFileCopier copier, TransferJournal journal,
+                                                  File source, File target, long resumeOffset,
+                                                  long checkpointIntervalBytes, TransferRateLimiter rateLimiter,
+                                                  LongConsumer progress)
+            throws IOException, InterruptedException {
+        long[] verified = {resumeOffset};
+        long[] lastCheckpoint = {resumeOffset};
+        try {
+            return copier.copy(source, target, resumeOffset, new ResumableFileCopier.Callback() {
+                @Override
+                public void beforeChunk(long bytes) throws InterruptedException {
+                    if (rateLimiter != null) {
+                        rateLimiter.acquire(bytes);
+                    }
+                }
+
+                @Override
+                public void onProgress(long verifiedOffset) {
+                    verified[0] = verifiedOffset;
+                    if (progress != null) {
+                        progress.accept(verifiedOffset);
+                    }
+                    if (Math.abs(verifiedOffset - lastCheckpoint[0]) >= checkpointIntervalBytes) {
+                        journal.recordCheckpoint(source, verifiedOffset);
+                        lastCheckpoint[0] = verifiedOffset;
+                    }
+                }
+            });
+        } catch (IOException | InterruptedException e) {
+            // 保留已校验的部分，下次从最后可信偏移继续
+            journal.recordCheckpoint(source, verified[0]);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.kooo.evcam.camera;
+
+/**
+ * 自适应码率控制器
+ *
+ * 码率原本在录制器创建时固定。U 盘写入慢或中转临时目录积压时，固定码率会导致写入停滞，
+ * 进而触发文件大小检查/健康检查的重建。本控制器按固定间隔采样：
+ * 1. 存储积压：交给 muxer 的字节数与文件实际增长字节数之差的累计值（可吸收 muxer 分块写入造成的抖动）
+ * 2. 中转积压：FileTransferManager 队列中等待传输的文件数（按录制路数折算到每路）
+ * 3. 编码积压：已送入编码器但尚未输出的帧数
+ * 任一指标显示跟不上时按比例降码率（乘性减），连续多次健康后逐步恢复（加性增），始终限制在 [min, max] 内。
+ *
+ * 本类不依赖 Android API，可在 JVM 上用模拟的存储速度直接验证。
+ * 线程安全：所有公开方法均已同步。
+ */
+public class AdaptiveBitrateController {
+
+    /**
+     * 中转积压数据源（通常为 FileTransferManager 的队列长度按录制路数折算的每路积压）
+     */
+    public interface BacklogSource {
+        int getTransferQueueDepth();
+    }
+
+    /** 存储积压超过该秒数的数据量（按当前码率）且仍在增长时视为跟不上 */
+    private static final double STORAGE_BACKLOG_HIGH_SECONDS = 2.0;
+    /** 每路中转积压超过该文件数时视为积压 */
+    private static final int TRANSFER_QUEUE_HIGH = 3;
+    /** 编码积压超过该秒数的帧时视为编码/写入跟不上 */
+    private static final double ENCODER_BACKLOG_HIGH_SECONDS = 1.0;
+    /** 每次降码率的比例 */
+    private static final double DECREASE_FACTOR = 0.75;
+    /** 每次升码率的步长（占最大码率的比例） */
+    private static final double INCREASE_STEP = 0.1;
+    /** 连续健康多少个间隔后才升码率 */
+    private static final int STABLE_SAMPLES_FOR_INCREASE = 6;
+    /** 码率取整粒度 */
+    private static final int BITRATE_GRANULARITY = 10000;
+
+    private final int minBitrate;
+    private final int maxBitrate;
+    private final int frameRate;
+
+    private int currentBitrate;
+    private int stableSamples = 0;
+    private long storageBacklogBytes = 0;  // 已提交但尚未落盘的累计字节数
+    private String lastReason = "init";
+
+    // 统计
+    private long decreaseCount = 0;
+    private long increaseCount = 0;
+
+    /**
+     * @param minBitrate 最低码率（bps）
+     * @param maxBitrate 最高码率（bps，通常为配置的码率）
+     * @param frameRate 帧率，用于把编码积压帧数换算成时长
+     */
+    public AdaptiveBitrateController(int minBitrate, int maxBitrate, int frameRate) {
+        this.maxBitrate = Math.max(BITRATE_GRANULARITY, maxBitrate);
+        this.minBitrate = Math.max(BITRATE_GRANULARITY, Math.min(minBitrate, this.maxBitrate));
+        this.frameRate = Math.max(1, frameRate);
+        this.currentBitrate = this.maxBitrate;
+    }
+
+    /**
+     * 提交一次采样，返回调整后的码率
+     *
+     * @param submittedBytes 本间隔内交给 muxer 的字节数，<0 表示本间隔无法统计（如刚切换分段），积压重新计算
+     * @param persistedBytes 本间隔内文件实际增长的字节数
+     * @param transferQueueDepth 本路在中转队列中等待传输的文件数
+     * @param encoderQueueDepth 编码器中尚未输出的帧数
+     * @return 新码率（bps），与 getCurrentBitrate() 相同
+     */
+    public synchronized int update(long submittedBytes, long persistedBytes,
+                                   int transferQueueDepth, long encoderQueueDepth) {
+        long backlogGrowth = 0;
+        if (submittedBytes < 0) {
+            storageBacklogBytes = 0;
+        } else {
+            backlogGrowth = submittedBytes - persistedBytes;
+            storageBacklogBytes = Math.max(0, storageBacklogBytes + backlogGrowth);
+        }
+        long storageBacklogHigh = (long) (currentBitrate / 8.0 * STORAGE_BACKLOG_HIGH_SECONDS);
+
+        String congestion = null;
+        if (backlogGrowth > 0 && storageBacklogBytes > storageBacklogHigh) {
+            congestion = "storage backlog " + storageBacklogBytes / 1024 + "KB";
+        } else if (transferQueueDepth > TRANSFER_QUEUE_HIGH) {
+            congestion = "transfer queue " + transferQueueDepth;
+        } else if (encoderQueueDepth > frameRate * ENCODER_BACKLOG_HIGH_SECONDS) {
+            congestion = "encoder backlog " + encoderQueueDepth + " frames";
+        }
+
+        if (congestion != null) {
+            stableSamples = 0;
+            int target = roundBitrate((int) (currentBitrate * DECREASE_FACTOR));
+            if (target < currentBitrate) {
+                currentBitrate = target;
+                decreaseCount++;
+            }
+            lastReason = congestion;
+            return currentBitrate;
+        }
+
+        stableSamples++;
+        if (stableSamples >= STABLE_SAMPLES_FOR_INCREASE && currentBitrate < maxBitrate) {
+            stableSamples = 0;
+            currentBitrate = roundBitrate(currentBitrate + (int) (maxBitrate * INCREASE_STEP));
+            increaseCount++;
+            lastReason = "stable";
+        }
+        return currentBitrate;
+    }
+
+    public synchronized int getCurrentBitrate() {
+        return currentBitrate;
+    }
+
+    public int getMinBitrate() {
+        return minBitrate;
+    }
+
+    public int getMaxBitrate() {
+        return maxBitrate;
+    }
+
+    /**
+     * 获取最近一次调整的原因（用于日志）
+     */
+    public synchronized String getLastReason() {
+        return lastReason;
+    }
+
+    /**
+     * 获取当前估算的存储积压（字节）
+     */
+    public synchronized long getStorageBacklogBytes() {
+        return storageBacklogBytes;
+    }
+
+    public synchronized long getDecreaseCount() {
+        return decreaseCount;
+    }
+
+    public synchronized long getIncreaseCount() {
+        return increaseCount;
+    }
+
+    private int roundBitrate(int bitrate) {
+        int rounded = (bitrate / BITRATE_GRANULARITY) * BITRATE_GRANULARITY;
+        return Math.max(minBitrate, Math.min(maxBitrate, rounded));
+    }
+}
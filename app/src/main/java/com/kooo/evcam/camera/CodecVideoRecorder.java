@@ -4,7 +4,7 @@ import android.graphics.SurfaceTexture;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
@@ -15,9 +15,8 @@ import com.kooo.evcam.AppLog;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -30,7 +29,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 1. 创建 MediaCodec 编码器，获取其输入 Surface
  * 2. 使用 EglSurfaceEncoder 将 Camera 的帧渲染到编码器输入 Surface
  * 3. 从 MediaCodec 获取编码后的数据
- * 4. 通过 MediaMuxer 写入 MP4 文件
+ * 4. 通过 RecordingMuxer（MediaMuxer 或 fMP4 写入器）写入 MP4 文件
  */
 public class CodecVideoRecorder {
     private static final String TAG = "CodecVideoRecorder";
@@ -52,8 +51,8 @@ public class CodecVideoRecorder {
     private Surface encoderInputSurface;
     private MediaCodec.BufferInfo bufferInfo;
 
-    // MediaMuxer 相关
-    private MediaMuxer muxer;
+    // Muxer 相关（MediaMuxer 或 fMP4，见 setFragmentedMp4）
+    private RecordingMuxer muxer;
     private int videoTrackIndex = -1;
     private boolean muxerStarted = false;
 
@@ -66,6 +65,10 @@ public class CodecVideoRecorder {
     private HandlerThread encoderThread;
     private Handler encoderHandler;
 
+    // 共享 GL 引擎（非空时不创建独立的编码线程和 EGL context）
+    private SharedGlEngine sharedGlEngine;
+    private boolean sharedGlAcquired = false;
+
     // 状态
     private final AtomicBoolean isRecording = new AtomicBoolean(false);  // 使用 AtomicBoolean 确保线程安全
     private volatile boolean isReleased = false;
@@ -87,7 +90,6 @@ public class CodecVideoRecorder {
     // 分段录制相关
     private long segmentDurationMs = 60000;  // 分段时长，默认1分钟，可通过 setSegmentDuration 配置
     private static final long SEGMENT_DURATION_COMPENSATION_MS = 0;  // 分段时长补偿（H3修复后定时器更精确，不再需要补偿）
-    private static final long MIN_VALID_FILE_SIZE = 10 * 1024;  // 最小有效文件大小 10KB
     
     // 使用独立的后台线程处理分段和文件 I/O 操作，避免阻塞主线程导致 ANR
     private HandlerThread segmentThread;
@@ -103,13 +105,54 @@ public class CodecVideoRecorder {
     private static final long FIRST_CHECK_DELAY_MS = 500;  // 首次检查延迟（更快检测首次写入）
     private Runnable fileSizeCheckRunnable;
     private long recordedFrameCount = 0;
-    private List<String> recordedFilePaths = new ArrayList<>();  // 本次录制的所有文件路径
+    // 本次录制的所有文件路径（异步模式下无缝切换在输出回调线程上追加，停止录制时在其他线程遍历）
+    private final List<String> recordedFilePaths = Collections.synchronizedList(new ArrayList<>());
     
     // 首次写入检测（与 VideoRecorder 保持一致）
     private static final long FIRST_WRITE_TIMEOUT_MS = 10000;  // 首次写入超时（10秒）
     private boolean hasFirstWrite = false;  // 是否已有首次写入
     private Runnable firstWriteTimeoutRunnable;  // 首次写入超时检查任务
     
+    // fMP4 封装（断电后文件仍可播放到最后一个分片）
+    private static final long DEFAULT_FRAGMENT_DURATION_MS = 2000;
+    private boolean fragmentedMp4Enabled = false;
+    private long fragmentDurationMs = DEFAULT_FRAGMENT_DURATION_MS;
+
+    // 无缝分段切换（编码器不重启，在关键帧处切换 Muxer）
+    private static final long SYNC_FRAME_LEAD_MS = 100;  // 提前请求关键帧的时间（约3帧）
+    private boolean seamlessSegmentSwitch = false;
+    private final SegmentRollover segmentRollover;  // 仅在编码线程访问
+
+    // 异步编码输出（MediaCodec.setCallback，输出直接在专用线程上写入 muxer/预录缓冲）
+    private boolean asyncEncoderEnabled = false;
+    private volatile boolean asyncEncoderActive = false;  // 当前编码器是否以异步模式运行
+    private HandlerThread outputThread;
+    private Handler outputHandler;
+    private final Object outputLock = new Object();  // 异步模式下保护 muxer、事件片段和分段切换状态
+    private volatile java.util.concurrent.CountDownLatch endOfStreamLatch;
+    private static final long END_OF_STREAM_TIMEOUT_MS = 1000;  // 等待编码器输出 EOS 的上限（同步/异步模式相同）
+
+    // 编码统计（两种模式都统计，用于对比异步与轮询）
+    private volatile long submittedFrameCount = 0;  // 已送入编码器的帧数
+    private volatile long outputSampleCount = 0;    // 编码器已输出的样本数
+    private volatile long lastEncodeLatencyUs = 0;  // 送入编码器到编码输出的延迟
+    private volatile long maxEncodeLatencyUs = 0;
+    private long encodeLatencySumUs = 0;
+    private long encodeLatencySamples = 0;
+    // 每帧送入编码器时的 PTS 和 System.nanoTime()，输出时按 PTS 查找（两端都用单调时钟，不混用相机时间戳）
+    private static final int SUBMIT_TIME_SLOTS = 64;
+    private final long[] submitPtsUs = new long[SUBMIT_TIME_SLOTS];
+    private final long[] submitTimeNs = new long[SUBMIT_TIME_SLOTS];
+    private int submitSlot = 0;
+
+    // 自适应码率（按存储吞吐、中转积压和编码积压实时调整）
+    private AdaptiveBitrateController bitrateController;
+    private AdaptiveBitrateController.BacklogSource backlogSource;
+    private volatile long segmentBytesSubmitted = 0;  // 当前分段已交给 muxer 的字节数
+    private String lastBitrateCheckPath;
+    private long lastBitrateCheckSubmitted = 0;
+    private long lastBitrateCheckSize = 0;
+
     // 快速恢复机制
     private static final long RECOVERY_RETRY_INTERVAL_MS = 5000;  // 恢复重试间隔：5秒
     private static final int MAX_RECOVERY_ATTEMPTS = 60;  // 最大重试次数（5秒 × 60 = 5分钟内重试）
@@ -120,7 +163,7 @@ public class CodecVideoRecorder {
     private static final long ENCODER_HEALTH_CHECK_INTERVAL_MS = 3000;  // 健康检查间隔：3秒
     private static final int MAX_FRAMES_WITHOUT_OUTPUT = 30;  // 无输出的最大帧数阈值
     private long lastEncoderOutputTime = 0;  // 最后一次编码器输出时间
-    private int framesWithoutEncoderOutput = 0;  // 无编码器输出的连续帧数
+    private volatile int framesWithoutEncoderOutput = 0;  // 无编码器输出的连续帧数
     private volatile boolean encoderHealthy = true;  // 编码器是否健康
     private Runnable healthCheckRunnable;  // 健康检查任务
 
@@ -129,6 +172,35 @@ public class CodecVideoRecorder {
 
     // 时间水印设置
     private boolean watermarkEnabled = false;
+    private boolean watermarkGlyphAtlas = false;  // 使用字形图集渲染水印
+
+    // 预录环形缓冲（保存最近一段已编码数据，用于导出事件前片段）
+    private EncodedFrameRingBuffer preEventBuffer;
+    private long preEventWindowMs = 0;
+    private MediaFormat encoderOutputFormat;  // 编码器输出格式（事件片段 muxer 添加轨道用）
+
+    // 事件片段写入（仅在编码线程访问）
+    private RecordingMuxer eventMuxer;
+    private int eventTrackIndex = -1;
+    private String eventClipPath;
+    private long eventClipBasePtsUs = -1;
+    private long eventClipEndPtsUs = 0;
+    private int eventClipSampleCount = 0;
+    private EventClipCallback eventClipCallback;
+    private final MediaCodec.BufferInfo eventBufferInfo = new MediaCodec.BufferInfo();
+
+    // 延时录影（驻车用：每隔 timelapseIntervalMs 编码一帧，按输出帧率分配合成时间戳）
+    private long timelapseIntervalMs = 0;  // 0 表示关闭
+    private long timelapseSegmentDurationMs = 0;
+    private TimelapseFrameSelector timelapseSelector;  // 本次录制的选帧器（仅在编码线程访问）
+    private long timelapseSegmentBasePtsUs = 0;  // 当前分段第一帧的合成时间戳
+
+    // 低分辨率代理子码流（远程上传优先使用，见 ProxyStreamEncoder）
+    private File proxyDir;  // null 表示不启用
+    private int proxyMaxLongSide;
+    private int proxyBitRate;
+    private ProxyStreamEncoder.SegmentCallback proxySegmentCallback;
+    private ProxyStreamEncoder proxyEncoder;  // 仅在编码线程访问
 
     // 注意：帧同步变量已移除，帧处理现在直接在 onFrameAvailable 回调中完成
 
@@ -136,6 +208,7 @@ public class CodecVideoRecorder {
         this.cameraId = cameraId;
         this.width = width;
         this.height = height;
+        this.segmentRollover = new SegmentRollover(TAG, "Camera " + cameraId + " ", this::createMuxerInstance);
         // 创建独立的后台线程用于分段处理和文件 I/O 操作
         segmentThread = new HandlerThread("CodecRecorder-Segment-" + cameraId);
         segmentThread.start();
@@ -162,6 +235,15 @@ public class CodecVideoRecorder {
         return watermarkEnabled;
     }
 
+    /**
+     * 设置时间水印是否使用字形图集渲染（需在 prepareRecording 之前调用）
+     * 字形只在初始化时光栅化并上传一次，之后每秒只改写顶点纹理坐标
+     */
+    public void setWatermarkGlyphAtlas(boolean enabled) {
+        this.watermarkGlyphAtlas = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " Watermark glyph atlas " + (enabled ? "enabled" : "disabled"));
+    }
+
     public void setCallback(RecordCallback callback) {
         this.callback = callback;
     }
@@ -191,6 +273,167 @@ public class CodecVideoRecorder {
         return segmentDurationMs;
     }
 
+    /**
+     * 设置延时录影模式（必须在 prepareRecording 之前调用）
+     * 启用后每隔 captureIntervalMs 只编码一帧，其余帧仍通过 consumeFrame 消费；
+     * 编码帧按输出帧率分配合成时间戳，成片以正常速度播放。分段按墙钟时长 segmentDurationMs 切换
+     * @param captureIntervalMs 取帧间隔（毫秒），0 表示关闭
+     * @param segmentDurationMs 延时录影的分段时长（毫秒），不大于 0 时沿用 setSegmentDuration 的值
+     */
+    public void setTimelapse(long captureIntervalMs, long segmentDurationMs) {
+        this.timelapseIntervalMs = Math.max(0, captureIntervalMs);
+        this.timelapseSegmentDurationMs = segmentDurationMs;
+        if (timelapseIntervalMs > 0) {
+            AppLog.d(TAG, "Camera " + cameraId + " timelapse enabled: 1 frame / " + timelapseIntervalMs + "ms, segment "
+                    + (getActiveSegmentDurationMs() / 1000) + " seconds");
+        } else {
+            AppLog.d(TAG, "Camera " + cameraId + " timelapse disabled");
+        }
+    }
+
+    /**
+     * 是否启用了延时录影
+     */
+    public boolean isTimelapseEnabled() {
+        return timelapseIntervalMs > 0;
+    }
+
+    /**
+     * 当前生效的分段时长（延时录影时使用其单独的分段时长）
+     */
+    private long getActiveSegmentDurationMs() {
+        if (timelapseIntervalMs > 0 && timelapseSegmentDurationMs > 0) {
+            return timelapseSegmentDurationMs;
+        }
+        return segmentDurationMs;
+    }
+
+    /**
+     * 设置低分辨率代理子码流（必须在 prepareRecording 之前调用）
+     * 启用后在同一次渲染中把画面再画到一个小尺寸编码器，输出写入 dir 下与主分段同名的文件
+     * @param dir 代理文件目录，null 表示关闭
+     * @param maxLongSide 代理画面长边上限（像素）
+     * @param bitRate 代理码率（bps）
+     * @param segmentCallback 代理文件完成回调，可为 null
+     */
+    public void setProxyStream(File dir, int maxLongSide, int bitRate, ProxyStreamEncoder.SegmentCallback segmentCallback) {
+        this.proxyDir = dir;
+        this.proxyMaxLongSide = maxLongSide;
+        this.proxyBitRate = bitRate;
+        this.proxySegmentCallback = segmentCallback;
+        if (dir != null) {
+            AppLog.d(TAG, "Camera " + cameraId + " proxy stream enabled: long side " + maxLongSide + ", "
+                    + (bitRate / 1000) + " Kbps -> " + dir);
+        }
+    }
+
+    /**
+     * 设置共享 GL 引擎（必须在 prepareRecording 之前调用）
+     * 设置后本录制器的渲染、编码输出读取都在共享渲染线程上执行，不再创建独立的编码线程和 EGL context
+     * @param engine 共享引擎，null 表示使用独立线程和 context
+     */
+    public void setSharedGlEngine(SharedGlEngine engine) {
+        this.sharedGlEngine = engine;
+    }
+
+    /**
+     * 设置无缝分段切换模式
+     * 启用后分段切换时不停止编码器：提前请求关键帧，在该 IDR 帧处把输出交给新的 Muxer，
+     * 相邻分段首尾相接，不丢帧，也没有编码器重建开销。切换失败时自动回退到重建编码器的方式。
+     * @param enabled true 表示启用
+     */
+    public void setSeamlessSegmentSwitch(boolean enabled) {
+        this.seamlessSegmentSwitch = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " seamless segment switch " + (enabled ? "enabled" : "disabled"));
+    }
+
+    /**
+     * 是否启用了无缝分段切换
+     */
+    public boolean isSeamlessSegmentSwitch() {
+        return seamlessSegmentSwitch;
+    }
+
+    /**
+     * 设置异步编码模式（必须在 prepareRecording 之前调用）
+     * 启用后编码器通过 MediaCodec.setCallback 在专用线程上回调输出，编码线程每帧不再轮询等待输出；
+     * setCallback 失败时自动回退到 dequeueOutputBuffer 轮询
+     * @param enabled true 表示启用
+     */
+    public void setAsyncEncoder(boolean enabled) {
+        this.asyncEncoderEnabled = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " async encoder " + (enabled ? "enabled" : "disabled"));
+    }
+
+    /**
+     * 当前编码器是否以异步回调模式运行
+     */
+    public boolean isAsyncEncoderActive() {
+        return asyncEncoderActive;
+    }
+
+    /**
+     * 启用自适应码率（必须在 setBitRate/setFrameRate 之后、prepareRecording 之前调用）
+     * 以 setBitRate 设置的码率为上限，每次文件大小检查时根据存储吞吐、中转积压和编码积压调整，
+     * 通过 MediaCodec.setParameters(PARAMETER_KEY_VIDEO_BITRATE) 实时生效，不重建编码器
+     * @param minBitrate 最低码率（bps）
+     * @param source 中转积压数据源，可为 null
+     */
+    public void setAdaptiveBitrate(int minBitrate, AdaptiveBitrateController.BacklogSource source) {
+        this.bitrateController = new AdaptiveBitrateController(minBitrate, bitRate, frameRate);
+        this.backlogSource = source;
+        AppLog.d(TAG, "Camera " + cameraId + " adaptive bitrate enabled: " + (bitrateController.getMinBitrate() / 1000)
+                + "-" + (bitrateController.getMaxBitrate() / 1000) + " Kbps");
+    }
+
+    /**
+     * 获取编码器当前实际使用的码率（启用自适应码率时可能低于配置值）
+     */
+    public int getCurrentBitRate() {
+        return bitrateController != null ? bitrateController.getCurrentBitrate() : bitRate;
+    }
+
+    /**
+     * 获取编码器队列深度（已送入编码器但尚未输出的帧数）
+     */
+    public long getEncoderQueueDepth() {
+        return Math.max(0, submittedFrameCount - outputSampleCount);
+    }
+
+    /**
+     * 获取最近一帧的编码延迟（送入编码器到编码输出，毫秒）
+     */
+    public long getLastEncodeLatencyMs() {
+        return lastEncodeLatencyUs / 1000;
+    }
+
+    /**
+     * 获取平均编码延迟（毫秒）
+     */
+    public synchronized long getAverageEncodeLatencyMs() {
+        return encodeLatencySamples > 0 ? encodeLatencySumUs / encodeLatencySamples / 1000 : 0;
+    }
+
+    /**
+     * 获取最大编码延迟（毫秒）
+     */
+    public long getMaxEncodeLatencyMs() {
+        return maxEncodeLatencyUs / 1000;
+    }
+
+    /**
+     * 设置是否使用 fMP4 封装
+     * 启用后使用纯 Java 的分片 MP4 写入器代替 MediaMuxer，每隔 fragmentDurationMs 写出一个 moof/mdat 分片，
+     * ACC 断电时文件仍可播放到最后一个分片，而不是因为缺少 moov 整段丢失
+     * @param enabled true 表示使用 fMP4
+     * @param fragmentDurationMs 分片时长（毫秒），<=0 使用默认值 2 秒
+     */
+    public void setFragmentedMp4(boolean enabled, long fragmentDurationMs) {
+        this.fragmentedMp4Enabled = enabled;
+        this.fragmentDurationMs = fragmentDurationMs > 0 ? fragmentDurationMs : DEFAULT_FRAGMENT_DURATION_MS;
+        AppLog.d(TAG, "Camera " + cameraId + " container: " + (enabled ? "fMP4 (fragment " + this.fragmentDurationMs + "ms)" : "MP4 (MediaMuxer)"));
+    }
+
     /**
      * 设置录制码率
      * @param bitrate 码率（bps）
@@ -209,6 +452,72 @@ public class CodecVideoRecorder {
         AppLog.d(TAG, "Camera " + cameraId + " frame rate set to " + fps + " fps");
     }
 
+    /**
+     * 设置预录缓冲
+     * 启用后编码器输出会同时保存到内存环形缓冲中，可通过 startEventClip 导出事件前片段
+     * @param windowMs 预录时长（毫秒），0 表示禁用
+     * @param maxBytes 本摄像头的内存上限（字节）
+     */
+    public void setPreEventBuffer(long windowMs, long maxBytes) {
+        this.preEventWindowMs = windowMs;
+        if (windowMs <= 0 || maxBytes <= 0) {
+            if (preEventBuffer != null) {
+                preEventBuffer.release();
+                preEventBuffer = null;
+            }
+            AppLog.d(TAG, "Camera " + cameraId + " pre-event buffer disabled");
+            return;
+        }
+        // 多保留一个 I 帧间隔，保证窗口起点之前总有关键帧
+        long maxDurationUs = (windowMs + I_FRAME_INTERVAL * 1000L) * 1000L;
+        if (preEventBuffer == null) {
+            preEventBuffer = new EncodedFrameRingBuffer(maxBytes, maxDurationUs);
+        } else {
+            preEventBuffer.setLimits(maxBytes, maxDurationUs);
+        }
+        AppLog.d(TAG, "Camera " + cameraId + " pre-event buffer: " + (windowMs / 1000) + "s, cap " + (maxBytes / 1024 / 1024) + " MB");
+    }
+
+    /**
+     * 是否启用了预录缓冲
+     */
+    public boolean isPreEventBufferEnabled() {
+        return preEventBuffer != null;
+    }
+
+    /**
+     * 事件片段回调接口
+     */
+    public interface EventClipCallback {
+        /**
+         * 事件片段写入完成
+         * @param filePath 片段路径
+         * @param success 是否成功（失败时文件已删除）
+         */
+        void onEventClipComplete(String filePath, boolean success);
+    }
+
+    /**
+     * 导出事件片段：先写入预录缓冲中的数据，再继续写入后续 postRollMs 的实时编码数据
+     * 不重新编码，写入在编码线程上完成
+     * @param filePath 片段输出路径
+     * @param postRollMs 事件后继续录制的时长（毫秒）
+     * @param callback 完成回调（在分段线程上调用）
+     * @return true 表示已提交
+     */
+    public boolean startEventClip(String filePath, long postRollMs, EventClipCallback callback) {
+        if (preEventBuffer == null || encoderHandler == null || !isRecording.get()) {
+            AppLog.w(TAG, "Camera " + cameraId + " cannot start event clip (buffer disabled or not recording)");
+            return false;
+        }
+        encoderHandler.post(() -> {
+            synchronized (outputLock) {
+                openEventClip(filePath, postRollMs, callback);
+            }
+        });
+        return true;
+    }
+
     /**
      * 获取当前配置的码率
      */
@@ -251,7 +560,9 @@ public class CodecVideoRecorder {
         this.segmentIndex = 0;
         this.recordedFrameCount = 0;
         this.firstFrameTimestampNs = -1;  // 重置时间戳基准
+        clearSubmitTimes();
         this.encodedOutputFrameCount = 0;  // 重置编码输出帧计数
+        this.timelapseSelector = timelapseIntervalMs > 0 ? new TimelapseFrameSelector(timelapseIntervalMs, frameRate) : null;
 
         // 重置健康检查状态
         this.encoderHealthy = true;
@@ -274,15 +585,21 @@ public class CodecVideoRecorder {
         }
 
         try {
-            // 创建编码线程
-            encoderThread = new HandlerThread("Encoder-" + cameraId);
-            encoderThread.start();
-            encoderHandler = new Handler(encoderThread.getLooper());
+            // 创建编码线程（共享模式下使用共享渲染线程）
+            if (sharedGlEngine != null) {
+                sharedGlEngine.acquire();
+                sharedGlAcquired = true;
+                encoderHandler = sharedGlEngine.getHandler();
+            } else {
+                encoderThread = new HandlerThread("Encoder-" + cameraId);
+                encoderThread.start();
+                encoderHandler = new Handler(encoderThread.getLooper());
+            }
 
             // 创建 MediaCodec 编码器
             createEncoder();
 
-            // 创建 MediaMuxer
+            // 创建 Muxer
             createMuxer(filePath);
 
             // 在编码线程上初始化 EGL 和 SurfaceTexture（重要：必须在同一线程上）
@@ -294,7 +611,7 @@ public class CodecVideoRecorder {
             encoderHandler.post(() -> {
                 try {
                     // 创建 EGL 渲染器（在编码线程上）
-                    eglEncoder = new EglSurfaceEncoder(cameraId, width, height);
+                    eglEncoder = new EglSurfaceEncoder(cameraId, width, height, sharedGlAcquired ? sharedGlEngine : null);
                     resultTextureId[0] = eglEncoder.initialize(encoderInputSurface);
                     textureId = resultTextureId[0];
 
@@ -329,6 +646,14 @@ public class CodecVideoRecorder {
                                 return;
                             }
 
+                            // 延时录影：未选中的帧只消费不编码
+                            if (timelapseSelector != null && !timelapseSelector.shouldEncode(System.nanoTime())) {
+                                if (eglEncoder != null && eglEncoder.isInitialized()) {
+                                    eglEncoder.consumeFrame();
+                                }
+                                return;
+                            }
+
                             // 获取绝对时间戳（系统启动以来的纳秒）
                             long absoluteTimestampNs = surfaceTexture.getTimestamp();
                             
@@ -342,19 +667,29 @@ public class CodecVideoRecorder {
                             }
                             long relativeTimestampNs = absoluteTimestampNs - firstFrameTimestampNs;
 
-                            // 直接渲染帧到编码器（使用相对时间戳）
+                            // 直接渲染帧到编码器（使用相对时间戳，延时录影使用合成时间戳）
                             if (eglEncoder != null && eglEncoder.isInitialized()) {
-                                eglEncoder.drawFrame(relativeTimestampNs);
+                                long presentationTimeNs = timelapseSelector != null
+                                        ? timelapseSelector.nextPresentationTimeNs() : relativeTimestampNs;
+                                recordSubmitTime(presentationTimeNs / 1000);
+                                eglEncoder.drawFrame(presentationTimeNs);
                                 recordedFrameCount++;
+                                submittedFrameCount++;
 
                                 // 定期输出帧计数
                                 if (recordedFrameCount % 100 == 0) {
-                                    AppLog.d(TAG, "Camera " + cameraId + " Encoded frames: " + recordedFrameCount);
+                                    AppLog.d(TAG, "Camera " + cameraId + " Encoded frames: " + recordedFrameCount
+                                            + ", queue depth: " + getEncoderQueueDepth()
+                                            + ", latency: " + getLastEncodeLatencyMs() + "ms (avg " + getAverageEncodeLatencyMs()
+                                            + "ms, max " + getMaxEncodeLatencyMs() + "ms), " + (asyncEncoderActive ? "async" : "polling"));
                                 }
                             }
 
                             // 从编码器获取输出数据并写入 muxer
                             drainEncoder(false);
+                            if (proxyEncoder != null) {
+                                proxyEncoder.drain();
+                            }
 
                         } catch (Exception e) {
                             AppLog.e(TAG, "Camera " + cameraId + " Error processing frame", e);
@@ -367,12 +702,16 @@ public class CodecVideoRecorder {
                     eglEncoder.setInputSurfaceTexture(inputSurfaceTexture);
 
                     // 设置时间水印（如果启用）
+                    eglEncoder.setWatermarkGlyphAtlas(watermarkGlyphAtlas);
                     if (watermarkEnabled) {
                         eglEncoder.setWatermarkEnabled(true);
                     }
 
                     AppLog.d(TAG, "Camera " + cameraId + " EGL/SurfaceTexture initialized on encoder thread, textureId=" + textureId + ", watermark=" + watermarkEnabled);
 
+                    // 代理子码流失败不影响主录制
+                    startProxyStream(filePath);
+
                 } catch (Exception e) {
                     AppLog.e(TAG, "Camera " + cameraId + " Failed to initialize EGL on encoder thread", e);
                     initException[0] = e;
@@ -514,6 +853,12 @@ public class CodecVideoRecorder {
         }
 
         AppLog.d(TAG, "Camera " + cameraId + " Stopping codec recording");
+        TimelapseFrameSelector selector = timelapseSelector;
+        if (selector != null) {
+            AppLog.d(TAG, "Camera " + cameraId + " timelapse stats: encoded " + selector.getSelectedFrames()
+                    + ", skipped " + selector.getSkippedFrames()
+                    + String.format(Locale.US, " (%.2f%% encoded)", selector.getEncodeRatio() * 100));
+        }
 
         // 取消定时器
         if (segmentRunnable != null) {
@@ -552,22 +897,30 @@ public class CodecVideoRecorder {
         // 发送结束信号给编码器
         if (encoder != null) {
             try {
-                encoder.signalEndOfInputStream();
-                // 排空编码器
-                drainEncoder(true);
+                signalEndOfStreamAndDrain();
             } catch (Exception e) {
                 AppLog.e(TAG, "Camera " + cameraId + " Error signaling end of stream", e);
             }
         }
 
-        // 停止 muxer
-        if (muxerStarted && muxer != null) {
-            try {
-                muxer.stop();
-            } catch (Exception e) {
-                AppLog.e(TAG, "Camera " + cameraId + " Error stopping muxer", e);
+        stopProxyStream();
+
+        synchronized (outputLock) {
+            // 结束未完成的事件片段
+            finishEventClip();
+
+            // 丢弃尚未启动的下一段 Muxer
+            segmentRollover.discard();
+
+            // 停止 muxer
+            if (muxerStarted && muxer != null) {
+                try {
+                    muxer.stop();
+                } catch (Exception e) {
+                    AppLog.e(TAG, "Camera " + cameraId + " Error stopping muxer", e);
+                }
+                muxerStarted = false;
             }
-            muxerStarted = false;
         }
 
         // 验证并清理所有录制的文件
@@ -604,10 +957,34 @@ public class CodecVideoRecorder {
 
         // 释放 EGL 渲染器
         if (eglEncoder != null) {
-            eglEncoder.release();
+            if (sharedGlAcquired && encoderHandler != null) {
+                // 共享模式：GL 对象属于共享 context，必须在渲染线程上释放
+                final EglSurfaceEncoder encoderToRelease = eglEncoder;
+                final java.util.concurrent.CountDownLatch releaseLatch = new java.util.concurrent.CountDownLatch(1);
+                encoderHandler.post(() -> {
+                    try {
+                        encoderToRelease.release();
+                    } finally {
+                        releaseLatch.countDown();
+                    }
+                });
+                try {
+                    releaseLatch.await(1, java.util.concurrent.TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                eglEncoder.release();
+            }
             eglEncoder = null;
         }
 
+        // 释放预录缓冲
+        if (preEventBuffer != null) {
+            preEventBuffer.release();
+            preEventBuffer = null;
+        }
+
         // 释放缓存的录制 Surface（必须在 SurfaceTexture 之前释放）
         if (cachedRecordSurface != null) {
             cachedRecordSurface.release();
@@ -616,19 +993,23 @@ public class CodecVideoRecorder {
 
         // 释放 SurfaceTexture
         if (inputSurfaceTexture != null) {
+            // 共享渲染线程会继续运行，先解除回调
+            inputSurfaceTexture.setOnFrameAvailableListener(null);
             inputSurfaceTexture.release();
             inputSurfaceTexture = null;
         }
 
-        // 释放编码器
-        if (encoder != null) {
-            try {
-                encoder.stop();
-            } catch (Exception e) {
-                // Ignore
+        // 释放编码器（异步模式下持锁，避免与输出回调并发）
+        synchronized (outputLock) {
+            if (encoder != null) {
+                try {
+                    encoder.stop();
+                } catch (Exception e) {
+                    // Ignore
+                }
+                encoder.release();
+                encoder = null;
             }
-            encoder.release();
-            encoder = null;
         }
 
         // 释放编码器输入 Surface
@@ -650,6 +1031,18 @@ public class CodecVideoRecorder {
             muxer = null;
         }
 
+        // 停止异步输出线程
+        if (outputThread != null) {
+            outputThread.quitSafely();
+            try {
+                outputThread.join(1000);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            outputThread = null;
+            outputHandler = null;
+        }
+
         // 停止编码线程
         if (encoderThread != null) {
             encoderThread.quitSafely();
@@ -662,6 +1055,13 @@ public class CodecVideoRecorder {
             encoderHandler = null;
         }
 
+        // 释放共享 GL 引擎引用（最后一路释放时引擎退出渲染线程）
+        if (sharedGlAcquired) {
+            sharedGlAcquired = false;
+            encoderHandler = null;
+            sharedGlEngine.release();
+        }
+
         // 清理分段处理线程
         if (segmentHandler != null) {
             segmentHandler.removeCallbacksAndMessages(null);
@@ -730,29 +1130,132 @@ public class CodecVideoRecorder {
     private void createEncoder() throws IOException {
         MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
         format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        // 重建编码器时沿用自适应码率的当前值，避免重新从最高码率开始
+        format.setInteger(MediaFormat.KEY_BIT_RATE, getCurrentBitRate());
         format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
         format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
 
         encoder = MediaCodec.createEncoderByType(MIME_TYPE);
+
+        // 异步模式：setCallback 必须在 configure 之前调用
+        asyncEncoderActive = false;
+        if (asyncEncoderEnabled) {
+            try {
+                if (outputThread == null) {
+                    outputThread = new HandlerThread("EncoderOutput-" + cameraId);
+                    outputThread.start();
+                    outputHandler = new Handler(outputThread.getLooper());
+                }
+                encoder.setCallback(new EncoderCallback(), outputHandler);
+                asyncEncoderActive = true;
+            } catch (Exception e) {
+                AppLog.w(TAG, "Camera " + cameraId + " Async encoder unavailable, falling back to polling: " + e.getMessage());
+            }
+        }
+
         encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
 
         encoderInputSurface = encoder.createInputSurface();
         encoder.start();
 
         bufferInfo = new MediaCodec.BufferInfo();
+        // 旧编码器中未输出的帧已丢弃，队列深度从 0 重新计算
+        outputSampleCount = submittedFrameCount;
+        clearSubmitTimes();
 
         AppLog.d(TAG, "Camera " + cameraId + " Encoder created: " + width + "x" + height + 
-                " @ " + frameRate + "fps, " + (bitRate / 1000) + " Kbps");
+                " @ " + frameRate + "fps, " + (getCurrentBitRate() / 1000) + " Kbps, " + (asyncEncoderActive ? "async" : "polling"));
+    }
+
+    /**
+     * 按当前封装格式创建 Muxer 实例
+     */
+    private RecordingMuxer createMuxerInstance(String filePath) throws IOException {
+        if (fragmentedMp4Enabled) {
+            return new FragmentedMp4Muxer(filePath, frameRate, fragmentDurationMs);
+        }
+        return new MediaMuxerAdapter(filePath);
+    }
+
+    /**
+     * 启动代理子码流（在编码线程上执行，EGL 已初始化）
+     */
+    private void startProxyStream(String filePath) {
+        if (proxyDir == null || eglEncoder == null) {
+            return;
+        }
+        int[] size = ProxyStreamEncoder.computeProxySize(width, height, proxyMaxLongSide);
+        ProxyStreamEncoder proxy = new ProxyStreamEncoder(cameraId, size[0], size[1], proxyBitRate, frameRate, proxyDir,
+                proxySegmentCallback);
+        try {
+            Surface proxySurface = proxy.start(filePath);
+            eglEncoder.setSubStreamSurface(proxySurface, size[0], size[1]);
+            proxyEncoder = proxy;
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Failed to start proxy stream, recording without it", e);
+            proxy.release();
+        }
+    }
+
+    /**
+     * 代理子码流跟随主录制切换到新分段（可在任意线程调用，实际切换在编码线程执行）
+     */
+    private void rolloverProxyStream(String segmentPath) {
+        Handler handler = encoderHandler;
+        if (proxyDir == null || handler == null) {
+            return;
+        }
+        handler.post(() -> {
+            if (proxyEncoder != null) {
+                proxyEncoder.rollover(segmentPath);
+            }
+        });
     }
 
     /**
-     * 创建 MediaMuxer
+     * 停止代理子码流，完成当前代理文件（在编码线程上执行，最多等待 1 秒）
+     */
+    private void stopProxyStream() {
+        Handler handler = encoderHandler;
+        if (proxyDir == null || handler == null) {
+            return;
+        }
+        Runnable stopTask = () -> {
+            if (eglEncoder != null) {
+                eglEncoder.setSubStreamSurface(null, 0, 0);
+            }
+            if (proxyEncoder != null) {
+                proxyEncoder.stop();
+                proxyEncoder = null;
+            }
+        };
+        if (Looper.myLooper() == handler.getLooper()) {
+            stopTask.run();
+            return;
+        }
+        final java.util.concurrent.CountDownLatch stopLatch = new java.util.concurrent.CountDownLatch(1);
+        handler.post(() -> {
+            try {
+                stopTask.run();
+            } finally {
+                stopLatch.countDown();
+            }
+        });
+        try {
+            stopLatch.await(1, java.util.concurrent.TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 创建 Muxer
      */
     private void createMuxer(String filePath) throws IOException {
-        muxer = new MediaMuxer(filePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        muxer = createMuxerInstance(filePath);
         videoTrackIndex = -1;
         muxerStarted = false;
+        segmentBytesSubmitted = 0;
 
         AppLog.d(TAG, "Camera " + cameraId + " Muxer created: " + filePath);
     }
@@ -762,7 +1265,7 @@ public class CodecVideoRecorder {
     // 这样可以避免 Handler 死锁问题
 
     /**
-     * 排空编码器输出
+     * 排空编码器输出（轮询模式）
      * 
      * 增强错误处理：
      * - 捕获 IllegalStateException 并标记编码器不健康
@@ -773,7 +1276,18 @@ public class CodecVideoRecorder {
             return;
         }
 
-        final int TIMEOUT_USEC = 10000;
+        // 异步模式下输出由 EncoderCallback 处理，这里只累计无输出帧数供健康检查（收到输出时清零）
+        if (asyncEncoderActive) {
+            if (!endOfStream) {
+                framesWithoutEncoderOutput++;
+            }
+            return;
+        }
+
+        // 共享渲染线程上不能阻塞等待输出，否则会拖慢其他摄像头的帧；未取到的输出在下一帧时读取
+        final int TIMEOUT_USEC = (sharedGlAcquired && !endOfStream) ? 0 : 10000;
+        // 排空到 EOS 时限定总时长：编码器始终不输出 EOS 时不能让编码线程一直空转
+        final long endOfStreamDeadlineNs = System.nanoTime() + END_OF_STREAM_TIMEOUT_MS * 1000000L;
         boolean gotOutput = false;
 
         try {
@@ -792,58 +1306,17 @@ public class CodecVideoRecorder {
                     if (!endOfStream) {
                         break;  // 没有数据了
                     }
-                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    // 输出格式变化，添加视频轨道
-                    if (muxerStarted) {
-                        AppLog.w(TAG, "Camera " + cameraId + " Format changed twice");
-                    } else {
-                        MediaFormat newFormat = encoder.getOutputFormat();
-                        videoTrackIndex = muxer.addTrack(newFormat);
-                        muxer.start();
-                        muxerStarted = true;
-                        encoderHealthy = true;  // 收到格式变化说明编码器正常
-                        lastEncoderOutputTime = System.currentTimeMillis();
-                        AppLog.d(TAG, "Camera " + cameraId + " Muxer started, track=" + videoTrackIndex);
+                    if (System.nanoTime() - endOfStreamDeadlineNs > 0) {
+                        AppLog.w(TAG, "Camera " + cameraId + " Timeout waiting for encoder end of stream");
+                        break;
                     }
+                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    handleOutputFormatChanged(encoder.getOutputFormat());
                     gotOutput = true;
                 } else if (outputBufferIndex >= 0) {
                     ByteBuffer encodedData = encoder.getOutputBuffer(outputBufferIndex);
-
-                    if (encodedData == null) {
-                        AppLog.e(TAG, "Camera " + cameraId + " Encoder output buffer " + outputBufferIndex + " was null");
-                    } else if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        // 配置数据，忽略（已在 FORMAT_CHANGED 中处理）
-                        bufferInfo.size = 0;
-                    }
-
-                    if (bufferInfo.size != 0) {
-                        if (!muxerStarted) {
-                            AppLog.e(TAG, "Camera " + cameraId + " Muxer not started but got data");
-                        } else {
-                            // 使用系统时间计算 PTS，而不是基于帧数和假设帧率
-                            // 优点：
-                            //   1. 视频时长精确反映实际录制时长
-                            //   2. 不受帧率波动影响（实际帧率可能是 25-30fps 不等）
-                            //   3. 掉帧时时间轴仍然正确（只是画面会卡顿）
-                            long currentTimeNs = System.nanoTime();
-                            long calculatedPtsUs = (currentTimeNs - segmentStartTimeNs) / 1000;
-                            
-                            // 调试日志（仅第一帧）
-                            if (encodedOutputFrameCount == 0) {
-                                AppLog.d(TAG, "Camera " + cameraId + " First frame PTS: " + calculatedPtsUs + " us");
-                            }
-                            
-                            // 使用计算的时间戳
-                            bufferInfo.presentationTimeUs = calculatedPtsUs;
-                            
-                            encodedData.position(bufferInfo.offset);
-                            encodedData.limit(bufferInfo.offset + bufferInfo.size);
-                            muxer.writeSampleData(videoTrackIndex, encodedData, bufferInfo);
-                            
-                            encodedOutputFrameCount++;
-                            lastEncoderOutputTime = System.currentTimeMillis();
-                            gotOutput = true;
-                        }
+                    if (handleEncodedOutput(encodedData, bufferInfo)) {
+                        gotOutput = true;
                     }
 
                     try {
@@ -872,6 +1345,342 @@ public class CodecVideoRecorder {
         }
     }
 
+    /**
+     * 发送结束信号并等待编码器的剩余输出全部写入 muxer（在编码线程上调用）
+     * 同步模式直接排空到 EOS；异步模式下输出在回调线程上写入，等待回调收到 EOS
+     */
+    private void signalEndOfStreamAndDrain() throws InterruptedException {
+        if (asyncEncoderActive) {
+            endOfStreamLatch = new java.util.concurrent.CountDownLatch(1);
+            encoder.signalEndOfInputStream();
+            if (!endOfStreamLatch.await(END_OF_STREAM_TIMEOUT_MS, java.util.concurrent.TimeUnit.MILLISECONDS)) {
+                AppLog.w(TAG, "Camera " + cameraId + " Timeout waiting for encoder end of stream");
+            }
+            endOfStreamLatch = null;
+        } else {
+            encoder.signalEndOfInputStream();
+            drainEncoder(true);
+        }
+    }
+
+    /**
+     * 处理编码器输出格式变化：添加视频轨道并启动 muxer
+     */
+    private void handleOutputFormatChanged(MediaFormat newFormat) {
+        if (muxerStarted) {
+            AppLog.w(TAG, "Camera " + cameraId + " Format changed twice");
+            return;
+        }
+        encoderOutputFormat = newFormat;
+        videoTrackIndex = muxer.addTrack(newFormat);
+        muxer.start();
+        muxerStarted = true;
+        encoderHealthy = true;  // 收到格式变化说明编码器正常
+        lastEncoderOutputTime = System.currentTimeMillis();
+        AppLog.d(TAG, "Camera " + cameraId + " Muxer started, track=" + videoTrackIndex);
+    }
+
+    /**
+     * 处理一个编码输出样本：写入预录缓冲、事件片段和当前分段 muxer
+     * @return true 表示已写入 muxer
+     */
+    private boolean handleEncodedOutput(ByteBuffer encodedData, MediaCodec.BufferInfo info) {
+        if (encodedData == null) {
+            AppLog.e(TAG, "Camera " + cameraId + " Encoder output buffer was null");
+            return false;
+        }
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // 配置数据，忽略（已在 FORMAT_CHANGED 中处理）
+            info.size = 0;
+        }
+        if (info.size == 0) {
+            return false;
+        }
+
+        // 编码器原样输出渲染时设置的 PTS，按 PTS 找到该帧的送入时刻得到编码延迟
+        outputSampleCount++;
+        long submittedAtNs = takeSubmitTime(info.presentationTimeUs);
+        if (submittedAtNs >= 0) {
+            recordEncodeLatency((System.nanoTime() - submittedAtNs) / 1000);
+        }
+
+        // 预录缓冲和事件片段使用单调时钟 PTS，不受分段切换影响
+        long monotonicPtsUs = System.nanoTime() / 1000;
+        boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        encodedData.position(info.offset);
+        encodedData.limit(info.offset + info.size);
+        if (preEventBuffer != null) {
+            preEventBuffer.add(encodedData, monotonicPtsUs, keyFrame);
+        }
+        if (eventMuxer != null) {
+            writeEventClipSample(encodedData, monotonicPtsUs, keyFrame);
+        }
+
+        // 无缝切换：新分段从这个关键帧开始
+        if (segmentRollover.isPending() && keyFrame) {
+            completeSeamlessRollover();
+        }
+
+        if (!muxerStarted) {
+            AppLog.e(TAG, "Camera " + cameraId + " Muxer not started but got data");
+            return false;
+        }
+
+        // 使用系统时间计算 PTS，而不是基于帧数和假设帧率
+        // 优点：
+        //   1. 视频时长精确反映实际录制时长
+        //   2. 不受帧率波动影响（实际帧率可能是 25-30fps 不等）
+        //   3. 掉帧时时间轴仍然正确（只是画面会卡顿）
+        // 延时录影例外：使用渲染时的合成时间戳，每个分段从 0 开始
+        long calculatedPtsUs;
+        if (timelapseSelector != null) {
+            if (encodedOutputFrameCount == 0) {
+                timelapseSegmentBasePtsUs = info.presentationTimeUs;
+            }
+            calculatedPtsUs = info.presentationTimeUs - timelapseSegmentBasePtsUs;
+        } else {
+            long currentTimeNs = System.nanoTime();
+            calculatedPtsUs = (currentTimeNs - segmentStartTimeNs) / 1000;
+        }
+
+        // 调试日志（仅第一帧）
+        if (encodedOutputFrameCount == 0) {
+            AppLog.d(TAG, "Camera " + cameraId + " First frame PTS: " + calculatedPtsUs + " us");
+        }
+
+        // 使用计算的时间戳
+        info.presentationTimeUs = calculatedPtsUs;
+
+        encodedData.position(info.offset);
+        encodedData.limit(info.offset + info.size);
+        muxer.writeSampleData(videoTrackIndex, encodedData, info);
+
+        segmentBytesSubmitted += info.size;
+        encodedOutputFrameCount++;
+        lastEncoderOutputTime = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * 记录一帧送入编码器的时刻（编码线程）
+     */
+    private synchronized void recordSubmitTime(long ptsUs) {
+        submitPtsUs[submitSlot] = ptsUs;
+        submitTimeNs[submitSlot] = System.nanoTime();
+        submitSlot = (submitSlot + 1) % SUBMIT_TIME_SLOTS;
+    }
+
+    /**
+     * 取出 PTS 对应帧的送入时刻（输出线程），找不到（已被覆盖或编码器已重建）返回 -1
+     */
+    private synchronized long takeSubmitTime(long ptsUs) {
+        for (int i = 1; i <= SUBMIT_TIME_SLOTS; i++) {
+            int slot = (submitSlot - i + SUBMIT_TIME_SLOTS) % SUBMIT_TIME_SLOTS;
+            if (submitPtsUs[slot] == ptsUs) {
+                submitPtsUs[slot] = -1;
+                return submitTimeNs[slot];
+            }
+        }
+        return -1;
+    }
+
+    private synchronized void clearSubmitTimes() {
+        java.util.Arrays.fill(submitPtsUs, -1);
+        submitSlot = 0;
+    }
+
+    private synchronized void recordEncodeLatency(long latencyUs) {
+        if (latencyUs < 0) {
+            return;
+        }
+        lastEncodeLatencyUs = latencyUs;
+        if (latencyUs > maxEncodeLatencyUs) {
+            maxEncodeLatencyUs = latencyUs;
+        }
+        encodeLatencySumUs += latencyUs;
+        encodeLatencySamples++;
+    }
+
+    /**
+     * 异步编码回调（在 outputHandler 线程上执行）
+     * 输出直接写入 muxer/预录缓冲；编码线程上修改这些状态的操作都持有 outputLock
+     */
+    private class EncoderCallback extends MediaCodec.Callback {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            // 输入来自 Surface，不使用输入缓冲区
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            synchronized (outputLock) {
+                // 编码器已被替换（分段切换或重建），丢弃旧编码器的残留回调
+                if (codec != encoder || isReleased) {
+                    try {
+                        codec.releaseOutputBuffer(index, false);
+                    } catch (Exception ignored) {
+                    }
+                    return;
+                }
+                try {
+                    if (handleEncodedOutput(codec.getOutputBuffer(index), info)) {
+                        framesWithoutEncoderOutput = 0;
+                    }
+                    codec.releaseOutputBuffer(index, false);
+                } catch (IllegalStateException e) {
+                    AppLog.e(TAG, "Camera " + cameraId + " Encoder in invalid state during async output", e);
+                    encoderHealthy = false;
+                } catch (Exception e) {
+                    AppLog.e(TAG, "Camera " + cameraId + " Unexpected error in async output", e);
+                    encoderHealthy = false;
+                }
+            }
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                java.util.concurrent.CountDownLatch latch = endOfStreamLatch;
+                if (latch != null) {
+                    latch.countDown();
+                }
+            }
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            synchronized (outputLock) {
+                if (codec != encoder || muxer == null) {
+                    return;
+                }
+                try {
+                    handleOutputFormatChanged(format);
+                    framesWithoutEncoderOutput = 0;
+                } catch (Exception e) {
+                    AppLog.e(TAG, "Camera " + cameraId + " Failed to start muxer on format change", e);
+                    encoderHealthy = false;
+                }
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            if (codec != encoder) {
+                return;
+            }
+            // 标记不健康，由健康检查在编码线程上重建
+            AppLog.e(TAG, "Camera " + cameraId + " Async encoder error (recoverable=" + e.isRecoverable() + ")", e);
+            encoderHealthy = false;
+        }
+    }
+
+    /**
+     * 打开事件片段 muxer 并写入预录缓冲数据（在编码线程上执行）
+     */
+    private void openEventClip(String filePath, long postRollMs, EventClipCallback callback) {
+        if (eventMuxer != null) {
+            AppLog.w(TAG, "Camera " + cameraId + " event clip already in progress, finishing previous one");
+            finishEventClip();
+        }
+        if (preEventBuffer == null || encoderOutputFormat == null) {
+            AppLog.w(TAG, "Camera " + cameraId + " event clip skipped: encoder output format not available yet");
+            if (callback != null) {
+                segmentHandler.post(() -> callback.onEventClipComplete(filePath, false));
+            }
+            return;
+        }
+
+        try {
+            eventMuxer = createMuxerInstance(filePath);
+            eventTrackIndex = eventMuxer.addTrack(encoderOutputFormat);
+            eventMuxer.start();
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Failed to create event clip muxer", e);
+            if (eventMuxer != null) {
+                try {
+                    eventMuxer.release();
+                } catch (Exception ignored) {
+                }
+                eventMuxer = null;
+            }
+            new File(filePath).delete();
+            if (callback != null) {
+                segmentHandler.post(() -> callback.onEventClipComplete(filePath, false));
+            }
+            return;
+        }
+
+        eventClipPath = filePath;
+        eventClipCallback = callback;
+        eventClipBasePtsUs = -1;
+        eventClipSampleCount = 0;
+        eventClipEndPtsUs = System.nanoTime() / 1000 + postRollMs * 1000;
+
+        int preRollSamples = preEventBuffer.writeTo(preEventWindowMs * 1000, this::writeEventClipSample);
+        AppLog.d(TAG, "Camera " + cameraId + " event clip started: " + filePath + ", pre-roll samples: " + preRollSamples
+                + " (" + (preEventBuffer.getBufferedDurationUs() / 1000) + " ms buffered)");
+    }
+
+    /**
+     * 写入一个事件片段样本（在编码线程上执行）
+     * 达到事件后时长时自动结束片段
+     */
+    private void writeEventClipSample(ByteBuffer data, long monotonicPtsUs, boolean keyFrame) {
+        if (eventMuxer == null) {
+            return;
+        }
+        if (monotonicPtsUs > eventClipEndPtsUs) {
+            finishEventClip();
+            return;
+        }
+        if (eventClipBasePtsUs < 0) {
+            eventClipBasePtsUs = monotonicPtsUs;
+        }
+        try {
+            eventBufferInfo.set(data.position(), data.remaining(), monotonicPtsUs - eventClipBasePtsUs,
+                    keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            int oldPosition = data.position();
+            eventMuxer.writeSampleData(eventTrackIndex, data, eventBufferInfo);
+            data.position(oldPosition);
+            eventClipSampleCount++;
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Error writing event clip sample", e);
+            finishEventClip();
+        }
+    }
+
+    /**
+     * 结束事件片段（在编码线程上执行）
+     */
+    private void finishEventClip() {
+        if (eventMuxer == null) {
+            return;
+        }
+        boolean success = eventClipSampleCount > 0;
+        try {
+            eventMuxer.stop();
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " Error stopping event clip muxer", e);
+            success = false;
+        }
+        try {
+            eventMuxer.release();
+        } catch (Exception e) {
+            // Ignore
+        }
+        eventMuxer = null;
+        eventTrackIndex = -1;
+
+        final String path = eventClipPath;
+        final EventClipCallback cb = eventClipCallback;
+        eventClipPath = null;
+        eventClipCallback = null;
+        if (!success && path != null) {
+            new File(path).delete();
+        }
+        AppLog.d(TAG, "Camera " + cameraId + " event clip finished: " + path + ", samples: " + eventClipSampleCount + ", success: " + success);
+        if (cb != null && segmentHandler != null) {
+            final boolean result = success;
+            segmentHandler.post(() -> cb.onEventClipComplete(path, result));
+        }
+    }
+
     /**
      * 调度下一段录制
      * 
@@ -895,9 +1704,13 @@ public class CodecVideoRecorder {
 
         // 延迟执行（使用配置的分段时长 + 补偿时间）
         // 补偿编码器初始化延迟和停止时的帧丢失
-        long actualDelayMs = segmentDurationMs + SEGMENT_DURATION_COMPENSATION_MS;
+        // 无缝切换模式下提前请求关键帧，使切换点尽量落在分段边界上
+        long actualDelayMs = getActiveSegmentDurationMs() + SEGMENT_DURATION_COMPENSATION_MS;
+        if (seamlessSegmentSwitch) {
+            actualDelayMs = Math.max(1000, actualDelayMs - SYNC_FRAME_LEAD_MS);
+        }
         segmentHandler.postDelayed(segmentRunnable, actualDelayMs);
-        AppLog.d(TAG, "Camera " + cameraId + " Scheduled next segment in " + (segmentDurationMs / 1000) + " seconds (actual delay: " + actualDelayMs + "ms)");
+        AppLog.d(TAG, "Camera " + cameraId + " Scheduled next segment in " + (getActiveSegmentDurationMs() / 1000) + " seconds (actual delay: " + actualDelayMs + "ms)");
     }
 
     /**
@@ -917,34 +1730,51 @@ public class CodecVideoRecorder {
             return;
         }
         
+        // 无缝切换：编码器继续运行，等待关键帧后切换 Muxer
+        if (seamlessSegmentSwitch) {
+            synchronized (outputLock) {
+                if (requestSeamlessRollover()) {
+                    return;
+                }
+            }
+        }
+
         AppLog.d(TAG, "Camera " + cameraId + " Starting segment switch on encoder thread");
         
         boolean switchSuccess = false;
         
         try {
-            // 1. 停止当前录制（会排空编码器、停止 Muxer）
-            stopRecordingForSegmentSwitch();
+            final String previousFilePath;
+            final String nextSegmentPath;
+            // 1. 停止当前录制并排空编码器；不能持 outputLock，异步模式下输出回调要持锁写入剩余帧并确认 EOS
+            drainForSegmentSwitch();
+            // 异步模式下持锁，避免输出回调在旧/新编码器与 Muxer 交替期间写入
+            synchronized (outputLock) {
+                // 停止 Muxer 并重建编码器
+                stopRecordingForSegmentSwitch();
             
-            // 2. 验证当前文件（在主线程上执行，因为是 IO 操作）
-            final String previousFilePath = currentFilePath;
-            segmentHandler.post(() -> validateAndCleanupFile(previousFilePath));
-
-            // 3. 准备下一段
-            segmentIndex++;
-            String nextSegmentPath = generateSegmentPath();
-            currentFilePath = nextSegmentPath;
-            recordedFilePaths.add(nextSegmentPath);  // 记录新分段文件
+                // 2. 验证当前文件（在主线程上执行，因为是 IO 操作）
+                previousFilePath = currentFilePath;
+                segmentHandler.post(() -> validateAndCleanupFile(previousFilePath));
+
+                // 3. 准备下一段
+                segmentIndex++;
+                nextSegmentPath = generateSegmentPath();
+                currentFilePath = nextSegmentPath;
+                recordedFilePaths.add(nextSegmentPath);  // 记录新分段文件
+                rolloverProxyStream(nextSegmentPath);
             
-            // 重置分段开始时间和帧计数
-            segmentStartTimeNs = System.nanoTime();
-            encodedOutputFrameCount = 0;
-            // 不重置 firstFrameTimestampNs，保持 EGL 时间戳单调递增
+                // 重置分段开始时间和帧计数
+                segmentStartTimeNs = System.nanoTime();
+                encodedOutputFrameCount = 0;
+                // 不重置 firstFrameTimestampNs，保持 EGL 时间戳单调递增
 
-            // 4. 创建新的 Muxer
-            createMuxer(nextSegmentPath);
+                // 4. 创建新的 Muxer
+                createMuxer(nextSegmentPath);
             
-            // 5. 重新开始录制
-            isRecording.set(true);
+                // 5. 重新开始录制
+                isRecording.set(true);
+            }
             switchSuccess = true;
             
             // 成功：重置恢复计数器
@@ -992,6 +1822,66 @@ public class CodecVideoRecorder {
         }
     }
     
+    /**
+     * 请求无缝切换（在编码线程上执行）
+     * 预先创建下一段的 Muxer 并请求编码器立即输出关键帧，实际切换在 drainEncoder 收到关键帧时完成
+     * @return true 表示已进入等待切换状态；false 表示条件不满足，应回退到重建编码器的方式
+     */
+    private boolean requestSeamlessRollover() {
+        if (segmentRollover.isPending()) {
+            AppLog.w(TAG, "Camera " + cameraId + " Seamless rollover already pending");
+            return true;
+        }
+        if (encoder == null || !muxerStarted || encoderOutputFormat == null) {
+            AppLog.w(TAG, "Camera " + cameraId + " Seamless rollover unavailable (muxer not started), falling back");
+            return false;
+        }
+        return segmentRollover.request(encoder, generateSegmentPath());
+    }
+
+    /**
+     * 完成无缝切换（在编码线程上执行，当前样本为关键帧）
+     * 旧 Muxer 的 stop/release 和文件校验放到分段线程执行，不阻塞编码线程
+     */
+    private void completeSeamlessRollover() {
+        SegmentRollover.Segment next = segmentRollover.complete(encoderOutputFormat);
+        if (next == null) {
+            // 继续写当前分段，稍后按正常间隔重试
+            segmentHandler.post(() -> scheduleNextSegment());
+            return;
+        }
+
+        final RecordingMuxer finishedMuxer = muxer;
+        final boolean finishedMuxerStarted = muxerStarted;
+        final String previousFilePath = currentFilePath;
+
+        muxer = next.muxer;
+        videoTrackIndex = next.trackIndex;
+        muxerStarted = true;
+        segmentBytesSubmitted = 0;
+
+        segmentIndex++;
+        currentFilePath = next.filePath;
+        recordedFilePaths.add(next.filePath);
+        rolloverProxyStream(next.filePath);
+        // 新分段的 PTS 从该关键帧开始计算
+        segmentStartTimeNs = System.nanoTime();
+        encodedOutputFrameCount = 0;
+        recoveryAttempts = 0;
+
+        AppLog.d(TAG, "Camera " + cameraId + " Seamless switch to segment " + segmentIndex + ": " + next.filePath);
+
+        final int newIndex = segmentIndex;
+        segmentHandler.post(() -> {
+            segmentRollover.finishMuxer(finishedMuxer, finishedMuxerStarted);
+            validateAndCleanupFile(previousFilePath);
+            if (callback != null) {
+                callback.onSegmentSwitch(cameraId, newIndex, previousFilePath);
+            }
+        });
+        segmentHandler.post(() -> scheduleNextSegment());
+    }
+
     /**
      * 调度快速恢复重试
      */
@@ -1033,6 +1923,7 @@ public class CodecVideoRecorder {
             if (muxer == null) {
                 String nextSegmentPath = generateSegmentPath();
                 currentFilePath = nextSegmentPath;
+                rolloverProxyStream(nextSegmentPath);
                 createMuxer(nextSegmentPath);
             }
             
@@ -1072,27 +1963,32 @@ public class CodecVideoRecorder {
     }
     
     /**
-     * 为分段切换停止录制（在编码线程上执行）
-     * 完整停止并重新创建编码器
-     * 
-     * 注意：此方法有完善的异常处理，即使部分操作失败也会继续执行
+     * 为分段切换停止录制并排空编码器（在编码线程上执行，调用时不能持有 outputLock）
+     * 发送结束信号并等待编码器输出全部写入（异步模式下等待回调线程收到 EOS），否则分段尾部的帧会丢失
      */
-    private void stopRecordingForSegmentSwitch() {
+    private void drainForSegmentSwitch() {
         AppLog.d(TAG, "Camera " + cameraId + " Stopping recording for segment switch");
         
-        // 1. 停止录制（阻止新帧写入）
+        // 停止录制（阻止新帧写入）
         isRecording.set(false);
         
-        // 2. 排空编码器（drainEncoder 现在在同一线程执行，不会有竞争）
         if (encoder != null) {
             try {
-                drainEncoder(false);  // 先排空已有数据
+                signalEndOfStreamAndDrain();
             } catch (Exception e) {
                 AppLog.e(TAG, "Camera " + cameraId + " Error draining encoder during segment switch", e);
             }
         }
-        
-        // 3. 停止 Muxer（即使失败也继续）
+    }
+    
+    /**
+     * 为分段切换停止 Muxer 并重新创建编码器（在编码线程上执行，调用方持有 outputLock）
+     * 编码器须已由 drainForSegmentSwitch 排空
+     * 
+     * 注意：此方法有完善的异常处理，即使部分操作失败也会继续执行
+     */
+    private void stopRecordingForSegmentSwitch() {
+        // 1. 停止 Muxer（即使失败也继续）
         if (muxer != null) {
             try {
                 if (muxerStarted) {
@@ -1107,7 +2003,13 @@ public class CodecVideoRecorder {
             videoTrackIndex = -1;
         }
         
-        // 4. 释放旧编码器（即使失败也继续）
+        // 编码器即将重建，SPS/PPS 可能变化，事件片段和预录缓冲无法跨编码器拼接
+        finishEventClip();
+        if (preEventBuffer != null) {
+            preEventBuffer.clear();
+        }
+
+        // 2. 释放旧编码器（即使失败也继续）
         if (encoder != null) {
             try {
                 encoder.stop();
@@ -1131,7 +2033,7 @@ public class CodecVideoRecorder {
             encoderInputSurface = null;
         }
         
-        // 5. 重新创建编码器
+        // 3. 重新创建编码器
         try {
             createEncoder();
             
@@ -1155,18 +2057,9 @@ public class CodecVideoRecorder {
      * 如果没有设置 provider，则使用当前时间
      */
     private String generateSegmentPath() {
-        String timestamp;
-        if (timestampProvider != null) {
-            // 使用统一的时间戳提供者（确保多路摄像头使用相同时间戳）
-            timestamp = timestampProvider.getSegmentTimestamp();
-            AppLog.d(TAG, "Camera " + cameraId + " using provider timestamp: " + timestamp);
-        } else {
-            // 回退到独立生成时间戳（兼容旧逻辑）
-            timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-            AppLog.d(TAG, "Camera " + cameraId + " using local timestamp: " + timestamp);
-        }
-        String fileName = timestamp + "_" + cameraPosition + ".mp4";
-        return new File(saveDirectory, fileName).getAbsolutePath();
+        String path = SegmentFiles.generateSegmentPath(saveDirectory, timestampProvider, cameraPosition);
+        AppLog.d(TAG, "Camera " + cameraId + " next segment path: " + path);
+        return path;
     }
 
     /**
@@ -1227,72 +2120,82 @@ public class CodecVideoRecorder {
         isRecording.set(false);
 
         try {
-            // 1. 清理旧的 Muxer（可能已损坏）
-            if (muxer != null) {
-                try {
-                    if (muxerStarted) {
-                        muxer.stop();
+            final String newFilePath;
+            // 异步模式下持锁，避免输出回调在重建期间访问编码器与 Muxer
+            synchronized (outputLock) {
+                // 1. 清理旧的 Muxer（可能已损坏）
+                if (muxer != null) {
+                    try {
+                        if (muxerStarted) {
+                            muxer.stop();
+                        }
+                        muxer.release();
+                    } catch (Exception e) {
+                        AppLog.w(TAG, "Camera " + cameraId + " Error releasing old muxer: " + e.getMessage());
                     }
-                    muxer.release();
-                } catch (Exception e) {
-                    AppLog.w(TAG, "Camera " + cameraId + " Error releasing old muxer: " + e.getMessage());
+                    muxer = null;
+                    muxerStarted = false;
+                    videoTrackIndex = -1;
                 }
-                muxer = null;
-                muxerStarted = false;
-                videoTrackIndex = -1;
-            }
 
-            // 2. 清理旧的编码器
-            if (encoder != null) {
-                try {
-                    encoder.stop();
-                } catch (Exception e) {
-                    // Ignore
+                // 2. 清理旧的编码器（事件片段和预录缓冲无法跨编码器拼接）
+                segmentRollover.discard();
+                finishEventClip();
+                if (preEventBuffer != null) {
+                    preEventBuffer.clear();
                 }
-                try {
-                    encoder.release();
-                } catch (Exception e) {
-                    // Ignore
+                if (encoder != null) {
+                    try {
+                        encoder.stop();
+                    } catch (Exception e) {
+                        // Ignore
+                    }
+                    try {
+                        encoder.release();
+                    } catch (Exception e) {
+                        // Ignore
+                    }
+                    encoder = null;
                 }
-                encoder = null;
-            }
 
-            if (encoderInputSurface != null) {
-                try {
-                    encoderInputSurface.release();
-                } catch (Exception e) {
-                    // Ignore
+                if (encoderInputSurface != null) {
+                    try {
+                        encoderInputSurface.release();
+                    } catch (Exception e) {
+                        // Ignore
+                    }
+                    encoderInputSurface = null;
                 }
-                encoderInputSurface = null;
-            }
-
-            // 3. 小延迟让系统释放资源
-            Thread.sleep(100);
-
-            // 4. 重新创建编码器
-            createEncoder();
 
-            // 5. 更新 EGL 输出 Surface
-            if (eglEncoder != null && encoderInputSurface != null) {
-                eglEncoder.updateOutputSurface(encoderInputSurface);
-            }
+                // 3. 小延迟让系统释放资源
+                Thread.sleep(100);
 
-            // 6. 创建新的 Muxer（生成新的文件名）
-            segmentIndex++;
-            String newFilePath = generateSegmentPath();
-            currentFilePath = newFilePath;
-            recordedFilePaths.add(newFilePath);
-            createMuxer(newFilePath);
+                // 4. 重新创建编码器
+                createEncoder();
 
-            // 7. 重置状态
-            segmentStartTimeNs = System.nanoTime();
-            encodedOutputFrameCount = 0;
-            framesWithoutEncoderOutput = 0;
-            encoderHealthy = true;
-            lastEncoderOutputTime = System.currentTimeMillis();
+                // 5. 更新 EGL 输出 Surface
+                if (eglEncoder != null && encoderInputSurface != null) {
+                    eglEncoder.updateOutputSurface(encoderInputSurface);
+                }
 
-            // 8. 恢复录制
-            isRecording.set(true);
+                // 6. 创建新的 Muxer（生成新的文件名）
+                segmentIndex++;
+                newFilePath = generateSegmentPath();
+                currentFilePath = newFilePath;
+                recordedFilePaths.add(newFilePath);
+                rolloverProxyStream(newFilePath);
+                createMuxer(newFilePath);
+
+                // 7. 重置状态
+                segmentStartTimeNs = System.nanoTime();
+                encodedOutputFrameCount = 0;
+                framesWithoutEncoderOutput = 0;
+                encoderHealthy = true;
+                lastEncoderOutputTime = System.currentTimeMillis();
+
+                // 8. 恢复录制
+                isRecording.set(true);
+            }
 
             AppLog.d(TAG, "Camera " + cameraId + " Encoder rebuilt successfully, new file: " + newFilePath);
 
@@ -1336,7 +2239,7 @@ public class CodecVideoRecorder {
                 long sizeIncrease = currentSize - lastFileSize;
 
                 // 检查是否有写入
-                boolean hasWrite = (sizeIncrease > 0) || (currentSize > MIN_VALID_FILE_SIZE);
+                boolean hasWrite = (sizeIncrease > 0) || (currentSize > SegmentFiles.MIN_VALID_FILE_SIZE);
                 
                 if (hasWrite) {
                     // 首次写入检测
@@ -1363,6 +2266,11 @@ public class CodecVideoRecorder {
                 }
 
                 lastFileSize = currentSize;
+
+                // 自适应码率：与文件大小检查同周期采样
+                if (bitrateController != null && hasFirstWrite) {
+                    updateAdaptiveBitrate(currentSize);
+                }
                 
                 // 继续下一次检查（首次写入前用快速间隔，之后用正常间隔）
                 long nextDelay = hasFirstWrite ? FILE_SIZE_CHECK_INTERVAL_MS : FIRST_CHECK_DELAY_MS;
@@ -1375,6 +2283,50 @@ public class CodecVideoRecorder {
         segmentHandler.postDelayed(fileSizeCheckRunnable, initialDelay);
     }
 
+    /**
+     * 采样存储吞吐、中转积压和编码积压，必要时实时调整编码器码率（在分段线程上执行）
+     */
+    private void updateAdaptiveBitrate(long currentSize) {
+        long submitted = segmentBytesSubmitted;
+        long submittedDelta = -1;  // 分段刚切换时本间隔无法比较
+        long persistedDelta = 0;
+        if (currentFilePath.equals(lastBitrateCheckPath)) {
+            submittedDelta = submitted - lastBitrateCheckSubmitted;
+            persistedDelta = currentSize - lastBitrateCheckSize;
+        }
+        lastBitrateCheckPath = currentFilePath;
+        lastBitrateCheckSubmitted = submitted;
+        lastBitrateCheckSize = currentSize;
+
+        int transferQueueDepth = backlogSource != null ? backlogSource.getTransferQueueDepth() : 0;
+        int previous = bitrateController.getCurrentBitrate();
+        int next = bitrateController.update(submittedDelta, persistedDelta, transferQueueDepth, getEncoderQueueDepth());
+        if (next == previous) {
+            return;
+        }
+
+        if (next < previous) {
+            AppLog.w(TAG, "Camera " + cameraId + " Lowering bitrate " + (previous / 1000) + " -> " + (next / 1000)
+                    + " Kbps (" + bitrateController.getLastReason() + ")");
+        } else {
+            AppLog.d(TAG, "Camera " + cameraId + " Raising bitrate " + (previous / 1000) + " -> " + (next / 1000) + " Kbps");
+        }
+        if (encoderHandler != null) {
+            encoderHandler.post(() -> {
+                if (encoder == null) {
+                    return;
+                }
+                try {
+                    Bundle params = new Bundle();
+                    params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, next);
+                    encoder.setParameters(params);
+                } catch (Exception e) {
+                    AppLog.w(TAG, "Camera " + cameraId + " Failed to update encoder bitrate: " + e.getMessage());
+                }
+            });
+        }
+    }
+
     /**
      * 调度首次写入超时检查
      */
@@ -1394,8 +2346,10 @@ public class CodecVideoRecorder {
             }
         };
 
-        segmentHandler.postDelayed(firstWriteTimeoutRunnable, FIRST_WRITE_TIMEOUT_MS);
-        AppLog.d(TAG, "Camera " + cameraId + " first write timeout scheduled: " + (FIRST_WRITE_TIMEOUT_MS / 1000) + " seconds");
+        // 延时录影时编码器可能要等几个取帧间隔才输出第一帧
+        long timeoutMs = FIRST_WRITE_TIMEOUT_MS + (timelapseIntervalMs > 0 ? timelapseIntervalMs * 3 : 0);
+        segmentHandler.postDelayed(firstWriteTimeoutRunnable, timeoutMs);
+        AppLog.d(TAG, "Camera " + cameraId + " first write timeout scheduled: " + (timeoutMs / 1000) + " seconds");
     }
 
     /**
@@ -1415,9 +2369,13 @@ public class CodecVideoRecorder {
     private List<String> validateAndCleanupAllFiles() {
         List<String> deletedFiles = new ArrayList<>();
         
-        AppLog.d(TAG, "Camera " + cameraId + " validating " + recordedFilePaths.size() + " recorded files");
+        List<String> filePaths;
+        synchronized (recordedFilePaths) {
+            filePaths = new ArrayList<>(recordedFilePaths);
+        }
+        AppLog.d(TAG, "Camera " + cameraId + " validating " + filePaths.size() + " recorded files");
         
-        for (String filePath : recordedFilePaths) {
+        for (String filePath : filePaths) {
             String deletedFileName = validateAndCleanupFile(filePath);
             if (deletedFileName != null) {
                 deletedFiles.add(deletedFileName);
@@ -1436,24 +2394,6 @@ public class CodecVideoRecorder {
      * @return 如果文件被删除，返回文件名；否则返回 null
      */
     private String validateAndCleanupFile(String filePath) {
-        if (filePath == null) {
-            return null;
-        }
-
-        File file = new File(filePath);
-        if (!file.exists()) {
-            return null;
-        }
-
-        long fileSize = file.length();
-
-        if (fileSize < MIN_VALID_FILE_SIZE) {
-            AppLog.w(TAG, "Camera " + cameraId + " Video file too small: " + filePath + " (" + fileSize + " bytes). Deleting...");
-            file.delete();
-            return file.getName();
-        } else {
-            AppLog.d(TAG, "Camera " + cameraId + " Video file validated: " + filePath + " (" + (fileSize / 1024) + " KB)");
-            return null;
-        }
+        return SegmentFiles.validateAndCleanupFile(TAG, "Camera " + cameraId + " ", filePath);
     }
 }
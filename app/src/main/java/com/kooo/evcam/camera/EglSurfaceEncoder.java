@@ -5,7 +5,6 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.SurfaceTexture;
-import android.graphics.Typeface;
 import android.opengl.EGL14;
 import android.opengl.EGLConfig;
 import android.opengl.EGLContext;
@@ -20,8 +19,6 @@ import android.view.Surface;
 
 import com.kooo.evcam.AppLog;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -40,28 +37,6 @@ import java.util.Locale;
 public class EglSurfaceEncoder {
     private static final String TAG = "EglSurfaceEncoder";
 
-    // Vertex shader - 简单的顶点变换
-    private static final String VERTEX_SHADER =
-            "uniform mat4 uMVPMatrix;\n" +
-            "uniform mat4 uTexMatrix;\n" +
-            "attribute vec4 aPosition;\n" +
-            "attribute vec4 aTextureCoord;\n" +
-            "varying vec2 vTextureCoord;\n" +
-            "void main() {\n" +
-            "    gl_Position = uMVPMatrix * aPosition;\n" +
-            "    vTextureCoord = (uTexMatrix * aTextureCoord).xy;\n" +
-            "}\n";
-
-    // Fragment shader - 使用外部纹理（OES）采样（无水印版本）
-    private static final String FRAGMENT_SHADER =
-            "#extension GL_OES_EGL_image_external : require\n" +
-            "precision mediump float;\n" +
-            "varying vec2 vTextureCoord;\n" +
-            "uniform samplerExternalOES sTexture;\n" +
-            "void main() {\n" +
-            "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
-            "}\n";
-
     // Fragment shader - 带时间水印版本
     private static final String FRAGMENT_SHADER_WITH_WATERMARK =
             "#extension GL_OES_EGL_image_external : require\n" +
@@ -88,32 +63,24 @@ public class EglSurfaceEncoder {
             "    }\n" +
             "}\n";
 
-    // 顶点坐标（全屏四边形）
-    private static final float[] VERTICES = {
-            -1.0f, -1.0f,  // 左下
-             1.0f, -1.0f,  // 右下
-            -1.0f,  1.0f,  // 左上
-             1.0f,  1.0f,  // 右上
-    };
-
-    // 纹理坐标
-    private static final float[] TEXTURE_COORDS = {
-            0.0f, 0.0f,  // 左下
-            1.0f, 0.0f,  // 右下
-            0.0f, 1.0f,  // 左上
-            1.0f, 1.0f,  // 右上
-    };
-
     private final String cameraId;
     private final int width;
     private final int height;
 
+    // 共享 GL 引擎（非空时使用共享 EGL context，只创建自己的 window surface）
+    private final SharedGlEngine sharedEngine;
+
     // EGL 相关
     private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
     private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
     private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
     private EGLConfig eglConfig;
 
+    // 子码流（低分辨率代理）输出：同一帧纹理在同一次渲染中再画到第二个 window surface
+    private EGLSurface subStreamSurface = EGL14.EGL_NO_SURFACE;
+    private int subStreamWidth;
+    private int subStreamHeight;
+
     // OpenGL 相关
     private int program;
     private int textureId;
@@ -150,15 +117,32 @@ public class EglSurfaceEncoder {
     private int watermarkTexMatrixHandle;
     private int watermarkOesTextureHandle;
     private Bitmap watermarkBitmap;
-    private String lastWatermarkTime = "";
+    private long lastWatermarkSecond = -1;
+    private Paint watermarkShadowPaint;
+    private Paint watermarkTextPaint;
     private static final int WATERMARK_WIDTH = 400;   // 水印纹理宽度（需容纳19字符的时间戳）
-    private static final int WATERMARK_HEIGHT = 44;   // 水印纹理高度
+    private static final int WATERMARK_HEIGHT = GlyphWatermarkRenderer.WATERMARK_HEIGHT;
+    private static final int WATERMARK_SHADOW_OFFSET = GlyphWatermarkRenderer.WATERMARK_SHADOW_OFFSET;
+    private static final int WATERMARK_BASELINE = GlyphWatermarkRenderer.WATERMARK_BASELINE;
     private final SimpleDateFormat watermarkDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
 
+    // 字形图集水印（图集初始化失败时回退到位图水印）
+    private boolean glyphAtlasWatermark = false;
+    private final GlyphWatermarkRenderer glyphWatermark = new GlyphWatermarkRenderer();
+
     public EglSurfaceEncoder(String cameraId, int width, int height) {
+        this(cameraId, width, height, null);
+    }
+
+    /**
+     * @param sharedEngine 共享 GL 引擎，为 null 时创建独立的 EGL context
+     *                     非空时所有方法必须在 sharedEngine 的渲染线程上调用
+     */
+    public EglSurfaceEncoder(String cameraId, int width, int height, SharedGlEngine sharedEngine) {
         this.cameraId = cameraId;
         this.width = width;
         this.height = height;
+        this.sharedEngine = sharedEngine;
 
         // 初始化 MVP 矩阵为单位矩阵
         Matrix.setIdentityM(mvpMatrix, 0);
@@ -213,11 +197,32 @@ public class EglSurfaceEncoder {
         AppLog.d(TAG, "Camera " + cameraId + " Watermark " + (enabled ? "enabled" : "disabled"));
         
         // 如果已初始化且启用水印，需要初始化水印相关资源
-        if (isInitialized && enabled && watermarkProgram == 0) {
-            initWatermarkGl();
+        if (isInitialized && enabled) {
+            initWatermarkResources();
         }
     }
 
+    /**
+     * 设置时间水印是否使用字形图集渲染
+     * 图集初始化失败时自动回退到位图水印
+     * @param enabled true 表示使用字形图集
+     */
+    public void setWatermarkGlyphAtlas(boolean enabled) {
+        this.glyphAtlasWatermark = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " Watermark glyph atlas " + (enabled ? "enabled" : "disabled"));
+
+        if (isInitialized && watermarkEnabled) {
+            initWatermarkResources();
+        }
+    }
+
+    /**
+     * 当前是否正在使用字形图集渲染水印
+     */
+    public boolean isWatermarkGlyphAtlasActive() {
+        return watermarkEnabled && glyphAtlasWatermark && glyphWatermark.isReady();
+    }
+
     /**
      * 检查是否启用了时间水印
      */
@@ -256,7 +261,10 @@ public class EglSurfaceEncoder {
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
             // 根据是否启用水印选择不同的渲染路径
-            if (watermarkEnabled && watermarkProgram != 0) {
+            if (isWatermarkGlyphAtlasActive()) {
+                drawFrameWithoutWatermark();
+                glyphWatermark.draw();
+            } else if (watermarkEnabled && watermarkProgram != 0) {
                 drawFrameWithWatermark();
             } else {
                 drawFrameWithoutWatermark();
@@ -266,11 +274,74 @@ public class EglSurfaceEncoder {
             EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, presentationTimeNs);
             EGL14.eglSwapBuffers(eglDisplay, eglSurface);
 
+            if (subStreamSurface != EGL14.EGL_NO_SURFACE) {
+                drawSubStream(presentationTimeNs);
+            }
+
         } catch (Exception e) {
             AppLog.e(TAG, "Camera " + cameraId + " Error drawing frame", e);
         }
     }
 
+    /**
+     * 设置子码流输出 Surface（低分辨率代理编码器的输入），必须在渲染线程上调用
+     * 每次 drawFrame 渲染主输出后，复用已更新的相机纹理再画一遍到子码流（不叠加水印）
+     * @param surface 子码流编码器输入 Surface，null 表示移除
+     */
+    public void setSubStreamSurface(Surface surface, int subWidth, int subHeight) {
+        if (!isInitialized || isReleased) {
+            return;
+        }
+        destroySubStreamSurface();
+        if (surface == null) {
+            return;
+        }
+        if (sharedEngine != null) {
+            subStreamSurface = sharedEngine.createWindowSurface(surface);
+        } else {
+            subStreamSurface = GlUtil.createWindowSurface(eglDisplay, eglConfig, surface);
+        }
+        subStreamWidth = subWidth;
+        subStreamHeight = subHeight;
+        makeCurrent();
+        AppLog.d(TAG, "Camera " + cameraId + " Sub-stream surface set: " + subWidth + "x" + subHeight);
+    }
+
+    /**
+     * 把当前纹理渲染到子码流 Surface
+     */
+    private void drawSubStream(long presentationTimeNs) {
+        try {
+            if (!EGL14.eglMakeCurrent(eglDisplay, subStreamSurface, subStreamSurface, eglContext)) {
+                throw new RuntimeException("eglMakeCurrent (sub-stream) failed");
+            }
+            GLES20.glViewport(0, 0, subStreamWidth, subStreamHeight);
+            GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            drawFrameWithoutWatermark();
+            EGLExt.eglPresentationTimeANDROID(eglDisplay, subStreamSurface, presentationTimeNs);
+            EGL14.eglSwapBuffers(eglDisplay, subStreamSurface);
+        } catch (Exception e) {
+            // 子码流出错不影响主输出，移除子码流
+            AppLog.e(TAG, "Camera " + cameraId + " Error drawing sub-stream, removing it", e);
+            destroySubStreamSurface();
+        }
+    }
+
+    private void destroySubStreamSurface() {
+        if (subStreamSurface == EGL14.EGL_NO_SURFACE) {
+            return;
+        }
+        if (sharedEngine != null) {
+            sharedEngine.destroyWindowSurface(subStreamSurface);
+        } else {
+            // 先切回主 surface，再销毁子码流 surface
+            EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+            EGL14.eglDestroySurface(eglDisplay, subStreamSurface);
+        }
+        subStreamSurface = EGL14.EGL_NO_SURFACE;
+    }
+
     /**
      * 无水印渲染
      */
@@ -369,19 +440,18 @@ public class EglSurfaceEncoder {
             // 销毁旧的 EGL Surface
             // 注意：当 surface 为 EGL_NO_SURFACE 时，context 必须也是 EGL_NO_CONTEXT，否则会报 EGL_BAD_MATCH
             if (eglSurface != EGL14.EGL_NO_SURFACE) {
-                EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
-                EGL14.eglDestroySurface(eglDisplay, eglSurface);
+                if (sharedEngine != null) {
+                    // 共享模式：切回 pbuffer 保持 context 绑定，其他摄像头不受影响
+                    sharedEngine.destroyWindowSurface(eglSurface);
+                } else {
+                    EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                    EGL14.eglDestroySurface(eglDisplay, eglSurface);
+                }
                 eglSurface = EGL14.EGL_NO_SURFACE;
             }
 
             // 创建新的 EGL Surface
-            int[] surfaceAttribList = {
-                    EGL14.EGL_NONE
-            };
-            eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, newOutputSurface, surfaceAttribList, 0);
-            if (eglSurface == EGL14.EGL_NO_SURFACE) {
-                throw new RuntimeException("Unable to create new EGL window surface");
-            }
+            eglSurface = GlUtil.createWindowSurface(eglDisplay, eglConfig, newOutputSurface);
 
             // 设置为当前上下文
             makeCurrent();
@@ -428,9 +498,16 @@ public class EglSurfaceEncoder {
 
         AppLog.d(TAG, "Camera " + cameraId + " Releasing EglSurfaceEncoder");
 
+        destroySubStreamSurface();
+
         isReleased = true;
         isInitialized = false;
 
+        // 共享模式下 GL 对象属于共享 context，先绑定本路 surface 再删除
+        if (sharedEngine != null && eglSurface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+        }
+
         // 释放 OpenGL 资源
         if (program != 0) {
             GLES20.glDeleteProgram(program);
@@ -460,8 +537,18 @@ public class EglSurfaceEncoder {
             watermarkBitmap = null;
         }
 
+        glyphWatermark.release();
+
         // 释放 EGL 资源
-        if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+        if (sharedEngine != null) {
+            // 共享模式：只销毁本路 window surface，context 和 display 由 SharedGlEngine 管理
+            if (eglSurface != EGL14.EGL_NO_SURFACE) {
+                sharedEngine.destroyWindowSurface(eglSurface);
+                eglSurface = EGL14.EGL_NO_SURFACE;
+            }
+            eglContext = EGL14.EGL_NO_CONTEXT;
+            eglDisplay = EGL14.EGL_NO_DISPLAY;
+        } else if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
             EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
 
             if (eglSurface != EGL14.EGL_NO_SURFACE) {
@@ -503,56 +590,26 @@ public class EglSurfaceEncoder {
      * 初始化 EGL
      */
     private void initEgl(Surface outputSurface) {
-        // 获取 EGL Display
-        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
-        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
-            throw new RuntimeException("Unable to get EGL14 display");
+        if (sharedEngine != null) {
+            // 共享模式：复用共享 context，只创建绑定到编码器输入 Surface 的 window surface
+            eglDisplay = sharedEngine.getDisplay();
+            eglConfig = sharedEngine.getConfig();
+            eglContext = sharedEngine.getContext();
+            eglSurface = sharedEngine.createWindowSurface(outputSurface);
+            makeCurrent();
+            AppLog.d(TAG, "Camera " + cameraId + " EGL setup complete (shared context)");
+            return;
         }
 
-        // 初始化 EGL
         int[] version = new int[2];
-        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
-            throw new RuntimeException("Unable to initialize EGL14");
-        }
+        eglDisplay = GlUtil.initDisplay(version);
         AppLog.d(TAG, "Camera " + cameraId + " EGL initialized: " + version[0] + "." + version[1]);
 
-        // 选择 EGL 配置
-        int[] attribList = {
-                EGL14.EGL_RED_SIZE, 8,
-                EGL14.EGL_GREEN_SIZE, 8,
-                EGL14.EGL_BLUE_SIZE, 8,
-                EGL14.EGL_ALPHA_SIZE, 8,
-                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
-                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT | EGL14.EGL_WINDOW_BIT,
-                EGLExt.EGL_RECORDABLE_ANDROID, 1,  // 重要：支持录制
-                EGL14.EGL_NONE
-        };
-
-        EGLConfig[] configs = new EGLConfig[1];
-        int[] numConfigs = new int[1];
-        if (!EGL14.eglChooseConfig(eglDisplay, attribList, 0, configs, 0, 1, numConfigs, 0)) {
-            throw new RuntimeException("Unable to find suitable EGL config");
-        }
-        eglConfig = configs[0];
-
-        // 创建 EGL Context
-        int[] contextAttribList = {
-                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
-                EGL14.EGL_NONE
-        };
-        eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT, contextAttribList, 0);
-        if (eglContext == EGL14.EGL_NO_CONTEXT) {
-            throw new RuntimeException("Unable to create EGL context");
-        }
+        eglConfig = GlUtil.chooseRecordableConfig(eglDisplay);
+        eglContext = GlUtil.createContext(eglDisplay, eglConfig);
 
         // 创建 EGL Surface（绑定到 MediaCodec 的输入 Surface）
-        int[] surfaceAttribList = {
-                EGL14.EGL_NONE
-        };
-        eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, outputSurface, surfaceAttribList, 0);
-        if (eglSurface == EGL14.EGL_NO_SURFACE) {
-            throw new RuntimeException("Unable to create EGL window surface");
-        }
+        eglSurface = GlUtil.createWindowSurface(eglDisplay, eglConfig, outputSurface);
 
         // 设置为当前上下文
         makeCurrent();
@@ -565,7 +622,7 @@ public class EglSurfaceEncoder {
      */
     private void initGl() {
         // 创建着色器程序
-        program = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        program = GlUtil.createProgram(GlUtil.VERTEX_SHADER, GlUtil.OES_FRAGMENT_SHADER);
         if (program == 0) {
             throw new RuntimeException("Unable to create shader program");
         }
@@ -578,23 +635,39 @@ public class EglSurfaceEncoder {
         textureHandle = GLES20.glGetUniformLocation(program, "sTexture");
 
         // 创建 OES 纹理
-        int[] textures = new int[1];
-        GLES20.glGenTextures(1, textures, 0);
-        textureId = textures[0];
-
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        textureId = GlUtil.createOesTexture();
 
         // 创建顶点缓冲
-        vertexBuffer = createFloatBuffer(VERTICES);
-        texCoordBuffer = createFloatBuffer(TEXTURE_COORDS);
+        vertexBuffer = GlUtil.createFloatBuffer(GlUtil.FULL_QUAD_VERTICES);
+        texCoordBuffer = GlUtil.createFloatBuffer(GlUtil.FULL_QUAD_TEXTURE_COORDS);
 
         AppLog.d(TAG, "Camera " + cameraId + " OpenGL setup complete, textureId=" + textureId);
     }
 
+    /**
+     * 按当前模式初始化水印资源：优先字形图集，失败时回退到位图水印
+     */
+    private void initWatermarkResources() {
+        if (glyphAtlasWatermark) {
+            if (glyphWatermark.init(width, height)) {
+                return;
+            }
+            AppLog.w(TAG, "Camera " + cameraId + " Glyph atlas unavailable, falling back to bitmap watermark");
+        }
+        initWatermarkGl();
+    }
+
+    /**
+     * 创建位图水印画笔（阴影 + 主文字）
+     */
+    private void ensureWatermarkPaints() {
+        if (watermarkTextPaint != null) {
+            return;
+        }
+        watermarkShadowPaint = GlyphWatermarkRenderer.createWatermarkPaint(Color.BLACK);
+        watermarkTextPaint = GlyphWatermarkRenderer.createWatermarkPaint(Color.WHITE);
+    }
+
     /**
      * 初始化水印相关的 OpenGL 资源
      */
@@ -606,7 +679,7 @@ public class EglSurfaceEncoder {
         AppLog.d(TAG, "Camera " + cameraId + " Initializing watermark OpenGL resources");
 
         // 创建带水印的着色器程序
-        watermarkProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_WITH_WATERMARK);
+        watermarkProgram = GlUtil.createProgram(GlUtil.VERTEX_SHADER, FRAGMENT_SHADER_WITH_WATERMARK);
         if (watermarkProgram == 0) {
             AppLog.e(TAG, "Camera " + cameraId + " Failed to create watermark shader program");
             return;
@@ -640,44 +713,31 @@ public class EglSurfaceEncoder {
     }
 
     /**
-     * 更新水印位图（每秒调用一次）
+     * 更新水印位图（每帧调用，秒数未变化时直接返回）
      */
     private void updateWatermarkBitmap() {
         if (watermarkBitmap == null) {
             return;
         }
 
-        String currentTime = watermarkDateFormat.format(new Date());
-        
-        // 只有时间变化时才更新
-        if (currentTime.equals(lastWatermarkTime)) {
+        // 只有秒数变化时才格式化和更新，避免每帧分配 Date/String
+        long epochSecond = System.currentTimeMillis() / 1000;
+        if (epochSecond == lastWatermarkSecond) {
             return;
         }
-        lastWatermarkTime = currentTime;
+        lastWatermarkSecond = epochSecond;
+        String currentTime = watermarkDateFormat.format(new Date(epochSecond * 1000));
 
         // 清除位图
         watermarkBitmap.eraseColor(Color.TRANSPARENT);
 
         Canvas canvas = new Canvas(watermarkBitmap);
-
-        // 设置画笔 - 阴影
-        Paint shadowPaint = new Paint();
-        shadowPaint.setColor(Color.BLACK);
-        shadowPaint.setTextSize(28);
-        shadowPaint.setAntiAlias(true);
-        shadowPaint.setTypeface(Typeface.MONOSPACE);
-
-        // 设置画笔 - 主文字
-        Paint textPaint = new Paint();
-        textPaint.setColor(Color.WHITE);
-        textPaint.setTextSize(28);
-        textPaint.setAntiAlias(true);
-        textPaint.setTypeface(Typeface.MONOSPACE);
+        ensureWatermarkPaints();
 
         // 绘制阴影（偏移2像素）
-        canvas.drawText(currentTime, 8, 32, shadowPaint);
+        canvas.drawText(currentTime, 6 + WATERMARK_SHADOW_OFFSET, WATERMARK_BASELINE + WATERMARK_SHADOW_OFFSET, watermarkShadowPaint);
         // 绘制主文字
-        canvas.drawText(currentTime, 6, 30, textPaint);
+        canvas.drawText(currentTime, 6, WATERMARK_BASELINE, watermarkTextPaint);
 
         // 上传纹理到 GPU
         if (watermarkTextureId != 0) {
@@ -695,82 +755,6 @@ public class EglSurfaceEncoder {
         }
     }
 
-    /**
-     * 创建着色器程序
-     */
-    private int createProgram(String vertexSource, String fragmentSource) {
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        if (vertexShader == 0) {
-            return 0;
-        }
-
-        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
-        if (fragmentShader == 0) {
-            GLES20.glDeleteShader(vertexShader);
-            return 0;
-        }
-
-        int program = GLES20.glCreateProgram();
-        if (program == 0) {
-            AppLog.e(TAG, "Could not create program");
-            return 0;
-        }
-
-        GLES20.glAttachShader(program, vertexShader);
-        GLES20.glAttachShader(program, fragmentShader);
-        GLES20.glLinkProgram(program);
-
-        int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-        if (linkStatus[0] != GLES20.GL_TRUE) {
-            AppLog.e(TAG, "Could not link program: " + GLES20.glGetProgramInfoLog(program));
-            GLES20.glDeleteProgram(program);
-            return 0;
-        }
-
-        // 删除着色器（已链接到程序）
-        GLES20.glDeleteShader(vertexShader);
-        GLES20.glDeleteShader(fragmentShader);
-
-        return program;
-    }
-
-    /**
-     * 加载着色器
-     */
-    private int loadShader(int shaderType, String source) {
-        int shader = GLES20.glCreateShader(shaderType);
-        if (shader == 0) {
-            AppLog.e(TAG, "Could not create shader type " + shaderType);
-            return 0;
-        }
-
-        GLES20.glShaderSource(shader, source);
-        GLES20.glCompileShader(shader);
-
-        int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
-        if (compiled[0] == 0) {
-            AppLog.e(TAG, "Could not compile shader " + shaderType + ": " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            return 0;
-        }
-
-        return shader;
-    }
-
-    /**
-     * 创建 FloatBuffer
-     */
-    private FloatBuffer createFloatBuffer(float[] data) {
-        ByteBuffer bb = ByteBuffer.allocateDirect(data.length * 4);
-        bb.order(ByteOrder.nativeOrder());
-        FloatBuffer fb = bb.asFloatBuffer();
-        fb.put(data);
-        fb.position(0);
-        return fb;
-    }
-
     /**
      * 检查 OpenGL 错误
      */
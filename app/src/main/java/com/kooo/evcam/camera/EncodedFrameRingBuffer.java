@@ -0,0 +1,302 @@
+package com.kooo.evcam.camera;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 编码后视频帧的预录环形缓冲区
+ *
+ * 保存编码器最近一段时间输出的 H.264 access unit（已编码样本），
+ * 用于远程命令或事件到达时导出"事件发生前 N 秒"的片段，无需重新编码，空闲时也不产生额外磁盘写入。
+ *
+ * 设计要点：
+ * 1. 样本数据保存在池化的 direct ByteBuffer 中，按 PTS 顺序排列，淘汰后归还缓冲池复用
+ * 2. 缓冲区总是以关键帧开头，淘汰时按 GOP（关键帧到下一个关键帧）整组淘汰
+ * 3. 同时受内存上限和时长上限约束，至少保留最新的一个 GOP
+ *
+ * 本类不依赖 Android API，可在 JVM 上用合成 NAL 单元直接测试。
+ * 线程安全：所有公开方法均已同步。
+ */
+public class EncodedFrameRingBuffer {
+
+    /** 缓冲区容量按此粒度向上取整，提高不同大小样本之间的复用率 */
+    private static final int BUFFER_ALIGNMENT = 4096;
+
+    /**
+     * 单个编码样本
+     */
+    public static final class Sample {
+        private final ByteBuffer data;
+        private final long ptsUs;
+        private final boolean keyFrame;
+
+        private Sample(ByteBuffer data, long ptsUs, boolean keyFrame) {
+            this.data = data;
+            this.ptsUs = ptsUs;
+            this.keyFrame = keyFrame;
+        }
+
+        /**
+         * 获取样本数据（只读视图，position=0，limit=样本大小）
+         */
+        public ByteBuffer getData() {
+            ByteBuffer view = data.asReadOnlyBuffer();
+            view.position(0);
+            view.limit(data.limit());
+            return view;
+        }
+
+        public int getSize() {
+            return data.limit();
+        }
+
+        public long getPtsUs() {
+            return ptsUs;
+        }
+
+        public boolean isKeyFrame() {
+            return keyFrame;
+        }
+    }
+
+    /**
+     * 样本写出接口（如写入 MediaMuxer）
+     */
+    public interface SampleWriter {
+        /**
+         * @param data 样本数据（position=0，limit=样本大小）
+         * @param ptsUs 原始 PTS（微秒）
+         * @param keyFrame 是否为关键帧
+         */
+        void writeSample(ByteBuffer data, long ptsUs, boolean keyFrame);
+    }
+
+    private final ArrayDeque<Sample> samples = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+
+    private long maxBytes;
+    private long maxDurationUs;
+    private long usedBytes = 0;       // 队列中样本占用的缓冲区容量
+    private long pooledBytes = 0;     // 空闲缓冲池占用的容量
+
+    // 统计
+    private long droppedSamples = 0;  // 因缓冲区未以关键帧开头而丢弃的样本数
+    private long allocatedBuffers = 0;
+
+    /**
+     * @param maxBytes 内存上限（字节，包含空闲缓冲池）
+     * @param maxDurationUs 保留时长上限（微秒）
+     */
+    public EncodedFrameRingBuffer(long maxBytes, long maxDurationUs) {
+        this.maxBytes = Math.max(BUFFER_ALIGNMENT, maxBytes);
+        this.maxDurationUs = Math.max(0, maxDurationUs);
+    }
+
+    /**
+     * 调整上限，超出部分立即淘汰
+     */
+    public synchronized void setLimits(long maxBytes, long maxDurationUs) {
+        this.maxBytes = Math.max(BUFFER_ALIGNMENT, maxBytes);
+        this.maxDurationUs = Math.max(0, maxDurationUs);
+        trim();
+        trimPool();
+    }
+
+    /**
+     * 追加一个编码样本
+     * @param src 样本数据，读取 position 到 limit 之间的内容，调用后 src 的 position 不变
+     * @param ptsUs 单调递增的 PTS（微秒）
+     * @param keyFrame 是否为关键帧（IDR）
+     * @return true 表示已缓存，false 表示被丢弃（缓冲区为空且不是关键帧，或样本超过内存上限）
+     */
+    public synchronized boolean add(ByteBuffer src, long ptsUs, boolean keyFrame) {
+        int size = src.remaining();
+        if (size <= 0) {
+            return false;
+        }
+        // 缓冲区必须以关键帧开头，否则导出的片段无法解码
+        if (samples.isEmpty() && !keyFrame) {
+            droppedSamples++;
+            return false;
+        }
+        if (alignedCapacity(size) > maxBytes) {
+            droppedSamples++;
+            return false;
+        }
+
+        ByteBuffer buffer = acquireBuffer(size);
+        int oldPosition = src.position();
+        buffer.clear();
+        buffer.put(src);
+        buffer.flip();
+        src.position(oldPosition);
+
+        samples.addLast(new Sample(buffer, ptsUs, keyFrame));
+        usedBytes += buffer.capacity();
+        trim();
+        return true;
+    }
+
+    /**
+     * 将最近 windowUs 时长内的样本写出
+     * 起点会向前对齐到不晚于窗口起点的最近关键帧，保证片段可解码
+     *
+     * @param windowUs 预录时长（微秒），<=0 表示写出全部缓存
+     * @param writer 写出目标
+     * @return 写出的样本数
+     */
+    public synchronized int writeTo(long windowUs, SampleWriter writer) {
+        if (samples.isEmpty()) {
+            return 0;
+        }
+        long startPtsUs = windowUs > 0 ? samples.peekLast().ptsUs - windowUs : Long.MIN_VALUE;
+
+        // 找到不晚于起点的最后一个关键帧
+        Sample start = null;
+        for (Sample sample : samples) {
+            if (sample.keyFrame && (start == null || sample.ptsUs <= startPtsUs)) {
+                start = sample;
+            }
+            if (sample.ptsUs > startPtsUs && start != null) {
+                break;
+            }
+        }
+
+        int written = 0;
+        boolean started = false;
+        for (Sample sample : samples) {
+            if (!started) {
+                if (sample != start) {
+                    continue;
+                }
+                started = true;
+            }
+            writer.writeSample(sample.getData(), sample.ptsUs, sample.keyFrame);
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * 清空缓存（编码器重建后 SPS/PPS 可能变化，旧数据不能与新数据拼接）
+     * 缓冲区归还缓冲池复用
+     */
+    public synchronized void clear() {
+        while (!samples.isEmpty()) {
+            releaseBuffer(samples.pollFirst().data);
+        }
+        usedBytes = 0;
+        trimPool();
+    }
+
+    /**
+     * 释放所有缓冲区（包括缓冲池）
+     */
+    public synchronized void release() {
+        samples.clear();
+        freeBuffers.clear();
+        usedBytes = 0;
+        pooledBytes = 0;
+    }
+
+    public synchronized int getSampleCount() {
+        return samples.size();
+    }
+
+    /**
+     * 获取缓存覆盖的时长（微秒）
+     */
+    public synchronized long getBufferedDurationUs() {
+        if (samples.size() < 2) {
+            return 0;
+        }
+        return samples.peekLast().ptsUs - samples.peekFirst().ptsUs;
+    }
+
+    /**
+     * 获取占用的内存（字节，包括空闲缓冲池）
+     */
+    public synchronized long getMemoryUsage() {
+        return usedBytes + pooledBytes;
+    }
+
+    public synchronized long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /**
+     * 获取累计新分配的 direct 缓冲区数（稳定运行后应不再增长）
+     */
+    public synchronized long getAllocatedBuffers() {
+        return allocatedBuffers;
+    }
+
+    // ===== 私有方法 =====
+
+    /**
+     * 按 GOP 淘汰最旧的样本，直到满足内存和时长上限（至少保留最新的一个 GOP）
+     */
+    private void trim() {
+        while (exceedsLimits() && hasSecondKeyFrame()) {
+            // 淘汰队首的整个 GOP
+            releaseBuffer(samples.pollFirst().data);
+            while (!samples.isEmpty() && !samples.peekFirst().keyFrame) {
+                releaseBuffer(samples.pollFirst().data);
+            }
+        }
+        // 空闲缓冲池也计入内存上限
+        trimPool();
+    }
+
+    private boolean exceedsLimits() {
+        if (usedBytes > maxBytes) {
+            return true;
+        }
+        return samples.size() >= 2 && samples.peekLast().ptsUs - samples.peekFirst().ptsUs > maxDurationUs;
+    }
+
+    private boolean hasSecondKeyFrame() {
+        Iterator<Sample> it = samples.iterator();
+        if (!it.hasNext()) {
+            return false;
+        }
+        it.next();
+        while (it.hasNext()) {
+            if (it.next().keyFrame) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ByteBuffer acquireBuffer(int size) {
+        Iterator<ByteBuffer> it = freeBuffers.iterator();
+        while (it.hasNext()) {
+            ByteBuffer candidate = it.next();
+            if (candidate.capacity() >= size) {
+                it.remove();
+                pooledBytes -= candidate.capacity();
+                return candidate;
+            }
+        }
+        allocatedBuffers++;
+        return ByteBuffer.allocateDirect(alignedCapacity(size));
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        usedBytes -= buffer.capacity();
+        freeBuffers.addLast(buffer);
+        pooledBytes += buffer.capacity();
+    }
+
+    private void trimPool() {
+        while (usedBytes + pooledBytes > maxBytes && !freeBuffers.isEmpty()) {
+            pooledBytes -= freeBuffers.pollFirst().capacity();
+        }
+    }
+
+    private static int alignedCapacity(int size) {
+        return ((size + BUFFER_ALIGNMENT - 1) / BUFFER_ALIGNMENT) * BUFFER_ALIGNMENT;
+    }
+}
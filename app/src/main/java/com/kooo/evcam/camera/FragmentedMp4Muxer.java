@@ -0,0 +1,127 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.kooo.evcam.AppLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于 {@link FragmentedMp4Writer} 的 RecordingMuxer 实现
+ * 从编码器输出格式中提取 SPS/PPS 和分辨率，样本按分片写入文件
+ * 写入过程中断电（ACC 断开）时，文件可播放到最后一个完整分片
+ */
+public class FragmentedMp4Muxer implements RecordingMuxer {
+    private static final String TAG = "FragmentedMp4Muxer";
+
+    private final String filePath;
+    private final int frameRate;
+    private final long fragmentDurationUs;
+
+    private MediaFormat trackFormat;
+    private FragmentedMp4Writer writer;
+    private long startTimeMs;
+
+    /**
+     * @param filePath 输出路径
+     * @param frameRate 标称帧率
+     * @param fragmentDurationMs 分片时长（毫秒）
+     */
+    public FragmentedMp4Muxer(String filePath, int frameRate, long fragmentDurationMs) {
+        this.filePath = filePath;
+        this.frameRate = frameRate;
+        this.fragmentDurationUs = fragmentDurationMs * 1000;
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        if (trackFormat != null) {
+            throw new IllegalStateException("fMP4 muxer supports a single video track");
+        }
+        trackFormat = format;
+        return 0;
+    }
+
+    @Override
+    public void start() {
+        if (trackFormat == null) {
+            throw new IllegalStateException("No track added");
+        }
+        ByteBuffer csd0 = trackFormat.getByteBuffer("csd-0");
+        ByteBuffer csd1 = trackFormat.getByteBuffer("csd-1");
+        if (csd0 == null || csd1 == null) {
+            throw new IllegalStateException("Output format has no SPS/PPS");
+        }
+        try {
+            writer = new FragmentedMp4Writer(new File(filePath),
+                    trackFormat.getInteger(MediaFormat.KEY_WIDTH),
+                    trackFormat.getInteger(MediaFormat.KEY_HEIGHT),
+                    toArray(csd0), toArray(csd1), frameRate, fragmentDurationUs, true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open fMP4 file: " + filePath, e);
+        }
+        startTimeMs = System.currentTimeMillis();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+        if (writer == null) {
+            throw new IllegalStateException("Muxer not started");
+        }
+        int oldPosition = data.position();
+        int oldLimit = data.limit();
+        try {
+            data.limit(info.offset + info.size);
+            data.position(info.offset);
+            writer.writeSample(data, info.presentationTimeUs, (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        } catch (IOException e) {
+            throw new IllegalStateException("fMP4 write failed", e);
+        } finally {
+            data.limit(oldLimit);
+            data.position(oldPosition);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (writer == null) {
+            throw new IllegalStateException("Muxer not started");
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("fMP4 close failed", e);
+        }
+        long elapsedMs = Math.max(1, System.currentTimeMillis() - startTimeMs);
+        AppLog.d(TAG, "fMP4 closed: " + new File(filePath).getName()
+                + ", samples=" + writer.getSampleCount()
+                + ", fragments=" + writer.getFragmentCount()
+                + ", writes=" + writer.getWriteCalls()
+                + ", fsyncs=" + writer.getSyncCalls()
+                + ", " + (writer.getBytesWritten() / 1024) + " KB in " + (elapsedMs / 1000) + "s");
+    }
+
+    @Override
+    public void release() {
+        if (writer != null) {
+            try {
+                // 未正常 stop 时也写出已缓存的样本（文件仍可播放）
+                writer.close();
+            } catch (IOException e) {
+                AppLog.w(TAG, "Error closing fMP4 writer on release: " + e.getMessage());
+            }
+            writer = null;
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(0);
+        byte[] bytes = new byte[dup.remaining()];
+        dup.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,622 @@
+package com.kooo.evcam.camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 流式 fMP4（Fragmented MP4）写入器，仅支持单路 H.264 视频
+ *
+ * 文件结构：ftyp + moov（初始化段，不含样本表）+ 若干 [moof + mdat] 分片
+ * 每个分片都是自描述的，写入过程中断电后文件仍可播放到最后一个完整分片，
+ * 不会像 MediaMuxer 那样因为缺少 moov 而整段不可读。
+ *
+ * 输入为 MediaCodec 输出的 Annex-B 格式 access unit（00 00 00 01 起始码），
+ * 写入时转换为 MP4 要求的 4 字节长度前缀格式。
+ * 分片在关键帧处切分，每个分片通过一次 FileChannel 聚集写入。
+ *
+ * 本类不依赖 Android API，可在 JVM 上用合成 access unit 测试。
+ * 非线程安全，应在单一线程（编码线程）上调用。
+ */
+public class FragmentedMp4Writer {
+
+    private static final int TIMESCALE = 90000;       // 视频轨道时间刻度（90kHz）
+    private static final int MOVIE_TIMESCALE = 1000;
+    private static final int TRACK_ID = 1;
+
+    // trun 中的样本标志
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;      // sample_depends_on=2（不依赖其他帧）
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;  // sample_depends_on=1, is_non_sync_sample=1
+
+    // 分片中每次都会写入的 box 类型（预先生成，避免每个分片分配）
+    private static final byte[] TYPE_MOOF = fourcc("moof");
+    private static final byte[] TYPE_MFHD = fourcc("mfhd");
+    private static final byte[] TYPE_TRAF = fourcc("traf");
+    private static final byte[] TYPE_TFHD = fourcc("tfhd");
+    private static final byte[] TYPE_TFDT = fourcc("tfdt");
+    private static final byte[] TYPE_TRUN = fourcc("trun");
+    private static final byte[] TYPE_MDAT = fourcc("mdat");
+
+    private static final int INITIAL_SAMPLE_CAPACITY = 256;
+    private static final int INITIAL_DATA_CAPACITY = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final RandomAccessFile file;
+    private final long fragmentDurationUs;
+    private final boolean syncEachFragment;
+    private final int defaultSampleDuration;
+    private final long halfFrameUs;
+
+    // 当前分片的样本（复用数组，避免每帧分配）
+    private long[] samplePtsUs = new long[INITIAL_SAMPLE_CAPACITY];
+    private int[] sampleSizes = new int[INITIAL_SAMPLE_CAPACITY];
+    private boolean[] sampleKeyFrames = new boolean[INITIAL_SAMPLE_CAPACITY];
+    private int sampleCount = 0;
+    private ByteBuffer sampleData = ByteBuffer.allocateDirect(INITIAL_DATA_CAPACITY);
+
+    // moof 头缓冲（复用）
+    private ByteBuffer moofBuffer = ByteBuffer.allocate(1024);
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+
+    private int sequenceNumber = 0;
+    private long firstPtsUs = -1;
+    private long lastDurationTicks;
+    private boolean closed = false;
+
+    // 统计
+    private long bytesWritten = 0;
+    private long writeCalls = 0;
+    private long syncCalls = 0;
+    private long fragmentCount = 0;
+    private long totalSamples = 0;
+
+    /**
+     * @param outputFile 输出文件
+     * @param width 视频宽度
+     * @param height 视频高度
+     * @param sps SPS（可带 Annex-B 起始码）
+     * @param pps PPS（可带 Annex-B 起始码）
+     * @param frameRate 标称帧率（用于最后一帧的时长）
+     * @param fragmentDurationUs 分片时长（微秒），到达后在下一个关键帧处切分
+     * @param syncEachFragment 每个分片写入后是否 fsync（断电保护）
+     */
+    public FragmentedMp4Writer(File outputFile, int width, int height, byte[] sps, byte[] pps,
+                               int frameRate, long fragmentDurationUs, boolean syncEachFragment) throws IOException {
+        this.file = new RandomAccessFile(outputFile, "rw");
+        this.file.setLength(0);
+        this.channel = file.getChannel();
+        this.fragmentDurationUs = Math.max(0, fragmentDurationUs);
+        this.syncEachFragment = syncEachFragment;
+        this.defaultSampleDuration = TIMESCALE / Math.max(1, frameRate);
+        this.halfFrameUs = 500000L / Math.max(1, frameRate);
+        this.lastDurationTicks = defaultSampleDuration;
+
+        ByteBuffer init = buildInitSegment(width, height, stripStartCode(sps), stripStartCode(pps));
+        writeFully(init);
+    }
+
+    /**
+     * 写入一个 access unit
+     * @param data Annex-B 格式数据（position 到 limit），调用后 position 不变
+     * @param ptsUs 呈现时间（微秒，单调递增）
+     * @param keyFrame 是否为关键帧
+     */
+    public void writeSample(ByteBuffer data, long ptsUs, boolean keyFrame) throws IOException {
+        if (closed) {
+            throw new IOException("Writer already closed");
+        }
+        if (sampleCount == 0 && totalSamples == 0 && !keyFrame) {
+            // 第一个样本必须是关键帧
+            return;
+        }
+        if (firstPtsUs < 0) {
+            firstPtsUs = ptsUs;
+        }
+
+        // 在关键帧处切分分片（此时可以确定上一个样本的时长）
+        // 允许半帧误差：30fps 时 30 帧为 999990us，不能因此把 1 秒的 GOP 合并成 2 秒的分片
+        if (keyFrame && sampleCount > 0 && ptsUs - samplePtsUs[0] + halfFrameUs >= fragmentDurationUs) {
+            flushFragment(ptsUs);
+        }
+
+        ensureSampleCapacity();
+        int size = appendAvcc(data);
+        samplePtsUs[sampleCount] = ptsUs;
+        sampleSizes[sampleCount] = size;
+        sampleKeyFrames[sampleCount] = keyFrame;
+        sampleCount++;
+        totalSamples++;
+    }
+
+    /**
+     * 写出剩余样本并关闭文件
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (sampleCount > 0) {
+                flushFragment(-1);
+            }
+            channel.force(false);
+            syncCalls++;
+        } finally {
+            closed = true;
+            file.close();
+        }
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * 获取 FileChannel 写入调用次数（近似系统调用次数）
+     */
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    public long getSyncCalls() {
+        return syncCalls;
+    }
+
+    public long getFragmentCount() {
+        return fragmentCount;
+    }
+
+    public long getSampleCount() {
+        return totalSamples;
+    }
+
+    // ===== 分片写入 =====
+
+    /**
+     * 写出当前分片
+     * @param nextPtsUs 下一个样本的 PTS（用于计算最后一个样本的时长），-1 表示未知
+     */
+    private void flushFragment(long nextPtsUs) throws IOException {
+        int count = sampleCount;
+        sequenceNumber++;
+
+        int trunSize = 12 + 4 + 4 + count * 12;  // fullbox + sample_count + data_offset + 每样本(时长,大小,标志)
+        int tfhdSize = 16;
+        int tfdtSize = 20;
+        int trafSize = 8 + tfhdSize + tfdtSize + trunSize;
+        int mfhdSize = 16;
+        int moofSize = 8 + mfhdSize + trafSize;
+
+        if (moofBuffer.capacity() < moofSize + 8) {
+            moofBuffer = ByteBuffer.allocate(moofSize + 8 + count * 12);
+        }
+        ByteBuffer b = moofBuffer;
+        b.clear();
+        b.order(ByteOrder.BIG_ENDIAN);
+
+        // moof
+        b.putInt(moofSize);
+        b.put(TYPE_MOOF);
+        // mfhd
+        b.putInt(mfhdSize);
+        b.put(TYPE_MFHD);
+        b.putInt(0);
+        b.putInt(sequenceNumber);
+        // traf
+        b.putInt(trafSize);
+        b.put(TYPE_TRAF);
+        // tfhd: default-base-is-moof
+        b.putInt(tfhdSize);
+        b.put(TYPE_TFHD);
+        b.putInt(0x020000);
+        b.putInt(TRACK_ID);
+        // tfdt (version 1, 64 位基准解码时间)
+        b.putInt(tfdtSize);
+        b.put(TYPE_TFDT);
+        b.putInt(0x01000000);
+        b.putLong(toTicks(samplePtsUs[0] - firstPtsUs));
+        // trun: data-offset | sample-duration | sample-size | sample-flags
+        b.putInt(trunSize);
+        b.put(TYPE_TRUN);
+        b.putInt(0x000001 | 0x000100 | 0x000200 | 0x000400);
+        b.putInt(count);
+        b.putInt(moofSize + 8);  // 数据从 mdat 头之后开始
+        for (int i = 0; i < count; i++) {
+            int duration;
+            if (i + 1 < count) {
+                duration = (int) (toTicks(samplePtsUs[i + 1] - firstPtsUs) - toTicks(samplePtsUs[i] - firstPtsUs));
+            } else if (nextPtsUs >= 0) {
+                duration = (int) (toTicks(nextPtsUs - firstPtsUs) - toTicks(samplePtsUs[i] - firstPtsUs));
+            } else {
+                duration = (int) lastDurationTicks;
+            }
+            if (duration <= 0) {
+                duration = defaultSampleDuration;
+            }
+            lastDurationTicks = duration;
+            b.putInt(duration);
+            b.putInt(sampleSizes[i]);
+            b.putInt(sampleKeyFrames[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+        }
+
+        // mdat 头
+        b.putInt(8 + sampleData.position());
+        b.put(TYPE_MDAT);
+        b.flip();
+
+        sampleData.flip();
+        gather[0] = b;
+        gather[1] = sampleData;
+        long remaining = b.remaining() + sampleData.remaining();
+        while (remaining > 0) {
+            long n = channel.write(gather);
+            writeCalls++;
+            bytesWritten += n;
+            remaining -= n;
+        }
+        sampleData.clear();
+        sampleCount = 0;
+        fragmentCount++;
+
+        if (syncEachFragment) {
+            channel.force(false);
+            syncCalls++;
+        }
+    }
+
+    /**
+     * 将 Annex-B 数据转换为长度前缀格式追加到 sampleData
+     * @return 写入的字节数
+     */
+    private int appendAvcc(ByteBuffer src) {
+        int start = src.position();
+        int end = src.limit();
+        ensureDataCapacity(sampleData.position() + (end - start) + 16);
+
+        int written = 0;
+        int nalStart = findNalStart(src, start, end);
+        if (nalStart < 0) {
+            // 没有起始码，按单个 NAL 处理
+            written += putNal(src, start, end);
+            return written;
+        }
+        while (nalStart >= 0) {
+            int next = findStartCode(src, nalStart, end);
+            int nalEnd = next < 0 ? end : next;
+            // 去掉下一个起始码前的尾随 0（4 字节起始码的第一个 0）
+            while (nalEnd > nalStart && src.get(nalEnd - 1) == 0 && next >= 0) {
+                nalEnd--;
+            }
+            if (nalEnd > nalStart) {
+                int nalType = src.get(nalStart) & 0x1F;
+                if (nalType != 9) {  // 跳过 AUD
+                    ensureDataCapacity(sampleData.position() + (nalEnd - nalStart) + 4);
+                    written += putNal(src, nalStart, nalEnd);
+                }
+            }
+            nalStart = next < 0 ? -1 : next + 3;
+        }
+        return written;
+    }
+
+    private int putNal(ByteBuffer src, int from, int to) {
+        int length = to - from;
+        sampleData.putInt(length);
+        int oldPosition = src.position();
+        int oldLimit = src.limit();
+        src.limit(to);
+        src.position(from);
+        sampleData.put(src);
+        src.limit(oldLimit);
+        src.position(oldPosition);
+        return length + 4;
+    }
+
+    /**
+     * 查找第一个 NAL 数据起点（起始码之后）
+     */
+    private static int findNalStart(ByteBuffer src, int from, int to) {
+        int sc = findStartCode(src, from, to);
+        return sc < 0 ? -1 : sc + 3;
+    }
+
+    /**
+     * 查找 3 字节起始码 00 00 01 的位置
+     */
+    private static int findStartCode(ByteBuffer src, int from, int to) {
+        for (int i = from; i + 2 < to; i++) {
+            if (src.get(i) == 0 && src.get(i + 1) == 0 && src.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void ensureSampleCapacity() {
+        if (sampleCount < samplePtsUs.length) {
+            return;
+        }
+        int newCapacity = samplePtsUs.length * 2;
+        long[] pts = new long[newCapacity];
+        int[] sizes = new int[newCapacity];
+        boolean[] keys = new boolean[newCapacity];
+        System.arraycopy(samplePtsUs, 0, pts, 0, sampleCount);
+        System.arraycopy(sampleSizes, 0, sizes, 0, sampleCount);
+        System.arraycopy(sampleKeyFrames, 0, keys, 0, sampleCount);
+        samplePtsUs = pts;
+        sampleSizes = sizes;
+        sampleKeyFrames = keys;
+    }
+
+    private void ensureDataCapacity(int required) {
+        if (required <= sampleData.capacity()) {
+            return;
+        }
+        int newCapacity = sampleData.capacity();
+        while (newCapacity < required) {
+            newCapacity *= 2;
+        }
+        ByteBuffer bigger = ByteBuffer.allocateDirect(newCapacity);
+        sampleData.flip();
+        bigger.put(sampleData);
+        sampleData = bigger;
+    }
+
+    private static long toTicks(long us) {
+        return us * TIMESCALE / 1000000L;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+            writeCalls++;
+        }
+    }
+
+    // ===== 初始化段 =====
+
+    private static ByteBuffer buildInitSegment(int width, int height, byte[] sps, byte[] pps) {
+        BoxBuilder b = new BoxBuilder(1024 + sps.length + pps.length);
+
+        b.start("ftyp");
+        b.put(fourcc("isom"));
+        b.putInt(0x200);
+        b.put(fourcc("isom"));
+        b.put(fourcc("iso6"));
+        b.put(fourcc("avc1"));
+        b.put(fourcc("mp41"));
+        b.end();
+
+        b.start("moov");
+
+        b.startFull("mvhd", 0, 0);
+        b.putInt(0);                // creation_time
+        b.putInt(0);                // modification_time
+        b.putInt(MOVIE_TIMESCALE);
+        b.putInt(0);                // duration（分片文件为 0）
+        b.putInt(0x00010000);       // rate 1.0
+        b.putShort(0x0100);         // volume 1.0
+        b.putShort(0);
+        b.putInt(0);
+        b.putInt(0);
+        putMatrix(b);
+        for (int i = 0; i < 6; i++) {
+            b.putInt(0);            // pre_defined
+        }
+        b.putInt(TRACK_ID + 1);     // next_track_ID
+        b.end();
+
+        b.start("trak");
+        b.startFull("tkhd", 0, 0x000007);  // enabled | in_movie | in_preview
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(TRACK_ID);
+        b.putInt(0);
+        b.putInt(0);                // duration
+        b.putInt(0);
+        b.putInt(0);
+        b.putShort(0);              // layer
+        b.putShort(0);              // alternate_group
+        b.putShort(0);              // volume（视频为 0）
+        b.putShort(0);
+        putMatrix(b);
+        b.putInt(width << 16);
+        b.putInt(height << 16);
+        b.end();
+
+        b.start("mdia");
+        b.startFull("mdhd", 0, 0);
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(TIMESCALE);
+        b.putInt(0);
+        b.putShort(0x55C4);         // language "und"
+        b.putShort(0);
+        b.end();
+
+        b.startFull("hdlr", 0, 0);
+        b.putInt(0);
+        b.put(fourcc("vide"));
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(0);
+        b.put("VideoHandler".getBytes());
+        b.put(new byte[]{0});
+        b.end();
+
+        b.start("minf");
+        b.startFull("vmhd", 0, 1);
+        b.putShort(0);
+        b.putShort(0);
+        b.putShort(0);
+        b.putShort(0);
+        b.end();
+
+        b.start("dinf");
+        b.startFull("dref", 0, 0);
+        b.putInt(1);
+        b.startFull("url ", 0, 1);  // 数据在同一文件中
+        b.end();
+        b.end();
+        b.end();
+
+        b.start("stbl");
+        b.startFull("stsd", 0, 0);
+        b.putInt(1);
+        b.start("avc1");
+        b.putInt(0);
+        b.putShort(0);
+        b.putShort(1);              // data_reference_index
+        b.putShort(0);
+        b.putShort(0);
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(0);
+        b.putShort(width);
+        b.putShort(height);
+        b.putInt(0x00480000);       // 72 dpi
+        b.putInt(0x00480000);
+        b.putInt(0);
+        b.putShort(1);              // frame_count
+        b.put(new byte[32]);        // compressorname
+        b.putShort(0x0018);         // depth
+        b.putShort(-1);             // pre_defined
+        b.start("avcC");
+        b.put(new byte[]{1});                                       // configurationVersion
+        b.put(new byte[]{sps.length > 1 ? sps[1] : 0x42});          // AVCProfileIndication
+        b.put(new byte[]{sps.length > 2 ? sps[2] : 0});             // profile_compatibility
+        b.put(new byte[]{sps.length > 3 ? sps[3] : 0x1F});          // AVCLevelIndication
+        b.put(new byte[]{(byte) 0xFF});                             // lengthSizeMinusOne = 3
+        b.put(new byte[]{(byte) 0xE1});                             // numOfSequenceParameterSets = 1
+        b.putShort(sps.length);
+        b.put(sps);
+        b.put(new byte[]{1});                                       // numOfPictureParameterSets
+        b.putShort(pps.length);
+        b.put(pps);
+        b.end();
+        b.end();  // avc1
+        b.end();  // stsd
+
+        // 分片文件的样本表为空
+        b.startFull("stts", 0, 0);
+        b.putInt(0);
+        b.end();
+        b.startFull("stsc", 0, 0);
+        b.putInt(0);
+        b.end();
+        b.startFull("stsz", 0, 0);
+        b.putInt(0);
+        b.putInt(0);
+        b.end();
+        b.startFull("stco", 0, 0);
+        b.putInt(0);
+        b.end();
+        b.end();  // stbl
+        b.end();  // minf
+        b.end();  // mdia
+        b.end();  // trak
+
+        b.start("mvex");
+        b.startFull("trex", 0, 0);
+        b.putInt(TRACK_ID);
+        b.putInt(1);                // default_sample_description_index
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(0);
+        b.end();
+        b.end();
+
+        b.end();  // moov
+        return b.finish();
+    }
+
+    private static void putMatrix(BoxBuilder b) {
+        int[] matrix = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+        for (int value : matrix) {
+            b.putInt(value);
+        }
+    }
+
+    private static byte[] stripStartCode(byte[] nal) {
+        if (nal == null) {
+            return new byte[0];
+        }
+        int offset = 0;
+        if (nal.length >= 4 && nal[0] == 0 && nal[1] == 0 && nal[2] == 0 && nal[3] == 1) {
+            offset = 4;
+        } else if (nal.length >= 3 && nal[0] == 0 && nal[1] == 0 && nal[2] == 1) {
+            offset = 3;
+        }
+        byte[] result = new byte[nal.length - offset];
+        System.arraycopy(nal, offset, result, 0, result.length);
+        return result;
+    }
+
+    private static byte[] fourcc(String type) {
+        return new byte[]{(byte) type.charAt(0), (byte) type.charAt(1), (byte) type.charAt(2), (byte) type.charAt(3)};
+    }
+
+    /**
+     * 简单的嵌套 box 构建器（初始化段只构建一次，不追求零分配）
+     */
+    private static final class BoxBuilder {
+        private ByteBuffer buffer;
+        private final int[] stack = new int[16];
+        private int depth = 0;
+
+        BoxBuilder(int capacity) {
+            buffer = ByteBuffer.allocate(capacity).order(ByteOrder.BIG_ENDIAN);
+        }
+
+        void start(String type) {
+            ensure(8);
+            stack[depth++] = buffer.position();
+            buffer.putInt(0);
+            buffer.put(fourcc(type));
+        }
+
+        void startFull(String type, int version, int flags) {
+            start(type);
+            putInt((version << 24) | (flags & 0xFFFFFF));
+        }
+
+        void end() {
+            int start = stack[--depth];
+            buffer.putInt(start, buffer.position() - start);
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putShort(int value) {
+            ensure(2);
+            buffer.putShort((short) value);
+        }
+
+        void put(byte[] bytes) {
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        ByteBuffer finish() {
+            buffer.flip();
+            return buffer;
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                    .order(ByteOrder.BIG_ENDIAN);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.kooo.evcam.camera;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 画面变化检测器
+ *
+ * 停车时各路摄像头的画面几乎不变，但远程预览和心跳推图仍然每个间隔上传一张完整 JPEG。
+ * 本检测器把每路画面缩成 GRID_SIZE x GRID_SIZE 的亮度网格，与该路上次发送时的网格比较：
+ * 1. 平均绝对差（MAD，0-255）：整体亮度/内容变化
+ * 2. 差异哈希（dHash，相邻格子亮度大小关系）的汉明距离：结构变化，对整体亮度漂移不敏感
+ * 两者都低于阈值时判定为"无变化"，调用方可以跳过上传或只发送"无变化"心跳。
+ * 距上次发送超过 maxUnchangedMs 时强制视为有变化，保证远端画面定期刷新。
+ *
+ * 本类不依赖 Android API，亮度网格由调用方采样后传入，可在 JVM 上直接验证。
+ * 线程安全：所有公开方法均已同步。
+ */
+public class FrameChangeDetector {
+
+    /** 亮度网格边长 */
+    public static final int GRID_SIZE = 16;
+    /** 默认 MAD 阈值（0-255 亮度），0 表示关闭检测 */
+    public static final int DEFAULT_THRESHOLD = 6;
+    /** dHash 汉明距离阈值（共 GRID_SIZE * (GRID_SIZE - 1) 位） */
+    private static final int HASH_DISTANCE_THRESHOLD = 12;
+    /** 相邻格子亮度差小于该值时视为噪声，不参与哈希比较（避免平坦区域的噪点翻转） */
+    private static final int HASH_NOISE_MARGIN = 4;
+
+    private static class StreamState {
+        int[] grid;
+        long sentAtMs;
+    }
+
+    private final Map<String, StreamState> streams = new HashMap<>();
+    private final long maxUnchangedMs;
+    private int threshold = DEFAULT_THRESHOLD;
+
+    // 统计
+    private long sentFrames = 0;
+    private long skippedFrames = 0;
+    private long bytesSent = 0;
+    private long bytesSaved = 0;
+
+    /**
+     * @param maxUnchangedMs 最长跳过时长，超过后即使无变化也强制发送
+     */
+    public FrameChangeDetector(long maxUnchangedMs) {
+        this.maxUnchangedMs = maxUnchangedMs;
+    }
+
+    /**
+     * 设置 MAD 阈值（0 表示关闭检测，所有帧都视为有变化）
+     */
+    public synchronized void setThreshold(int threshold) {
+        this.threshold = Math.max(0, threshold);
+    }
+
+    public synchronized int getThreshold() {
+        return threshold;
+    }
+
+    public synchronized boolean isEnabled() {
+        return threshold > 0;
+    }
+
+    /**
+     * 判断画面是否与该路上次发送时无变化
+     *
+     * @param streamKey 画面来源（如摄像头位置）
+     * @param grid 当前亮度网格（GRID_SIZE * GRID_SIZE）
+     * @param nowMs 当前时间
+     * @return true 表示无变化，可以跳过
+     */
+    public synchronized boolean isUnchanged(String streamKey, int[] grid, long nowMs) {
+        if (threshold <= 0 || grid == null) {
+            return false;
+        }
+        StreamState state = streams.get(streamKey);
+        if (state == null || state.grid == null || state.grid.length != grid.length) {
+            return false;
+        }
+        if (nowMs - state.sentAtMs >= maxUnchangedMs) {
+            return false;
+        }
+        return meanAbsDiff(state.grid, grid) < threshold
+                && hashDistance(state.grid, grid) <= HASH_DISTANCE_THRESHOLD;
+    }
+
+    /**
+     * 记录该路画面已发送（作为之后比较的基准）
+     */
+    public synchronized void markSent(String streamKey, int[] grid, long nowMs) {
+        if (grid == null) {
+            return;
+        }
+        StreamState state = streams.get(streamKey);
+        if (state == null) {
+            state = new StreamState();
+            streams.put(streamKey, state);
+        }
+        state.grid = grid.clone();
+        state.sentAtMs = nowMs;
+    }
+
+    /**
+     * 记录一次发送或跳过（用于统计）
+     *
+     * @param skipped 是否跳过
+     * @param bytes 发送的字节数，跳过时为估计节省的字节数
+     */
+    public synchronized void recordFrame(boolean skipped, long bytes) {
+        if (skipped) {
+            skippedFrames++;
+            bytesSaved += bytes;
+        } else {
+            sentFrames++;
+            bytesSent += bytes;
+        }
+    }
+
+    /**
+     * 清空基准（发送失败或配置变化时调用，下一帧必定发送）
+     */
+    public synchronized void reset() {
+        streams.clear();
+    }
+
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * 统计摘要（用于日志）
+     */
+    public synchronized String getStatsSummary() {
+        return "sent=" + sentFrames + "(" + bytesSent / 1024 + "KB), skipped=" + skippedFrames
+                + ", saved=" + bytesSaved / 1024 + "KB";
+    }
+
+    // ===== 网格工具 =====
+
+    /**
+     * 把小尺寸 ARGB 像素块平均为 GRID_SIZE x GRID_SIZE 亮度网格
+     *
+     * @param argb 像素（行优先），尺寸不小于 GRID_SIZE x GRID_SIZE
+     * @param width 宽度
+     * @param height 高度
+     */
+    public static int[] lumaGrid(int[] argb, int width, int height) {
+        int[] sums = new int[GRID_SIZE * GRID_SIZE];
+        int[] counts = new int[GRID_SIZE * GRID_SIZE];
+        for (int y = 0; y < height; y++) {
+            int gy = y * GRID_SIZE / height;
+            for (int x = 0; x < width; x++) {
+                int gx = x * GRID_SIZE / width;
+                int pixel = argb[y * width + x];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+                int cell = gy * GRID_SIZE + gx;
+                sums[cell] += (r * 299 + g * 587 + b * 114) / 1000;
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = counts[i] == 0 ? 0 : sums[i] / counts[i];
+        }
+        return sums;
+    }
+
+    /**
+     * 平均绝对差（0-255）
+     */
+    static double meanAbsDiff(int[] a, int[] b) {
+        long sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return (double) sum / a.length;
+    }
+
+    /**
+     * 差异哈希的汉明距离：逐行比较相邻格子的亮度大小关系
+     * 两帧中相邻差都很小（平坦区域）的位置不计入
+     */
+    static int hashDistance(int[] a, int[] b) {
+        int distance = 0;
+        for (int y = 0; y < GRID_SIZE; y++) {
+            int row = y * GRID_SIZE;
+            for (int x = 0; x < GRID_SIZE - 1; x++) {
+                int diffA = a[row + x] - a[row + x + 1];
+                int diffB = b[row + x] - b[row + x + 1];
+                if (Math.max(Math.abs(diffA), Math.abs(diffB)) <= HASH_NOISE_MARGIN) {
+                    continue;
+                }
+                if ((diffA > 0) != (diffB > 0)) {
+                    distance++;
+                }
+            }
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,63 @@
+package com.kooo.evcam.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * 为 FrameChangeDetector 采样亮度网格
+ * 先把画面缩到 SAMPLE_SIZE x SAMPLE_SIZE（双线性），再块平均成网格，抑制单像素噪点
+ */
+public final class FrameLumaSampler {
+
+    /** 中间缩放尺寸（网格每格 4x4 个采样点） */
+    private static final int SAMPLE_SIZE = FrameChangeDetector.GRID_SIZE * 4;
+
+    private FrameLumaSampler() {
+    }
+
+    /**
+     * 从 Bitmap 采样亮度网格
+     * @return 网格，bitmap 无效时返回 null
+     */
+    public static int[] fromBitmap(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return null;
+        }
+        Bitmap small = Bitmap.createScaledBitmap(bitmap, SAMPLE_SIZE, SAMPLE_SIZE, true);
+        int[] argb = new int[SAMPLE_SIZE * SAMPLE_SIZE];
+        small.getPixels(argb, 0, SAMPLE_SIZE, 0, 0, SAMPLE_SIZE, SAMPLE_SIZE);
+        if (small != bitmap) {
+            small.recycle();
+        }
+        return FrameChangeDetector.lumaGrid(argb, SAMPLE_SIZE, SAMPLE_SIZE);
+    }
+
+    /**
+     * 从 JPEG 数据采样亮度网格（按 inSampleSize 低分辨率解码，不解码整图）
+     * @return 网格，解码失败返回 null
+     */
+    public static int[] fromJpeg(byte[] jpeg) {
+        if (jpeg == null || jpeg.length == 0) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (Math.min(options.outWidth, options.outHeight) / (sampleSize * 2) >= SAMPLE_SIZE) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap decoded = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if (decoded == null) {
+            return null;
+        }
+        int[] grid = fromBitmap(decoded);
+        decoded.recycle();
+        return grid;
+    }
+}
@@ -0,0 +1,223 @@
+package com.kooo.evcam.camera;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.view.Surface;
+
+import com.kooo.evcam.AppLog;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 录制渲染共用的 EGL/OpenGL 工具
+ * EglSurfaceEncoder、SharedGlEngine 和 MosaicVideoRecorder 共用同一套 EGL 配置、着色器和顶点数据
+ */
+final class GlUtil {
+    private static final String TAG = "GlUtil";
+
+    // Vertex shader - 简单的顶点变换
+    static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n" +
+            "uniform mat4 uTexMatrix;\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec4 aTextureCoord;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = uMVPMatrix * aPosition;\n" +
+            "    vTextureCoord = (uTexMatrix * aTextureCoord).xy;\n" +
+            "}\n";
+
+    // Fragment shader - 使用外部纹理（OES）采样
+    static final String OES_FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+            "}\n";
+
+    // 顶点坐标（全屏四边形）
+    static final float[] FULL_QUAD_VERTICES = {
+            -1.0f, -1.0f,  // 左下
+             1.0f, -1.0f,  // 右下
+            -1.0f,  1.0f,  // 左上
+             1.0f,  1.0f,  // 右上
+    };
+
+    // 纹理坐标
+    static final float[] FULL_QUAD_TEXTURE_COORDS = {
+            0.0f, 0.0f,  // 左下
+            1.0f, 0.0f,  // 右下
+            0.0f, 1.0f,  // 左上
+            1.0f, 1.0f,  // 右上
+    };
+
+    private GlUtil() {
+    }
+
+    /**
+     * 获取并初始化默认 EGL Display
+     * @param version 输出 EGL 主/次版本号（长度至少为 2）
+     */
+    static EGLDisplay initDisplay(int[] version) {
+        EGLDisplay display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (display == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("Unable to get EGL14 display");
+        }
+        if (!EGL14.eglInitialize(display, version, 0, version, 1)) {
+            throw new RuntimeException("Unable to initialize EGL14");
+        }
+        return display;
+    }
+
+    /**
+     * 选择可用于录制（EGL_RECORDABLE_ANDROID）的 RGBA8888 / ES2 配置，支持 window 和 pbuffer surface
+     */
+    static EGLConfig chooseRecordableConfig(EGLDisplay display) {
+        int[] attribList = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT | EGL14.EGL_WINDOW_BIT,
+                EGLExt.EGL_RECORDABLE_ANDROID, 1,  // 重要：支持录制
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(display, attribList, 0, configs, 0, 1, numConfigs, 0)) {
+            throw new RuntimeException("Unable to find suitable EGL config");
+        }
+        return configs[0];
+    }
+
+    /**
+     * 创建 GLES 2.0 context
+     */
+    static EGLContext createContext(EGLDisplay display, EGLConfig config) {
+        int[] contextAttribList = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                EGL14.EGL_NONE
+        };
+        EGLContext context = EGL14.eglCreateContext(display, config, EGL14.EGL_NO_CONTEXT, contextAttribList, 0);
+        if (context == EGL14.EGL_NO_CONTEXT) {
+            throw new RuntimeException("Unable to create EGL context");
+        }
+        return context;
+    }
+
+    /**
+     * 创建绑定到 Surface（通常为 MediaCodec 输入 Surface）的 window surface
+     */
+    static EGLSurface createWindowSurface(EGLDisplay display, EGLConfig config, Surface surface) {
+        int[] surfaceAttribList = {
+                EGL14.EGL_NONE
+        };
+        EGLSurface eglSurface = EGL14.eglCreateWindowSurface(display, config, surface, surfaceAttribList, 0);
+        if (eglSurface == EGL14.EGL_NO_SURFACE) {
+            throw new RuntimeException("Unable to create EGL window surface");
+        }
+        return eglSurface;
+    }
+
+    /**
+     * 创建 OES 外部纹理（用于 Camera 输出的 SurfaceTexture）
+     */
+    static int createOesTexture() {
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textures[0]);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        return textures[0];
+    }
+
+    /**
+     * 创建着色器程序
+     * @return 程序 ID，失败返回 0
+     */
+    static int createProgram(String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        if (vertexShader == 0) {
+            return 0;
+        }
+
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        if (fragmentShader == 0) {
+            GLES20.glDeleteShader(vertexShader);
+            return 0;
+        }
+
+        int program = GLES20.glCreateProgram();
+        if (program == 0) {
+            AppLog.e(TAG, "Could not create program");
+            return 0;
+        }
+
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            AppLog.e(TAG, "Could not link program: " + GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            return 0;
+        }
+
+        // 删除着色器（已链接到程序）
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+
+        return program;
+    }
+
+    /**
+     * 加载着色器
+     */
+    private static int loadShader(int shaderType, String source) {
+        int shader = GLES20.glCreateShader(shaderType);
+        if (shader == 0) {
+            AppLog.e(TAG, "Could not create shader type " + shaderType);
+            return 0;
+        }
+
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            AppLog.e(TAG, "Could not compile shader " + shaderType + ": " + GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            return 0;
+        }
+
+        return shader;
+    }
+
+    /**
+     * 创建 FloatBuffer
+     */
+    static FloatBuffer createFloatBuffer(float[] data) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(data.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer fb = bb.asFloatBuffer();
+        fb.put(data);
+        fb.position(0);
+        return fb;
+    }
+}
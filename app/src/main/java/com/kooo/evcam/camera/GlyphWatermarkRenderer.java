@@ -0,0 +1,288 @@
+package com.kooo.evcam.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import com.kooo.evcam.AppLog;
+
+import java.nio.FloatBuffer;
+import java.util.Calendar;
+
+/**
+ * 字形图集时间水印（叠加在已绘制画面的右上角）
+ *
+ * 时间戳只由 "0-9"、"-"、":"、空格组成：初始化时把这 13 个字形光栅化到一张图集纹理（只上传一次），
+ * 每帧按字形画四边形。字形索引只在秒数变化时重新计算，且只改写纹理 s 坐标，
+ * 渲染路径上没有对象分配，也没有每秒一次的整图 texImage2D 上传。
+ *
+ * 所有方法必须在持有 GL context 的渲染线程上调用。EglSurfaceEncoder 和 MosaicVideoRecorder 共用。
+ */
+final class GlyphWatermarkRenderer {
+    private static final String TAG = "GlyphWatermarkRenderer";
+
+    // 水印尺寸与字体（位图水印使用相同的参数，两种渲染方式外观一致）
+    static final int WATERMARK_HEIGHT = 44;   // 水印高度
+    static final int WATERMARK_TEXT_SIZE = 28;
+    static final int WATERMARK_SHADOW_OFFSET = 2;  // 阴影偏移（像素）
+    static final int WATERMARK_BASELINE = 30;      // 文字基线
+
+    // 字形图集水印 - 顶点坐标已是 NDC，无需变换矩阵
+    private static final String GLYPH_VERTEX_SHADER =
+            "attribute vec4 aPosition;\n" +
+            "attribute vec2 aTextureCoord;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = aPosition;\n" +
+            "    vTextureCoord = aTextureCoord;\n" +
+            "}\n";
+
+    // 字形图集水印 - 普通 2D 纹理采样（图集为预乘 alpha，配合 GL_ONE/GL_ONE_MINUS_SRC_ALPHA 混合）
+    private static final String GLYPH_FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform sampler2D sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+            "}\n";
+
+    private static final String GLYPH_CHARS = "0123456789-: ";
+    private static final int GLYPH_DASH = 10;
+    private static final int GLYPH_COLON = 11;
+    private static final int GLYPH_SPACE = 12;
+    private static final int GLYPH_TEXT_LENGTH = 19;       // "yyyy-MM-dd HH:mm:ss"
+    private static final int GLYPH_FLOATS_PER_VERTEX = 4;  // x, y, s, t
+    private static final int GLYPH_VERTICES_PER_QUAD = 6;  // 两个三角形
+    private static final int GLYPH_FLOATS_PER_QUAD = GLYPH_FLOATS_PER_VERTEX * GLYPH_VERTICES_PER_QUAD;
+
+    private int glyphProgram;
+    private int glyphAtlasTextureId;
+    private int glyphPositionHandle;
+    private int glyphTexCoordHandle;
+    private int glyphTextureHandle;
+    private int glyphCellWidth;   // 图集中每个字形格子的宽度（含阴影）
+    private int glyphAtlasWidth;
+    private FloatBuffer glyphVertexBuffer;
+    private final float[] glyphVertices = new float[GLYPH_TEXT_LENGTH * GLYPH_FLOATS_PER_QUAD];
+    private final int[] glyphIndices = new int[GLYPH_TEXT_LENGTH];
+    private final Calendar glyphCalendar = Calendar.getInstance();
+    private long glyphEpochSecond = -1;
+
+    /**
+     * 创建水印画笔（等宽字体），位图水印和字形图集共用
+     */
+    static Paint createWatermarkPaint(int color) {
+        Paint paint = new Paint();
+        paint.setColor(color);
+        paint.setTextSize(WATERMARK_TEXT_SIZE);
+        paint.setAntiAlias(true);
+        paint.setTypeface(Typeface.MONOSPACE);
+        return paint;
+    }
+
+    /**
+     * 初始化：光栅化字形、上传图集（仅一次）、预计算各字形四边形的位置
+     * @param width 目标画面宽度（水印按 1:1 像素绘制在右上角）
+     * @param height 目标画面高度
+     * @return 是否可用，失败时调用方应回退到其他水印方式或不叠加水印
+     */
+    boolean init(int width, int height) {
+        if (glyphProgram != 0) {
+            return true;  // 已经初始化过了
+        }
+
+        int program = GlUtil.createProgram(GLYPH_VERTEX_SHADER, GLYPH_FRAGMENT_SHADER);
+        if (program == 0) {
+            AppLog.e(TAG, "Failed to create glyph shader program");
+            return false;
+        }
+
+        // 光栅化字形：等宽字体，每个格子 = 字宽 + 阴影偏移，基线与位图水印一致
+        Paint shadowPaint = createWatermarkPaint(Color.BLACK);
+        Paint textPaint = createWatermarkPaint(Color.WHITE);
+        int advance = (int) Math.ceil(textPaint.measureText("0"));
+        glyphCellWidth = advance + WATERMARK_SHADOW_OFFSET;
+        glyphAtlasWidth = glyphCellWidth * GLYPH_CHARS.length();
+        Bitmap atlas = Bitmap.createBitmap(glyphAtlasWidth, WATERMARK_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(atlas);
+        for (int i = 0; i < GLYPH_CHARS.length(); i++) {
+            String glyph = GLYPH_CHARS.substring(i, i + 1);
+            int x = i * glyphCellWidth;
+            canvas.drawText(glyph, x + WATERMARK_SHADOW_OFFSET, WATERMARK_BASELINE + WATERMARK_SHADOW_OFFSET, shadowPaint);
+            canvas.drawText(glyph, x, WATERMARK_BASELINE, textPaint);
+        }
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        glyphAtlasTextureId = textures[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, glyphAtlasTextureId);
+        // 字形按 1:1 像素绘制，使用最近邻采样避免相邻格子渗色
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, atlas, 0);
+        atlas.recycle();
+
+        glyphPositionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+        glyphTexCoordHandle = GLES20.glGetAttribLocation(program, "aTextureCoord");
+        glyphTextureHandle = GLES20.glGetUniformLocation(program, "sTexture");
+
+        // 预计算字形四边形位置（右上角，边距 1%，与位图水印一致）；位置固定，之后只改纹理坐标
+        int textWidth = advance * (GLYPH_TEXT_LENGTH - 1) + glyphCellWidth;
+        int left = width - textWidth - Math.round(width * 0.01f);
+        int top = Math.round(height * 0.01f);
+        float ndcTop = 1.0f - 2.0f * top / height;
+        float ndcBottom = 1.0f - 2.0f * (top + WATERMARK_HEIGHT) / height;
+        for (int i = 0; i < GLYPH_TEXT_LENGTH; i++) {
+            int x = left + i * advance;
+            float ndcLeft = 2.0f * x / width - 1.0f;
+            float ndcRight = 2.0f * (x + glyphCellWidth) / width - 1.0f;
+            int base = i * GLYPH_FLOATS_PER_QUAD;
+            // 三角形 1：左上、左下、右上；三角形 2：右上、左下、右下（t=0 为位图顶行）
+            setGlyphVertex(base, 0, ndcLeft, ndcTop, 0f);
+            setGlyphVertex(base, 1, ndcLeft, ndcBottom, 1f);
+            setGlyphVertex(base, 2, ndcRight, ndcTop, 0f);
+            setGlyphVertex(base, 3, ndcRight, ndcTop, 0f);
+            setGlyphVertex(base, 4, ndcLeft, ndcBottom, 1f);
+            setGlyphVertex(base, 5, ndcRight, ndcBottom, 1f);
+        }
+        glyphVertexBuffer = GlUtil.createFloatBuffer(glyphVertices);
+        glyphEpochSecond = -1;
+
+        glyphProgram = program;
+        checkGlError("init");
+        AppLog.d(TAG, "Glyph atlas watermark initialized for " + width + "x" + height
+                + ", atlas=" + glyphAtlasWidth + "x" + WATERMARK_HEIGHT + ", textureId=" + glyphAtlasTextureId);
+        return true;
+    }
+
+    /**
+     * 是否已初始化
+     */
+    boolean isReady() {
+        return glyphProgram != 0;
+    }
+
+    /**
+     * 在当前 draw surface 上叠加水印（调用方负责设置覆盖整个画面的 viewport）
+     */
+    void draw() {
+        if (glyphProgram == 0) {
+            return;
+        }
+        // 秒数变化时才改写字形纹理坐标
+        updateGlyphVertices();
+
+        GLES20.glUseProgram(glyphProgram);
+        checkGlError("glUseProgram glyph");
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, glyphAtlasTextureId);
+        GLES20.glUniform1i(glyphTextureHandle, 0);
+
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+
+        // 交错顶点：x, y, s, t
+        int stride = GLYPH_FLOATS_PER_VERTEX * 4;
+        glyphVertexBuffer.position(0);
+        GLES20.glEnableVertexAttribArray(glyphPositionHandle);
+        GLES20.glVertexAttribPointer(glyphPositionHandle, 2, GLES20.GL_FLOAT, false, stride, glyphVertexBuffer);
+        glyphVertexBuffer.position(2);
+        GLES20.glEnableVertexAttribArray(glyphTexCoordHandle);
+        GLES20.glVertexAttribPointer(glyphTexCoordHandle, 2, GLES20.GL_FLOAT, false, stride, glyphVertexBuffer);
+        glyphVertexBuffer.position(0);
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, GLYPH_TEXT_LENGTH * GLYPH_VERTICES_PER_QUAD);
+        checkGlError("glDrawArrays glyph");
+
+        GLES20.glDisable(GLES20.GL_BLEND);
+        GLES20.glDisableVertexAttribArray(glyphPositionHandle);
+        GLES20.glDisableVertexAttribArray(glyphTexCoordHandle);
+    }
+
+    /**
+     * 释放 GL 资源（必须在原 context 仍可用时调用）
+     */
+    void release() {
+        if (glyphProgram != 0) {
+            GLES20.glDeleteProgram(glyphProgram);
+            glyphProgram = 0;
+        }
+        if (glyphAtlasTextureId != 0) {
+            int[] textures = {glyphAtlasTextureId};
+            GLES20.glDeleteTextures(1, textures, 0);
+            glyphAtlasTextureId = 0;
+        }
+    }
+
+    private void setGlyphVertex(int base, int vertex, float x, float y, float t) {
+        int offset = base + vertex * GLYPH_FLOATS_PER_VERTEX;
+        glyphVertices[offset] = x;
+        glyphVertices[offset + 1] = y;
+        glyphVertices[offset + 3] = t;
+    }
+
+    /**
+     * 秒数变化时重新计算字形索引并改写纹理 s 坐标（复用 Calendar 和顶点数组，不分配对象）
+     */
+    private void updateGlyphVertices() {
+        long epochSecond = System.currentTimeMillis() / 1000;
+        if (epochSecond == glyphEpochSecond) {
+            return;
+        }
+        glyphEpochSecond = epochSecond;
+
+        glyphCalendar.setTimeInMillis(epochSecond * 1000);
+        putGlyphDigits(0, glyphCalendar.get(Calendar.YEAR), 4);
+        glyphIndices[4] = GLYPH_DASH;
+        putGlyphDigits(5, glyphCalendar.get(Calendar.MONTH) + 1, 2);
+        glyphIndices[7] = GLYPH_DASH;
+        putGlyphDigits(8, glyphCalendar.get(Calendar.DAY_OF_MONTH), 2);
+        glyphIndices[10] = GLYPH_SPACE;
+        putGlyphDigits(11, glyphCalendar.get(Calendar.HOUR_OF_DAY), 2);
+        glyphIndices[13] = GLYPH_COLON;
+        putGlyphDigits(14, glyphCalendar.get(Calendar.MINUTE), 2);
+        glyphIndices[16] = GLYPH_COLON;
+        putGlyphDigits(17, glyphCalendar.get(Calendar.SECOND), 2);
+
+        for (int i = 0; i < GLYPH_TEXT_LENGTH; i++) {
+            float s0 = (float) (glyphIndices[i] * glyphCellWidth) / glyphAtlasWidth;
+            float s1 = (float) ((glyphIndices[i] + 1) * glyphCellWidth) / glyphAtlasWidth;
+            int base = i * GLYPH_FLOATS_PER_QUAD;
+            for (int v = 0; v < GLYPH_VERTICES_PER_QUAD; v++) {
+                // 顶点 0/1/4 在左侧，2/3/5 在右侧
+                boolean right = v == 2 || v == 3 || v == 5;
+                glyphVertices[base + v * GLYPH_FLOATS_PER_VERTEX + 2] = right ? s1 : s0;
+            }
+        }
+        glyphVertexBuffer.position(0);
+        glyphVertexBuffer.put(glyphVertices);
+        glyphVertexBuffer.position(0);
+    }
+
+    /**
+     * 把 value 按固定位数（高位补零）写入字形索引
+     */
+    private void putGlyphDigits(int start, int value, int digits) {
+        for (int i = start + digits - 1; i >= start; i--) {
+            glyphIndices[i] = value % 10;
+            value /= 10;
+        }
+    }
+
+    /**
+     * 检查 OpenGL 错误
+     */
+    private void checkGlError(String op) {
+        int error;
+        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+            AppLog.e(TAG, op + ": glError " + error);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 系统 MediaMuxer 的 RecordingMuxer 实现（默认）
+ */
+public class MediaMuxerAdapter implements RecordingMuxer {
+    private final MediaMuxer muxer;
+
+    public MediaMuxerAdapter(String filePath) throws IOException {
+        this.muxer = new MediaMuxer(filePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return muxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        muxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+        muxer.writeSampleData(trackIndex, data, info);
+    }
+
+    @Override
+    public void stop() {
+        muxer.stop();
+    }
+
+    @Override
+    public void release() {
+        muxer.release();
+    }
+}
@@ -0,0 +1,891 @@
+package com.kooo.evcam.camera;
+
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Size;
+import android.view.Surface;
+
+import com.kooo.evcam.AppLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 多路摄像头 2x2 拼接录制器（一个编码器录制四路画面）
+ *
+ * 部分车机同时运行 4 个硬件编码器时不稳定（这也是 CodecFallbackCallback 存在的原因），
+ * 拼接模式下所有摄像头的画面在同一个 GL 线程上合成到一帧中，只使用一个 MediaCodec 和一个 Muxer：
+ * 1. 每路摄像头输出到各自的 SurfaceTexture（OES 纹理），帧到达时只 updateTexImage，不编码
+ * 2. 合成定时器按目标帧率把各路最新画面分别绘制到对应格子（glViewport），再送入编码器
+ * 3. 某一路暂时没有画面时对应格子保持黑色，不影响其他路
+ * 4. 分段切换使用关键帧切换 Muxer（与 CodecVideoRecorder 共用 SegmentRollover），编码器不重启
+ * 5. 启用时间水印时，在合成后的整帧右上角叠加一次字形图集水印（GlyphWatermarkRenderer）
+ *
+ * 每个分段只产生一个文件：{timestamp}_mosaic.mp4
+ */
+public class MosaicVideoRecorder {
+    private static final String TAG = "MosaicVideoRecorder";
+
+    /** 拼接文件的"位置"名，文件名为 {timestamp}_mosaic.mp4 */
+    public static final String POSITION_MOSAIC = "mosaic";
+
+    /** 网格列数/行数（固定 2x2） */
+    public static final int GRID_COLUMNS = 2;
+    public static final int GRID_ROWS = 2;
+    public static final int TILE_COUNT = GRID_COLUMNS * GRID_ROWS;
+
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;  // H.264
+    private static final int I_FRAME_INTERVAL = 1;  // I帧间隔（秒）
+    private static final long SYNC_FRAME_LEAD_MS = 100;  // 提前请求关键帧的时间（约3帧）
+    private static final long DEFAULT_FRAGMENT_DURATION_MS = 2000;
+
+    // 布局：格子索引（0=左上，1=右上，2=左下，3=右下）-> 摄像头 key，null 表示空格子
+    private final String[] tileKeys = new String[TILE_COUNT];
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int width;   // 合成后的编码分辨率
+    private final int height;
+
+    // 录制参数
+    private int frameRate = 30;
+    private int bitRate = 6000000;
+    private long segmentDurationMs = 60000;
+    private boolean fragmentedMp4Enabled = false;
+    private long fragmentDurationMs = DEFAULT_FRAGMENT_DURATION_MS;
+    private VideoRecorder.SegmentTimestampProvider timestampProvider;
+    private RecordCallback callback;
+    private boolean watermarkEnabled = false;
+
+    // MediaCodec 相关
+    private MediaCodec encoder;
+    private Surface encoderInputSurface;
+    private MediaCodec.BufferInfo bufferInfo;
+    private MediaFormat encoderOutputFormat;
+
+    // Muxer 相关
+    private RecordingMuxer muxer;
+    private int videoTrackIndex = -1;
+    private boolean muxerStarted = false;
+
+    // EGL 相关（只有一个 context 和一个 window surface）
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+
+    // OpenGL 相关
+    private int program;
+    private int positionHandle;
+    private int texCoordHandle;
+    private int mvpMatrixHandle;
+    private int texMatrixHandle;
+    private int textureHandle;
+    private FloatBuffer vertexBuffer;
+    private FloatBuffer texCoordBuffer;
+    private final float[] mvpMatrix = new float[16];
+    private final GlyphWatermarkRenderer glyphWatermark = new GlyphWatermarkRenderer();
+
+    // 每个格子的输入（仅在渲染线程访问）
+    private final int[] tileTextureIds = new int[TILE_COUNT];
+    private final SurfaceTexture[] tileSurfaceTextures = new SurfaceTexture[TILE_COUNT];
+    private final float[][] tileTexMatrices = new float[TILE_COUNT][16];
+    private final boolean[] tileHasFrame = new boolean[TILE_COUNT];
+    private boolean frameDirty = false;  // 上次合成后是否有新画面到达
+
+    // 线程
+    private HandlerThread renderThread;
+    private Handler renderHandler;
+    private final HandlerThread segmentThread;
+    private final Handler segmentHandler;
+
+    // 合成定时器
+    private Runnable composeRunnable;
+    private long nextComposeUptimeMs = 0;
+    private long firstComposeTimeNs = -1;
+
+    // 录制状态
+    private final AtomicBoolean isRecording = new AtomicBoolean(false);
+    private volatile boolean isReleased = false;
+    private String currentFilePath;
+    private String saveDirectory;
+    private int segmentIndex = 0;
+    private long segmentStartTimeNs = 0;
+    private boolean hasFirstWrite = false;
+    private final List<String> recordedFilePaths = new ArrayList<>();
+
+    // 分段切换（关键帧处切换 Muxer）
+    private Runnable segmentRunnable;
+    private final SegmentRollover segmentRollover =
+            new SegmentRollover(TAG, "Mosaic ", this::createMuxerInstance);  // 仅在渲染线程访问
+
+    // 统计
+    private long composedFrameCount = 0;
+    private long skippedComposeCount = 0;  // 没有新画面而跳过的合成次数
+    private long encodedFrameCount = 0;
+
+    /**
+     * @param layout 格子布局，按 左上、右上、左下、右下 的顺序给出摄像头 key，null 或空字符串表示空格子
+     * @param tileWidth 每个格子的宽度（偶数）
+     * @param tileHeight 每个格子的高度（偶数）
+     */
+    public MosaicVideoRecorder(String[] layout, int tileWidth, int tileHeight) {
+        for (int i = 0; i < TILE_COUNT; i++) {
+            String key = (layout != null && i < layout.length) ? layout[i] : null;
+            tileKeys[i] = (key == null || key.trim().isEmpty()) ? null : key.trim();
+        }
+        this.tileWidth = Math.max(2, (tileWidth / 2) * 2);
+        this.tileHeight = Math.max(2, (tileHeight / 2) * 2);
+        this.width = this.tileWidth * GRID_COLUMNS;
+        this.height = this.tileHeight * GRID_ROWS;
+
+        Matrix.setIdentityM(mvpMatrix, 0);
+
+        // 分段切换和文件 I/O 使用独立线程，不阻塞渲染
+        segmentThread = new HandlerThread("MosaicRecorder-Segment");
+        segmentThread.start();
+        segmentHandler = new Handler(segmentThread.getLooper());
+    }
+
+    /**
+     * 解析布局字符串
+     * @param layout 逗号分隔的摄像头 key（如 "front,back,left,right"），空项表示空格子
+     * @return 长度为 TILE_COUNT 的数组
+     */
+    public static String[] parseLayout(String layout) {
+        String[] result = new String[TILE_COUNT];
+        if (layout == null) {
+            return result;
+        }
+        String[] parts = layout.split(",", -1);
+        for (int i = 0; i < TILE_COUNT && i < parts.length; i++) {
+            String key = parts[i].trim();
+            result[i] = key.isEmpty() ? null : key;
+        }
+        return result;
+    }
+
+    public void setCallback(RecordCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * 设置分段时间戳提供者（与其他录制器使用同一个，保证文件名时间戳一致）
+     */
+    public void setTimestampProvider(VideoRecorder.SegmentTimestampProvider provider) {
+        this.timestampProvider = provider;
+    }
+
+    /**
+     * 设置分段时长
+     * @param durationMs 分段时长（毫秒）
+     */
+    public void setSegmentDuration(long durationMs) {
+        this.segmentDurationMs = durationMs;
+        AppLog.d(TAG, "Mosaic segment duration set to " + (durationMs / 1000) + " seconds");
+    }
+
+    /**
+     * 设置录制码率（合成画面的总码率）
+     * @param bitrate 码率（bps）
+     */
+    public void setBitRate(int bitrate) {
+        this.bitRate = bitrate;
+        AppLog.d(TAG, "Mosaic bitrate set to " + (bitrate / 1000) + " Kbps");
+    }
+
+    /**
+     * 设置合成帧率
+     * @param fps 帧率（fps）
+     */
+    public void setFrameRate(int fps) {
+        this.frameRate = Math.max(1, fps);
+        AppLog.d(TAG, "Mosaic frame rate set to " + this.frameRate + " fps");
+    }
+
+    /**
+     * 设置是否使用 fMP4 封装（参见 CodecVideoRecorder.setFragmentedMp4）
+     */
+    public void setFragmentedMp4(boolean enabled, long fragmentDurationMs) {
+        this.fragmentedMp4Enabled = enabled;
+        this.fragmentDurationMs = fragmentDurationMs > 0 ? fragmentDurationMs : DEFAULT_FRAGMENT_DURATION_MS;
+    }
+
+    /**
+     * 设置是否叠加时间水印（必须在 prepareRecording 之前调用）
+     * 拼接画面只叠加一次，位于整帧右上角；固定使用字形图集渲染，不支持位图水印
+     */
+    public void setWatermarkEnabled(boolean enabled) {
+        this.watermarkEnabled = enabled;
+        AppLog.d(TAG, "Mosaic watermark " + (enabled ? "enabled" : "disabled"));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 获取摄像头所在的格子索引
+     * @return 0-3，不在布局中返回 -1
+     */
+    public int getTileIndex(String cameraKey) {
+        for (int i = 0; i < TILE_COUNT; i++) {
+            if (cameraKey != null && cameraKey.equals(tileKeys[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 准备录制
+     *
+     * 警告：此方法包含阻塞操作（等待渲染线程初始化），不建议在主线程调用
+     *
+     * @param filePath 第一个分段的输出文件路径
+     * @param inputSizes 各摄像头输出到 SurfaceTexture 的分辨率（通常为预览分辨率），合成时缩放到格子大小
+     * @return 摄像头 key -> 供 Camera 输出的 SurfaceTexture；失败返回 null
+     */
+    public Map<String, SurfaceTexture> prepareRecording(String filePath, Map<String, Size> inputSizes) {
+        if (isRecording.get()) {
+            AppLog.w(TAG, "Mosaic recorder is already recording");
+            return null;
+        }
+
+        AppLog.d(TAG, "Preparing mosaic recording: " + width + "x" + height +
+                " (tile " + tileWidth + "x" + tileHeight + ")");
+
+        currentFilePath = filePath;
+        saveDirectory = new File(filePath).getParent();
+        segmentIndex = 0;
+        composedFrameCount = 0;
+        skippedComposeCount = 0;
+        encodedFrameCount = 0;
+        firstComposeTimeNs = -1;
+        recordedFilePaths.clear();
+        recordedFilePaths.add(filePath);
+
+        try {
+            renderThread = new HandlerThread("MosaicRender");
+            renderThread.start();
+            renderHandler = new Handler(renderThread.getLooper());
+
+            createEncoder();
+            muxer = createMuxerInstance(filePath);
+            videoTrackIndex = -1;
+            muxerStarted = false;
+
+            final Map<String, SurfaceTexture> result = new LinkedHashMap<>();
+            final CountDownLatch latch = new CountDownLatch(1);
+            final Exception[] initException = {null};
+
+            renderHandler.post(() -> {
+                try {
+                    initEgl();
+                    initGl();
+                    for (int i = 0; i < TILE_COUNT; i++) {
+                        String key = tileKeys[i];
+                        if (key == null) {
+                            continue;
+                        }
+                        Size inputSize = inputSizes != null ? inputSizes.get(key) : null;
+                        if (inputSize == null) {
+                            // 布局中的摄像头本次没有参与录制，格子保持黑色
+                            continue;
+                        }
+                        result.put(key, createTileInput(i, inputSize));
+                    }
+                } catch (Exception e) {
+                    initException[0] = e;
+                } finally {
+                    latch.countDown();
+                }
+            });
+
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new RuntimeException("Timeout waiting for mosaic EGL initialization");
+            }
+            if (initException[0] != null) {
+                throw initException[0];
+            }
+            if (result.isEmpty()) {
+                throw new IllegalStateException("No camera in mosaic layout");
+            }
+
+            AppLog.d(TAG, "Mosaic recording prepared, tiles: " + result.keySet());
+            return result;
+
+        } catch (Exception e) {
+            AppLog.e(TAG, "Failed to prepare mosaic recording", e);
+            release();
+            if (callback != null) {
+                callback.onRecordError(POSITION_MOSAIC, e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 开始录制（启动合成定时器）
+     */
+    public boolean startRecording() {
+        if (encoder == null || renderHandler == null) {
+            AppLog.e(TAG, "Mosaic encoder not prepared");
+            return false;
+        }
+        if (isRecording.get()) {
+            AppLog.w(TAG, "Mosaic already recording");
+            return false;
+        }
+
+        segmentStartTimeNs = System.nanoTime();
+        hasFirstWrite = false;
+        isRecording.set(true);
+
+        composeRunnable = this::composeFrame;
+        nextComposeUptimeMs = SystemClock.uptimeMillis();
+        renderHandler.post(composeRunnable);
+
+        if (callback != null) {
+            callback.onRecordStart(POSITION_MOSAIC);
+        }
+        AppLog.d(TAG, "Mosaic recording started at " + frameRate + " fps");
+        return true;
+    }
+
+    /**
+     * 停止录制
+     */
+    public void stopRecording() {
+        if (!isRecording.get()) {
+            AppLog.w(TAG, "Mosaic not recording");
+            return;
+        }
+
+        AppLog.d(TAG, "Stopping mosaic recording");
+
+        if (segmentRunnable != null) {
+            segmentHandler.removeCallbacks(segmentRunnable);
+            segmentRunnable = null;
+        }
+
+        isRecording.set(false);
+
+        // 在渲染线程上结束编码，避免与正在进行的合成/排空并发访问编码器
+        final CountDownLatch latch = new CountDownLatch(1);
+        renderHandler.post(() -> {
+            try {
+                if (composeRunnable != null) {
+                    renderHandler.removeCallbacks(composeRunnable);
+                    composeRunnable = null;
+                }
+                if (encoder != null) {
+                    encoder.signalEndOfInputStream();
+                    drainEncoder(true);
+                }
+            } catch (Exception e) {
+                AppLog.e(TAG, "Error signaling end of stream", e);
+            } finally {
+                segmentRollover.discard();
+                if (muxerStarted && muxer != null) {
+                    try {
+                        muxer.stop();
+                    } catch (Exception e) {
+                        AppLog.e(TAG, "Error stopping mosaic muxer", e);
+                    }
+                    muxerStarted = false;
+                }
+                latch.countDown();
+            }
+        });
+        try {
+            if (!latch.await(3, TimeUnit.SECONDS)) {
+                AppLog.w(TAG, "Timeout waiting for mosaic encoder to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<String> deletedFiles = new ArrayList<>();
+        for (String path : recordedFilePaths) {
+            String deleted = validateAndCleanupFile(path);
+            if (deleted != null) {
+                deletedFiles.add(deleted);
+            }
+        }
+
+        AppLog.d(TAG, "Mosaic recording stopped, composed frames: " + composedFrameCount +
+                ", skipped: " + skippedComposeCount + ", encoded: " + encodedFrameCount);
+
+        if (callback != null) {
+            callback.onRecordStop(POSITION_MOSAIC);
+            if (!deletedFiles.isEmpty()) {
+                callback.onCorruptedFilesDeleted(POSITION_MOSAIC, deletedFiles);
+            }
+        }
+        recordedFilePaths.clear();
+    }
+
+    /**
+     * 释放资源
+     */
+    public void release() {
+        if (isReleased) {
+            return;
+        }
+        AppLog.d(TAG, "Releasing MosaicVideoRecorder");
+
+        if (isRecording.get()) {
+            stopRecording();
+        }
+        isReleased = true;
+
+        if (renderHandler != null) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            renderHandler.post(() -> {
+                try {
+                    releaseGl();
+                } finally {
+                    latch.countDown();
+                }
+            });
+            try {
+                latch.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (encoder != null) {
+            try {
+                encoder.stop();
+            } catch (Exception e) {
+                // Ignore
+            }
+            try {
+                encoder.release();
+            } catch (Exception e) {
+                // Ignore
+            }
+            encoder = null;
+        }
+        if (encoderInputSurface != null) {
+            encoderInputSurface.release();
+            encoderInputSurface = null;
+        }
+        if (muxer != null) {
+            try {
+                muxer.release();
+            } catch (Exception e) {
+                // Ignore
+            }
+            muxer = null;
+        }
+
+        if (renderThread != null) {
+            renderThread.quitSafely();
+            try {
+                renderThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            renderThread = null;
+            renderHandler = null;
+        }
+        segmentHandler.removeCallbacksAndMessages(null);
+        segmentThread.quitSafely();
+
+        AppLog.d(TAG, "MosaicVideoRecorder released");
+    }
+
+    public boolean isRecording() {
+        return isRecording.get();
+    }
+
+    public String getCurrentFilePath() {
+        return currentFilePath;
+    }
+
+    // ===== 私有方法 =====
+
+    private void createEncoder() throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+
+        encoder = MediaCodec.createEncoderByType(MIME_TYPE);
+        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        encoderInputSurface = encoder.createInputSurface();
+        encoder.start();
+        bufferInfo = new MediaCodec.BufferInfo();
+
+        AppLog.d(TAG, "Mosaic encoder created: " + width + "x" + height +
+                " @ " + frameRate + "fps, " + (bitRate / 1000) + " Kbps");
+    }
+
+    private RecordingMuxer createMuxerInstance(String filePath) throws IOException {
+        if (fragmentedMp4Enabled) {
+            return new FragmentedMp4Muxer(filePath, frameRate, fragmentDurationMs);
+        }
+        return new MediaMuxerAdapter(filePath);
+    }
+
+    /**
+     * 为一个格子创建 OES 纹理和 SurfaceTexture（在渲染线程上调用）
+     */
+    private SurfaceTexture createTileInput(final int tile, Size inputSize) {
+        tileTextureIds[tile] = GlUtil.createOesTexture();
+
+        SurfaceTexture surfaceTexture = new SurfaceTexture(tileTextureIds[tile]);
+        surfaceTexture.setDefaultBufferSize(inputSize.getWidth(), inputSize.getHeight());
+        // 帧到达时只更新纹理（不论是否在录制，都必须消费帧，否则不再触发回调）
+        // 实际编码由合成定时器按固定帧率完成
+        surfaceTexture.setOnFrameAvailableListener(st -> {
+            if (isReleased) {
+                return;
+            }
+            try {
+                st.updateTexImage();
+                st.getTransformMatrix(tileTexMatrices[tile]);
+                tileHasFrame[tile] = true;
+                frameDirty = true;
+            } catch (Exception e) {
+                AppLog.e(TAG, "Mosaic tile " + tile + " (" + tileKeys[tile] + ") updateTexImage failed", e);
+            }
+        }, renderHandler);
+        tileSurfaceTextures[tile] = surfaceTexture;
+
+        AppLog.d(TAG, "Mosaic tile " + tile + " -> camera " + tileKeys[tile] +
+                ", input " + inputSize.getWidth() + "x" + inputSize.getHeight());
+        return surfaceTexture;
+    }
+
+    /**
+     * 合成一帧并送入编码器（在渲染线程上按帧率循环执行）
+     */
+    private void composeFrame() {
+        if (!isRecording.get() || isReleased) {
+            return;
+        }
+
+        // 按绝对时间调度下一帧，避免 postDelayed 累积漂移
+        long frameIntervalMs = 1000L / frameRate;
+        nextComposeUptimeMs += frameIntervalMs;
+        long now = SystemClock.uptimeMillis();
+        if (nextComposeUptimeMs < now) {
+            nextComposeUptimeMs = now + frameIntervalMs;  // 落后太多时不追帧
+        }
+        renderHandler.postAtTime(composeRunnable, nextComposeUptimeMs);
+
+        if (!frameDirty) {
+            // 所有摄像头都没有新画面，不重复编码同一帧
+            skippedComposeCount++;
+            drainEncoder(false);
+            return;
+        }
+        frameDirty = false;
+
+        try {
+            GLES20.glViewport(0, 0, width, height);
+            GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+            GLES20.glUseProgram(program);
+            GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
+            GLES20.glUniform1i(textureHandle, 0);
+            GLES20.glEnableVertexAttribArray(positionHandle);
+            GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 0, vertexBuffer);
+            GLES20.glEnableVertexAttribArray(texCoordHandle);
+            GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 0, texCoordBuffer);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+
+            for (int i = 0; i < TILE_COUNT; i++) {
+                if (!tileHasFrame[i]) {
+                    continue;  // 没有画面的格子保持黑色
+                }
+                int column = i % GRID_COLUMNS;
+                int row = i / GRID_COLUMNS;
+                // GL 坐标原点在左下角，第 0 行在最上面
+                GLES20.glViewport(column * tileWidth, (GRID_ROWS - 1 - row) * tileHeight, tileWidth, tileHeight);
+                GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, tileTextureIds[i]);
+                GLES20.glUniformMatrix4fv(texMatrixHandle, 1, false, tileTexMatrices[i], 0);
+                GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            }
+
+            GLES20.glDisableVertexAttribArray(positionHandle);
+            GLES20.glDisableVertexAttribArray(texCoordHandle);
+
+            if (glyphWatermark.isReady()) {
+                GLES20.glViewport(0, 0, width, height);
+                glyphWatermark.draw();
+            }
+
+            long nowNs = System.nanoTime();
+            if (firstComposeTimeNs < 0) {
+                firstComposeTimeNs = nowNs;
+            }
+            EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, nowNs - firstComposeTimeNs);
+            EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+            composedFrameCount++;
+
+            if (composedFrameCount % 300 == 0) {
+                AppLog.d(TAG, "Mosaic composed frames: " + composedFrameCount + ", skipped: " + skippedComposeCount);
+            }
+        } catch (Exception e) {
+            AppLog.e(TAG, "Error composing mosaic frame", e);
+        }
+
+        drainEncoder(false);
+    }
+
+    /**
+     * 排空编码器输出（在渲染线程上调用，非结束时不阻塞等待）
+     */
+    private void drainEncoder(boolean endOfStream) {
+        if (encoder == null) {
+            return;
+        }
+        final int TIMEOUT_USEC = endOfStream ? 10000 : 0;
+
+        try {
+            while (true) {
+                int outputBufferIndex = encoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_USEC);
+                if (outputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    if (!endOfStream) {
+                        break;
+                    }
+                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    if (muxerStarted) {
+                        AppLog.w(TAG, "Mosaic format changed twice");
+                    } else {
+                        encoderOutputFormat = encoder.getOutputFormat();
+                        videoTrackIndex = muxer.addTrack(encoderOutputFormat);
+                        muxer.start();
+                        muxerStarted = true;
+                        AppLog.d(TAG, "Mosaic muxer started, track=" + videoTrackIndex);
+                    }
+                } else if (outputBufferIndex >= 0) {
+                    ByteBuffer encodedData = encoder.getOutputBuffer(outputBufferIndex);
+                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                        bufferInfo.size = 0;  // 配置数据已在 FORMAT_CHANGED 中处理
+                    }
+
+                    if (bufferInfo.size != 0 && encodedData != null && muxerStarted) {
+                        boolean keyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                        if (segmentRollover.isPending() && keyFrame) {
+                            completeRollover();
+                        }
+
+                        bufferInfo.presentationTimeUs = (System.nanoTime() - segmentStartTimeNs) / 1000;
+                        encodedData.position(bufferInfo.offset);
+                        encodedData.limit(bufferInfo.offset + bufferInfo.size);
+                        muxer.writeSampleData(videoTrackIndex, encodedData, bufferInfo);
+                        encodedFrameCount++;
+
+                        if (!hasFirstWrite) {
+                            onFirstWrite();
+                        }
+                    }
+
+                    encoder.releaseOutputBuffer(outputBufferIndex, false);
+                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        break;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            AppLog.e(TAG, "Error draining mosaic encoder", e);
+            if (callback != null && !endOfStream) {
+                final String errorMsg = e.getMessage();
+                segmentHandler.post(() -> callback.onRecordError(POSITION_MOSAIC, errorMsg));
+            }
+        }
+    }
+
+    /**
+     * 首次写入：通知外部并启动分段定时器（与 CodecVideoRecorder 一致，分段计时从首次写入开始）
+     */
+    private void onFirstWrite() {
+        hasFirstWrite = true;
+        AppLog.d(TAG, "Mosaic first data written: " + currentFilePath);
+        segmentHandler.post(() -> {
+            if (callback != null) {
+                callback.onFirstDataWritten(POSITION_MOSAIC);
+            }
+            scheduleNextSegment();
+        });
+    }
+
+    /**
+     * 调度下一次分段切换（在分段线程上调用）
+     */
+    private void scheduleNextSegment() {
+        if (segmentRunnable != null) {
+            segmentHandler.removeCallbacks(segmentRunnable);
+        }
+        segmentRunnable = () -> {
+            if (isRecording.get() && renderHandler != null) {
+                renderHandler.post(this::requestRollover);
+            }
+        };
+        long delayMs = Math.max(1000, segmentDurationMs - SYNC_FRAME_LEAD_MS);
+        segmentHandler.postDelayed(segmentRunnable, delayMs);
+    }
+
+    /**
+     * 请求分段切换：创建下一段 Muxer 并请求关键帧（在渲染线程上执行）
+     */
+    private void requestRollover() {
+        if (!isRecording.get() || segmentRollover.isPending()) {
+            return;
+        }
+        if (!segmentRollover.request(encoder, generateSegmentPath())) {
+            // 准备失败，继续写当前分段，稍后按正常间隔重试
+            segmentHandler.post(this::scheduleNextSegment);
+        }
+    }
+
+    /**
+     * 在关键帧处切换到下一段 Muxer（在渲染线程上执行）
+     * 旧 Muxer 的 stop/release 和文件校验放到分段线程执行
+     */
+    private void completeRollover() {
+        SegmentRollover.Segment next = segmentRollover.complete(encoderOutputFormat);
+        if (next == null) {
+            segmentHandler.post(this::scheduleNextSegment);
+            return;
+        }
+
+        final RecordingMuxer finishedMuxer = muxer;
+        final String previousFilePath = currentFilePath;
+
+        muxer = next.muxer;
+        videoTrackIndex = next.trackIndex;
+        segmentIndex++;
+        currentFilePath = next.filePath;
+        recordedFilePaths.add(next.filePath);
+        segmentStartTimeNs = System.nanoTime();
+
+        AppLog.d(TAG, "Mosaic switched to segment " + segmentIndex + ": " + next.filePath);
+
+        final int newIndex = segmentIndex;
+        segmentHandler.post(() -> {
+            segmentRollover.finishMuxer(finishedMuxer, true);
+            validateAndCleanupFile(previousFilePath);
+            if (callback != null) {
+                callback.onSegmentSwitch(POSITION_MOSAIC, newIndex, previousFilePath);
+            }
+            scheduleNextSegment();
+        });
+    }
+
+    /**
+     * 生成新的分段文件路径（优先使用统一时间戳）
+     */
+    private String generateSegmentPath() {
+        return SegmentFiles.generateSegmentPath(saveDirectory, timestampProvider, POSITION_MOSAIC);
+    }
+
+    /**
+     * 验证并清理损坏的文件
+     * @return 如果文件被删除，返回文件名；否则返回 null
+     */
+    private String validateAndCleanupFile(String filePath) {
+        return SegmentFiles.validateAndCleanupFile(TAG, "Mosaic ", filePath);
+    }
+
+    // ===== EGL / OpenGL =====
+
+    private void initEgl() {
+        int[] version = new int[2];
+        eglDisplay = GlUtil.initDisplay(version);
+        EGLConfig config = GlUtil.chooseRecordableConfig(eglDisplay);
+        eglContext = GlUtil.createContext(eglDisplay, config);
+        eglSurface = GlUtil.createWindowSurface(eglDisplay, config, encoderInputSurface);
+
+        // 只有一个 context 和一个 surface，绑定后在整个录制期间保持不变
+        if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
+            throw new RuntimeException("eglMakeCurrent failed");
+        }
+        AppLog.d(TAG, "Mosaic EGL setup complete: " + version[0] + "." + version[1]);
+    }
+
+    private void initGl() {
+        program = GlUtil.createProgram(GlUtil.VERTEX_SHADER, GlUtil.OES_FRAGMENT_SHADER);
+        if (program == 0) {
+            throw new RuntimeException("Unable to create shader program");
+        }
+        positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+        texCoordHandle = GLES20.glGetAttribLocation(program, "aTextureCoord");
+        mvpMatrixHandle = GLES20.glGetUniformLocation(program, "uMVPMatrix");
+        texMatrixHandle = GLES20.glGetUniformLocation(program, "uTexMatrix");
+        textureHandle = GLES20.glGetUniformLocation(program, "sTexture");
+
+        vertexBuffer = GlUtil.createFloatBuffer(GlUtil.FULL_QUAD_VERTICES);
+        texCoordBuffer = GlUtil.createFloatBuffer(GlUtil.FULL_QUAD_TEXTURE_COORDS);
+
+        if (watermarkEnabled && !glyphWatermark.init(width, height)) {
+            AppLog.w(TAG, "Mosaic watermark unavailable, recording without it");
+        }
+    }
+
+    private void releaseGl() {
+        for (int i = 0; i < TILE_COUNT; i++) {
+            if (tileSurfaceTextures[i] != null) {
+                tileSurfaceTextures[i].setOnFrameAvailableListener(null);
+                tileSurfaceTextures[i].release();
+                tileSurfaceTextures[i] = null;
+            }
+            if (tileTextureIds[i] != 0 && eglDisplay != EGL14.EGL_NO_DISPLAY) {
+                GLES20.glDeleteTextures(1, new int[]{tileTextureIds[i]}, 0);
+            }
+            tileTextureIds[i] = 0;
+            tileHasFrame[i] = false;
+        }
+        if (program != 0) {
+            GLES20.glDeleteProgram(program);
+            program = 0;
+        }
+        if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+            glyphWatermark.release();
+            EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            if (eglSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglDestroySurface(eglDisplay, eglSurface);
+                eglSurface = EGL14.EGL_NO_SURFACE;
+            }
+            if (eglContext != EGL14.EGL_NO_CONTEXT) {
+                EGL14.eglDestroyContext(eglDisplay, eglContext);
+                eglContext = EGL14.EGL_NO_CONTEXT;
+            }
+            EGL14.eglTerminate(eglDisplay);
+            eglDisplay = EGL14.EGL_NO_DISPLAY;
+        }
+    }
+}
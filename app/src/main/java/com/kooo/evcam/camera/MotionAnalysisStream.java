@@ -0,0 +1,146 @@
+package com.kooo.evcam.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.util.Size;
+import android.view.Surface;
+
+import com.kooo.evcam.AppLog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 低分辨率运动分析流
+ *
+ * 在会话中附加一路小尺寸 YUV_420_888 ImageReader 输出（加入预览的重复请求），
+ * 按 ANALYSIS_INTERVAL_MS 限速取最新帧，把 Y 平面拷入复用数组后交给 MotionDetector。
+ * 超出限速的帧直接丢弃（acquireLatestImage 后立即 close），稳定运行时不分配内存。
+ *
+ * 所有 ImageReader 回调和 MotionDetector.Listener 回调都在构造时传入的 handler 线程上执行。
+ */
+public class MotionAnalysisStream {
+    private static final String TAG = "MotionAnalysisStream";
+
+    /** 目标分析尺寸（取不小于该面积的最小 YUV 输出尺寸） */
+    private static final int TARGET_WIDTH = 160;
+    private static final int TARGET_HEIGHT = 120;
+    /** 超过该面积的输出尺寸不使用（分析开销与拷贝量随面积增长） */
+    private static final int MAX_ANALYSIS_AREA = 640 * 480;
+    /** 分析间隔（约 5 fps） */
+    private static final long ANALYSIS_INTERVAL_MS = 200;
+    /** ImageReader 缓冲数：一张分析中，一张等待 */
+    private static final int MAX_IMAGES = 2;
+
+    private final String cameraId;
+    private final ImageReader imageReader;
+    private final MotionDetector detector;
+    private byte[] lumaBuffer;
+    private long lastAnalysisMs = 0;
+    private volatile boolean released = false;
+
+    /**
+     * @param size 分析尺寸（通过 chooseAnalysisSize 选择）
+     * @param handler 回调线程（通常为 SingleCamera 的后台线程）
+     * @param listener 运动事件回调
+     */
+    public MotionAnalysisStream(String cameraId, Size size, Handler handler, MotionDetector.Listener listener) {
+        this.cameraId = cameraId;
+        this.detector = new MotionDetector(size.getWidth(), size.getHeight());
+        this.detector.setListener(listener);
+        this.imageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                ImageFormat.YUV_420_888, MAX_IMAGES);
+        this.imageReader.setOnImageAvailableListener(this::onImageAvailable, handler);
+        AppLog.d(TAG, "Camera " + cameraId + " motion analysis reader created: " + size.getWidth() + "x" + size.getHeight());
+    }
+
+    /**
+     * 选择分析尺寸：不小于 160x120 的最小 YUV 输出尺寸
+     * @return 选中的尺寸，没有合适尺寸时返回 null
+     */
+    public static Size chooseAnalysisSize(StreamConfigurationMap map) {
+        if (map == null) {
+            return null;
+        }
+        Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+        if (sizes == null || sizes.length == 0) {
+            return null;
+        }
+        Size best = null;
+        for (Size size : sizes) {
+            long area = (long) size.getWidth() * size.getHeight();
+            if (size.getWidth() < TARGET_WIDTH || size.getHeight() < TARGET_HEIGHT || area > MAX_ANALYSIS_AREA) {
+                continue;
+            }
+            if (best == null || area < (long) best.getWidth() * best.getHeight()) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 获取需要加入会话输出列表和重复请求的 Surface
+     */
+    public Surface getSurface() {
+        return imageReader.getSurface();
+    }
+
+    public MotionDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * 释放 ImageReader
+     */
+    public void release() {
+        released = true;
+        try {
+            imageReader.close();
+        } catch (Exception e) {
+            AppLog.d(TAG, "Camera " + cameraId + " ignored exception while closing analysis reader: " + e.getMessage());
+        }
+        AppLog.d(TAG, "Camera " + cameraId + " motion analysis released (frames=" + detector.getFramesProcessed()
+                + ", events=" + detector.getEventCount() + ")");
+    }
+
+    // ===== 私有方法 =====
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+        try {
+            if (released) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastAnalysisMs < ANALYSIS_INTERVAL_MS) {
+                return;  // 限速：丢弃本帧
+            }
+            lastAnalysisMs = now;
+
+            // Y 平面 pixelStride 固定为 1，按行跨度整体拷贝到复用数组
+            Image.Plane plane = image.getPlanes()[0];
+            ByteBuffer buffer = plane.getBuffer();
+            int length = buffer.remaining();
+            if (lumaBuffer == null || lumaBuffer.length < length) {
+                lumaBuffer = new byte[length];
+            }
+            buffer.get(lumaBuffer, 0, length);
+            detector.process(lumaBuffer, 0, plane.getRowStride(), now);
+        } catch (Exception e) {
+            AppLog.w(TAG, "Camera " + cameraId + " motion analysis failed: " + e.getMessage());
+        } finally {
+            image.close();
+        }
+    }
+}
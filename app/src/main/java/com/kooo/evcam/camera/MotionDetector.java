@@ -0,0 +1,277 @@
+package com.kooo.evcam.camera;
+
+import java.util.Arrays;
+
+/**
+ * 亮度平面运动检测器（驻车监控用）
+ *
+ * 输入低分辨率分析流的 Y 平面，按 BLOCK_SIZE x BLOCK_SIZE 分块求平均亮度，与各块的背景亮度比较：
+ * 1. 先扣除全部块的平均偏移（车灯扫过、云层遮挡等整体亮度变化不算运动），
+ *    整体偏移过大时视为光照突变，直接以当前帧重建背景
+ * 2. 偏差超过 blockThreshold 的块为活动块，活动块数达到 minActiveBlocks 且连续 triggerFrames 帧时开始运动事件
+ * 3. 连续 holdMs 没有满足条件的帧时结束运动事件
+ * 4. 背景按指数滑动平均更新：静止块跟得快，活动块跟得慢（停进来的车最终会融入背景）
+ *
+ * 所有数组在构造时分配，process() 不分配内存，可以在每帧回调中直接调用。
+ * 本类不依赖 Android API，可在 JVM 上用合成帧序列直接验证。
+ * 非线程安全：应只在分析流的回调线程上调用。
+ */
+public class MotionDetector {
+
+    /**
+     * 运动事件回调（在调用 process() 的线程上执行）
+     */
+    public interface Listener {
+        /**
+         * 运动开始
+         * @param timestampMs 触发帧的时间戳
+         * @param activeBlocks 触发帧的活动块数
+         */
+        void onMotionStarted(long timestampMs, int activeBlocks);
+
+        /**
+         * 运动结束
+         * @param timestampMs 结束时刻（最后一个运动帧之后 holdMs）
+         * @param durationMs 事件时长
+         */
+        void onMotionEnded(long timestampMs, long durationMs);
+    }
+
+    /** 分块边长（像素） */
+    public static final int BLOCK_SIZE = 8;
+    /** 默认块亮度偏差阈值（0-255） */
+    public static final int DEFAULT_BLOCK_THRESHOLD = 14;
+    /** 默认最少活动块比例（千分比） */
+    public static final int DEFAULT_MIN_ACTIVE_PERMILLE = 15;
+    /** 默认连续触发帧数 */
+    public static final int DEFAULT_TRIGGER_FRAMES = 2;
+    /** 默认运动保持时长 */
+    public static final long DEFAULT_HOLD_MS = 3000;
+    /** 整体亮度偏移超过该值时视为光照突变 */
+    private static final int LIGHTING_JUMP_THRESHOLD = 40;
+    /** 背景定点数的小数位数 */
+    private static final int FIXED_SHIFT = 4;
+    /** 静止块背景更新速率（1/2^n） */
+    private static final int BACKGROUND_RATE_STILL = 4;
+    /** 活动块背景更新速率（1/2^n） */
+    private static final int BACKGROUND_RATE_ACTIVE = 7;
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    private final int[] blockMeans;
+    private final int[] background;   // 定点数（左移 FIXED_SHIFT）
+    private final boolean[] activeMask;
+
+    private int blockThreshold = DEFAULT_BLOCK_THRESHOLD;
+    private int minActiveBlocks;
+    private int triggerFrames = DEFAULT_TRIGGER_FRAMES;
+    private long holdMs = DEFAULT_HOLD_MS;
+    private Listener listener;
+
+    private boolean initialized = false;
+    private boolean motionActive = false;
+    private int consecutiveMotionFrames = 0;
+    private long motionStartMs = 0;
+    private long lastMotionFrameMs = 0;
+
+    // 统计
+    private int lastActiveBlocks = 0;
+    private long framesProcessed = 0;
+    private long eventCount = 0;
+    private long lightingResets = 0;
+
+    /**
+     * @param width 分析帧宽度
+     * @param height 分析帧高度
+     */
+    public MotionDetector(int width, int height) {
+        if (width < BLOCK_SIZE || height < BLOCK_SIZE) {
+            throw new IllegalArgumentException("frame too small: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.columns = width / BLOCK_SIZE;
+        this.rows = height / BLOCK_SIZE;
+        int blocks = columns * rows;
+        this.blockMeans = new int[blocks];
+        this.background = new int[blocks];
+        this.activeMask = new boolean[blocks];
+        setMinActivePermille(DEFAULT_MIN_ACTIVE_PERMILLE);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 设置块亮度偏差阈值（0-255，越小越灵敏）
+     */
+    public void setBlockThreshold(int threshold) {
+        this.blockThreshold = Math.max(1, threshold);
+    }
+
+    /**
+     * 设置最少活动块比例（千分比，至少 1 块）
+     */
+    public void setMinActivePermille(int permille) {
+        this.minActiveBlocks = Math.max(1, columns * rows * permille / 1000);
+    }
+
+    public void setTriggerFrames(int frames) {
+        this.triggerFrames = Math.max(1, frames);
+    }
+
+    public void setHoldMs(long holdMs) {
+        this.holdMs = Math.max(0, holdMs);
+    }
+
+    /**
+     * 处理一帧 Y 平面
+     *
+     * @param luma Y 平面数据
+     * @param offset 第一个像素的偏移
+     * @param rowStride 行跨度（字节）
+     * @param timestampMs 帧时间戳
+     * @return 当前是否处于运动事件中
+     */
+    public boolean process(byte[] luma, int offset, int rowStride, long timestampMs) {
+        framesProcessed++;
+        computeBlockMeans(luma, offset, rowStride);
+        int blocks = blockMeans.length;
+
+        if (!initialized) {
+            resetBackground();
+            initialized = true;
+            return motionActive;
+        }
+
+        // 整体亮度偏移（扣除后再判断各块）
+        long shiftSum = 0;
+        for (int i = 0; i < blocks; i++) {
+            shiftSum += (blockMeans[i] << FIXED_SHIFT) - background[i];
+        }
+        int shift = (int) (shiftSum / blocks);
+        if (Math.abs(shift) > (LIGHTING_JUMP_THRESHOLD << FIXED_SHIFT)) {
+            // 光照突变：重建背景，本帧不判定
+            lightingResets++;
+            resetBackground();
+            lastActiveBlocks = 0;
+            return updateState(false, 0, timestampMs);
+        }
+
+        int threshold = blockThreshold << FIXED_SHIFT;
+        int active = 0;
+        for (int i = 0; i < blocks; i++) {
+            int diff = (blockMeans[i] << FIXED_SHIFT) - background[i] - shift;
+            boolean isActive = Math.abs(diff) > threshold;
+            activeMask[i] = isActive;
+            if (isActive) {
+                active++;
+            }
+        }
+
+        // 更新背景
+        for (int i = 0; i < blocks; i++) {
+            int target = (blockMeans[i] << FIXED_SHIFT);
+            int rate = activeMask[i] ? BACKGROUND_RATE_ACTIVE : BACKGROUND_RATE_STILL;
+            background[i] += (target - background[i]) >> rate;
+        }
+
+        lastActiveBlocks = active;
+        return updateState(active >= minActiveBlocks, active, timestampMs);
+    }
+
+    /**
+     * 清空背景和运动状态（分析流重新开始时调用）
+     */
+    public void reset() {
+        initialized = false;
+        motionActive = false;
+        consecutiveMotionFrames = 0;
+        lastActiveBlocks = 0;
+    }
+
+    public boolean isMotionActive() {
+        return motionActive;
+    }
+
+    public int getLastActiveBlocks() {
+        return lastActiveBlocks;
+    }
+
+    public int getBlockCount() {
+        return blockMeans.length;
+    }
+
+    public long getFramesProcessed() {
+        return framesProcessed;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public long getLightingResets() {
+        return lightingResets;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // ===== 私有方法 =====
+
+    private void computeBlockMeans(byte[] luma, int offset, int rowStride) {
+        Arrays.fill(blockMeans, 0);
+        int usedWidth = columns * BLOCK_SIZE;
+        int usedHeight = rows * BLOCK_SIZE;
+        for (int y = 0; y < usedHeight; y++) {
+            int rowStart = offset + y * rowStride;
+            int blockRow = (y / BLOCK_SIZE) * columns;
+            for (int x = 0; x < usedWidth; x++) {
+                blockMeans[blockRow + x / BLOCK_SIZE] += luma[rowStart + x] & 0xFF;
+            }
+        }
+        int pixelsPerBlock = BLOCK_SIZE * BLOCK_SIZE;
+        for (int i = 0; i < blockMeans.length; i++) {
+            blockMeans[i] /= pixelsPerBlock;
+        }
+    }
+
+    private void resetBackground() {
+        for (int i = 0; i < blockMeans.length; i++) {
+            background[i] = blockMeans[i] << FIXED_SHIFT;
+        }
+    }
+
+    private boolean updateState(boolean motionFrame, int active, long timestampMs) {
+        if (motionFrame) {
+            consecutiveMotionFrames++;
+            lastMotionFrameMs = timestampMs;
+            if (!motionActive && consecutiveMotionFrames >= triggerFrames) {
+                motionActive = true;
+                motionStartMs = timestampMs;
+                eventCount++;
+                if (listener != null) {
+                    listener.onMotionStarted(timestampMs, active);
+                }
+            }
+        } else {
+            consecutiveMotionFrames = 0;
+            if (motionActive && timestampMs - lastMotionFrameMs >= holdMs) {
+                motionActive = false;
+                long endMs = lastMotionFrameMs + holdMs;
+                if (listener != null) {
+                    listener.onMotionEnded(endMs, endMs - motionStartMs);
+                }
+            }
+        }
+        return motionActive;
+    }
+}
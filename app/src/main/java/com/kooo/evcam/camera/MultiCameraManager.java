@@ -4,6 +4,8 @@ package com.kooo.evcam.camera;
 import com.kooo.evcam.AppConfig;
 import com.kooo.evcam.AppLog;
 import com.kooo.evcam.FileTransferManager;
+import com.kooo.evcam.MediaIndex;
+import com.kooo.evcam.StorageBenchmark;
 import com.kooo.evcam.StorageHelper;
 import android.content.Context;
 import android.os.Environment;
@@ -15,12 +17,14 @@ import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 四路摄像头管理器
@@ -35,6 +39,8 @@ public class MultiCameraManager {
     private final Map<String, SingleCamera> cameras = new LinkedHashMap<>();
     private final Map<String, VideoRecorder> recorders = new LinkedHashMap<>();
     private final Map<String, CodecVideoRecorder> codecRecorders = new LinkedHashMap<>();  // 软编码录制器
+    private final SharedGlEngine sharedGlEngine = new SharedGlEngine();  // 共享 GL 渲染引擎（按需启动，引用计数）
+    private MosaicVideoRecorder mosaicRecorder;  // 2x2 拼接录制器（拼接模式下代替 codecRecorders）
     private final List<String> activeCameraKeys = new ArrayList<>();
     private int maxOpenCameras = DEFAULT_MAX_OPEN_CAMERAS;
 
@@ -44,6 +50,8 @@ public class MultiCameraManager {
     private File finalSaveDir = null;           // 最终存储目录（用于中转写入模式）
     private volatile int lastNotifiedSegmentIndex = -1;  // 已通知的分段索引，避免重复通知
     private long overrideSegmentDurationMs = 0;  // 临时覆盖分段时长（0=使用配置值，>0=使用此值）
+    private long recordingBitrateTotal = 0;      // 当前录制所有编码器码率之和（bps，用于空间预留）
+    private long recordingSegmentDurationMs = 0; // 当前录制的分段时长
     
     // 统一分段时间戳管理（解决多路摄像头分段切换时时间戳差1秒的问题）
     private String cachedSegmentTimestamp = null;  // 缓存的分段时间戳
@@ -57,6 +65,14 @@ public class MultiCameraManager {
     private int rebuildAttemptCount = 0;  // 重建尝试次数（0=首次, 1=重建MediaRecorder, 2+=回退Codec）
     private static final int CODEC_FALLBACK_THRESHOLD = 2;  // 触发 Codec 回退的阈值
     private volatile boolean isRebuildingRecording = false;  // 是否正在重建录制（防止多摄像头并发触发）
+
+    // 低分辨率代理子码流参数（远程上传用）
+    private static final int PROXY_MAX_LONG_SIDE = 640;
+    private static final int PROXY_BITRATE_DIVISOR = 10;
+    private static final int PROXY_MIN_BITRATE = 200000;
+
+    // 运动触发事件片段：事件后继续录制的时长（同时作为重复触发的冷却时间）
+    private static final long MOTION_CLIP_POST_ROLL_MS = 15000;
     private StatusCallback statusCallback;
     private PreviewSizeCallback previewSizeCallback;
     private volatile int sessionConfiguredCount = 0;
@@ -70,6 +86,7 @@ public class MultiCameraManager {
     private final Map<String, Boolean> cameraSessionReady = new LinkedHashMap<>();
     private final Map<String, Boolean> cameraRecordingActive = new LinkedHashMap<>();
     private RecordingStatusCallback recordingStatusCallback;
+    private long lastMotionClipMs = 0;  // 最近一次运动触发事件片段的时间（主线程）
 
     public interface StatusCallback {
         void onCameraStatusUpdate(String cameraId, String status);
@@ -197,7 +214,7 @@ public class MultiCameraManager {
     public void setRecordingStatusCallback(RecordingStatusCallback callback) {
         this.recordingStatusCallback = callback;
     }
-    
+
     public void setSegmentSwitchCallback(SegmentSwitchCallback callback) {
         this.segmentSwitchCallback = callback;
     }
@@ -283,6 +300,45 @@ public class MultiCameraManager {
         return cameras.get(position);
     }
 
+    /**
+     * 创建某个位置摄像头的运动事件监听（后台线程回调，转发到主线程）
+     */
+    private MotionDetector.Listener createMotionListener(String position) {
+        return new MotionDetector.Listener() {
+            @Override
+            public void onMotionStarted(long timestampMs, int activeBlocks) {
+                AppLog.d(TAG, "Camera " + position + " motion started (blocks=" + activeBlocks
+                        + ", recording=" + isRecording + ")");
+                mainHandler.post(() -> onMotionDetected(position));
+            }
+
+            @Override
+            public void onMotionEnded(long timestampMs, long durationMs) {
+                AppLog.d(TAG, "Camera " + position + " motion ended (duration=" + durationMs + "ms)");
+            }
+        };
+    }
+
+    /**
+     * 运动触发（主线程）：录制中且启用了预录缓冲时保存一段事件片段（预录 + MOTION_CLIP_POST_ROLL_MS），
+     * 驻车时车辆周围的动静会留下完整的前后画面，不会被循环录制覆盖前就找不到。
+     * 上一段运动片段的事件后时长内再次触发时不重复保存（新片段会提前结束正在写入的片段）
+     */
+    private void onMotionDetected(String position) {
+        if (!isRecording || codecRecorders.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (lastMotionClipMs > 0 && now - lastMotionClipMs < MOTION_CLIP_POST_ROLL_MS) {
+            return;
+        }
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date(now));
+        if (saveEventClips(timestamp, MOTION_CLIP_POST_ROLL_MS, null) != null) {
+            lastMotionClipMs = now;
+            AppLog.i(TAG, "Motion on " + position + " triggered event clips: " + timestamp);
+        }
+    }
+
     /**
      * 初始化摄像头
      * 支持 null 参数以适配不同数量的摄像头配置（1摄/2摄/4摄）
@@ -343,6 +399,19 @@ public class MultiCameraManager {
             }
         }
 
+        // ImageReader 抓拍（需在 openCamera 之前设置）
+        boolean stillCaptureEnabled = new AppConfig(context).isStillCaptureEnabled();
+        for (SingleCamera camera : cameras.values()) {
+            camera.setStillCaptureEnabled(stillCaptureEnabled);
+        }
+
+        // 低分辨率运动分析流（需在 openCamera 之前设置）
+        boolean motionAnalysisEnabled = new AppConfig(context).isMotionAnalysisEnabled();
+        for (Map.Entry<String, SingleCamera> entry : cameras.entrySet()) {
+            entry.getValue().setMotionAnalysisEnabled(motionAnalysisEnabled,
+                    motionAnalysisEnabled ? createMotionListener(entry.getKey()) : null);
+        }
+
         // 为每个摄像头设置回调
         CameraCallback callback = new CameraCallback() {
             @Override
@@ -551,6 +620,8 @@ public class MultiCameraManager {
                         SingleCamera camera = entry.getValue();
                         VideoRecorder recorder = recorders.get(key);
 
+                        indexCompletedSegment(completedFilePath);
+
                         if (camera != null && recorder != null) {
                             // 如果使用中转写入，将上一个分段的文件传输到最终目录
                             if (useRelayWrite && finalSaveDir != null && newSegmentIndex > 0 && completedFilePath != null) {
@@ -808,6 +879,9 @@ public class MultiCameraManager {
         int targetFrameRate = appConfig.getActualFrameRate(30);  // 假设硬件支持30fps
         AppLog.d(TAG, "Target frame rate: " + targetFrameRate + " fps (level: " + appConfig.getFramerateLevel() + ")");
 
+        recordingBitrateTotal = 0;
+        recordingSegmentDurationMs = segmentDurationMs;
+
         // 第一步：准备所有 MediaRecorder（但不启动）
         // 使用每个摄像头的实际预览分辨率，而不是硬编码的值
         boolean prepareSuccess = true;
@@ -830,10 +904,12 @@ public class MultiCameraManager {
                     previewSize.getWidth(), 
                     previewSize.getHeight(), 
                     targetFrameRate);
+            bitrate = applyStorageBitrateCeiling(appConfig, key, bitrate, keys.size());
             
             // 设置录制参数
             recorder.setSegmentDuration(segmentDurationMs);
             recorder.setVideoBitrate(bitrate);
+            recordingBitrateTotal += bitrate;
             recorder.setVideoFrameRate(targetFrameRate);
             // 注：最大编码分辨率限制使用 VideoRecorder 内部默认值（4096x4096）
             
@@ -843,6 +919,7 @@ public class MultiCameraManager {
             
             // 所有摄像头使用统一的时间戳：日期_时间_摄像头位置.mp4
             String path = new File(saveDir, timestamp + "_" + key + ".mp4").getAbsolutePath();
+            MediaIndex.getInstance(context).markRecording(new File(path));
             // 只准备 MediaRecorder，获取 Surface，使用预览的实际分辨率
             AppLog.d(TAG, "Preparing recording for " + key + " with size: " + previewSize.getWidth() + "x" + previewSize.getHeight());
             if (!recorder.prepareRecording(path, previewSize.getWidth(), previewSize.getHeight())) {
@@ -1057,6 +1134,13 @@ public class MultiCameraManager {
             recorder.release();
         }
         codecRecorders.clear();
+        recordingBitrateTotal = 0;
+        recordingSegmentDurationMs = segmentDurationMs;
+
+        // 拼接录制：所有摄像头合成到一个画面，只使用一个编码器
+        if (appConfig.isMosaicRecordingEnabled()) {
+            return startMosaicRecording(timestamp, keys, saveDir, segmentDurationMs, targetFrameRate, appConfig);
+        }
 
         // 为每个摄像头创建软编码录制器并准备
         boolean prepareSuccess = true;
@@ -1094,6 +1178,7 @@ public class MultiCameraManager {
             
             // 计算码率（基于调整后的分辨率和帧率）
             int bitrate = appConfig.getActualBitrate(encodeWidth, encodeHeight, targetFrameRate);
+            bitrate = applyStorageBitrateCeiling(appConfig, key, bitrate, keys.size());
 
             // 创建软编码录制器（使用调整后的分辨率）
             CodecVideoRecorder codecRecorder = new CodecVideoRecorder(
@@ -1108,15 +1193,53 @@ public class MultiCameraManager {
             // 设置录制参数
             codecRecorder.setSegmentDuration(segmentDurationMs);
             codecRecorder.setBitRate(bitrate);
+            recordingBitrateTotal += bitrate;
             codecRecorder.setFrameRate(targetFrameRate);
+            codecRecorder.setSeamlessSegmentSwitch(appConfig.isSeamlessSegmentSwitchEnabled());
+            if (appConfig.isSharedGlContextEnabled()) {
+                // 所有摄像头共用一个渲染线程和 EGL context
+                codecRecorder.setSharedGlEngine(sharedGlEngine);
+            }
+            codecRecorder.setAsyncEncoder(appConfig.isAsyncEncoderEnabled());
+            if (appConfig.isAdaptiveBitrateEnabled()) {
+                // 以配置码率为上限；中转写入时把传输队列积压也作为降码率依据
+                // 传输队列由所有摄像头共用，每次分段切换每路各入队一个文件，按路数折算为每路积压
+                int minBitrate = (int) ((long) bitrate * appConfig.getAdaptiveBitrateMinPercent() / 100);
+                final int streamCount = Math.max(1, keys.size());
+                codecRecorder.setAdaptiveBitrate(minBitrate, () -> useRelayWrite
+                        ? (FileTransferManager.getInstance(context).getQueueSize() + streamCount - 1) / streamCount
+                        : 0);
+            }
+            codecRecorder.setFragmentedMp4(appConfig.isFragmentedMp4Enabled(),
+                    appConfig.getFragmentDurationSeconds() * 1000L);
+            if (appConfig.isProxyStreamEnabled()) {
+                // 低分辨率代理子码流：码率约为主码流的 1/10，远程上传优先使用
+                int proxyBitrate = Math.max(PROXY_MIN_BITRATE, bitrate / PROXY_BITRATE_DIVISOR);
+                // 代理文件完成后计入媒体索引，存储清理的占用账本包含代理目录
+                codecRecorder.setProxyStream(StorageHelper.getVideoProxyDir(context), PROXY_MAX_LONG_SIDE, proxyBitrate,
+                        proxyFile -> MediaIndex.getInstance(context).put(proxyFile));
+            }
+            if (appConfig.isTimelapseEnabled()) {
+                // 延时录影（驻车）：每隔 N 秒编码一帧，使用更长的分段
+                codecRecorder.setTimelapse(appConfig.getTimelapseIntervalSeconds() * 1000L,
+                        appConfig.getTimelapseSegmentMinutes() * 60 * 1000L);
+            }
             
             AppLog.d(TAG, "Codec recording params for " + key + ": " + 
                     encodeWidth + "x" + encodeHeight + 
                     " @ " + targetFrameRate + "fps, " + AppConfig.formatBitrate(bitrate));
 
             // 设置时间水印（从配置读取，使用方法开头已创建的 appConfig）
+            codecRecorder.setWatermarkGlyphAtlas(appConfig.isWatermarkGlyphAtlasEnabled());
             codecRecorder.setWatermarkEnabled(appConfig.isTimestampWatermarkEnabled());
 
+            // 设置预录缓冲（仅保存在内存中，导出事件片段时才写文件）
+            int preEventSeconds = appConfig.getPreEventSeconds();
+            if (preEventSeconds > 0) {
+                codecRecorder.setPreEventBuffer(preEventSeconds * 1000L,
+                        appConfig.getPreEventBufferMb() * 1024L * 1024L);
+            }
+
             // 设置回调
             codecRecorder.setCallback(new RecordCallback() {
                 @Override
@@ -1144,6 +1267,7 @@ public class MultiCameraManager {
                 @Override
                 public void onSegmentSwitch(String cameraId, int newSegmentIndex, String completedFilePath) {
                     AppLog.d(TAG, "Codec segment switch for camera " + cameraId + " to segment " + newSegmentIndex);
+                    indexCompletedSegment(completedFilePath);
                     
                     // 如果使用中转写入，将上一个分段的文件传输到最终目录
                     if (useRelayWrite && finalSaveDir != null && newSegmentIndex > 0 && completedFilePath != null) {
@@ -1193,6 +1317,7 @@ public class MultiCameraManager {
 
             // 准备录制
             String path = new File(saveDir, timestamp + "_" + key + ".mp4").getAbsolutePath();
+            MediaIndex.getInstance(context).markRecording(new File(path));
             AppLog.d(TAG, "Preparing codec recording for " + key + " with size: " + previewSize.getWidth() + "x" + previewSize.getHeight());
 
             android.graphics.SurfaceTexture surfaceTexture = codecRecorder.prepareRecording(path);
@@ -1331,9 +1456,19 @@ public class MultiCameraManager {
                 }
             }
             codecRecorders.clear();
+            releaseMosaicRecorder();
             return;
         }
 
+        // 停止拼接录制
+        if (mosaicRecorder != null) {
+            AppLog.d(TAG, "Stopping mosaic recorder...");
+            if (mosaicRecorder.isRecording()) {
+                mosaicRecorder.stopRecording();
+            }
+            releaseMosaicRecorder();
+        }
+
         // 停止软编码录制
         if (!codecRecorders.isEmpty()) {
             AppLog.d(TAG, "Stopping codec recorders...");
@@ -1367,6 +1502,9 @@ public class MultiCameraManager {
             }
         }
 
+        // 最后一个分段已写完，更新媒体索引中的大小和状态
+        MediaIndex.getInstance(context).completeRecordings();
+
         // 如果使用中转写入，将临时目录中的所有文件传输到最终目录
         // 如果 skipRelayTransfer=true（远程录制），则跳过自动传输，由上传逻辑负责传输
         if (useRelayWrite && finalSaveDir != null && !skipRelayTransfer) {
@@ -1404,6 +1542,15 @@ public class MultiCameraManager {
         AppLog.d(TAG, "All cameras stopped recording");
     }
 
+    /**
+     * 分段完成后更新媒体索引（记录最终大小，状态改为已完成）
+     */
+    private void indexCompletedSegment(String completedFilePath) {
+        if (completedFilePath != null) {
+            MediaIndex.getInstance(context).put(new File(completedFilePath));
+        }
+    }
+
     /**
      * 处理录制重建请求（Watchdog 触发）
      * 
@@ -1557,7 +1704,303 @@ public class MultiCameraManager {
         
         isRecording = false;
     }
+    /**
+     * 使用 2x2 拼接模式开始录制
+     * 所有摄像头输出到同一个 MosaicVideoRecorder，合成后由一个编码器写入一个文件（{timestamp}_mosaic.mp4）
+     * @param keys 参与录制的摄像头
+     */
+    private boolean startMosaicRecording(String timestamp, List<String> keys, File saveDir,
+                                         long segmentDurationMs, int targetFrameRate, AppConfig appConfig) {
+        releaseMosaicRecorder();
+
+        String[] layout = MosaicVideoRecorder.parseLayout(appConfig.getMosaicLayout());
+        int[] tileSize = appConfig.getMosaicTileSize();
+
+        // 合成分辨率受编码器硬件限制（与单路 Codec 录制相同的 4096 上限）
+        final int MAX_ENCODE_SIZE = 4096;
+        int tileWidth = Math.min(tileSize[0], MAX_ENCODE_SIZE / MosaicVideoRecorder.GRID_COLUMNS);
+        int tileHeight = Math.min(tileSize[1], MAX_ENCODE_SIZE / MosaicVideoRecorder.GRID_ROWS);
+
+        // 收集各摄像头的输入分辨率（使用预览分辨率，保证是摄像头支持的输出尺寸）
+        Map<String, Size> inputSizes = new LinkedHashMap<>();
+        for (String key : keys) {
+            SingleCamera camera = cameras.get(key);
+            if (camera == null) {
+                continue;
+            }
+            boolean inLayout = false;
+            for (String tileKey : layout) {
+                if (key.equals(tileKey)) {
+                    inLayout = true;
+                    break;
+                }
+            }
+            if (!inLayout) {
+                AppLog.w(TAG, "Camera " + key + " is not in mosaic layout, it will not be recorded");
+                continue;
+            }
+            Size previewSize = camera.getPreviewSize();
+            if (previewSize == null) {
+                AppLog.e(TAG, "Camera " + key + " preview size not available, using fallback 1280x800");
+                previewSize = new Size(1280, 800);
+            }
+            inputSizes.put(key, previewSize);
+        }
+        if (inputSizes.isEmpty()) {
+            AppLog.e(TAG, "No camera matches mosaic layout " + appConfig.getMosaicLayout());
+            return false;
+        }
+
+        MosaicVideoRecorder recorder = new MosaicVideoRecorder(layout, tileWidth, tileHeight);
+        int bitrate = appConfig.getActualBitrate(recorder.getWidth(), recorder.getHeight(), targetFrameRate);
+        bitrate = applyStorageBitrateCeiling(appConfig, "mosaic", bitrate, 1);
+        recorder.setTimestampProvider(segmentTimestampProvider);
+        recorder.setSegmentDuration(segmentDurationMs);
+        recorder.setBitRate(bitrate);
+        recordingBitrateTotal += bitrate;
+        recorder.setFrameRate(targetFrameRate);
+        recorder.setFragmentedMp4(appConfig.isFragmentedMp4Enabled(),
+                appConfig.getFragmentDurationSeconds() * 1000L);
+        recorder.setWatermarkEnabled(appConfig.isTimestampWatermarkEnabled());
+
+        AppLog.d(TAG, "Mosaic recording params: " + recorder.getWidth() + "x" + recorder.getHeight() +
+                " @ " + targetFrameRate + "fps, " + AppConfig.formatBitrate(bitrate) +
+                ", layout: " + appConfig.getMosaicLayout());
+
+        recorder.setCallback(new RecordCallback() {
+            @Override
+            public void onRecordStart(String cameraId) {
+                AppLog.d(TAG, "Mosaic recording started");
+            }
+
+            @Override
+            public void onRecordStop(String cameraId) {
+                AppLog.d(TAG, "Mosaic recording stopped");
+            }
+
+            @Override
+            public void onRecordError(String cameraId, String error) {
+                AppLog.e(TAG, "Mosaic recording error: " + error);
+            }
+
+            @Override
+            public void onPrepareSegmentSwitch(String cameraId, int currentSegmentIndex) {
+                // 拼接录制在关键帧处切换 Muxer，不需要暂停 CaptureSession
+            }
+
+            @Override
+            public void onSegmentSwitch(String cameraId, int newSegmentIndex, String completedFilePath) {
+                AppLog.d(TAG, "Mosaic segment switch to segment " + newSegmentIndex);
+                indexCompletedSegment(completedFilePath);
+                if (useRelayWrite && finalSaveDir != null && newSegmentIndex > 0 && completedFilePath != null) {
+                    scheduleRelayTransfer(completedFilePath);
+                }
+                if (segmentSwitchCallback != null && newSegmentIndex > lastNotifiedSegmentIndex) {
+                    lastNotifiedSegmentIndex = newSegmentIndex;
+                    segmentSwitchCallback.onSegmentSwitch(newSegmentIndex);
+                }
+            }
+
+            @Override
+            public void onCorruptedFilesDeleted(String cameraId, List<String> deletedFiles) {
+                if (deletedFiles != null && !deletedFiles.isEmpty()) {
+                    AppLog.w(TAG, "Corrupted mosaic files deleted: " + deletedFiles.size() + " file(s)");
+                    if (corruptedFilesCallback != null) {
+                        mainHandler.post(() -> corruptedFilesCallback.onCorruptedFilesDeleted(deletedFiles));
+                    }
+                }
+            }
+
+            @Override
+            public void onRecordingRebuildRequested(String cameraId, String reason) {
+                AppLog.e(TAG, "Mosaic recording rebuild requested, reason: " + reason);
+            }
+
+            @Override
+            public void onFirstDataWritten(String cameraId) {
+                AppLog.d(TAG, "Mosaic first data written");
+                if (!hasNotifiedFirstDataWritten && firstDataWrittenCallback != null) {
+                    hasNotifiedFirstDataWritten = true;
+                    mainHandler.post(() -> firstDataWrittenCallback.onFirstDataWritten());
+                }
+            }
+        });
+
+        String path = new File(saveDir, timestamp + "_" + MosaicVideoRecorder.POSITION_MOSAIC + ".mp4").getAbsolutePath();
+        MediaIndex.getInstance(context).markRecording(new File(path));
+        Map<String, android.graphics.SurfaceTexture> surfaceTextures = recorder.prepareRecording(path, inputSizes);
+        if (surfaceTextures == null) {
+            AppLog.e(TAG, "Failed to prepare mosaic recording");
+            recorder.release();
+            return false;
+        }
+        mosaicRecorder = recorder;
+
+        // 将各格子的 SurfaceTexture 设置给对应摄像头
+        final List<String> recordingKeys = new ArrayList<>(surfaceTextures.keySet());
+        for (String key : recordingKeys) {
+            SingleCamera camera = cameras.get(key);
+            if (camera != null) {
+                camera.setRecordSurface(new android.view.Surface(surfaceTextures.get(key)), true);  // Codec 模式
+            }
+        }
+
+        // 重新创建摄像头会话
+        synchronized (sessionLock) {
+            sessionConfiguredCount = 0;
+            expectedSessionCount = recordingKeys.size();
+        }
+        for (String key : recordingKeys) {
+            SingleCamera camera = cameras.get(key);
+            if (camera != null) {
+                camera.recreateSession();
+            }
+        }
+
+        pendingRecordingStart = () -> {
+            AppLog.d(TAG, "Attempting to start mosaic recording...");
+            MosaicVideoRecorder current = mosaicRecorder;
+            if (current != null && current.startRecording()) {
+                lastNotifiedSegmentIndex = -1;
+                isRecording = true;
+                AppLog.d(TAG, "Mosaic recording started with " + recordingKeys.size() + " camera(s)");
+            } else {
+                AppLog.e(TAG, "Failed to start mosaic recording");
+                isRecording = false;
+                releaseMosaicRecorder();
+            }
+        };
+
+        sessionTimeoutRunnable = () -> {
+            AppLog.w(TAG, "Session configuration timeout, starting mosaic recording with available cameras");
+            synchronized (sessionLock) {
+                final Runnable recordingTask = pendingRecordingStart;
+                if (recordingTask != null) {
+                    pendingRecordingStart = null;
+                    recordingTask.run();
+                }
+                sessionConfiguredCount = 0;
+                expectedSessionCount = 0;
+            }
+        };
+        mainHandler.postDelayed(sessionTimeoutRunnable, 3000);
+
+        return true;
+    }
+
+    /**
+     * 释放拼接录制器
+     */
+    private void releaseMosaicRecorder() {
+        if (mosaicRecorder != null) {
+            mosaicRecorder.release();
+            mosaicRecorder = null;
+        }
+    }
+
     
+    /**
+     * 导出事件片段（所有正在录制的 Codec 摄像头）
+     * 每路写入"预录缓冲 + 事件后 postRollMs"的片段，文件名与普通分段一致（时间戳_位置.mp4），在回放中作为一个普通分组显示
+     * 仅在 Codec 录制模式且启用了预录缓冲时有效
+     * @param timestamp 事件时间戳（yyyyMMdd_HHmmss），与已有分段重名时向前移到最近的空闲秒
+     *                  （向前移不会和之后新开的分段重名）
+     * @param postRollMs 事件后继续录制的时长（毫秒）
+     * @param callback 全部片段完成后回调（主线程）；为 null 时中转写入模式下自动传输到最终目录，
+     *                 不为 null 时由调用方负责传输（如远程上传完成后再传输）
+     * @return 实际使用的时间戳，没有摄像头开始导出时返回 null
+     */
+    public String saveEventClips(String timestamp, long postRollMs, EventClipsCallback callback) {
+        if (!isRecording || codecRecorders.isEmpty()) {
+            AppLog.w(TAG, "saveEventClips: codec recording not active");
+            return null;
+        }
+
+        File saveDir = StorageHelper.getRecordingDir(context);
+        if (!saveDir.exists()) {
+            saveDir.mkdirs();
+        }
+        String clipTimestamp = findFreeTimestamp(timestamp, saveDir);
+
+        // 先计 1，提交完所有摄像头后再减掉，避免第一个片段完成时误判为全部完成
+        AtomicInteger pending = new AtomicInteger(1);
+        List<File> completed = Collections.synchronizedList(new ArrayList<>());
+        Runnable onClipDone = () -> {
+            if (pending.decrementAndGet() == 0 && callback != null) {
+                List<File> files = new ArrayList<>(completed);
+                mainHandler.post(() -> callback.onEventClipsComplete(files));
+            }
+        };
+
+        int started = 0;
+        for (Map.Entry<String, CodecVideoRecorder> entry : codecRecorders.entrySet()) {
+            CodecVideoRecorder recorder = entry.getValue();
+            if (!recorder.isPreEventBufferEnabled() || !recorder.isRecording()) {
+                continue;
+            }
+            String path = new File(saveDir, clipTimestamp + "_" + entry.getKey() + ".mp4").getAbsolutePath();
+            pending.incrementAndGet();
+            boolean submitted = recorder.startEventClip(path, postRollMs, (filePath, success) -> {
+                if (success) {
+                    indexCompletedSegment(filePath);
+                    completed.add(new File(filePath));
+                    if (callback == null && useRelayWrite && finalSaveDir != null) {
+                        scheduleRelayTransfer(filePath);
+                    }
+                }
+                onClipDone.run();
+            });
+            if (submitted) {
+                started++;
+            } else {
+                pending.decrementAndGet();
+            }
+        }
+        onClipDone.run();
+        AppLog.d(TAG, "Event clips started for " + started + " camera(s), timestamp: " + clipTimestamp);
+        return started > 0 ? clipTimestamp : null;
+    }
+
+    /**
+     * 事件片段完成回调（主线程）
+     */
+    public interface EventClipsCallback {
+        /**
+         * @param files 成功写入的片段（可能为空）
+         */
+        void onEventClipsComplete(List<File> files);
+    }
+
+    /**
+     * 找到不与已有分段重名的时间戳（事件片段和普通分段同名会互相覆盖），从 timestamp 开始逐秒向前找
+     */
+    private String findFreeTimestamp(String timestamp, File saveDir) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault());
+        Date date;
+        try {
+            date = format.parse(timestamp);
+        } catch (java.text.ParseException e) {
+            return timestamp;
+        }
+        for (int i = 0; i < 60; i++) {
+            String candidate = format.format(new Date(date.getTime() - i * 1000L));
+            if (!isTimestampUsed(candidate, saveDir)) {
+                return candidate;
+            }
+        }
+        return timestamp;
+    }
+
+    private boolean isTimestampUsed(String timestamp, File saveDir) {
+        for (String key : codecRecorders.keySet()) {
+            String name = timestamp + "_" + key + ".mp4";
+            if (new File(saveDir, name).exists() || (finalSaveDir != null && new File(finalSaveDir, name).exists())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 调度将指定的已完成文件传输到最终目录
      * @param completedFilePath 已完成录制的文件完整路径
@@ -1726,6 +2169,11 @@ public class MultiCameraManager {
                     AppLog.e(TAG, "Error releasing CodecVideoRecorder", e);
                 }
             }
+            try {
+                releaseMosaicRecorder();
+            } catch (Exception e) {
+                AppLog.e(TAG, "Error releasing MosaicVideoRecorder", e);
+            }
             
         } catch (Exception e) {
             AppLog.e(TAG, "Unexpected error during release", e);
@@ -1749,6 +2197,37 @@ public class MultiCameraManager {
         return isRecording;
     }
 
+    /**
+     * 当前录制所有编码器的码率之和（bps），未录制时为 0
+     */
+    public long getRecordingBitrateTotal() {
+        return isRecording ? recordingBitrateTotal : 0;
+    }
+
+    /**
+     * 当前录制的分段时长（毫秒）
+     */
+    public long getRecordingSegmentDurationMs() {
+        return recordingSegmentDurationMs;
+    }
+
+    /**
+     * 按U盘测速得到的码率上限限制单路码率（总上限按路数平分）
+     * 未使用U盘、未测速或关闭自动模式时不限制
+     */
+    private int applyStorageBitrateCeiling(AppConfig appConfig, String key, int bitrate, int streamCount) {
+        if (!appConfig.isUsingExternalSdCard() || !appConfig.isAutoStorageModeEnabled()) {
+            return bitrate;
+        }
+        int capped = StorageBenchmark.capStreamBitrate(bitrate, appConfig.getUsbBitrateCeiling(), streamCount);
+        if (capped == bitrate) {
+            return bitrate;
+        }
+        AppLog.w(TAG, "Camera " + key + " bitrate " + AppConfig.formatBitrate(bitrate)
+                + " exceeds USB storage ceiling, capped to " + AppConfig.formatBitrate(capped));
+        return capped;
+    }
+
     /**
      * 拍照（所有活动的摄像头顺序拍照，避免资源耗尽）
      */
@@ -0,0 +1,308 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.view.Surface;
+
+import com.kooo.evcam.AppLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 低分辨率代理流编码器（双码流中的子码流）
+ *
+ * 远程查看视频时上传完整码率的分段在蜂窝网络下很慢。启用后每路摄像头额外运行一个小尺寸、低码率的
+ * H.264 编码器，输入 Surface 由 EglSurfaceEncoder 在同一次渲染中绘制（同一张相机纹理画两遍），
+ * 输出写入代理目录下与主分段同名的文件，远程上传优先使用代理文件，不需要事后转码。
+ *
+ * 分段跟随主录制：主录制切换到新文件时调用 rollover()，代理流请求关键帧，在关键帧处切换到新文件。
+ * 代理流失败不影响主录制：任何异常只会停止代理流本身。
+ *
+ * 所有方法都在录制器的编码线程（或共享渲染线程）上调用，输出以非阻塞方式轮询。
+ */
+public class ProxyStreamEncoder {
+    private static final String TAG = "ProxyStreamEncoder";
+
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final int I_FRAME_INTERVAL = 2;  // I帧间隔（秒）
+    private static final int EOS_DRAIN_TIMEOUT_USEC = 10000;
+    private static final int MAX_EOS_DRAIN_ATTEMPTS = 50;
+
+    private final String cameraId;
+    private final int width;
+    private final int height;
+    private final int bitRate;
+    private final int frameRate;
+    private final File outputDir;
+    private final SegmentCallback segmentCallback;
+
+    private MediaCodec encoder;
+    private Surface inputSurface;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private MediaFormat outputFormat;
+
+    private RecordingMuxer muxer;
+    private int trackIndex = -1;
+    private String currentPath;     // 当前正在写入的代理文件
+    private String pendingPath;     // 等待关键帧后切换到的代理文件
+    private long segmentBasePtsUs = -1;
+    private boolean failed = false;
+
+    // 统计
+    private long bytesWritten = 0;
+    private long samplesWritten = 0;
+    private int segmentsCompleted = 0;
+
+    /**
+     * 代理文件完成回调（用于把代理文件计入媒体索引的占用账本）
+     */
+    public interface SegmentCallback {
+        void onProxySegmentCompleted(File proxyFile);
+    }
+
+    /**
+     * @param outputDir 代理文件目录
+     * @param segmentCallback 代理文件完成回调，可为 null
+     */
+    public ProxyStreamEncoder(String cameraId, int width, int height, int bitRate, int frameRate, File outputDir,
+                              SegmentCallback segmentCallback) {
+        this.cameraId = cameraId;
+        this.width = width;
+        this.height = height;
+        this.bitRate = bitRate;
+        this.frameRate = frameRate;
+        this.outputDir = outputDir;
+        this.segmentCallback = segmentCallback;
+    }
+
+    /**
+     * 按主码流尺寸计算代理尺寸：保持宽高比，长边不超过 maxLongSide，宽高对齐到 16
+     */
+    public static int[] computeProxySize(int width, int height, int maxLongSide) {
+        int longSide = Math.max(width, height);
+        if (longSide <= maxLongSide) {
+            return new int[] {align16(width), align16(height)};
+        }
+        float scale = (float) maxLongSide / longSide;
+        return new int[] {align16(Math.round(width * scale)), align16(Math.round(height * scale))};
+    }
+
+    /**
+     * 主分段对应的代理文件（代理目录下的同名文件）
+     */
+    public static File proxyFileFor(File proxyDir, String mainSegmentPath) {
+        return new File(proxyDir, new File(mainSegmentPath).getName());
+    }
+
+    /**
+     * 创建并启动编码器
+     * @param mainSegmentPath 主录制当前分段路径（代理文件与其同名）
+     * @return 编码器输入 Surface（交给 EglSurfaceEncoder.setSubStreamSurface）
+     */
+    public Surface start(String mainSegmentPath) throws IOException {
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            throw new IOException("Unable to create proxy dir: " + outputDir);
+        }
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+
+        encoder = MediaCodec.createEncoderByType(MIME_TYPE);
+        try {
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = encoder.createInputSurface();
+            encoder.start();
+        } catch (Exception e) {
+            encoder.release();
+            encoder = null;
+            throw new IOException("Failed to start proxy encoder", e);
+        }
+        // Muxer 在收到输出格式后创建
+        pendingPath = proxyFileFor(outputDir, mainSegmentPath).getAbsolutePath();
+        AppLog.d(TAG, "Camera " + cameraId + " proxy encoder started: " + width + "x" + height
+                + " @ " + frameRate + "fps, " + (bitRate / 1000) + " Kbps -> " + outputDir);
+        return inputSurface;
+    }
+
+    /**
+     * 主录制切换分段：在下一个关键帧处切换到新的代理文件
+     */
+    public void rollover(String mainSegmentPath) {
+        if (encoder == null || failed) {
+            return;
+        }
+        pendingPath = proxyFileFor(outputDir, mainSegmentPath).getAbsolutePath();
+        try {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            encoder.setParameters(params);
+        } catch (Exception e) {
+            // 请求失败时等待下一个周期性关键帧
+            AppLog.w(TAG, "Camera " + cameraId + " proxy sync frame request failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 读取编码器输出（每次渲染后调用，不阻塞）
+     */
+    public void drain() {
+        drain(false);
+    }
+
+    /**
+     * 停止编码器，完成当前代理文件
+     */
+    public void stop() {
+        if (encoder != null && !failed) {
+            try {
+                encoder.signalEndOfInputStream();
+                drain(true);
+            } catch (Exception e) {
+                AppLog.w(TAG, "Camera " + cameraId + " proxy encoder EOS failed: " + e.getMessage());
+            }
+        }
+        release();
+        AppLog.d(TAG, "Camera " + cameraId + " proxy encoder stopped: " + segmentsCompleted + " segments, "
+                + samplesWritten + " samples, " + (bytesWritten / 1024) + " KB");
+    }
+
+    /**
+     * 释放编码器和 Muxer（不排空输出）
+     */
+    public void release() {
+        finishMuxer();
+        if (encoder != null) {
+            try {
+                encoder.stop();
+            } catch (Exception e) {
+                // Ignore
+            }
+            try {
+                encoder.release();
+            } catch (Exception e) {
+                // Ignore
+            }
+            encoder = null;
+        }
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+        pendingPath = null;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // ===== 私有方法 =====
+
+    private void drain(boolean endOfStream) {
+        if (encoder == null || failed) {
+            return;
+        }
+        int attempts = 0;
+        try {
+            while (true) {
+                int index = encoder.dequeueOutputBuffer(bufferInfo, endOfStream ? EOS_DRAIN_TIMEOUT_USEC : 0);
+                if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    if (!endOfStream || ++attempts >= MAX_EOS_DRAIN_ATTEMPTS) {
+                        break;
+                    }
+                } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    outputFormat = encoder.getOutputFormat();
+                } else if (index >= 0) {
+                    ByteBuffer data = encoder.getOutputBuffer(index);
+                    writeSample(data, bufferInfo);
+                    encoder.releaseOutputBuffer(index, false);
+                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        break;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // 代理流出错只停止代理流，不影响主录制
+            AppLog.e(TAG, "Camera " + cameraId + " proxy encoder failed, disabling proxy stream", e);
+            failed = true;
+            release();
+        }
+    }
+
+    private void writeSample(ByteBuffer data, MediaCodec.BufferInfo info) throws IOException {
+        if (data == null || (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || info.size == 0) {
+            return;
+        }
+        boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (pendingPath != null && keyFrame && outputFormat != null) {
+            // 在关键帧处切换到新文件
+            finishMuxer();
+            muxer = new MediaMuxerAdapter(pendingPath);
+            trackIndex = muxer.addTrack(outputFormat);
+            muxer.start();
+            currentPath = pendingPath;
+            pendingPath = null;
+            segmentBasePtsUs = info.presentationTimeUs;
+        }
+        if (muxer == null) {
+            return;  // 第一个关键帧之前的输出
+        }
+        long originalPtsUs = info.presentationTimeUs;
+        info.presentationTimeUs = Math.max(0, originalPtsUs - segmentBasePtsUs);
+        data.position(info.offset);
+        data.limit(info.offset + info.size);
+        muxer.writeSampleData(trackIndex, data, info);
+        info.presentationTimeUs = originalPtsUs;
+        bytesWritten += info.size;
+        samplesWritten++;
+    }
+
+    private void finishMuxer() {
+        if (muxer == null) {
+            return;
+        }
+        boolean completed = false;
+        try {
+            muxer.stop();
+            completed = true;
+        } catch (Exception e) {
+            AppLog.w(TAG, "Camera " + cameraId + " error stopping proxy muxer: " + e.getMessage());
+            if (currentPath != null) {
+                new File(currentPath).delete();
+            }
+        }
+        try {
+            muxer.release();
+        } catch (Exception e) {
+            // Ignore
+        }
+        muxer = null;
+        trackIndex = -1;
+        segmentsCompleted++;
+        if (completed && currentPath != null && segmentCallback != null) {
+            segmentCallback.onProxySegmentCompleted(new File(currentPath));
+        }
+        currentPath = null;
+    }
+
+    private static int align16(int value) {
+        return Math.max(16, (value + 8) / 16 * 16);
+    }
+}
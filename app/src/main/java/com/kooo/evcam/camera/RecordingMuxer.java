@@ -0,0 +1,36 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 录制封装器接口
+ * 与 MediaMuxer 的调用方式保持一致，便于 CodecVideoRecorder 在 MediaMuxer 和 fMP4 写入器之间切换
+ *
+ * 实现：
+ * - {@link MediaMuxerAdapter}：系统 MediaMuxer（标准 MP4，停止时写入 moov）
+ * - {@link FragmentedMp4Muxer}：纯 Java fMP4（按分片写入，断电后仍可播放到最后一个分片）
+ *
+ * 所有方法失败时抛出 IllegalStateException（与 MediaMuxer 一致）
+ */
+public interface RecordingMuxer {
+    /**
+     * 添加视频轨道
+     * @param format 编码器输出格式（需包含 csd-0/csd-1）
+     * @return 轨道索引
+     */
+    int addTrack(MediaFormat format);
+
+    void start();
+
+    /**
+     * 写入一个编码样本（使用 info.offset/info.size 指定的数据范围）
+     */
+    void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info);
+
+    void stop();
+
+    void release();
+}
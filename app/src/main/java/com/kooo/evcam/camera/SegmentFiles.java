@@ -0,0 +1,61 @@
+package com.kooo.evcam.camera;
+
+import com.kooo.evcam.AppLog;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 分段文件的命名和校验（编解码录制器共用）
+ */
+final class SegmentFiles {
+
+    static final long MIN_VALID_FILE_SIZE = 10 * 1024;  // 最小有效文件大小 10KB
+
+    private SegmentFiles() {
+    }
+
+    /**
+     * 生成分段文件路径：{timestamp}_{position}.mp4
+     * 优先使用 TimestampProvider 获取统一时间戳（多路摄像头同步），未设置时使用当前时间
+     */
+    static String generateSegmentPath(String saveDirectory, VideoRecorder.SegmentTimestampProvider provider,
+                                      String position) {
+        String timestamp;
+        if (provider != null) {
+            timestamp = provider.getSegmentTimestamp();
+        } else {
+            timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        }
+        return new File(saveDirectory, timestamp + "_" + position + ".mp4").getAbsolutePath();
+    }
+
+    /**
+     * 验证并清理损坏的文件（小于 MIN_VALID_FILE_SIZE 视为损坏）
+     * @param logPrefix 日志前缀，如 "Camera 0 " 或 "Mosaic "
+     * @return 如果文件被删除，返回文件名；否则返回 null
+     */
+    static String validateAndCleanupFile(String tag, String logPrefix, String filePath) {
+        if (filePath == null) {
+            return null;
+        }
+
+        File file = new File(filePath);
+        if (!file.exists()) {
+            return null;
+        }
+
+        long fileSize = file.length();
+
+        if (fileSize < MIN_VALID_FILE_SIZE) {
+            AppLog.w(tag, logPrefix + "Video file too small: " + filePath + " (" + fileSize + " bytes). Deleting...");
+            file.delete();
+            return file.getName();
+        } else {
+            AppLog.d(tag, logPrefix + "Video file validated: " + filePath + " (" + (fileSize / 1024) + " KB)");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.kooo.evcam.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Bundle;
+
+import com.kooo.evcam.AppLog;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 无缝分段切换（编码器不重启，在关键帧处切换 Muxer）
+ * CodecVideoRecorder 和 MosaicVideoRecorder 共用：
+ * 1. request()：预先创建下一段的 Muxer 并请求编码器立即输出关键帧
+ * 2. 输出线程收到关键帧时调用 complete()：给下一段 Muxer 添加轨道并启动，调用方随后切换到它
+ * 3. 旧 Muxer 交给 finishMuxer() 在分段线程上停止，不阻塞编码输出
+ *
+ * 除 finishMuxer 外，所有方法只在编码输出线程上调用
+ */
+final class SegmentRollover {
+
+    /** 创建 Muxer（按录制器配置选择 MediaMuxer 或 fMP4） */
+    interface MuxerFactory {
+        RecordingMuxer create(String filePath) throws IOException;
+    }
+
+    /** complete() 成功后的下一段 */
+    static final class Segment {
+        final RecordingMuxer muxer;
+        final int trackIndex;
+        final String filePath;
+
+        Segment(RecordingMuxer muxer, int trackIndex, String filePath) {
+            this.muxer = muxer;
+            this.trackIndex = trackIndex;
+            this.filePath = filePath;
+        }
+    }
+
+    private final String tag;
+    private final String logPrefix;  // 日志前缀，如 "Camera 0 " 或 "Mosaic "
+    private final MuxerFactory muxerFactory;
+
+    private boolean pending = false;  // 已请求关键帧，等待切换
+    private RecordingMuxer pendingMuxer;  // 下一段的 Muxer（在关键帧到达时启动）
+    private String pendingSegmentPath;
+
+    SegmentRollover(String tag, String logPrefix, MuxerFactory muxerFactory) {
+        this.tag = tag;
+        this.logPrefix = logPrefix;
+        this.muxerFactory = muxerFactory;
+    }
+
+    /**
+     * 是否已请求关键帧、等待切换
+     */
+    boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * 请求切换：创建下一段的 Muxer 并请求关键帧
+     * @return true 表示已进入等待切换状态；false 表示准备失败（已清理），调用方继续写当前分段或回退
+     */
+    boolean request(MediaCodec encoder, String nextSegmentPath) {
+        if (pending) {
+            AppLog.w(tag, logPrefix + "Seamless rollover already pending");
+            return true;
+        }
+        try {
+            pendingMuxer = muxerFactory.create(nextSegmentPath);
+            pendingSegmentPath = nextSegmentPath;
+
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            encoder.setParameters(params);
+        } catch (Exception e) {
+            AppLog.e(tag, logPrefix + "Failed to prepare seamless rollover", e);
+            discard();
+            return false;
+        }
+
+        pending = true;
+        AppLog.d(tag, logPrefix + "Sync frame requested, next segment: " + nextSegmentPath);
+        return true;
+    }
+
+    /**
+     * 关键帧到达：启动下一段的 Muxer（当前样本应写入返回的 Muxer）
+     * @param outputFormat 编码器输出格式
+     * @return 下一段；启动失败返回 null（下一段文件已删除），调用方继续写当前分段并稍后重试
+     */
+    Segment complete(MediaFormat outputFormat) {
+        pending = false;
+        RecordingMuxer nextMuxer = pendingMuxer;
+        String nextSegmentPath = pendingSegmentPath;
+        pendingMuxer = null;
+        pendingSegmentPath = null;
+        if (nextMuxer == null) {
+            return null;
+        }
+
+        try {
+            int trackIndex = nextMuxer.addTrack(outputFormat);
+            nextMuxer.start();
+            return new Segment(nextMuxer, trackIndex, nextSegmentPath);
+        } catch (Exception e) {
+            AppLog.e(tag, logPrefix + "Failed to start next segment muxer, keeping current segment", e);
+            try {
+                nextMuxer.release();
+            } catch (Exception ignored) {
+            }
+            new File(nextSegmentPath).delete();
+            return null;
+        }
+    }
+
+    /**
+     * 丢弃尚未启动的下一段 Muxer（停止录制或重建编码器时调用）
+     */
+    void discard() {
+        pending = false;
+        if (pendingMuxer != null) {
+            try {
+                pendingMuxer.release();
+            } catch (Exception e) {
+                // Ignore
+            }
+            pendingMuxer = null;
+        }
+        if (pendingSegmentPath != null) {
+            new File(pendingSegmentPath).delete();
+            pendingSegmentPath = null;
+        }
+    }
+
+    /**
+     * 停止并释放上一段的 Muxer（在分段线程上调用）
+     */
+    void finishMuxer(RecordingMuxer finishedMuxer, boolean started) {
+        if (finishedMuxer == null) {
+            return;
+        }
+        try {
+            if (started) {
+                finishedMuxer.stop();
+            }
+        } catch (Exception e) {
+            AppLog.e(tag, logPrefix + "Error stopping previous segment muxer", e);
+        }
+        try {
+            finishedMuxer.release();
+        } catch (Exception e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.kooo.evcam.camera;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import com.kooo.evcam.AppLog;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多路摄像头共享的 GL 渲染引擎
+ *
+ * 默认情况下每个 CodecVideoRecorder 都有自己的 EGL context 和编码线程，
+ * 4 路摄像头意味着 4 个 context、每轮帧 4 次 context 切换和 8 个以上的 HandlerThread。
+ * 启用共享模式后：
+ * 1. 所有摄像头共用一个渲染线程和一个 EGL context
+ * 2. 每路摄像头只持有自己的 OES 纹理、SurfaceTexture 和编码器 EGL window surface
+ * 3. 各路帧到达时在同一个 Looper 上依次渲染（按摄像头各自的帧节奏调度），
+ *    切换目标时只切换 draw surface，不切换 context
+ *
+ * 生命周期：录制器通过 acquire()/release() 引用计数，最后一个引用释放时销毁 context 并退出线程。
+ */
+public class SharedGlEngine {
+    private static final String TAG = "SharedGlEngine";
+
+    private HandlerThread renderThread;
+    private Handler renderHandler;
+
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLConfig eglConfig;
+    private EGLSurface pbufferSurface = EGL14.EGL_NO_SURFACE;  // 无目标时保持 context 可用
+
+    private int refCount = 0;
+
+    /**
+     * 增加引用，首次引用时启动渲染线程并初始化 EGL
+     * @throws RuntimeException 初始化失败
+     */
+    public synchronized void acquire() {
+        if (refCount == 0) {
+            start();
+        }
+        refCount++;
+        AppLog.d(TAG, "Shared GL engine acquired, refCount=" + refCount);
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时销毁 EGL 并退出渲染线程
+     */
+    public synchronized void release() {
+        if (refCount <= 0) {
+            return;
+        }
+        refCount--;
+        AppLog.d(TAG, "Shared GL engine released, refCount=" + refCount);
+        if (refCount == 0) {
+            shutdown();
+        }
+    }
+
+    /**
+     * 获取渲染线程 Handler（所有 GL 调用和 SurfaceTexture 回调都应在此线程上执行）
+     */
+    public synchronized Handler getHandler() {
+        return renderHandler;
+    }
+
+    public EGLDisplay getDisplay() {
+        return eglDisplay;
+    }
+
+    public EGLContext getContext() {
+        return eglContext;
+    }
+
+    public EGLConfig getConfig() {
+        return eglConfig;
+    }
+
+    /**
+     * 为编码器输入 Surface 创建 EGL window surface（在渲染线程上调用）
+     */
+    public EGLSurface createWindowSurface(Surface surface) {
+        return GlUtil.createWindowSurface(eglDisplay, eglConfig, surface);
+    }
+
+    /**
+     * 销毁 window surface（在渲染线程上调用）
+     * 先切回 pbuffer，避免销毁当前绑定的 surface
+     */
+    public void destroyWindowSurface(EGLSurface eglSurface) {
+        if (eglSurface == EGL14.EGL_NO_SURFACE) {
+            return;
+        }
+        makeCurrentPbuffer();
+        EGL14.eglDestroySurface(eglDisplay, eglSurface);
+    }
+
+    /**
+     * 绑定共享 context 到 pbuffer（在渲染线程上调用）
+     */
+    public void makeCurrentPbuffer() {
+        if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(eglDisplay, pbufferSurface, pbufferSurface, eglContext);
+        }
+    }
+
+    // ===== 私有方法 =====
+
+    private void start() {
+        renderThread = new HandlerThread("SharedGlRender");
+        renderThread.start();
+        renderHandler = new Handler(renderThread.getLooper());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Exception[] initException = {null};
+        renderHandler.post(() -> {
+            try {
+                initEgl();
+            } catch (Exception e) {
+                initException[0] = e;
+            } finally {
+                latch.countDown();
+            }
+        });
+
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new RuntimeException("Timeout waiting for shared EGL initialization");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for shared EGL initialization", e);
+        }
+        if (initException[0] != null) {
+            shutdown();
+            throw new RuntimeException("Failed to initialize shared EGL", initException[0]);
+        }
+        AppLog.d(TAG, "Shared GL engine started");
+    }
+
+    private void shutdown() {
+        if (renderHandler != null) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            renderHandler.post(() -> {
+                try {
+                    releaseEgl();
+                } finally {
+                    latch.countDown();
+                }
+            });
+            try {
+                latch.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (renderThread != null) {
+            renderThread.quitSafely();
+            try {
+                renderThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        renderThread = null;
+        renderHandler = null;
+        AppLog.d(TAG, "Shared GL engine stopped");
+    }
+
+    private void initEgl() {
+        int[] version = new int[2];
+        eglDisplay = GlUtil.initDisplay(version);
+        eglConfig = GlUtil.chooseRecordableConfig(eglDisplay);
+        eglContext = GlUtil.createContext(eglDisplay, eglConfig);
+
+        int[] pbufferAttribList = {
+                EGL14.EGL_WIDTH, 1,
+                EGL14.EGL_HEIGHT, 1,
+                EGL14.EGL_NONE
+        };
+        pbufferSurface = EGL14.eglCreatePbufferSurface(eglDisplay, eglConfig, pbufferAttribList, 0);
+        if (pbufferSurface == EGL14.EGL_NO_SURFACE) {
+            throw new RuntimeException("Unable to create EGL pbuffer surface");
+        }
+        makeCurrentPbuffer();
+        AppLog.d(TAG, "Shared EGL initialized: " + version[0] + "." + version[1]);
+    }
+
+    private void releaseEgl() {
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        if (pbufferSurface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglDestroySurface(eglDisplay, pbufferSurface);
+            pbufferSurface = EGL14.EGL_NO_SURFACE;
+        }
+        if (eglContext != EGL14.EGL_NO_CONTEXT) {
+            EGL14.eglDestroyContext(eglDisplay, eglContext);
+            eglContext = EGL14.EGL_NO_CONTEXT;
+        }
+        EGL14.eglTerminate(eglDisplay);
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+    }
+}
@@ -3,6 +3,7 @@ package com.kooo.evcam.camera;
 
 import com.kooo.evcam.AppConfig;
 import com.kooo.evcam.AppLog;
+import com.kooo.evcam.MediaIndex;
 import com.kooo.evcam.StorageHelper;
 import android.content.Context;
 import android.graphics.ImageFormat;
@@ -60,6 +61,17 @@ public class SingleCamera {
     private Surface recordSurface;  // 录制Surface
     private Surface previewSurface;  // 预览Surface（缓存以避免重复创建）
     private ImageReader imageReader;  // 用于拍照的ImageReader
+    private boolean stillCaptureEnabled = false;  // 是否在会话中附加 JPEG ImageReader 抓拍输出
+    private boolean stillCaptureUnsupported = false;  // 附加抓拍输出导致会话配置失败后不再尝试
+    private Size stillCaptureSize;  // JPEG 抓拍尺寸
+    private StillImageCapture stillCapture;  // ImageReader 抓拍管线（随后台线程创建和释放）
+    private volatile boolean stillCaptureInSession = false;  // 当前会话是否包含抓拍输出
+    private static final int STILL_JPEG_ORIENTATION = 0;  // 与 TextureView.getBitmap 一致：保持传感器原始方向
+    private boolean motionAnalysisEnabled = false;  // 是否在会话中附加低分辨率 YUV 运动分析输出
+    private boolean motionAnalysisUnsupported = false;  // 附加分析输出导致会话配置失败后不再尝试
+    private Size motionAnalysisSize;  // 运动分析尺寸
+    private MotionAnalysisStream motionAnalysis;  // 运动分析流（随后台线程创建和释放）
+    private MotionDetector.Listener motionListener;  // 运动事件回调（后台线程）
     private boolean singleOutputMode = false;  // 单一输出模式（用于不支持多路输出的车机平台）
     
     // 亮度/降噪调节相关
@@ -228,6 +240,47 @@ public class SingleCamera {
         return singleOutputMode;
     }
 
+    /**
+     * 设置是否启用 ImageReader 抓拍（需在 openCamera 之前调用）
+     * 启用后会话额外附加一路 JPEG 输出，拍照和远程抓图不再依赖 TextureView
+     */
+    public void setStillCaptureEnabled(boolean enabled) {
+        this.stillCaptureEnabled = enabled;
+        AppLog.d(TAG, "Camera " + cameraId + " still capture: " + (enabled ? "ENABLED" : "DISABLED"));
+    }
+
+    /**
+     * 设置是否启用低分辨率运动分析流（需在 openCamera 之前调用）
+     * 启用后会话额外附加一路小尺寸 YUV 输出并加入重复请求，运动事件通过 listener 回调（后台线程）
+     */
+    public void setMotionAnalysisEnabled(boolean enabled, MotionDetector.Listener listener) {
+        this.motionAnalysisEnabled = enabled;
+        this.motionListener = listener;
+        AppLog.d(TAG, "Camera " + cameraId + " motion analysis: " + (enabled ? "ENABLED" : "DISABLED"));
+    }
+
+    /**
+     * 运动分析当前是否在运行
+     */
+    public boolean isMotionAnalysisActive() {
+        return motionAnalysis != null && captureSession != null;
+    }
+
+    /**
+     * 当前是否处于运动事件中（运动分析未运行时返回 false）
+     */
+    public boolean isMotionActive() {
+        MotionAnalysisStream analysis = motionAnalysis;
+        return analysis != null && analysis.getDetector().isMotionActive();
+    }
+
+    /**
+     * ImageReader 抓拍当前是否可用（会话已配置且包含 JPEG 输出）
+     */
+    public boolean isStillCaptureAvailable() {
+        return stillCapture != null && stillCaptureInSession && captureSession != null && cameraDevice != null;
+    }
+
     // 当前录制模式（用于调试模式区分）
     private boolean isCodecRecording = false;
 
@@ -310,6 +363,10 @@ public class SingleCamera {
             // 创建一个只包含预览 Surface 的请求
             CaptureRequest.Builder previewOnlyBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             previewOnlyBuilder.addTarget(previewSurface);
+            // 运动分析流在会话中时继续保持
+            if (motionAnalysis != null) {
+                previewOnlyBuilder.addTarget(motionAnalysis.getSurface());
+            }
             
             // 应用当前的图像调节参数（如果启用）
             if (imageAdjustEnabled && currentRequestBuilder != null) {
@@ -579,6 +636,18 @@ public class SingleCamera {
                 previewSize = chooseOptimalSize(sizes);
                 AppLog.d(TAG, "Camera " + cameraId + " selected preview size: " + previewSize);
 
+                // ImageReader 抓拍尺寸（JPEG 输出）
+                if (stillCaptureEnabled) {
+                    stillCaptureSize = StillImageCapture.chooseJpegSize(map, previewSize);
+                    AppLog.d(TAG, "Camera " + cameraId + " selected still capture size: " + stillCaptureSize);
+                }
+
+                // 运动分析尺寸（YUV 输出）
+                if (motionAnalysisEnabled) {
+                    motionAnalysisSize = MotionAnalysisStream.chooseAnalysisSize(map);
+                    AppLog.d(TAG, "Camera " + cameraId + " selected motion analysis size: " + motionAnalysisSize);
+                }
+
                 // 不在这里初始化ImageReader，改为拍照时按需创建
                 // 这样可以避免占用额外的缓冲区，防止超过系统限制(4个buffer)
                 AppLog.d(TAG, "Camera " + cameraId + " ImageReader will be created on demand when taking picture");
@@ -979,8 +1048,29 @@ public class SingleCamera {
                 }
             }
 
-            // 不再在预览会话中添加ImageReader Surface
-            // ImageReader将在拍照时按需创建，避免占用额外缓冲区
+            // 启用 ImageReader 抓拍时附加 JPEG 输出（只加入会话，不加入重复请求，不占用预览帧率）
+            // 单一输出模式的平台不支持多路输出，不附加
+            final boolean stillCaptureIncluded = stillCaptureEnabled && !stillCaptureUnsupported && !singleOutputMode
+                    && stillCaptureSize != null && backgroundHandler != null;
+            if (stillCaptureIncluded) {
+                if (stillCapture == null) {
+                    stillCapture = new StillImageCapture(cameraId, stillCaptureSize, backgroundHandler);
+                }
+                surfaces.add(stillCapture.getSurface());
+                AppLog.d(TAG, "Camera " + cameraId + " Added still capture surface " + stillCaptureSize);
+            }
+
+            // 启用运动分析时附加小尺寸 YUV 输出（加入重复请求，由分析流自行限速）
+            final boolean motionAnalysisIncluded = motionAnalysisEnabled && !motionAnalysisUnsupported && !singleOutputMode
+                    && motionAnalysisSize != null && backgroundHandler != null;
+            if (motionAnalysisIncluded) {
+                if (motionAnalysis == null) {
+                    motionAnalysis = new MotionAnalysisStream(cameraId, motionAnalysisSize, backgroundHandler, motionListener);
+                }
+                surfaces.add(motionAnalysis.getSurface());
+                previewRequestBuilder.addTarget(motionAnalysis.getSurface());
+                AppLog.d(TAG, "Camera " + cameraId + " Added motion analysis surface " + motionAnalysisSize);
+            }
 
             AppLog.d(TAG, "Camera " + cameraId + " Total surfaces: " + surfaces.size());
             
@@ -1015,6 +1105,7 @@ public class SingleCamera {
                     }
 
                     captureSession = session;
+                    stillCaptureInSession = stillCaptureIncluded;
                     try {
                         // 重置帧计数
                         frameCount = 0;
@@ -1086,6 +1177,36 @@ public class SingleCamera {
                     AppLog.e(TAG, "  2. Resolution mismatch between preview (" + previewSize + ") and recording");
                     AppLog.e(TAG, "  3. Device resource limitations");
                     
+                    // 附加了运动分析输出时先去掉它重试（本次打开期间不做运动分析）
+                    if (motionAnalysisIncluded) {
+                        AppLog.w(TAG, "Camera " + cameraId + " Retrying without motion analysis surface");
+                        motionAnalysisUnsupported = true;
+                        releaseMotionAnalysis();
+                        if (backgroundHandler != null) {
+                            backgroundHandler.postDelayed(() -> {
+                                if (cameraDevice != null) {
+                                    createCameraPreviewSession();
+                                }
+                            }, 500);
+                        }
+                        return;
+                    }
+
+                    // 附加了抓拍输出时先去掉它重试（本次打开期间回退到 TextureView 抓拍）
+                    if (stillCaptureIncluded) {
+                        AppLog.w(TAG, "Camera " + cameraId + " Retrying without still capture surface");
+                        stillCaptureUnsupported = true;
+                        releaseStillCapture();
+                        if (backgroundHandler != null) {
+                            backgroundHandler.postDelayed(() -> {
+                                if (cameraDevice != null) {
+                                    createCameraPreviewSession();
+                                }
+                            }, 500);
+                        }
+                        return;
+                    }
+
                     // 如果是因为录制 Surface 导致的失败，尝试只使用预览 Surface
                     if (recordSurface != null) {
                         AppLog.w(TAG, "Camera " + cameraId + " Retrying with preview-only session (without recording surface)");
@@ -1212,6 +1333,27 @@ public class SingleCamera {
         }
     }
 
+    /**
+     * 实时捕获当前画面到指定的 Bitmap（复用调用方的 Bitmap，画面按其尺寸缩放）
+     * 注意：必须在主线程调用
+     *
+     * @param target 目标 Bitmap（可变、ARGB_8888）
+     * @return target 本身，失败返回 null
+     */
+    public android.graphics.Bitmap captureBitmap(android.graphics.Bitmap target) {
+        if (textureView == null || !textureView.isAvailable()) {
+            AppLog.w(TAG, "Camera " + cameraId + " TextureView not available for capture");
+            return null;
+        }
+
+        try {
+            return textureView.getBitmap(target);
+        } catch (Exception e) {
+            AppLog.e(TAG, "Camera " + cameraId + " failed to capture bitmap", e);
+            return null;
+        }
+    }
+
     /**
      * 拍照（自动生成时间戳）
      */
@@ -1235,6 +1377,89 @@ public class SingleCamera {
      * @param saveDelayMs 保存文件前的延迟时间（毫秒）
      */
     public void takePicture(String timestamp, int saveDelayMs) {
+        // 优先使用 ImageReader 抓拍（不依赖 TextureView，JPEG 直接写文件）
+        if (isStillCaptureAvailable() && takeStillPicture(timestamp)) {
+            return;
+        }
+        takePictureFromPreview(timestamp, saveDelayMs);
+    }
+
+    /**
+     * 通过 ImageReader 抓拍保存照片
+     * @return false 表示请求未能提交，调用方应回退到 TextureView 抓拍
+     */
+    private boolean takeStillPicture(String timestamp) {
+        File photoDir = StorageHelper.getPhotoDir(context);
+        if (!photoDir.exists()) {
+            photoDir.mkdirs();
+        }
+        String position = (cameraPosition != null) ? cameraPosition : cameraId;
+        File photoFile = new File(photoDir, timestamp + "_" + position + ".jpg");
+
+        StillImageCapture capture = stillCapture;
+        if (capture == null) {
+            return false;
+        }
+
+        AppConfig appConfig = new AppConfig(context);
+        if (appConfig.isTimestampWatermarkEnabled()) {
+            // 需要叠加时间角标：取回 JPEG 解码后沿用 Bitmap 保存流程
+            return capture.captureJpeg(cameraDevice, captureSession, STILL_JPEG_ORIENTATION, new StillImageCapture.Callback() {
+                @Override
+                public void onCaptured(byte[] jpeg, File file) {
+                    android.graphics.Bitmap bitmap = android.graphics.BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+                    if (bitmap == null) {
+                        AppLog.e(TAG, "Camera " + cameraId + " failed to decode still capture");
+                        return;
+                    }
+                    saveBitmapAsJPEG(bitmap, timestamp);
+                    bitmap.recycle();
+                }
+
+                @Override
+                public void onFailed(String reason) {
+                    AppLog.w(TAG, "Camera " + cameraId + " still capture failed (" + reason + "), fallback to preview");
+                    takePictureFromPreview(timestamp, 0);
+                }
+            });
+        }
+
+        return capture.captureToFile(cameraDevice, captureSession, STILL_JPEG_ORIENTATION, photoFile, new StillImageCapture.Callback() {
+            @Override
+            public void onCaptured(byte[] jpeg, File file) {
+                AppLog.i(TAG, "Photo saved: " + file.getAbsolutePath());
+                MediaIndex.getInstance(context).put(file);
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                AppLog.w(TAG, "Camera " + cameraId + " still capture failed (" + reason + "), fallback to preview");
+                takePictureFromPreview(timestamp, 0);
+            }
+        });
+    }
+
+    /**
+     * 同步抓拍一帧 JPEG（用于远程预览/心跳等需要图片数据的场景）
+     * 不能在主线程或摄像头后台线程上调用
+     * @return JPEG 数据，ImageReader 抓拍不可用或失败时返回 null（调用方应回退到 captureBitmap）
+     */
+    public byte[] captureStillJpeg(long timeoutMs) {
+        StillImageCapture capture = stillCapture;
+        if (capture == null || !isStillCaptureAvailable()) {
+            return null;
+        }
+        if (android.os.Looper.myLooper() == android.os.Looper.getMainLooper()) {
+            AppLog.w(TAG, "Camera " + cameraId + " captureStillJpeg called on main thread, skipped");
+            return null;
+        }
+        return capture.captureJpegBlocking(cameraDevice, captureSession, STILL_JPEG_ORIENTATION, timeoutMs);
+    }
+
+    /**
+     * 通过 TextureView 截图保存照片（原有流程）
+     */
+    private void takePictureFromPreview(String timestamp, int saveDelayMs) {
         if (textureView == null || !textureView.isAvailable()) {
             AppLog.e(TAG, "Camera " + cameraId + " TextureView not available");
             return;
@@ -1349,6 +1574,7 @@ public class SingleCamera {
                 finalBitmap.recycle();
             }
         }
+        MediaIndex.getInstance(context).put(photoFile);
     }
 
     /**
@@ -1473,6 +1699,15 @@ public class SingleCamera {
                 recordSurface = null;
             }
 
+            // 释放抓拍 ImageReader（回调线程即将停止）
+            stillCaptureInSession = false;
+            releaseStillCapture();
+            stillCaptureUnsupported = false;
+
+            // 释放运动分析流
+            releaseMotionAnalysis();
+            motionAnalysisUnsupported = false;
+
             // 释放ImageReader
             if (imageReader != null) {
                 try {
@@ -1493,6 +1728,26 @@ public class SingleCamera {
         }
     }
 
+    /**
+     * 释放 ImageReader 抓拍管线
+     */
+    private void releaseStillCapture() {
+        if (stillCapture != null) {
+            stillCapture.release();
+            stillCapture = null;
+        }
+    }
+
+    /**
+     * 释放运动分析流
+     */
+    private void releaseMotionAnalysis() {
+        if (motionAnalysis != null) {
+            motionAnalysis.release();
+            motionAnalysis = null;
+        }
+    }
+
     /**
      * 手动触发重连（重置重连计数）
      */
@@ -0,0 +1,312 @@
+package com.kooo.evcam.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Size;
+import android.view.Surface;
+
+import com.kooo.evcam.AppLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 ImageReader 的静态抓拍管线
+ *
+ * 原有拍照/抓图都走 TextureView.getBitmap()：必须有可见的 UI、需要拷贝整帧 ARGB，
+ * 再用 Bitmap.compress 重新编码 JPEG。本类在会话中附加一路 JPEG ImageReader 输出
+ * （不加入预览的重复请求，只在抓拍时作为单次 capture 的目标）：
+ * 1. JPEG 由相机 HAL 直接编码，Image 由 ImageReader 的固定缓冲池（MAX_IMAGES 个）复用
+ * 2. 保存照片时把 Image 的 JPEG 字节通过 FileChannel 直接写入文件，不经过 Bitmap
+ * 3. 不依赖 TextureView，息屏或后台时也可抓拍，调用线程不需要是主线程
+ *
+ * 所有 ImageReader/capture 回调都在构造时传入的 handler 线程上执行。
+ * 抓拍按提交顺序排队，Image 与请求按 FIFO 对应（同一 ImageReader 输出顺序与请求顺序一致）。
+ */
+public class StillImageCapture {
+    private static final String TAG = "StillImageCapture";
+
+    /** ImageReader 缓冲池大小：一张正在写入，一张等待 */
+    private static final int MAX_IMAGES = 2;
+    /** 同时排队的抓拍请求上限，超出时直接失败，避免缓冲池耗尽 */
+    private static final int MAX_PENDING = 4;
+
+    /**
+     * 抓拍结果回调（在 handler 线程上调用）
+     */
+    public interface Callback {
+        /**
+         * 抓拍成功
+         * @param jpeg JPEG 数据（写文件模式下为 null）
+         * @param file 写入的文件（内存模式下为 null）
+         */
+        void onCaptured(byte[] jpeg, File file);
+
+        void onFailed(String reason);
+    }
+
+    private static class PendingCapture {
+        final File file;
+        final Callback callback;
+
+        PendingCapture(File file, Callback callback) {
+            this.file = file;
+            this.callback = callback;
+        }
+    }
+
+    private final String cameraId;
+    private final Handler handler;
+    private final ImageReader imageReader;
+    private final ConcurrentLinkedQueue<PendingCapture> pending = new ConcurrentLinkedQueue<>();
+    private volatile boolean released = false;
+
+    // 统计
+    private long capturedCount = 0;
+    private long failedCount = 0;
+
+    /**
+     * @param size JPEG 输出尺寸（通过 chooseJpegSize 选择）
+     * @param handler 回调线程（通常为 SingleCamera 的后台线程）
+     */
+    public StillImageCapture(String cameraId, Size size, Handler handler) {
+        this.cameraId = cameraId;
+        this.handler = handler;
+        this.imageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.JPEG, MAX_IMAGES);
+        this.imageReader.setOnImageAvailableListener(this::onImageAvailable, handler);
+        AppLog.d(TAG, "Camera " + cameraId + " still capture reader created: " + size.getWidth() + "x" + size.getHeight());
+    }
+
+    /**
+     * 选择 JPEG 输出尺寸：优先与预览尺寸一致，否则取不小于预览面积的最小尺寸，都没有时取最大尺寸
+     * @return 选中的尺寸，不支持 JPEG 输出时返回 null
+     */
+    public static Size chooseJpegSize(StreamConfigurationMap map, Size previewSize) {
+        if (map == null || previewSize == null) {
+            return null;
+        }
+        Size[] sizes = map.getOutputSizes(ImageFormat.JPEG);
+        if (sizes == null || sizes.length == 0) {
+            return null;
+        }
+        long previewArea = (long) previewSize.getWidth() * previewSize.getHeight();
+        Size best = null;
+        Size largest = sizes[0];
+        for (Size size : sizes) {
+            if (size.equals(previewSize)) {
+                return size;
+            }
+            long area = (long) size.getWidth() * size.getHeight();
+            if (area >= previewArea && (best == null || area < (long) best.getWidth() * best.getHeight())) {
+                best = size;
+            }
+            if (area > (long) largest.getWidth() * largest.getHeight()) {
+                largest = size;
+            }
+        }
+        return best != null ? best : largest;
+    }
+
+    /**
+     * 获取需要加入会话输出列表的 Surface
+     */
+    public Surface getSurface() {
+        return imageReader.getSurface();
+    }
+
+    /**
+     * 抓拍并把 JPEG 直接写入文件
+     * @return false 表示请求未能提交（callback 不会被调用）
+     */
+    public boolean captureToFile(CameraDevice device, CameraCaptureSession session, int jpegOrientation,
+                                 File file, Callback callback) {
+        return submit(device, session, jpegOrientation, new PendingCapture(file, callback));
+    }
+
+    /**
+     * 抓拍并在回调中返回 JPEG 数据
+     * @return false 表示请求未能提交（callback 不会被调用）
+     */
+    public boolean captureJpeg(CameraDevice device, CameraCaptureSession session, int jpegOrientation,
+                               Callback callback) {
+        return submit(device, session, jpegOrientation, new PendingCapture(null, callback));
+    }
+
+    /**
+     * 同步抓拍 JPEG（不能在回调 handler 线程上调用，否则会死锁）
+     * @return JPEG 数据，失败或超时返回 null
+     */
+    public byte[] captureJpegBlocking(CameraDevice device, CameraCaptureSession session, int jpegOrientation,
+                                      long timeoutMs) {
+        if (Looper.myLooper() == handler.getLooper()) {
+            AppLog.w(TAG, "Camera " + cameraId + " blocking capture called on callback thread, refused");
+            return null;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        final byte[][] result = new byte[1][];
+        boolean submitted = captureJpeg(device, session, jpegOrientation, new Callback() {
+            @Override
+            public void onCaptured(byte[] jpeg, File file) {
+                result[0] = jpeg;
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                latch.countDown();
+            }
+        });
+        if (!submitted) {
+            return null;
+        }
+        try {
+            if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                AppLog.w(TAG, "Camera " + cameraId + " still capture timeout (" + timeoutMs + "ms)");
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return result[0];
+    }
+
+    /**
+     * 释放 ImageReader，未完成的请求全部回调失败
+     */
+    public void release() {
+        released = true;
+        failAllPending("released");
+        try {
+            imageReader.close();
+        } catch (Exception e) {
+            AppLog.d(TAG, "Camera " + cameraId + " ignored exception while closing still reader: " + e.getMessage());
+        }
+        AppLog.d(TAG, "Camera " + cameraId + " still capture released (captured=" + capturedCount
+                + ", failed=" + failedCount + ")");
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // ===== 私有方法 =====
+
+    private boolean submit(CameraDevice device, CameraCaptureSession session, int jpegOrientation,
+                           PendingCapture request) {
+        if (released || device == null || session == null) {
+            return false;
+        }
+        if (pending.size() >= MAX_PENDING) {
+            AppLog.w(TAG, "Camera " + cameraId + " too many pending still captures, rejected");
+            return false;
+        }
+        try {
+            CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            builder.addTarget(imageReader.getSurface());
+            builder.set(CaptureRequest.JPEG_QUALITY, (byte) 90);
+            builder.set(CaptureRequest.JPEG_ORIENTATION, jpegOrientation);
+            builder.setTag(request);
+            pending.add(request);
+            session.capture(builder.build(), new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureFailed(CameraCaptureSession session, CaptureRequest failedRequest,
+                                            CaptureFailure failure) {
+                    // 失败的请求不会产生 Image，从队列中移除以保持 FIFO 对应
+                    Object tag = failedRequest.getTag();
+                    if (tag instanceof PendingCapture && pending.remove(tag)) {
+                        failedCount++;
+                        ((PendingCapture) tag).callback.onFailed("capture failed: " + failure.getReason());
+                    }
+                }
+            }, handler);
+            return true;
+        } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
+            pending.remove(request);
+            AppLog.w(TAG, "Camera " + cameraId + " failed to submit still capture: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            AppLog.w(TAG, "Camera " + cameraId + " failed to acquire still image: " + e.getMessage());
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+        PendingCapture request = pending.poll();
+        try {
+            if (request == null) {
+                AppLog.w(TAG, "Camera " + cameraId + " still image without pending request, dropped");
+                return;
+            }
+            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+            if (request.file != null) {
+                writeToFile(buffer, request.file);
+                capturedCount++;
+                request.callback.onCaptured(null, request.file);
+            } else {
+                byte[] jpeg = new byte[buffer.remaining()];
+                buffer.get(jpeg);
+                capturedCount++;
+                request.callback.onCaptured(jpeg, null);
+            }
+        } catch (IOException e) {
+            failedCount++;
+            if (e.getMessage() != null && e.getMessage().contains("ENOSPC")) {
+                AppLog.e(TAG, "Camera " + cameraId + " 保存照片失败：存储空间已满");
+            } else {
+                AppLog.e(TAG, "Camera " + cameraId + " failed to write still image", e);
+            }
+            request.callback.onFailed("write failed: " + e.getMessage());
+        } finally {
+            // 归还缓冲到 ImageReader 池
+            image.close();
+        }
+    }
+
+    /**
+     * 把 JPEG 字节直接写入文件（先写临时文件再改名，避免留下半截照片）
+     */
+    private void writeToFile(ByteBuffer buffer, File file) throws IOException {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tmpFile)) {
+            FileChannel channel = output.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("rename failed: " + tmpFile.getName());
+        }
+    }
+
+    private void failAllPending(String reason) {
+        PendingCapture request;
+        while ((request = pending.poll()) != null) {
+            failedCount++;
+            request.callback.onFailed(reason);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.kooo.evcam.camera;
+
+/**
+ * 延时录影选帧器
+ *
+ * 驻车时每隔 captureIntervalMs 只取一帧送入编码器，其余帧由调用方只消费不编码。
+ * 选中的帧按输出帧率分配合成时间戳（第 n 帧为 n / outputFrameRate 秒），
+ * 因此成片以正常速度播放：10 秒取一帧、30fps 输出时，10 小时驻车约 2 分钟视频。
+ *
+ * 取帧时刻按固定节拍推进（不随相机帧到达的抖动漂移），长时间无帧后从当前帧重新起算。
+ * 合成时间戳在整个录制期间单调递增（分段切换不重置），满足 eglPresentationTimeANDROID 的要求。
+ *
+ * 本类不依赖 Android API，可在 JVM 上用模拟帧时间序列直接验证。
+ * 非线程安全：应只在编码线程上调用。
+ */
+public class TimelapseFrameSelector {
+
+    private final long captureIntervalNs;
+    private final long outputFrameIntervalNs;
+    private long nextCaptureNs = -1;
+
+    // 统计
+    private long selectedFrames = 0;
+    private long skippedFrames = 0;
+
+    /**
+     * @param captureIntervalMs 取帧间隔（毫秒）
+     * @param outputFrameRate 输出视频帧率
+     */
+    public TimelapseFrameSelector(long captureIntervalMs, int outputFrameRate) {
+        if (captureIntervalMs <= 0 || outputFrameRate <= 0) {
+            throw new IllegalArgumentException("invalid timelapse params: " + captureIntervalMs + "ms @ " + outputFrameRate + "fps");
+        }
+        this.captureIntervalNs = captureIntervalMs * 1000000L;
+        this.outputFrameIntervalNs = 1000000000L / outputFrameRate;
+    }
+
+    /**
+     * 判断本帧是否需要编码
+     *
+     * @param timestampNs 相机帧时间戳（单调时钟）
+     * @return true 表示编码本帧，之后应通过 nextPresentationTimeNs() 取合成时间戳
+     */
+    public boolean shouldEncode(long timestampNs) {
+        if (nextCaptureNs >= 0 && timestampNs < nextCaptureNs) {
+            skippedFrames++;
+            return false;
+        }
+        long next = (nextCaptureNs < 0 ? timestampNs : nextCaptureNs) + captureIntervalNs;
+        if (next <= timestampNs) {
+            // 相机停流或编码暂停后重新起算，避免补取一串连续帧
+            next = timestampNs + captureIntervalNs;
+        }
+        nextCaptureNs = next;
+        return true;
+    }
+
+    /**
+     * 为选中的帧分配合成时间戳（按输出帧率等间隔递增）
+     */
+    public long nextPresentationTimeNs() {
+        return selectedFrames++ * outputFrameIntervalNs;
+    }
+
+    public long getCaptureIntervalMs() {
+        return captureIntervalNs / 1000000L;
+    }
+
+    public long getSelectedFrames() {
+        return selectedFrames;
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * 编码帧占全部相机帧的比例（0-1，用于日志）
+     */
+    public double getEncodeRatio() {
+        long total = selectedFrames + skippedFrames;
+        return total == 0 ? 0 : (double) selectedFrames / total;
+    }
+}
@@ -1,11 +1,12 @@
 package com.kooo.evcam.heartbeat;
 
-import android.util.Base64;
-
 import com.kooo.evcam.AppLog;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -13,6 +14,7 @@ import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
 import okhttp3.MediaType;
+import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -21,12 +23,33 @@ import okhttp3.Response;
 /**
  * 心跳推图 API 客户端
  * 负责 HTTPS 请求发送和签名生成
+ *
+ * 支持两种传输格式：
+ * 1. json：原有格式，图片 Base64 后嵌入 JSON 字符串（多约 33% 体积，且需要多份整图拷贝）
+ * 2. multipart：图片作为 image/jpeg 分段直接从压缩缓冲写入连接，元数据放在签名的请求头中，
+ *    App 状态作为单独的 JSON 分段
+ * 格式按服务器协商：请求头 X-Heartbeat-Wire-Accept 声明客户端支持的格式，服务器在响应头
+ * X-Heartbeat-Wire-Accept 中包含 multipart 后改用 multipart；multipart 被拒绝（415/404/405/501）
+ * 时立即用 json 重发并记住该服务器不支持。
  */
 public class HeartbeatApiClient {
     private static final String TAG = "HeartbeatApiClient";
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final MediaType JPEG = MediaType.parse("image/jpeg");
+
+    /** 传输格式 */
+    public static final String WIRE_JSON = "json";
+    public static final String WIRE_MULTIPART = "multipart";
+
+    private static final String HEADER_WIRE = "X-Heartbeat-Wire";
+    private static final String HEADER_WIRE_ACCEPT = "X-Heartbeat-Wire-Accept";
+    private static final String CLIENT_WIRE_ACCEPT = WIRE_JSON + ", " + WIRE_MULTIPART;
     
     private final OkHttpClient client;
+
+    // 协商结果（按服务器地址记录，地址变化时重新协商）
+    private String negotiatedServerUrl;
+    private String negotiatedWire = WIRE_JSON;
     
     public HeartbeatApiClient() {
         client = new OkHttpClient.Builder()
@@ -52,11 +75,54 @@ public class HeartbeatApiClient {
     public HeartbeatResult sendHeartbeat(String serverUrl, String vehicleId, String secretKey,
                                           byte[] imageBytes, int imageWidth, int imageHeight,
                                           int cameraCount, String appStatus) {
+        return sendHeartbeat(serverUrl, vehicleId, secretKey, imageBytes,
+                imageBytes != null ? imageBytes.length : 0, imageWidth, imageHeight, cameraCount, appStatus);
+    }
+
+    /**
+     * 发送心跳请求（图片为缓冲的前 imageLength 字节，multipart 格式下直接从该缓冲写入连接）
+     *
+     * @param imageBuffer 图片缓冲（可以是压缩器的复用缓冲，请求返回前不能被修改）
+     * @param imageLength 图片有效字节数
+     */
+    public HeartbeatResult sendHeartbeat(String serverUrl, String vehicleId, String secretKey,
+                                          byte[] imageBuffer, int imageLength, int imageWidth, int imageHeight,
+                                          int cameraCount, String appStatus) {
+        String wire = getNegotiatedWire(serverUrl);
+        HeartbeatResult result = sendWithWire(wire, serverUrl, vehicleId, secretKey, imageBuffer, imageLength,
+                imageWidth, imageHeight, cameraCount, appStatus);
+
+        if (WIRE_MULTIPART.equals(wire) && isWireRejected(result.httpCode)) {
+            // 服务器不支持 multipart：记住并立即用 json 重发
+            AppLog.w(TAG, "服务器拒绝 multipart 格式 (HTTP " + result.httpCode + ")，回退到 json");
+            updateNegotiatedWire(serverUrl, WIRE_JSON);
+            result = sendWithWire(WIRE_JSON, serverUrl, vehicleId, secretKey, imageBuffer, imageLength,
+                    imageWidth, imageHeight, cameraCount, appStatus);
+        }
+        return result;
+    }
+
+    /**
+     * 获取与指定服务器协商的传输格式
+     */
+    public synchronized String getNegotiatedWire(String serverUrl) {
+        if (serverUrl == null || !serverUrl.equals(negotiatedServerUrl)) {
+            return WIRE_JSON;
+        }
+        return negotiatedWire;
+    }
+
+    /**
+     * 使用指定传输格式发送（不做协商和回退，测试时也直接调用）
+     */
+    HeartbeatResult sendWithWire(String wire, String serverUrl, String vehicleId, String secretKey,
+                                 byte[] imageBuffer, int imageLength, int imageWidth, int imageHeight,
+                                 int cameraCount, String appStatus) {
         if (serverUrl == null || serverUrl.isEmpty()) {
             return new HeartbeatResult(false, "服务器地址未配置");
         }
         
-        if (imageBytes == null || imageBytes.length == 0) {
+        if (imageBuffer == null || imageLength <= 0 || imageLength > imageBuffer.length) {
             return new HeartbeatResult(false, "图片数据为空");
         }
         
@@ -70,58 +136,191 @@ public class HeartbeatApiClient {
                 return new HeartbeatResult(false, "签名生成失败");
             }
             
-            // 构建 JSON 请求体
-            String imageBase64 = Base64.encodeToString(imageBytes, Base64.NO_WRAP);
-            String jsonBody = buildJsonBody(vehicleId, timestamp, nonce, signature,
-                    imageBase64, imageWidth, imageHeight, imageBytes.length, cameraCount, appStatus);
-            
-            // 发送请求
-            RequestBody body = RequestBody.create(jsonBody, JSON);
-            Request request = new Request.Builder()
+            Request.Builder builder = new Request.Builder()
                     .url(serverUrl)
-                    .post(body)
-                    .addHeader("Content-Type", "application/json")
                     .addHeader("X-Vehicle-Id", vehicleId)
                     .addHeader("X-Timestamp", String.valueOf(timestamp))
                     .addHeader("X-Nonce", nonce)
                     .addHeader("X-Signature", signature)
-                    .build();
+                    .addHeader(HEADER_WIRE, wire)
+                    .addHeader(HEADER_WIRE_ACCEPT, CLIENT_WIRE_ACCEPT);
+
+            if (WIRE_MULTIPART.equals(wire)) {
+                String metaSignature = generateMetaSignature(vehicleId, timestamp, nonce,
+                        imageWidth, imageHeight, imageLength, cameraCount, secretKey);
+                if (metaSignature == null) {
+                    return new HeartbeatResult(false, "签名生成失败");
+                }
+                // 图片分段直接引用缓冲，写入连接时不再拷贝
+                RequestBody body = new MultipartBody.Builder()
+                        .setType(MultipartBody.FORM)
+                        .addFormDataPart("status", null, RequestBody.create(
+                                appStatus != null && !appStatus.isEmpty() ? appStatus : "null", JSON))
+                        .addFormDataPart("image", "heartbeat.jpg",
+                                RequestBody.create(imageBuffer, JPEG, 0, imageLength))
+                        .build();
+                builder.post(body)
+                        .addHeader("X-Image-Width", String.valueOf(imageWidth))
+                        .addHeader("X-Image-Height", String.valueOf(imageHeight))
+                        .addHeader("X-Image-Size", String.valueOf(imageLength))
+                        .addHeader("X-Camera-Count", String.valueOf(cameraCount))
+                        .addHeader("X-Meta-Signature", metaSignature);
+            } else {
+                // 构建 JSON 请求体
+                String imageBase64 = new String(Base64.getEncoder().encode(
+                        ByteBuffer.wrap(imageBuffer, 0, imageLength)).array(), StandardCharsets.US_ASCII);
+                String jsonBody = buildJsonBody(vehicleId, timestamp, nonce, signature,
+                        imageBase64, imageWidth, imageHeight, imageLength, cameraCount, appStatus, false);
+                builder.post(RequestBody.create(jsonBody, JSON))
+                        .addHeader("Content-Type", "application/json");
+            }
+            Request request = builder.build();
             
-            AppLog.d(TAG, "发送心跳请求: " + serverUrl + ", 图片大小: " + (imageBytes.length / 1024) + "KB");
+            AppLog.d(TAG, "发送心跳请求: " + serverUrl + ", 格式: " + wire + ", 图片大小: " + (imageLength / 1024) + "KB");
+            return execute(request, serverUrl);
             
-            try (Response response = client.newCall(request).execute()) {
-                int code = response.code();
-                String responseBody = response.body() != null ? response.body().string() : "";
-                
-                if (response.isSuccessful()) {
-                    AppLog.d(TAG, "心跳请求成功: " + code);
-                    return new HeartbeatResult(true, "成功", code, responseBody);
-                } else {
-                    AppLog.w(TAG, "心跳请求失败: " + code + ", " + responseBody);
-                    return new HeartbeatResult(false, "HTTP " + code + ": " + responseBody, code, responseBody);
+        } catch (Exception e) {
+            AppLog.e(TAG, "心跳请求异常: " + e.getMessage(), e);
+            return new HeartbeatResult(false, "异常: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 发送"画面无变化"心跳（只含 App 状态等元数据，不带图片），服务器沿用上一张图片
+     * 使用与服务器协商的传输格式：multipart 只含状态分段；json 的 imageBase64 为空并带 imageUnchanged 标记
+     */
+    public HeartbeatResult sendUnchangedPing(String serverUrl, String vehicleId, String secretKey,
+                                             int cameraCount, String appStatus) {
+        if (serverUrl == null || serverUrl.isEmpty()) {
+            return new HeartbeatResult(false, "服务器地址未配置");
+        }
+        
+        try {
+            String wire = getNegotiatedWire(serverUrl);
+            long timestamp = System.currentTimeMillis();
+            String nonce = generateNonce();
+            String signature = generateSignature(vehicleId, timestamp, nonce, secretKey);
+            if (signature == null) {
+                return new HeartbeatResult(false, "签名生成失败");
+            }
+            
+            Request.Builder builder = new Request.Builder()
+                    .url(serverUrl)
+                    .addHeader("X-Vehicle-Id", vehicleId)
+                    .addHeader("X-Timestamp", String.valueOf(timestamp))
+                    .addHeader("X-Nonce", nonce)
+                    .addHeader("X-Signature", signature)
+                    .addHeader(HEADER_WIRE, wire)
+                    .addHeader(HEADER_WIRE_ACCEPT, CLIENT_WIRE_ACCEPT)
+                    .addHeader("X-Image-Unchanged", "1");
+            
+            if (WIRE_MULTIPART.equals(wire)) {
+                String metaSignature = generateMetaSignature(vehicleId, timestamp, nonce,
+                        0, 0, 0, cameraCount, secretKey);
+                if (metaSignature == null) {
+                    return new HeartbeatResult(false, "签名生成失败");
                 }
+                RequestBody body = new MultipartBody.Builder()
+                        .setType(MultipartBody.FORM)
+                        .addFormDataPart("status", null, RequestBody.create(
+                                appStatus != null && !appStatus.isEmpty() ? appStatus : "null", JSON))
+                        .build();
+                builder.post(body)
+                        .addHeader("X-Image-Width", "0")
+                        .addHeader("X-Image-Height", "0")
+                        .addHeader("X-Image-Size", "0")
+                        .addHeader("X-Camera-Count", String.valueOf(cameraCount))
+                        .addHeader("X-Meta-Signature", metaSignature);
+            } else {
+                String jsonBody = buildJsonBody(vehicleId, timestamp, nonce, signature,
+                        "", 0, 0, 0, cameraCount, appStatus, true);
+                builder.post(RequestBody.create(jsonBody, JSON))
+                        .addHeader("Content-Type", "application/json");
             }
+            Request request = builder.build();
+            
+            AppLog.d(TAG, "发送无变化心跳: " + serverUrl + ", 格式: " + wire);
+            return execute(request, serverUrl);
             
-        } catch (IOException e) {
-            AppLog.e(TAG, "心跳请求网络错误: " + e.getMessage());
-            return new HeartbeatResult(false, "网络错误: " + e.getMessage());
         } catch (Exception e) {
             AppLog.e(TAG, "心跳请求异常: " + e.getMessage(), e);
             return new HeartbeatResult(false, "异常: " + e.getMessage());
         }
     }
+
+    /**
+     * 执行请求并解析结果
+     */
+    private HeartbeatResult execute(Request request, String serverUrl) {
+        try (Response response = client.newCall(request).execute()) {
+            int code = response.code();
+            String responseBody = response.body() != null ? response.body().string() : "";
+            
+            if (response.isSuccessful()) {
+                AppLog.d(TAG, "心跳请求成功: " + code);
+                onServerWireAccept(serverUrl, response.header(HEADER_WIRE_ACCEPT));
+                return new HeartbeatResult(true, "成功", code, responseBody);
+            } else {
+                AppLog.w(TAG, "心跳请求失败: " + code + ", " + responseBody);
+                return new HeartbeatResult(false, "HTTP " + code + ": " + responseBody, code, responseBody);
+            }
+        } catch (IOException e) {
+            AppLog.e(TAG, "心跳请求网络错误: " + e.getMessage());
+            return new HeartbeatResult(false, "网络错误: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 根据服务器响应头更新协商结果
+     */
+    private void onServerWireAccept(String serverUrl, String serverAccept) {
+        if (serverAccept == null) {
+            return;
+        }
+        String wire = serverAccept.toLowerCase(Locale.ROOT).contains(WIRE_MULTIPART) ? WIRE_MULTIPART : WIRE_JSON;
+        updateNegotiatedWire(serverUrl, wire);
+    }
+
+    private synchronized void updateNegotiatedWire(String serverUrl, String wire) {
+        if (serverUrl.equals(negotiatedServerUrl) && wire.equals(negotiatedWire)) {
+            return;
+        }
+        negotiatedServerUrl = serverUrl;
+        negotiatedWire = wire;
+        AppLog.i(TAG, "心跳传输格式协商为: " + wire);
+    }
+
+    /**
+     * multipart 被拒绝的状态码（服务器不认识该格式或该路由）
+     */
+    private static boolean isWireRejected(int httpCode) {
+        return httpCode == 415 || httpCode == 404 || httpCode == 405 || httpCode == 501;
+    }
     
     /**
      * 生成请求签名
      * signature = HMAC-SHA256(vehicleId + timestamp + nonce, secretKey)
      */
     public static String generateSignature(String vehicleId, long timestamp, String nonce, String secretKey) {
+        return hmacSha256Hex(vehicleId + timestamp + nonce, secretKey);
+    }
+
+    /**
+     * 生成 multipart 格式的元数据签名（元数据在请求头中，需一并签名防止篡改）
+     * metaSignature = HMAC-SHA256(vehicleId + timestamp + nonce + width + "x" + height + ":" + size + ":" + cameraCount, secretKey)
+     */
+    public static String generateMetaSignature(String vehicleId, long timestamp, String nonce,
+                                               int imageWidth, int imageHeight, int imageSizeBytes,
+                                               int cameraCount, String secretKey) {
+        return hmacSha256Hex(vehicleId + timestamp + nonce + imageWidth + "x" + imageHeight
+                + ":" + imageSizeBytes + ":" + cameraCount, secretKey);
+    }
+
+    private static String hmacSha256Hex(String message, String secretKey) {
         if (secretKey == null || secretKey.isEmpty()) {
             return null;
         }
         
-        String message = vehicleId + timestamp + nonce;
-        
         try {
             Mac mac = Mac.getInstance("HmacSHA256");
             SecretKeySpec keySpec = new SecretKeySpec(
@@ -152,10 +351,12 @@ public class HeartbeatApiClient {
     
     /**
      * 构建 JSON 请求体
+     * @param imageUnchanged 画面无变化心跳（imageBase64 为空，服务器沿用上一张图片）
      */
     private String buildJsonBody(String vehicleId, long timestamp, String nonce, String signature,
                                   String imageBase64, int imageWidth, int imageHeight,
-                                  int imageSizeBytes, int cameraCount, String appStatus) {
+                                  int imageSizeBytes, int cameraCount, String appStatus,
+                                  boolean imageUnchanged) {
         StringBuilder sb = new StringBuilder();
         sb.append("{");
         
@@ -171,6 +372,9 @@ public class HeartbeatApiClient {
         sb.append("\"imageHeight\":").append(imageHeight).append(",");
         sb.append("\"imageSizeBytes\":").append(imageSizeBytes).append(",");
         sb.append("\"cameraCount\":").append(cameraCount).append(",");
+        if (imageUnchanged) {
+            sb.append("\"imageUnchanged\":true,");
+        }
         
         // App 状态（已经是 JSON 对象，直接嵌入）
         if (appStatus != null && !appStatus.isEmpty()) {
@@ -290,6 +290,22 @@ public class HeartbeatFragment extends Fragment implements HeartbeatManager.Hear
             }
         });
         
+        // 长按：JPEG 压缩基准测试（在已保存的照片上对比二分查找与质量预测）
+        btnTest.setOnLongClickListener(v -> {
+            if (getActivity() instanceof MainActivity) {
+                HeartbeatManager manager = ((MainActivity) getActivity()).getHeartbeatManager();
+                if (manager != null) {
+                    Toast.makeText(requireContext(), "正在运行压缩基准测试...", Toast.LENGTH_SHORT).show();
+                    manager.runCompressionBenchmark(summary -> {
+                        if (isAdded()) {
+                            Toast.makeText(requireContext(), summary, Toast.LENGTH_LONG).show();
+                        }
+                    });
+                }
+            }
+            return true;
+        });
+        
         // 重置统计
         btnResetStats.setOnClickListener(v -> {
             config.resetStatistics();
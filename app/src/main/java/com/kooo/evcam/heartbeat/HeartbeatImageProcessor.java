@@ -1,225 +1,582 @@
 package com.kooo.evcam.heartbeat;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.util.Size;
 import android.view.TextureView;
 
 import com.kooo.evcam.AppLog;
+import com.kooo.evcam.camera.FrameLumaSampler;
 import com.kooo.evcam.camera.SingleCamera;
 
 import java.io.ByteArrayOutputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * 心跳推图图片处理器
  * 负责从摄像头获取图片、拼接和压缩
+ *
+ * 心跳每隔几分钟执行一次且长期运行，因此所有大块内存都做成可复用的池：
+ * 1. 每路摄像头一个分块 Bitmap，TextureView 截图直接画进分块尺寸（截图时即缩放，不先拿整帧再缩）
+ * 2. 拼接结果 Bitmap 按输出尺寸复用（输出长边不超过 MAX_OUTPUT_LONG_EDGE）
+ * 3. JPEG 压缩复用同一个输出缓冲，多次试压不再分配新的 ByteArrayOutputStream
+ * 每次心跳的分配情况记录在 AllocationStats 中，稳定状态下池分配应为 0。
+ * 注意：captureAndMerge 返回的 Bitmap 属于本处理器，调用方不要回收，下一次调用前有效。
  */
 public class HeartbeatImageProcessor {
     private static final String TAG = "HeartbeatImageProcessor";
-    
+
+    /** ImageReader 抓拍单路超时 */
+    private static final long STILL_CAPTURE_TIMEOUT_MS = 1500;
+    /** 拼接输出的最大长边（像素），超出时在绘制分块时等比缩小 */
+    private static final int MAX_OUTPUT_LONG_EDGE = 1920;
+    /** 最多拼接的摄像头数（四宫格） */
+    private static final int MAX_TILES = 4;
+    /** JPEG 输出缓冲初始容量 */
+    private static final int INITIAL_JPEG_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * 单次心跳的内存分配统计
+     * pool* 为池未命中导致的分配（稳定状态应为 0），其余为每次必需的临时数组
+     */
+    public static class AllocationStats {
+        public int poolBitmapAllocations;
+        public long poolBitmapBytes;
+        public int poolBufferAllocations;
+        public long poolBufferBytes;
+        public int transientArrays;     // 抓拍 JPEG 数据和最终结果拷贝
+        public long transientBytes;
+        public int compressPasses;
+
+        void reset() {
+            poolBitmapAllocations = 0;
+            poolBitmapBytes = 0;
+            poolBufferAllocations = 0;
+            poolBufferBytes = 0;
+            transientArrays = 0;
+            transientBytes = 0;
+            compressPasses = 0;
+        }
+
+        void copyFrom(AllocationStats other) {
+            poolBitmapAllocations = other.poolBitmapAllocations;
+            poolBitmapBytes = other.poolBitmapBytes;
+            poolBufferAllocations = other.poolBufferAllocations;
+            poolBufferBytes = other.poolBufferBytes;
+            transientArrays = other.transientArrays;
+            transientBytes = other.transientBytes;
+            compressPasses = other.compressPasses;
+        }
+
+        @Override
+        public String toString() {
+            return "poolBitmaps=" + poolBitmapAllocations + "(" + poolBitmapBytes / 1024 + "KB)"
+                    + ", poolBuffers=" + poolBufferAllocations + "(" + poolBufferBytes / 1024 + "KB)"
+                    + ", transient=" + transientArrays + "(" + transientBytes / 1024 + "KB)"
+                    + ", compressPasses=" + compressPasses;
+        }
+    }
+
+    /**
+     * 可复用的 JPEG 输出缓冲（暴露内部数组，避免每次 toByteArray）
+     */
+    private static class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+        ReusableByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * 压缩结果视图：直接引用复用的输出缓冲（有效数据为 buffer 的前 length 字节）
+     * 只在下一次压缩或 release() 之前有效，调用方需在同一心跳内用完
+     */
+    public static class CompressedImage {
+        public final byte[] buffer;
+        public final int length;
+
+        CompressedImage(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+
+    // 复用池
+    private final Bitmap[] tilePool = new Bitmap[MAX_TILES];    // TextureView 截图（分块尺寸）
+    private final Bitmap[] decodePool = new Bitmap[MAX_TILES];  // ImageReader JPEG 解码
+    private Bitmap outputBitmap;
+    private Canvas outputCanvas;
+    private final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect dstRect = new Rect();
+    private final Bitmap[] frameSlots = new Bitmap[MAX_TILES];
+    private ReusableByteArrayOutputStream jpegBuffer;
+
+    // JPEG 质量预测（按场景记住质量与体积的关系，减少试压次数）
+    private final JpegQualityPredictor qualityPredictor = new JpegQualityPredictor();
+    private int lastMergedCount = 1;
+
+    // 画面变化检测：抓拍时顺带采样每路画面的亮度网格
+    private boolean sampleLumaGrids = false;
+    private final String[] lastFrameKeys = new String[MAX_TILES];
+    private final int[][] lastLumaGrids = new int[MAX_TILES][];
+
+    // 分配统计
+    private final AllocationStats currentStats = new AllocationStats();
+    private final AllocationStats lastStats = new AllocationStats();
+
+    /**
+     * 是否所有相机都可以在后台线程抓拍（ImageReader 抓拍可用）
+     * 为 true 时 captureAndMerge 可以直接在后台线程调用，不需要切到主线程
+     */
+    public boolean canCaptureOffMainThread(List<SingleCamera> cameras) {
+        if (cameras == null || cameras.isEmpty()) {
+            return false;
+        }
+        for (SingleCamera camera : cameras) {
+            if (camera != null && !camera.isStillCaptureAvailable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * 从多个相机获取实时画面并拼接
-     * 
+     *
      * @param cameras SingleCamera 列表
-     * @return 拼接后的 Bitmap（调用方负责回收），失败返回 null
+     * @return 拼接后的 Bitmap（属于本处理器的复用池，调用方不要回收），失败返回 null
      */
-    public Bitmap captureAndMerge(List<SingleCamera> cameras) {
+    public synchronized Bitmap captureAndMerge(List<SingleCamera> cameras) {
+        currentStats.reset();
+
         if (cameras == null || cameras.isEmpty()) {
             AppLog.w(TAG, "相机列表为空");
             return null;
         }
-        
-        List<Bitmap> bitmaps = new ArrayList<>();
-        
+
+        // 先按第一路可用相机的预览尺寸确定分块尺寸和输出尺寸
+        int count = 0;
+        Size tileSize = null;
         for (SingleCamera camera : cameras) {
             if (camera == null) {
                 continue;
             }
-            
+            if (tileSize == null && camera.getPreviewSize() != null) {
+                tileSize = camera.getPreviewSize();
+            }
+            count++;
+        }
+        if (tileSize == null) {
+            AppLog.w(TAG, "相机预览尺寸未知");
+            return null;
+        }
+        count = Math.min(count, MAX_TILES);
+        int columns = count == 1 ? 1 : 2;
+        int rows = count <= 2 ? 1 : 2;
+        float scale = Math.min(1f, (float) MAX_OUTPUT_LONG_EDGE
+                / Math.max(tileSize.getWidth() * columns, tileSize.getHeight() * rows));
+        int tileW = Math.max(1, Math.round(tileSize.getWidth() * scale));
+        int tileH = Math.max(1, Math.round(tileSize.getHeight() * scale));
+
+        int captured = 0;
+        int slot = 0;
+        Arrays.fill(frameSlots, null);
+        Arrays.fill(lastFrameKeys, null);
+        Arrays.fill(lastLumaGrids, null);
+        for (SingleCamera camera : cameras) {
+            if (camera == null || slot >= MAX_TILES) {
+                continue;
+            }
             try {
-                Bitmap bitmap = captureSingleCamera(camera);
+                Bitmap bitmap = captureSingleCamera(camera, slot, tileW, tileH);
                 if (bitmap != null) {
-                    bitmaps.add(bitmap);
+                    if (sampleLumaGrids) {
+                        lastFrameKeys[captured] = camera.getCameraId();
+                        lastLumaGrids[captured] = FrameLumaSampler.fromBitmap(bitmap);
+                    }
+                    frameSlots[captured++] = bitmap;
                 }
             } catch (Exception e) {
                 AppLog.e(TAG, "获取相机画面失败: " + e.getMessage());
             }
+            slot++;
         }
-        
-        if (bitmaps.isEmpty()) {
+
+        if (captured == 0) {
             AppLog.w(TAG, "未能获取任何相机画面");
             return null;
         }
-        
-        AppLog.d(TAG, "成功获取 " + bitmaps.size() + " 个相机画面");
-        
+
+        AppLog.d(TAG, "成功获取 " + captured + " 个相机画面");
+
         // 拼接图片
-        Bitmap merged = mergeBitmaps(bitmaps);
-        
-        // 回收原始 bitmap（拼接后不再需要）
-        for (Bitmap bitmap : bitmaps) {
-            if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.recycle();
-            }
-        }
-        
+        lastMergedCount = captured;
+        Bitmap merged = mergeBitmaps(captured, tileW, tileH);
+        Arrays.fill(frameSlots, null);
         return merged;
     }
-    
+
+    /**
+     * 设置抓拍时是否采样每路画面的亮度网格（画面变化检测开启时使用）
+     */
+    public synchronized void setSampleLumaGrids(boolean enabled) {
+        this.sampleLumaGrids = enabled;
+    }
+
     /**
-     * 从单个相机获取画面
+     * 获取最近一次 captureAndMerge 中每路画面的来源（相机 ID），长度为拼接的画面数
      */
-    private Bitmap captureSingleCamera(SingleCamera camera) {
-        // 获取 TextureView（通过反射或公开方法）
-        // 由于 SingleCamera 类的设计，我们需要在主线程获取 Bitmap
-        // 这里假设 camera 有提供获取 Bitmap 的方法
-        
+    public synchronized String[] getLastFrameKeys() {
+        return Arrays.copyOf(lastFrameKeys, lastMergedCount);
+    }
+
+    /**
+     * 获取最近一次 captureAndMerge 中每路画面的亮度网格（未开启采样时元素为 null）
+     */
+    public synchronized int[][] getLastLumaGrids() {
+        return Arrays.copyOf(lastLumaGrids, lastMergedCount);
+    }
+
+    /**
+     * 从单个相机获取画面（直接得到分块尺寸或解码到复用 Bitmap）
+     */
+    private Bitmap captureSingleCamera(SingleCamera camera, int slot, int tileW, int tileH) {
         Size previewSize = camera.getPreviewSize();
         if (previewSize == null) {
             AppLog.w(TAG, "相机 " + camera.getCameraId() + " 预览尺寸未知");
             return null;
         }
-        
-        // 使用 SingleCamera 内部的方法获取 Bitmap
-        // 注意：这需要在 SingleCamera 中添加一个公开方法
-        return camera.captureBitmap();
+
+        // 优先使用 ImageReader 抓拍（仅后台线程可用，主线程上直接返回 null）
+        byte[] jpeg = camera.captureStillJpeg(STILL_CAPTURE_TIMEOUT_MS);
+        if (jpeg != null) {
+            currentStats.transientArrays++;
+            currentStats.transientBytes += jpeg.length;
+            Bitmap bitmap = decodeIntoPool(jpeg, slot, tileW, tileH);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+
+        // TextureView 截图直接画进分块尺寸的复用 Bitmap（截图时完成缩放）
+        Bitmap tile = obtainBitmap(tilePool, slot, tileW, tileH);
+        return camera.captureBitmap(tile);
     }
-    
+
     /**
-     * 拼接 Bitmap
+     * 解码 JPEG 到复用 Bitmap，按分块尺寸选择 inSampleSize 在解码时缩小
+     */
+    private Bitmap decodeIntoPool(byte[] jpeg, int slot, int tileW, int tileH) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= tileW && options.outHeight / (sampleSize * 2) >= tileH) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        Bitmap reuse = decodePool[slot];
+        if (reuse != null && !reuse.isRecycled()) {
+            options.inBitmap = reuse;
+            try {
+                Bitmap decoded = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+                if (decoded != null) {
+                    decodePool[slot] = decoded;
+                    return decoded;
+                }
+            } catch (IllegalArgumentException e) {
+                // 复用 Bitmap 容量不足，下面重新分配
+            }
+            options.inBitmap = null;
+        }
+        Bitmap decoded = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if (decoded != null) {
+            if (reuse != null && !reuse.isRecycled()) {
+                reuse.recycle();
+            }
+            decodePool[slot] = decoded;
+            currentStats.poolBitmapAllocations++;
+            currentStats.poolBitmapBytes += decoded.getAllocationByteCount();
+        }
+        return decoded;
+    }
+
+    /**
+     * 从池中取指定尺寸的 Bitmap，尺寸不符时重新分配
+     */
+    private Bitmap obtainBitmap(Bitmap[] pool, int slot, int width, int height) {
+        Bitmap bitmap = pool[slot];
+        if (bitmap != null && !bitmap.isRecycled()
+                && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            return bitmap;
+        }
+        if (bitmap != null && !bitmap.isRecycled()) {
+            bitmap.recycle();
+        }
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        pool[slot] = bitmap;
+        currentStats.poolBitmapAllocations++;
+        currentStats.poolBitmapBytes += bitmap.getAllocationByteCount();
+        return bitmap;
+    }
+
+    /**
+     * 拼接到复用的输出 Bitmap（绘制时缩放到分块尺寸）
      * - 1张：原图
      * - 2张：横向拼接 (W*2, H)
      * - 3-4张：四宫格 (W*2, H*2)
-     * 
-     * @param bitmaps Bitmap 列表
-     * @return 拼接后的 Bitmap
-     */
-    private Bitmap mergeBitmaps(List<Bitmap> bitmaps) {
-        int count = bitmaps.size();
-        Bitmap first = bitmaps.get(0);
-        int w = first.getWidth();
-        int h = first.getHeight();
-        
-        AppLog.d(TAG, "拼接 " + count + " 张图片，单张尺寸: " + w + "x" + h);
-        
-        if (count == 1) {
-            // 单张图片，直接复制返回
-            return first.copy(Bitmap.Config.ARGB_8888, false);
-        }
-        
-        if (count == 2) {
-            // 横向拼接
-            Bitmap result = Bitmap.createBitmap(w * 2, h, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(result);
-            canvas.drawBitmap(bitmaps.get(0), 0, 0, null);
-            canvas.drawBitmap(bitmaps.get(1), w, 0, null);
-            AppLog.d(TAG, "横向拼接完成，尺寸: " + (w * 2) + "x" + h);
-            return result;
-        }
-        
-        // 四宫格 (3或4张)
-        Bitmap result = Bitmap.createBitmap(w * 2, h * 2, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(result);
-        canvas.drawColor(Color.BLACK); // 背景色（3摄时右下角填黑）
-        
-        // 左上
-        canvas.drawBitmap(bitmaps.get(0), 0, 0, null);
-        // 右上
-        canvas.drawBitmap(bitmaps.get(1), w, 0, null);
-        // 左下
-        canvas.drawBitmap(bitmaps.get(2), 0, h, null);
-        // 右下（如果有第4张）
-        if (count >= 4) {
-            canvas.drawBitmap(bitmaps.get(3), w, h, null);
-        }
-        
-        AppLog.d(TAG, "四宫格拼接完成，尺寸: " + (w * 2) + "x" + (h * 2));
-        return result;
+     */
+    private Bitmap mergeBitmaps(int count, int tileW, int tileH) {
+        int columns = count == 1 ? 1 : 2;
+        int rows = count <= 2 ? 1 : 2;
+        int outW = tileW * columns;
+        int outH = tileH * rows;
+
+        if (outputBitmap == null || outputBitmap.isRecycled()
+                || outputBitmap.getWidth() != outW || outputBitmap.getHeight() != outH) {
+            if (outputBitmap != null && !outputBitmap.isRecycled()) {
+                outputBitmap.recycle();
+            }
+            outputBitmap = Bitmap.createBitmap(outW, outH, Bitmap.Config.ARGB_8888);
+            outputCanvas = new Canvas(outputBitmap);
+            currentStats.poolBitmapAllocations++;
+            currentStats.poolBitmapBytes += outputBitmap.getAllocationByteCount();
+        }
+
+        AppLog.d(TAG, "拼接 " + count + " 张图片，分块尺寸: " + tileW + "x" + tileH);
+
+        outputCanvas.drawColor(Color.BLACK); // 背景色（3摄时右下角填黑）
+        for (int i = 0; i < count; i++) {
+            int left = (i % columns) * tileW;
+            int top = (i / columns) * tileH;
+            dstRect.set(left, top, left + tileW, top + tileH);
+            outputCanvas.drawBitmap(frameSlots[i], null, dstRect, scalePaint);
+        }
+
+        AppLog.d(TAG, "拼接完成，尺寸: " + outW + "x" + outH);
+        return outputBitmap;
     }
-    
+
     /**
      * 压缩 Bitmap 到目标大小
-     * 使用二分法动态调整 JPEG 质量
-     * 
+     * 从按场景预测的质量开始编码，未命中容差时用实测值重新预测，通常 1-2 次编码即可收敛
+     *
      * @param bitmap 原图
      * @param targetSizeKB 目标大小（KB），0 表示不压缩
      * @return 压缩后的 byte[]
      */
-    public byte[] compressToTargetSize(Bitmap bitmap, int targetSizeKB) {
+    public synchronized byte[] compressToTargetSize(Bitmap bitmap, int targetSizeKB) {
+        if (compressToTargetSizeInPlace(bitmap, targetSizeKB) == null) {
+            return null;
+        }
+        return takeBufferResult();
+    }
+
+    /**
+     * 压缩 Bitmap 到目标大小，结果留在复用缓冲中不拷贝（用于直接写入上传请求）
+     *
+     * @param bitmap 原图
+     * @param targetSizeKB 目标大小（KB），0 表示不压缩
+     * @return 指向复用缓冲的结果视图，下一次压缩前有效
+     */
+    public synchronized CompressedImage compressToTargetSizeInPlace(Bitmap bitmap, int targetSizeKB) {
         if (bitmap == null) {
             return null;
         }
-        
+
         // 不压缩：使用 95% 质量
         if (targetSizeKB <= 0) {
             AppLog.d(TAG, "不压缩模式，使用 95% 质量");
-            return compressWithQuality(bitmap, 95);
-        }
-        
-        int targetSizeBytes = targetSizeKB * 1024;
-        int minQualityLimit = 10;  // 最低质量限制
-        int minQuality = minQualityLimit;
-        int maxQuality = 95;
-        int quality = 70; // 初始质量
-        byte[] result = null;
-        int iterations = 0;
-        int maxIterations = 6;  // 最多6次迭代，足够覆盖10-95范围
-        
-        // 二分法查找最佳质量
-        while (minQuality <= maxQuality && iterations < maxIterations) {
-            iterations++;
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, baos);
-            result = baos.toByteArray();
-            
-            int currentSize = result.length;
-            int currentSizeKB = currentSize / 1024;
-            
-            // 容差：目标的 20% 或 20KB，取较大值，让它更早收敛
-            int tolerance = Math.max(20, targetSizeKB / 5);
-            if (Math.abs(currentSizeKB - targetSizeKB) <= tolerance) {
-                AppLog.d(TAG, "压缩完成: 质量=" + quality + ", 大小=" + currentSizeKB + "KB (目标=" + targetSizeKB + "KB), 迭代=" + iterations);
-                break;
-            }
-            
-            // 如果已经到最低质量，就不再降了
-            if (quality <= minQualityLimit) {
-                AppLog.d(TAG, "已达最低质量 " + minQualityLimit + "%, 大小=" + currentSizeKB + "KB (目标=" + targetSizeKB + "KB)");
-                break;
-            }
-            
-            if (currentSize > targetSizeBytes) {
-                maxQuality = quality - 1;
-            } else {
-                minQuality = quality + 1;
+            compressIntoBuffer(bitmap, 95);
+            lastStats.copyFrom(currentStats);
+            return new CompressedImage(jpegBuffer.buffer(), jpegBuffer.size());
+        }
+
+        String sceneKey = JpegQualityPredictor.sceneKey(lastMergedCount,
+                bitmap.getWidth(), bitmap.getHeight(), brightnessBucket(bitmap));
+        long pixels = (long) bitmap.getWidth() * bitmap.getHeight();
+        // 每次试压复用同一个输出缓冲，最后一次编码即为结果
+        JpegQualityPredictor.Result result = qualityPredictor.compress(sceneKey, pixels, targetSizeKB, quality -> {
+            compressIntoBuffer(bitmap, quality);
+            return jpegBuffer.size();
+        });
+
+        lastStats.copyFrom(currentStats);
+        AppLog.d(TAG, "压缩完成: 质量=" + result.quality + ", 大小=" + (jpegBuffer.size() / 1024) + "KB (目标="
+                + targetSizeKB + "KB), 编码次数=" + result.passes + ", 场景=" + sceneKey
+                + ", 首次命中率=" + Math.round(qualityPredictor.getFirstPassHitRate() * 100) + "%");
+        return new CompressedImage(jpegBuffer.buffer(), jpegBuffer.size());
+    }
+
+    /**
+     * 基准测试：在样本帧上对比原二分查找与质量预测的编码次数和耗时
+     * 预测器使用独立实例（从冷启动开始在样本间积累），不影响心跳使用的预测数据
+     *
+     * @param frames 样本帧
+     * @param targetSizeKB 目标大小（KB）
+     */
+    public synchronized BenchmarkResult benchmarkCompression(List<Bitmap> frames, int targetSizeKB) {
+        BenchmarkResult benchmark = new BenchmarkResult();
+        JpegQualityPredictor predictor = new JpegQualityPredictor();
+        for (Bitmap frame : frames) {
+            if (frame == null || frame.isRecycled()) {
+                continue;
             }
-            quality = Math.max(minQualityLimit, (minQuality + maxQuality) / 2);
+            JpegQualityPredictor.Encoder encoder = quality -> {
+                compressIntoBuffer(frame, quality);
+                return jpegBuffer.size();
+            };
+
+            long start = System.nanoTime();
+            JpegQualityPredictor.Result bisection = JpegQualityPredictor.compressBisection(targetSizeKB, encoder);
+            benchmark.bisectionNanos += System.nanoTime() - start;
+            benchmark.bisectionPasses += bisection.passes;
+
+            String sceneKey = JpegQualityPredictor.sceneKey(1, frame.getWidth(), frame.getHeight(), brightnessBucket(frame));
+            start = System.nanoTime();
+            JpegQualityPredictor.Result predicted = predictor.compress(sceneKey,
+                    (long) frame.getWidth() * frame.getHeight(), targetSizeKB, encoder);
+            benchmark.predictiveNanos += System.nanoTime() - start;
+            benchmark.predictivePasses += predicted.passes;
+            benchmark.frames++;
         }
-        
-        if (result != null) {
-            AppLog.d(TAG, "最终压缩结果: " + (result.length / 1024) + "KB, 迭代次数: " + iterations);
+        AppLog.i(TAG, "压缩基准测试: " + benchmark);
+        return benchmark;
+    }
+
+    /**
+     * 压缩基准测试结果
+     */
+    public static class BenchmarkResult {
+        public int frames;
+        public int bisectionPasses;
+        public long bisectionNanos;
+        public int predictivePasses;
+        public long predictiveNanos;
+
+        @Override
+        public String toString() {
+            if (frames == 0) {
+                return "无样本";
+            }
+            return frames + " 帧, 二分: " + bisectionPasses + " 次编码/" + bisectionNanos / 1000000 + "ms"
+                    + ", 预测: " + predictivePasses + " 次编码/" + predictiveNanos / 1000000 + "ms";
         }
-        
-        return result;
     }
-    
+
     /**
      * 压缩 Bitmap 到指定质量
-     * 
+     *
      * @param bitmap 原图
      * @param quality JPEG 质量 (0-100)
      * @return 压缩后的 byte[]
      */
-    public byte[] compressWithQuality(Bitmap bitmap, int quality) {
+    public synchronized byte[] compressWithQuality(Bitmap bitmap, int quality) {
         if (bitmap == null) {
             return null;
         }
-        
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, baos);
-        return baos.toByteArray();
+
+        compressIntoBuffer(bitmap, quality);
+        return takeBufferResult();
+    }
+
+    /**
+     * 获取最近一次心跳（captureAndMerge + 压缩）的内存分配统计
+     */
+    public synchronized AllocationStats getLastAllocationStats() {
+        AllocationStats snapshot = new AllocationStats();
+        snapshot.copyFrom(lastStats);
+        return snapshot;
+    }
+
+    /**
+     * 释放所有复用的 Bitmap 和缓冲（心跳停止时调用）
+     */
+    public synchronized void release() {
+        for (int i = 0; i < MAX_TILES; i++) {
+            recycleQuietly(tilePool[i]);
+            recycleQuietly(decodePool[i]);
+            tilePool[i] = null;
+            decodePool[i] = null;
+        }
+        recycleQuietly(outputBitmap);
+        outputBitmap = null;
+        outputCanvas = null;
+        jpegBuffer = null;
+    }
+
+    // ===== 私有方法 =====
+
+    /**
+     * 压缩到复用的输出缓冲，缓冲扩容时计入统计
+     */
+    private void compressIntoBuffer(Bitmap bitmap, int quality) {
+        if (jpegBuffer == null) {
+            jpegBuffer = new ReusableByteArrayOutputStream(INITIAL_JPEG_BUFFER_SIZE);
+            currentStats.poolBufferAllocations++;
+            currentStats.poolBufferBytes += INITIAL_JPEG_BUFFER_SIZE;
+        }
+        int capacityBefore = jpegBuffer.capacity();
+        jpegBuffer.reset();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, jpegBuffer);
+        currentStats.compressPasses++;
+        if (jpegBuffer.capacity() != capacityBefore) {
+            currentStats.poolBufferAllocations++;
+            currentStats.poolBufferBytes += jpegBuffer.capacity();
+        }
+    }
+
+    /**
+     * 拷贝出最终结果（上传接口需要独立的 byte[]），并结束本次统计
+     */
+    private byte[] takeBufferResult() {
+        byte[] result = jpegBuffer.toByteArray();
+        currentStats.transientArrays++;
+        currentStats.transientBytes += result.length;
+        lastStats.copyFrom(currentStats);
+        return result;
+    }
+
+    /**
+     * 粗略亮度档（0-3），在 8x8 网格上采样，用于区分日间/夜间场景
+     */
+    private static int brightnessBucket(Bitmap bitmap) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        long lumaSum = 0;
+        int samples = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int pixel = bitmap.getPixel((x * 2 + 1) * w / 16, (y * 2 + 1) * h / 16);
+                lumaSum += (Color.red(pixel) * 299 + Color.green(pixel) * 587 + Color.blue(pixel) * 114) / 1000;
+                samples++;
+            }
+        }
+        return (int) Math.min(3, (lumaSum / samples) / 64);
+    }
+
+    private static void recycleQuietly(Bitmap bitmap) {
+        if (bitmap != null && !bitmap.isRecycled()) {
+            bitmap.recycle();
+        }
     }
 }
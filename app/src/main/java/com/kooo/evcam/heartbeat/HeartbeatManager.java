@@ -6,9 +6,13 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.PowerManager;
 
+import com.kooo.evcam.AppConfig;
 import com.kooo.evcam.AppLog;
+import com.kooo.evcam.StorageHelper;
+import com.kooo.evcam.camera.FrameChangeDetector;
 import com.kooo.evcam.camera.SingleCamera;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -29,6 +33,7 @@ public class HeartbeatManager {
     private final HeartbeatConfig config;
     private final HeartbeatImageProcessor imageProcessor;
     private final HeartbeatApiClient apiClient;
+    private final AppConfig appConfig;
     private final Handler mainHandler;
     private final ExecutorService executor;
     
@@ -57,6 +62,15 @@ public class HeartbeatManager {
     private static final long SCREEN_OFF_HEARTBEAT_DELAY_MS = 30000; // 息屏后30秒开始推图
     private volatile boolean wakeUpByHeartbeat = false;  // 是否由息屏推图唤醒的
     
+    // 压缩基准测试样本
+    private static final int BENCHMARK_MAX_FRAMES = 12;  // 最多样本数
+    private static final int BENCHMARK_MAX_EDGE = 1920;  // 样本解码后的最大长边（与心跳输出一致）
+    
+    // 画面变化检测（画面无变化时跳过上传，最长跳过时长到期后强制发送完整画面）
+    private static final long MAX_UNCHANGED_MS = 10 * 60 * 1000;  // 10分钟
+    private final FrameChangeDetector changeDetector = new FrameChangeDetector(MAX_UNCHANGED_MS);
+    private long lastSentImageBytes = 0;
+    
     /**
      * App 状态提供者接口
      */
@@ -90,6 +104,13 @@ public class HeartbeatManager {
         boolean hasCamerasConnected();
     }
     
+    /**
+     * 压缩基准测试回调（主线程）
+     */
+    public interface BenchmarkCallback {
+        void onBenchmarkComplete(String summary);
+    }
+    
     /**
      * 心跳状态监听器
      */
@@ -105,6 +126,7 @@ public class HeartbeatManager {
         this.config = new HeartbeatConfig(context);
         this.imageProcessor = new HeartbeatImageProcessor();
         this.apiClient = new HeartbeatApiClient();
+        this.appConfig = new AppConfig(context);
         this.mainHandler = new Handler(Looper.getMainLooper());
         this.executor = Executors.newSingleThreadExecutor();
         
@@ -402,7 +424,7 @@ public class HeartbeatManager {
         executor.execute(() -> {
             isExecuting.set(true);
             try {
-                doHeartbeat();
+                doHeartbeat(isManualTest);
             } finally {
                 isExecuting.set(false);
                 // 推图完成后退后台
@@ -563,6 +585,8 @@ public class HeartbeatManager {
     public void destroy() {
         stop();
         stopScreenOffHeartbeat();
+        // 在执行线程上释放图片复用池（排在进行中的心跳之后）
+        executor.execute(imageProcessor::release);
         executor.shutdown();
     }
     
@@ -647,6 +671,14 @@ public class HeartbeatManager {
      * 实际执行心跳逻辑
      */
     private void doHeartbeat() {
+        doHeartbeat(false);
+    }
+    
+    /**
+     * 实际执行心跳逻辑
+     * @param forceFullFrame 是否忽略画面变化检测，始终发送完整画面（手动测试）
+     */
+    private void doHeartbeat(boolean forceFullFrame) {
         long startTime = System.currentTimeMillis();
         AppLog.d(TAG, "开始执行心跳...");
         
@@ -671,22 +703,36 @@ public class HeartbeatManager {
                 return;
             }
             
-            // 2. 在主线程捕获图片（必须在主线程操作 TextureView）
+            // 画面变化检测开启时，抓拍同时采样每路画面的亮度网格
+            changeDetector.setThreshold(appConfig.getFrameChangeThreshold());
+            imageProcessor.setSampleLumaGrids(changeDetector.isEnabled());
+            
+            // 2. 捕获图片：ImageReader 抓拍可用时直接在当前后台线程完成，
+            //    否则在主线程捕获（必须在主线程操作 TextureView）
             final List<SingleCamera> finalCameras = cameras;
             final Bitmap[] mergedHolder = new Bitmap[1];
             final boolean[] completed = new boolean[1];
             
-            mainHandler.post(() -> {
-                synchronized (mergedHolder) {
-                    try {
-                        mergedHolder[0] = imageProcessor.captureAndMerge(finalCameras);
-                    } catch (Exception e) {
-                        AppLog.e(TAG, "捕获图片异常: " + e.getMessage());
-                    }
-                    completed[0] = true;
-                    mergedHolder.notifyAll();
+            if (imageProcessor.canCaptureOffMainThread(finalCameras)) {
+                try {
+                    mergedHolder[0] = imageProcessor.captureAndMerge(finalCameras);
+                } catch (Exception e) {
+                    AppLog.e(TAG, "捕获图片异常: " + e.getMessage());
                 }
-            });
+                completed[0] = true;
+            } else {
+                mainHandler.post(() -> {
+                    synchronized (mergedHolder) {
+                        try {
+                            mergedHolder[0] = imageProcessor.captureAndMerge(finalCameras);
+                        } catch (Exception e) {
+                            AppLog.e(TAG, "捕获图片异常: " + e.getMessage());
+                        }
+                        completed[0] = true;
+                        mergedHolder.notifyAll();
+                    }
+                });
+            }
             
             // 等待主线程完成
             synchronized (mergedHolder) {
@@ -712,11 +758,22 @@ public class HeartbeatManager {
             int imageHeight = merged.getHeight();
             int cameraCount = cameras.size();
             
+            // 画面与上次发送时无变化：不压缩、不上传图片
+            String[] frameKeys = imageProcessor.getLastFrameKeys();
+            int[][] lumaGrids = imageProcessor.getLastLumaGrids();
+            if (!forceFullFrame && isFrameUnchanged(frameKeys, lumaGrids, startTime)) {
+                handleUnchangedFrame(cameraCount);
+                return;
+            }
+            
             // 3. 压缩图片
-            byte[] imageBytes = imageProcessor.compressToTargetSize(merged, config.getTargetSizeKB());
-            merged.recycle();
+            // merged 属于 imageProcessor 的复用池，不回收
+            // 压缩结果留在复用缓冲中，multipart 格式下直接从缓冲写入请求（本执行线程内用完）
+            HeartbeatImageProcessor.CompressedImage image =
+                    imageProcessor.compressToTargetSizeInPlace(merged, config.getTargetSizeKB());
+            AppLog.d(TAG, "心跳图片内存分配: " + imageProcessor.getLastAllocationStats());
             
-            if (imageBytes == null || imageBytes.length == 0) {
+            if (image == null || image.length == 0) {
                 AppLog.w(TAG, "图片压缩失败");
                 notifyFailed("图片压缩失败");
                 return;
@@ -733,7 +790,8 @@ public class HeartbeatManager {
                     config.getServerUrl(),
                     config.getVehicleId(),
                     config.getSecretKey(),
-                    imageBytes,
+                    image.buffer,
+                    image.length,
                     imageWidth,
                     imageHeight,
                     cameraCount,
@@ -745,9 +803,16 @@ public class HeartbeatManager {
             config.setLastUploadTime(now);
             
             if (result.success) {
+                if (changeDetector.isEnabled()) {
+                    for (int i = 0; i < frameKeys.length; i++) {
+                        changeDetector.markSent(frameKeys[i], lumaGrids[i], now);
+                    }
+                    changeDetector.recordFrame(false, image.length);
+                }
+                lastSentImageBytes = image.length;
                 config.incrementSuccessCount();
                 long duration = now - startTime;
-                AppLog.i(TAG, "心跳成功，耗时: " + duration + "ms, 图片: " + (imageBytes.length / 1024) + "KB");
+                AppLog.i(TAG, "心跳成功，耗时: " + duration + "ms, 图片: " + (image.length / 1024) + "KB");
                 notifySuccess(now);
             } else {
                 config.incrementFailCount();
@@ -764,6 +829,46 @@ public class HeartbeatManager {
         }
     }
     
+    /**
+     * 所有画面是否都与上次发送时无变化
+     */
+    private boolean isFrameUnchanged(String[] frameKeys, int[][] lumaGrids, long now) {
+        if (!changeDetector.isEnabled() || frameKeys.length == 0) {
+            return false;
+        }
+        for (int i = 0; i < frameKeys.length; i++) {
+            if (frameKeys[i] == null || !changeDetector.isUnchanged(frameKeys[i], lumaGrids[i], now)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 处理无变化的画面：发送不带图片的"无变化"心跳（App 状态等元数据照常上报）
+     */
+    private void handleUnchangedFrame(int cameraCount) {
+        String serverUrl = config.getServerUrl();
+        String appStatus = statusProvider != null ? statusProvider.getAppStatusJson() : null;
+        HeartbeatApiClient.HeartbeatResult result = apiClient.sendUnchangedPing(
+                serverUrl, config.getVehicleId(), config.getSecretKey(), cameraCount, appStatus);
+        long now = System.currentTimeMillis();
+        config.setLastUploadTime(now);
+        if (result.success) {
+            changeDetector.recordFrame(true, lastSentImageBytes);
+            config.incrementSuccessCount();
+            AppLog.i(TAG, "画面无变化，已发送无变化心跳 (" + changeDetector.getStatsSummary() + ")");
+            notifySuccess(now);
+        } else {
+            // 下一次心跳发送完整画面
+            changeDetector.reset();
+            config.incrementFailCount();
+            config.setLastError(result.message);
+            AppLog.w(TAG, "无变化心跳失败: " + result.message);
+            notifyFailed(result.message);
+        }
+    }
+    
     /**
      * 过滤已连接的相机
      */
@@ -804,13 +909,69 @@ public class HeartbeatManager {
         executor.execute(() -> {
             isExecuting.set(true);
             try {
-                doHeartbeat();
+                doHeartbeat(isManualTest);
             } finally {
                 isExecuting.set(false);
             }
         });
     }
     
+    /**
+     * 在已保存的照片样本上运行 JPEG 压缩基准测试（对比原二分查找与质量预测）
+     * 样本取照片目录中最新的若干张，解码到不超过心跳输出的尺寸
+     */
+    public void runCompressionBenchmark(BenchmarkCallback callback) {
+        executor.execute(() -> {
+            List<Bitmap> frames = new java.util.ArrayList<>();
+            String summary;
+            try {
+                File[] photos = StorageHelper.getPhotoDir(context).listFiles(
+                        (dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".jpg"));
+                if (photos == null || photos.length == 0) {
+                    summary = "没有可用的照片样本";
+                } else {
+                    java.util.Arrays.sort(photos, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+                    for (int i = 0; i < photos.length && frames.size() < BENCHMARK_MAX_FRAMES; i++) {
+                        Bitmap frame = decodeBenchmarkFrame(photos[i]);
+                        if (frame != null) {
+                            frames.add(frame);
+                        }
+                    }
+                    HeartbeatImageProcessor.BenchmarkResult result =
+                            imageProcessor.benchmarkCompression(frames, config.getTargetSizeKB());
+                    summary = result.toString();
+                }
+            } catch (Exception e) {
+                AppLog.e(TAG, "压缩基准测试异常: " + e.getMessage(), e);
+                summary = "基准测试失败: " + e.getMessage();
+            } finally {
+                for (Bitmap frame : frames) {
+                    frame.recycle();
+                }
+            }
+            final String finalSummary = summary;
+            if (callback != null) {
+                mainHandler.post(() -> callback.onBenchmarkComplete(finalSummary));
+            }
+        });
+    }
+    
+    private Bitmap decodeBenchmarkFrame(File file) {
+        android.graphics.BitmapFactory.Options options = new android.graphics.BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        android.graphics.BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (Math.max(options.outWidth, options.outHeight) / sampleSize > BENCHMARK_MAX_EDGE) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return android.graphics.BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    }
+    
     // ==================== 通知方法 ====================
     
     private void notifyStarted() {
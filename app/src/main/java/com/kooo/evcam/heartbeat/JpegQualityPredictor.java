@@ -0,0 +1,241 @@
+package com.kooo.evcam.heartbeat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JPEG 质量预测器
+ *
+ * 原有 compressToTargetSize 从质量 70 开始二分查找，最多要完整编码 6 次四宫格大图，
+ * 是心跳中 CPU 开销最大的一步。JPEG 体积随质量的变化曲线形状对大多数画面基本一致，
+ * 不同画面主要差在一个"复杂度"倍数上：
+ *     bytesPerPixel(q) ≈ complexity × REF_SIZE(q)
+ * 本类按场景（摄像头数 + 输出尺寸 + 亮度档）记住最近的复杂度：
+ * 1. 首次编码直接使用预测质量，通常一次命中容差
+ * 2. 未命中时用本次实测值重新估计复杂度再预测，通常第二次命中
+ * 3. 预测值跑出已知上下界时退回二分，最坏情况与原来的二分相同
+ *
+ * 本类不依赖 Android API，编码通过 Encoder 接口注入，可在 JVM 上用模拟编码器验证。
+ * 线程安全：所有公开方法均已同步。
+ */
+public class JpegQualityPredictor {
+
+    /**
+     * JPEG 编码器（返回指定质量下的编码字节数）
+     */
+    public interface Encoder {
+        int encode(int quality);
+    }
+
+    /**
+     * 一次压缩的结果
+     */
+    public static class Result {
+        public int quality;
+        public int sizeBytes;
+        public int passes;      // 完整编码次数
+    }
+
+    public static final int MIN_QUALITY = 10;
+    public static final int MAX_QUALITY = 95;
+    /** 无历史数据时的初始质量（与原二分查找一致） */
+    public static final int DEFAULT_QUALITY = 70;
+    /** 最多编码次数（与原二分查找一致） */
+    public static final int MAX_PASSES = 6;
+
+    // 参考曲线：各质量下的相对体积（以质量 75 为 1.0，取自常见 libjpeg 编码统计）
+    private static final int[] REF_QUALITY = {10, 20, 30, 40, 50, 60, 70, 75, 80, 85, 90, 95};
+    private static final double[] REF_SIZE = {0.25, 0.38, 0.48, 0.56, 0.64, 0.74, 0.88, 1.0, 1.15, 1.38, 1.80, 2.60};
+
+    /** 新样本在复杂度滑动平均中的权重 */
+    private static final double COMPLEXITY_WEIGHT = 0.6;
+
+    private final Map<String, Double> complexityByScene = new HashMap<>();
+
+    // 统计
+    private long predictedHits = 0;   // 第一次编码即命中容差的次数
+    private long totalRuns = 0;
+
+    /**
+     * 生成场景键
+     * @param cameraCount 拼接的摄像头数
+     * @param width 输出宽度
+     * @param height 输出高度
+     * @param brightnessBucket 亮度档（夜间画面噪点多，体积差异大）
+     */
+    public static String sceneKey(int cameraCount, int width, int height, int brightnessBucket) {
+        return cameraCount + "_" + width + "x" + height + "_" + brightnessBucket;
+    }
+
+    /**
+     * 预测达到目标体积所需的质量（无历史数据时返回 DEFAULT_QUALITY）
+     */
+    public synchronized int predictQuality(String sceneKey, double targetBytesPerPixel) {
+        Double complexity = complexityByScene.get(sceneKey);
+        if (complexity == null || complexity <= 0) {
+            return DEFAULT_QUALITY;
+        }
+        return qualityForRelativeSize(targetBytesPerPixel / complexity);
+    }
+
+    /**
+     * 记录一次实测结果，更新场景复杂度
+     */
+    public synchronized void record(String sceneKey, int quality, double bytesPerPixel) {
+        if (bytesPerPixel <= 0) {
+            return;
+        }
+        double sample = bytesPerPixel / relativeSize(quality);
+        Double previous = complexityByScene.get(sceneKey);
+        double updated = previous == null ? sample : previous + (sample - previous) * COMPLEXITY_WEIGHT;
+        complexityByScene.put(sceneKey, updated);
+    }
+
+    /**
+     * 压缩到目标体积：从预测质量开始，未命中时用实测值重新预测
+     *
+     * @param sceneKey 场景键
+     * @param pixels 图片像素数
+     * @param targetSizeKB 目标大小（KB）
+     * @param encoder 编码器
+     */
+    public Result compress(String sceneKey, long pixels, int targetSizeKB, Encoder encoder) {
+        int targetBytes = targetSizeKB * 1024;
+        double targetBpp = (double) targetBytes / Math.max(1, pixels);
+        int tolerance = toleranceKB(targetSizeKB);
+
+        int minQuality = MIN_QUALITY;
+        int maxQuality = MAX_QUALITY;
+        int quality = predictQuality(sceneKey, targetBpp);
+        Result result = new Result();
+
+        while (result.passes < MAX_PASSES) {
+            int size = encoder.encode(quality);
+            result.passes++;
+            result.quality = quality;
+            result.sizeBytes = size;
+            double bpp = (double) size / Math.max(1, pixels);
+            record(sceneKey, quality, bpp);
+
+            if (Math.abs(size / 1024 - targetSizeKB) <= tolerance) {
+                break;
+            }
+            if (quality <= MIN_QUALITY && size > targetBytes) {
+                break;  // 已达最低质量，不再降
+            }
+            if (quality >= MAX_QUALITY && size < targetBytes) {
+                break;  // 已达最高质量，不再升
+            }
+
+            if (size > targetBytes) {
+                maxQuality = quality - 1;
+            } else {
+                minQuality = quality + 1;
+            }
+            if (minQuality > maxQuality) {
+                break;
+            }
+
+            // 用本次实测复杂度重新预测；跑出上下界时退回二分
+            int next = qualityForRelativeSize(targetBpp / (bpp / relativeSize(quality)));
+            if (next < minQuality || next > maxQuality) {
+                next = (minQuality + maxQuality) / 2;
+            }
+            quality = next;
+        }
+
+        synchronized (this) {
+            totalRuns++;
+            if (result.passes == 1) {
+                predictedHits++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 原有的二分查找（保留用于基准对比）
+     */
+    public static Result compressBisection(int targetSizeKB, Encoder encoder) {
+        int targetBytes = targetSizeKB * 1024;
+        int tolerance = toleranceKB(targetSizeKB);
+        int minQuality = MIN_QUALITY;
+        int maxQuality = MAX_QUALITY;
+        int quality = DEFAULT_QUALITY;
+        Result result = new Result();
+
+        while (minQuality <= maxQuality && result.passes < MAX_PASSES) {
+            int size = encoder.encode(quality);
+            result.passes++;
+            result.quality = quality;
+            result.sizeBytes = size;
+
+            if (Math.abs(size / 1024 - targetSizeKB) <= tolerance) {
+                break;
+            }
+            if (quality <= MIN_QUALITY) {
+                break;
+            }
+            if (size > targetBytes) {
+                maxQuality = quality - 1;
+            } else {
+                minQuality = quality + 1;
+            }
+            quality = Math.max(MIN_QUALITY, (minQuality + maxQuality) / 2);
+        }
+        return result;
+    }
+
+    /**
+     * 容差：目标的 20% 或 20KB，取较大值
+     */
+    public static int toleranceKB(int targetSizeKB) {
+        return Math.max(20, targetSizeKB / 5);
+    }
+
+    /**
+     * 第一次编码即命中的比例（0~1）
+     */
+    public synchronized double getFirstPassHitRate() {
+        return totalRuns == 0 ? 0 : (double) predictedHits / totalRuns;
+    }
+
+    public synchronized int getSceneCount() {
+        return complexityByScene.size();
+    }
+
+    // ===== 参考曲线 =====
+
+    /**
+     * 参考曲线上指定质量的相对体积（线性插值）
+     */
+    static double relativeSize(int quality) {
+        if (quality <= REF_QUALITY[0]) {
+            return REF_SIZE[0];
+        }
+        for (int i = 1; i < REF_QUALITY.length; i++) {
+            if (quality <= REF_QUALITY[i]) {
+                double t = (double) (quality - REF_QUALITY[i - 1]) / (REF_QUALITY[i] - REF_QUALITY[i - 1]);
+                return REF_SIZE[i - 1] + t * (REF_SIZE[i] - REF_SIZE[i - 1]);
+            }
+        }
+        return REF_SIZE[REF_SIZE.length - 1];
+    }
+
+    /**
+     * 参考曲线的反函数：给定相对体积求质量（结果限制在 [MIN_QUALITY, MAX_QUALITY]）
+     */
+    static int qualityForRelativeSize(double relative) {
+        if (relative <= REF_SIZE[0]) {
+            return MIN_QUALITY;
+        }
+        for (int i = 1; i < REF_SIZE.length; i++) {
+            if (relative <= REF_SIZE[i]) {
+                double t = (relative - REF_SIZE[i - 1]) / (REF_SIZE[i] - REF_SIZE[i - 1]);
+                int quality = (int) Math.round(REF_QUALITY[i - 1] + t * (REF_QUALITY[i] - REF_QUALITY[i - 1]));
+                return Math.max(MIN_QUALITY, Math.min(MAX_QUALITY, quality));
+            }
+        }
+        return MAX_QUALITY;
+    }
+}
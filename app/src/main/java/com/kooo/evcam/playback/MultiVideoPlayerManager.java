@@ -56,6 +56,9 @@ public class MultiVideoPlayerManager {
     private boolean isSingleMode = false;
     private String singleModePosition = VideoGroup.POSITION_FRONT;
 
+    /** 当前组是拼接录制（四路画面已合成在一个文件中，固定在单路 VideoView 中播放） */
+    private boolean isMosaicMode = false;
+
     /** 视频时长（毫秒） */
     private int duration = 0;
 
@@ -108,11 +111,17 @@ public class MultiVideoPlayerManager {
         this.totalVideos = 0;
         this.duration = 0;
         this.mediaPlayers.clear();
+        this.isMosaicMode = false;
 
         if (group == null) {
             return;
         }
 
+        if (group.isMosaicOnly()) {
+            loadMosaicVideo(group.getVideoFile(VideoGroup.POSITION_MOSAIC));
+            return;
+        }
+
         // 统计要加载的视频数量
         if (group.hasVideo(VideoGroup.POSITION_FRONT)) totalVideos++;
         if (group.hasVideo(VideoGroup.POSITION_BACK)) totalVideos++;
@@ -189,6 +198,69 @@ public class MultiVideoPlayerManager {
         }
     }
 
+    /**
+     * 加载拼接视频到单路 VideoView（拼接文件只有一路，不需要多路同步）
+     */
+    private void loadMosaicVideo(File videoFile) {
+        if (videoSingle == null || videoFile == null || !videoFile.exists()) {
+            if (playbackListener != null) {
+                playbackListener.onError("Mosaic video file not found");
+            }
+            return;
+        }
+
+        isMosaicMode = true;
+        totalVideos = 1;
+        try {
+            videoSingle.setVideoURI(Uri.fromFile(videoFile));
+
+            videoSingle.setOnPreparedListener(mp -> {
+                Log.d(TAG, "Mosaic video prepared");
+                mediaPlayers.put(VideoGroup.POSITION_MOSAIC, mp);
+                // 行车记录仪视频没有声音，设置静音
+                mp.setVolume(0f, 0f);
+                duration = mp.getDuration();
+                setMediaPlayerSpeed(mp, currentSpeed);
+
+                if (playbackListener != null) {
+                    playbackListener.onSingleVideoPrepared();
+                }
+                preparedCount++;
+                checkAllPrepared();
+            });
+
+            videoSingle.setOnCompletionListener(mp -> {
+                isPlaying = false;
+                if (playbackListener != null) {
+                    playbackListener.onPlaybackStateChanged(false);
+                    playbackListener.onCompletion();
+                }
+            });
+
+            videoSingle.setOnErrorListener((mp, what, extra) -> {
+                Log.e(TAG, "Mosaic video error, what=" + what + ", extra=" + extra);
+                return true;
+            });
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to load mosaic video", e);
+        }
+    }
+
+    /**
+     * 是否使用单路 VideoView 播放（单路模式或拼接视频）
+     */
+    private boolean usesSingleView() {
+        return isSingleMode || isMosaicMode;
+    }
+
+    /**
+     * 当前组是否为拼接视频（只能在单路视图中播放）
+     */
+    public boolean isMosaicMode() {
+        return isMosaicMode;
+    }
+
     /**
      * 检查是否所有视频都准备好了
      */
@@ -218,7 +290,7 @@ public class MultiVideoPlayerManager {
 
         isPlaying = true;
 
-        if (isSingleMode) {
+        if (usesSingleView()) {
             // 单路模式播放 videoSingle（用户看到的视频）
             if (videoSingle != null) {
                 videoSingle.start();
@@ -302,7 +374,7 @@ public class MultiVideoPlayerManager {
     public void seekTo(int position) {
         if (!isPrepared) return;
 
-        if (isSingleMode) {
+        if (usesSingleView()) {
             // 单路模式：操作 videoSingle（用户看到的视频）
             if (videoSingle != null) {
                 videoSingle.seekTo(position);
@@ -328,6 +400,13 @@ public class MultiVideoPlayerManager {
      */
     public int getCurrentPosition() {
         // 返回当前播放视频的位置
+        if (isMosaicMode && videoSingle != null) {
+            try {
+                return videoSingle.getCurrentPosition();
+            } catch (Exception e) {
+                return 0;
+            }
+        }
         if (isSingleMode && videoSingle != null) {
             // 单路模式下优先从 videoSingle 获取位置
             try {
@@ -466,6 +545,11 @@ public class MultiVideoPlayerManager {
      * 设置单路/多路模式
      */
     public void setSingleMode(boolean singleMode, String position) {
+        if (isMosaicMode) {
+            // 拼接视频只有一路，没有可切换的单路/多路
+            return;
+        }
+
         // 先保存当前播放位置和状态
         int savedPosition = 0;
         boolean wasPlaying = isPlaying;
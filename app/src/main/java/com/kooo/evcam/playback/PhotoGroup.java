@@ -44,10 +44,17 @@ public class PhotoGroup {
      * 添加图片文件到分组
      */
     public void addFile(File file) {
+        addFile(file, file.length());
+    }
+
+    /**
+     * 添加图片文件到分组（大小已知，如来自媒体索引，不再 stat）
+     */
+    public void addFile(File file, long size) {
         String position = extractPosition(file.getName());
         if (position != null) {
             photoFiles.put(position, file);
-            totalSize += file.length();
+            totalSize += size;
         }
     }
 
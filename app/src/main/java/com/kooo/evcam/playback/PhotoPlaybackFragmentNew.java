@@ -29,6 +29,7 @@ import android.widget.PopupMenu;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.kooo.evcam.MainActivity;
+import com.kooo.evcam.MediaIndex;
 import com.kooo.evcam.R;
 import com.kooo.evcam.StorageHelper;
 
@@ -441,26 +442,23 @@ public class PhotoPlaybackFragmentNew extends Fragment {
             return;
         }
 
-        File[] files = saveDir.listFiles((dir, name) -> {
-            String lower = name.toLowerCase();
-            return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png");
-        });
-
-        if (files == null || files.length == 0) {
+        // 从媒体索引读取（目录未变化时不列举、不 stat）
+        List<MediaIndex.Entry> entries = MediaIndex.getInstance(getContext()).list(saveDir, MediaIndex.TYPE_PHOTO);
+        if (entries.isEmpty()) {
             showEmptyState();
             return;
         }
 
         // 第一步：按时间戳分组（同一秒拍摄的多路图片）
         Map<String, PhotoGroup> groupMap = new HashMap<>();
-        for (File file : files) {
-            String timestamp = PhotoGroup.extractTimestampPrefix(file.getName());
+        for (MediaIndex.Entry entry : entries) {
+            String timestamp = PhotoGroup.extractTimestampPrefix(entry.getName());
             PhotoGroup group = groupMap.get(timestamp);
             if (group == null) {
                 group = new PhotoGroup(timestamp);
                 groupMap.put(timestamp, group);
             }
-            group.addFile(file);
+            group.addFile(entry.getFile(), entry.getSize());
         }
 
         // 转为列表并排序（最新的在前）
@@ -549,8 +547,16 @@ public class PhotoPlaybackFragmentNew extends Fragment {
                     int deletedCount = 0;
                     
                     // 删除选中的图片组
+                    MediaIndex mediaIndex = MediaIndex.getInstance(getContext());
                     for (PhotoGroup group : selectedGroups) {
+                        List<File> files = new ArrayList<>(group.getAllPhotoFiles().values());
                         deletedCount += group.deleteAll();
+                        // 同步更新媒体索引和占用账本
+                        for (File file : files) {
+                            if (!file.exists()) {
+                                mediaIndex.remove(file);
+                            }
+                        }
                     }
                     
                     // 从日期分组中移除已删除的组
@@ -26,6 +26,7 @@ import android.widget.PopupMenu;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.kooo.evcam.MainActivity;
+import com.kooo.evcam.MediaIndex;
 import com.kooo.evcam.R;
 import com.kooo.evcam.StorageHelper;
 
@@ -393,6 +394,9 @@ public class PlaybackFragmentNew extends Fragment {
      * 切换到多路模式
      */
     private void switchToMultiMode() {
+        if (currentGroup != null && currentGroup.isMosaicOnly()) {
+            return;  // 拼接视频只有一路画面
+        }
         isSingleMode = false;
         btnViewMode.setText("多路");
         
@@ -509,6 +513,20 @@ public class PlaybackFragmentNew extends Fragment {
         this.currentGroup = group;
         noSelectionHint.setVisibility(View.GONE);
         
+        if (group.isMosaicOnly()) {
+            // 拼接录制：四路画面已合成在一个文件中，固定使用单路视图播放
+            multiViewLayout.setVisibility(View.GONE);
+            singleViewLayout.setVisibility(View.VISIBLE);
+            if (videoSingle != null) {
+                videoSingle.setVisibility(View.VISIBLE);
+            }
+            labelSingle.setText("拼接");
+            btnViewMode.setText("拼接");
+            currentDatetime.setText(group.getFormattedDateTime());
+            playerManager.loadVideoGroup(group);
+            return;
+        }
+        
         // 如果在单路模式下，检查当前选择的摄像头是否有视频
         if (isSingleMode) {
             if (!group.hasVideo(currentSinglePosition)) {
@@ -521,6 +539,9 @@ public class PlaybackFragmentNew extends Fragment {
         if (isSingleMode) {
             multiViewLayout.setVisibility(View.GONE);
             singleViewLayout.setVisibility(View.VISIBLE);
+            String label = getPositionLabel(currentSinglePosition);
+            labelSingle.setText(label);
+            btnViewMode.setText(label + "摄");
         } else {
             multiViewLayout.setVisibility(View.VISIBLE);
             singleViewLayout.setVisibility(View.GONE);
@@ -577,22 +598,23 @@ public class PlaybackFragmentNew extends Fragment {
             return;
         }
 
-        File[] files = saveDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".mp4"));
-        if (files == null || files.length == 0) {
+        // 从媒体索引读取（目录未变化时不列举、不 stat）
+        List<MediaIndex.Entry> entries = MediaIndex.getInstance(getContext()).list(saveDir, MediaIndex.TYPE_VIDEO);
+        if (entries.isEmpty()) {
             showEmptyState();
             return;
         }
 
         // 第一步：按时间戳分组（同一秒录制的多路视频）
         Map<String, VideoGroup> groupMap = new HashMap<>();
-        for (File file : files) {
-            String timestamp = VideoGroup.extractTimestampPrefix(file.getName());
+        for (MediaIndex.Entry entry : entries) {
+            String timestamp = VideoGroup.extractTimestampPrefix(entry.getName());
             VideoGroup group = groupMap.get(timestamp);
             if (group == null) {
                 group = new VideoGroup(timestamp);
                 groupMap.put(timestamp, group);
             }
-            group.addFile(file);
+            group.addFile(entry.getFile(), entry.getSize());
         }
 
         // 转为列表并排序（最新的在前）
@@ -681,8 +703,16 @@ public class PlaybackFragmentNew extends Fragment {
                     int deletedCount = 0;
                     
                     // 删除选中的视频组
+                    MediaIndex mediaIndex = MediaIndex.getInstance(getContext());
                     for (VideoGroup group : selectedGroups) {
+                        List<File> files = new ArrayList<>(group.getAllVideoFiles().values());
                         deletedCount += group.deleteAll();
+                        // 同步更新媒体索引和占用账本
+                        for (File file : files) {
+                            if (!file.exists()) {
+                                mediaIndex.remove(file);
+                            }
+                        }
                     }
                     
                     // 从日期分组中移除已删除的组
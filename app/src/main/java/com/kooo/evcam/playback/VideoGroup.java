@@ -20,6 +20,8 @@ public class VideoGroup {
     public static final String POSITION_BACK = "back";
     public static final String POSITION_LEFT = "left";
     public static final String POSITION_RIGHT = "right";
+    /** 2x2 拼接录制（一个文件包含所有摄像头画面） */
+    public static final String POSITION_MOSAIC = "mosaic";
     
     /** 时间戳前缀，如 "20260131_1254" */
     private final String timestampPrefix;
@@ -45,10 +47,19 @@ public class VideoGroup {
      * @param file 视频文件
      */
     public void addFile(File file) {
+        addFile(file, file.length());
+    }
+
+    /**
+     * 添加视频文件到分组（大小已知，如来自媒体索引，不再 stat）
+     * @param file 视频文件
+     * @param size 文件大小
+     */
+    public void addFile(File file, long size) {
         String position = extractPosition(file.getName());
         if (position != null) {
             videoFiles.put(position, file);
-            totalSize += file.length();
+            totalSize += size;
         }
     }
     
@@ -186,7 +197,7 @@ public class VideoGroup {
     
     /**
      * 获取第一个可用的缩略图文件（用于列表显示）
-     * 优先级：front > back > left > right
+     * 优先级：front > back > left > right > mosaic
      */
     public File getThumbnailFile() {
         if (videoFiles.containsKey(POSITION_FRONT)) {
@@ -197,10 +208,23 @@ public class VideoGroup {
             return videoFiles.get(POSITION_LEFT);
         } else if (videoFiles.containsKey(POSITION_RIGHT)) {
             return videoFiles.get(POSITION_RIGHT);
+        } else if (videoFiles.containsKey(POSITION_MOSAIC)) {
+            return videoFiles.get(POSITION_MOSAIC);
         }
         return null;
     }
     
+    /**
+     * 是否为拼接录制的视频组（只有 {timestamp}_mosaic.mp4，没有单独的各路文件）
+     */
+    public boolean isMosaicOnly() {
+        return videoFiles.containsKey(POSITION_MOSAIC)
+                && !videoFiles.containsKey(POSITION_FRONT)
+                && !videoFiles.containsKey(POSITION_BACK)
+                && !videoFiles.containsKey(POSITION_LEFT)
+                && !videoFiles.containsKey(POSITION_RIGHT);
+    }
+    
     /**
      * 获取视频路数
      */
@@ -105,10 +105,10 @@ public class VideoGroupAdapter extends RecyclerView.Adapter<VideoGroupAdapter.Vi
 
         // 视频路数标签
         int count = group.getVideoCount();
-        holder.videoCountBadge.setText(count + "路");
+        holder.videoCountBadge.setText(group.isMosaicOnly() ? "拼接" : count + "路");
 
-        // 加载四个位置的缩略图
-        loadThumbnail(group.getFrontVideo(), holder.thumbFront);
+        // 加载四个位置的缩略图（拼接视频组只有一个文件，由 getThumbnailFile 返回，显示在第一格）
+        loadThumbnail(group.isMosaicOnly() ? group.getThumbnailFile() : group.getFrontVideo(), holder.thumbFront);
         loadThumbnail(group.getBackVideo(), holder.thumbBack);
         loadThumbnail(group.getLeftVideo(), holder.thumbLeft);
         loadThumbnail(group.getRightVideo(), holder.thumbRight);
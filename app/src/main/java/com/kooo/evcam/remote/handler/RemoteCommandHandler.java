@@ -9,6 +9,7 @@ import com.kooo.evcam.AppLog;
 import com.kooo.evcam.CameraForegroundService;
 import com.kooo.evcam.FloatingWindowService;
 import com.kooo.evcam.WakeUpHelper;
+import com.kooo.evcam.camera.MultiCameraManager;
 import com.kooo.evcam.remote.core.ChatIdentifier;
 import com.kooo.evcam.remote.core.RecordingContext;
 import com.kooo.evcam.remote.core.RemotePlatform;
@@ -66,6 +67,11 @@ public abstract class RemoteCommandHandler {
         void startRecording();  // 恢复手动录制
         void setSegmentDurationOverride(long durationMs);  // 设置分段时长覆盖（用于远程录制）
         void clearSegmentDurationOverride();  // 清除分段时长覆盖
+        /**
+         * 导出事件片段（预录缓冲 + 事件后 postRollMs），不打断当前录制
+         * @return 是否有摄像头开始导出（未录制或未启用预录缓冲时返回 false）
+         */
+        boolean saveEventClips(String timestamp, long postRollMs, MultiCameraManager.EventClipsCallback callback);
     }
     
     /**
@@ -153,7 +159,18 @@ public abstract class RemoteCommandHandler {
         // 5. 创建录制上下文
         currentContext = new RecordingContext(chatId, durationSeconds, timestamp);
         
-        // 6. 如果正在手动录制，记录状态并停止
+        // 6. 正在录制且启用了预录缓冲：直接导出"事件前 + 之后 N 秒"的片段，不打断当前录制
+        if (cameraController.isRecording()) {
+            isRemoteRecording = true;
+            if (cameraController.saveEventClips(timestamp, durationSeconds * 1000L,
+                    files -> onEventClipsSaved(currentContext, files))) {
+                AppLog.d(TAG, platformName + ": 使用预录缓冲导出事件片段，事件后 " + durationSeconds + " 秒");
+                return;
+            }
+            isRemoteRecording = false;
+        }
+        
+        // 7. 如果正在手动录制，记录状态并停止
         if (cameraController.isRecording()) {
             currentContext.setWasManualRecordingBefore(true);
             AppLog.d(TAG, platformName + ": 检测到手动录制正在进行，暂停手动录制");
@@ -169,16 +186,16 @@ public abstract class RemoteCommandHandler {
             }
         }
         
-        // 7. 标记开始远程录制
+        // 8. 标记开始远程录制
         isRemoteRecording = true;
         
-        // 8. 设置分段时长覆盖（远程录制不分段）
+        // 9. 设置分段时长覆盖（远程录制不分段）
         // 将分段时长设置为录制时长 + 30秒余量，确保整个录制过程不会触发分段
         long segmentOverrideMs = (durationSeconds + 30) * 1000L;
         cameraController.setSegmentDurationOverride(segmentOverrideMs);
         AppLog.d(TAG, platformName + " 设置分段时长覆盖: " + (segmentOverrideMs / 1000) + " 秒（禁用分段）");
         
-        // 9. 开始录制
+        // 10. 开始录制
         boolean success = cameraController.startRecording(timestamp);
         if (success) {
             onRecordingStarted(currentContext, durationSeconds);
@@ -187,6 +204,20 @@ public abstract class RemoteCommandHandler {
         }
     }
     
+    /**
+     * 事件片段导出完成：上传片段（片段在录制目录中，上传完成后再传输到最终目录）
+     */
+    private void onEventClipsSaved(RecordingContext ctx, List<File> files) {
+        isRemoteRecording = false;
+        if (files.isEmpty()) {
+            AppLog.e(TAG, getPlatformName() + " 事件片段导出失败");
+            sendError(ctx.getChatId(), "录制失败");
+            returnToBackgroundIfNeeded();
+            return;
+        }
+        uploadVideos(ctx.getChatId(), files);
+    }
+    
     /**
      * 录制成功启动后的处理
      */
@@ -386,11 +417,28 @@ public abstract class RemoteCommandHandler {
             return;
         }
         
+        uploadVideos(chatId, videoFiles);
+    }
+    
+    /**
+     * 上传视频文件，完成后传输到最终目录
+     */
+    private void uploadVideos(ChatIdentifier chatId, List<File> videoFiles) {
+        String platformName = getPlatformName();
+        
+        // 检查 API 客户端
+        if (!isApiClientReady()) {
+            AppLog.e(TAG, platformName + " API 客户端未初始化");
+            mediaFileFinder.transferToFinalDir(videoFiles);
+            returnToBackgroundIfNeeded();
+            return;
+        }
+        
         AppLog.d(TAG, "找到 " + videoFiles.size() + " 个视频文件，开始上传到" + platformName);
         
-        // 创建上传服务并上传
+        // 创建上传服务并上传（有代理子码流时上传代理文件，原文件照常传输到最终目录）
         MediaUploadService uploadService = createVideoUploadService();
-        uploadService.uploadVideos(videoFiles, chatId, new RemoteUploadCallback() {
+        uploadService.uploadVideos(mediaFileFinder.preferProxyFiles(videoFiles), chatId, new RemoteUploadCallback() {
             @Override
             public void onProgress(String message) {
                 AppLog.d(TAG, platformName + " 视频上传进度: " + message);
@@ -4,6 +4,7 @@ import android.content.Context;
 
 import com.kooo.evcam.AppLog;
 import com.kooo.evcam.FileTransferManager;
+import com.kooo.evcam.MediaIndex;
 import com.kooo.evcam.StorageHelper;
 
 import java.io.File;
@@ -59,17 +60,16 @@ public class MediaFileFinder {
             return new ArrayList<>();
         }
         
-        File[] files = videoDir.listFiles((dir, name) -> 
-            name.startsWith(timestamp) && name.endsWith(".mp4")
-        );
+        // 最终目录可能有上万个文件，通过媒体索引按文件名前缀查找
+        List<File> files = MediaIndex.getInstance(context).findByPrefix(videoDir, timestamp, ".mp4");
         
-        if (files == null || files.length == 0) {
+        if (files.isEmpty()) {
             AppLog.e(TAG, "未找到录制的视频文件，时间戳: " + timestamp);
             return new ArrayList<>();
         }
         
-        AppLog.d(TAG, "从最终目录找到 " + files.length + " 个视频文件");
-        return new ArrayList<>(Arrays.asList(files));
+        AppLog.d(TAG, "从最终目录找到 " + files.size() + " 个视频文件");
+        return files;
     }
     
     /**
@@ -111,19 +111,13 @@ public class MediaFileFinder {
         // 2. 从最终目录查找所有时间戳对应的文件
         File videoDir = StorageHelper.getVideoDir(context);
         if (videoDir != null && videoDir.exists()) {
-            File[] files = videoDir.listFiles((dir, name) -> {
-                if (!name.endsWith(".mp4")) {
-                    return false;
-                }
-                for (String ts : timestamps) {
-                    if (name.startsWith(ts)) {
-                        return true;
-                    }
-                }
-                return false;
-            });
+            MediaIndex mediaIndex = MediaIndex.getInstance(context);
+            List<File> files = new ArrayList<>();
+            for (String ts : timestamps) {
+                files.addAll(mediaIndex.findByPrefix(videoDir, ts, ".mp4"));
+            }
             
-            if (files != null && files.length > 0) {
+            if (!files.isEmpty()) {
                 // 避免重复添加（临时目录和最终目录可能有同名文件）
                 for (File f : files) {
                     boolean exists = false;
@@ -150,6 +144,37 @@ public class MediaFileFinder {
         return allFiles;
     }
     
+    /**
+     * 优先使用低分辨率代理文件（远程上传用）
+     * 有代理文件的视频替换为代理文件，没有的保持原文件；原列表不变（仍用于传输到最终目录）
+     * 
+     * @param videoFiles 主视频文件列表
+     * @return 上传用的文件列表
+     */
+    public List<File> preferProxyFiles(List<File> videoFiles) {
+        List<File> result = new ArrayList<>(videoFiles.size());
+        int proxyCount = 0;
+        long originalBytes = 0;
+        long uploadBytes = 0;
+        for (File file : videoFiles) {
+            File proxy = StorageHelper.getProxyFile(context, file);
+            originalBytes += file.length();
+            if (proxy != null) {
+                result.add(proxy);
+                uploadBytes += proxy.length();
+                proxyCount++;
+            } else {
+                result.add(file);
+                uploadBytes += file.length();
+            }
+        }
+        if (proxyCount > 0) {
+            AppLog.d(TAG, "使用 " + proxyCount + "/" + videoFiles.size() + " 个代理文件上传: "
+                    + (originalBytes / 1024) + " KB -> " + (uploadBytes / 1024) + " KB");
+        }
+        return result;
+    }
+    
     /**
      * 查找照片文件
      * 
@@ -168,18 +193,21 @@ public class MediaFileFinder {
             return new ArrayList<>();
         }
         
-        File[] files = photoDir.listFiles((dir, name) -> 
-            name.startsWith(timestamp) && 
-            (name.endsWith(".jpg") || name.endsWith(".jpeg"))
-        );
+        List<File> files = new ArrayList<>();
+        for (File file : MediaIndex.getInstance(context).findByPrefix(photoDir, timestamp, null)) {
+            String name = file.getName();
+            if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+                files.add(file);
+            }
+        }
         
-        if (files == null || files.length == 0) {
+        if (files.isEmpty()) {
             AppLog.e(TAG, "未找到拍摄的照片，时间戳: " + timestamp);
             return new ArrayList<>();
         }
         
-        AppLog.d(TAG, "找到 " + files.length + " 张照片");
-        return new ArrayList<>(Arrays.asList(files));
+        AppLog.d(TAG, "找到 " + files.size() + " 张照片");
+        return files;
     }
     
     /**
@@ -0,0 +1,229 @@
+package com.kooo.evcam.wechat;
+
+/**
+ * 预览帧上传管线
+ *
+ * 原来每帧都新建线程抓图、再新建线程上传，链路慢时上传线程越积越多，小程序看到的画面也越来越旧。
+ * 本管线只有一个上传工作线程和一个容量为 1 的"最新帧"槽位：
+ * 1. 新帧放入槽位时直接覆盖尚未上传的旧帧（旧帧计入丢弃数），永远只上传最新的画面
+ * 2. 记录每帧从抓拍到上传完成的端到端延迟，以及单次上传耗时的滑动平均
+ * 3. getSuggestedIntervalMs() 按上传耗时给出抓帧间隔，帧率随链路速度自动升降，不会积压
+ *
+ * stop() 后再 start() 时旧工作线程可能仍在上传：每次 start() 递增代号，旧线程完成当前上传后发现代号变化即退出，
+ * 新线程等旧上传完成后才开始上传，任何时刻最多只有一个上传在进行。
+ *
+ * 本类不依赖 Android API，上传通过 Uploader 接口注入，可在 JVM 上用模拟链路验证。
+ */
+public class PreviewUploadPipeline {
+
+    /**
+     * 上传实现（在工作线程上同步调用）
+     */
+    public interface Uploader {
+        /**
+         * @return 是否上传成功
+         */
+        boolean upload(byte[] jpeg) throws Exception;
+    }
+
+    /** 上传耗时在滑动平均中的新样本权重 */
+    private static final double DURATION_WEIGHT = 0.3;
+
+    private static class Frame {
+        final byte[] jpeg;
+        final long captureTimeNanos;
+        final Runnable onUploaded;
+
+        Frame(byte[] jpeg, long captureTimeNanos, Runnable onUploaded) {
+            this.jpeg = jpeg;
+            this.captureTimeNanos = captureTimeNanos;
+            this.onUploaded = onUploaded;
+        }
+    }
+
+    private final Uploader uploader;
+    private final Object lock = new Object();
+    private Frame slot;             // 最新待上传帧（容量 1）
+    private boolean uploading = false;  // 是否有上传正在进行（可能属于已停止的旧工作线程）
+    private boolean running = false;
+    private int generation = 0;         // 每次 start() 递增，工作线程代号不一致时退出
+    private Thread worker;
+
+    // 统计（受 lock 保护）
+    private long offeredCount = 0;
+    private long uploadedCount = 0;
+    private long droppedCount = 0;
+    private long failedCount = 0;
+    private long lastLatencyMs = 0;
+    private long totalLatencyMs = 0;
+    private double avgUploadMs = 0;
+
+    public PreviewUploadPipeline(Uploader uploader) {
+        this.uploader = uploader;
+    }
+
+    /**
+     * 启动工作线程
+     */
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            final int workerGeneration = ++generation;
+            worker = new Thread(() -> workLoop(workerGeneration), "PreviewUploadPipeline");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * 停止工作线程，丢弃未上传的帧（正在进行的上传会完成）
+     */
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            if (slot != null) {
+                slot = null;
+                droppedCount++;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 提交一帧，覆盖尚未上传的旧帧
+     *
+     * @param jpeg JPEG 数据
+     * @param captureTimeNanos 抓拍时刻（System.nanoTime()），用于计算端到端延迟
+     */
+    public void offer(byte[] jpeg, long captureTimeNanos) {
+        offer(jpeg, captureTimeNanos, null);
+    }
+
+    /**
+     * 提交一帧，覆盖尚未上传的旧帧
+     *
+     * @param jpeg JPEG 数据
+     * @param captureTimeNanos 抓拍时刻（System.nanoTime()），用于计算端到端延迟
+     * @param onUploaded 该帧上传成功后在工作线程上回调（被覆盖或上传失败时不回调），可为 null
+     */
+    public void offer(byte[] jpeg, long captureTimeNanos, Runnable onUploaded) {
+        if (jpeg == null || jpeg.length == 0) {
+            return;
+        }
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            offeredCount++;
+            if (slot != null) {
+                droppedCount++;
+            }
+            slot = new Frame(jpeg, captureTimeNanos, onUploaded);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 是否可以立即接收新帧（工作线程空闲且槽位为空），忙时可跳过抓帧以节省开销
+     */
+    public boolean isIdle() {
+        synchronized (lock) {
+            return !uploading && slot == null;
+        }
+    }
+
+    /**
+     * 建议的抓帧间隔：不小于 minIntervalMs，链路慢时跟随上传耗时的滑动平均
+     */
+    public long getSuggestedIntervalMs(long minIntervalMs) {
+        synchronized (lock) {
+            return Math.max(minIntervalMs, Math.round(avgUploadMs));
+        }
+    }
+
+    public long getLastLatencyMs() {
+        synchronized (lock) {
+            return lastLatencyMs;
+        }
+    }
+
+    public long getUploadedCount() {
+        synchronized (lock) {
+            return uploadedCount;
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    /**
+     * 统计摘要（用于日志）
+     */
+    public String getStatsSummary() {
+        synchronized (lock) {
+            long avgLatency = uploadedCount == 0 ? 0 : totalLatencyMs / uploadedCount;
+            return "offered=" + offeredCount + ", uploaded=" + uploadedCount + ", dropped=" + droppedCount
+                    + ", failed=" + failedCount + ", latency(last/avg)=" + lastLatencyMs + "/" + avgLatency + "ms"
+                    + ", upload(avg)=" + Math.round(avgUploadMs) + "ms";
+        }
+    }
+
+    // ===== 工作线程 =====
+
+    private void workLoop(int workerGeneration) {
+        while (true) {
+            Frame frame;
+            synchronized (lock) {
+                // 旧工作线程的上传尚未完成时不开始新的上传
+                while (running && generation == workerGeneration && (slot == null || uploading)) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        if (generation == workerGeneration) {
+                            running = false;
+                        }
+                        return;
+                    }
+                }
+                if (!running || generation != workerGeneration) {
+                    return;
+                }
+                frame = slot;
+                slot = null;
+                uploading = true;
+            }
+
+            long start = System.nanoTime();
+            boolean success;
+            try {
+                success = uploader.upload(frame.jpeg);
+            } catch (Exception e) {
+                success = false;
+            }
+            long end = System.nanoTime();
+
+            synchronized (lock) {
+                uploading = false;
+                long uploadMs = (end - start) / 1000000;
+                avgUploadMs = avgUploadMs == 0 ? uploadMs : avgUploadMs + (uploadMs - avgUploadMs) * DURATION_WEIGHT;
+                if (success) {
+                    uploadedCount++;
+                    lastLatencyMs = (end - frame.captureTimeNanos) / 1000000;
+                    totalLatencyMs += lastLatencyMs;
+                } else {
+                    failedCount++;
+                }
+                lock.notifyAll();
+            }
+            if (success && frame.onUploaded != null) {
+                frame.onUploaded.run();
+            }
+        }
+    }
+}
@@ -10,7 +10,6 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -55,6 +54,9 @@ public class WechatCloudManager {
     // Token 缓存
     private static final long TOKEN_EXPIRE_BUFFER = 300000;   // 提前5分钟刷新token
 
+    // 预览帧上传凭证复用时长（小于云存储临时凭证的有效期）
+    private static final long PREVIEW_CREDENTIAL_TTL_MS = 600000;  // 10分钟
+
     private final Context context;
     private final WechatMiniConfig config;
     private final ConnectionCallback connectionCallback;
@@ -75,6 +77,10 @@ public class WechatCloudManager {
     private String accessToken = null;
     private long tokenExpireTime = 0;
 
+    // 预览帧上传凭证缓存（预览路径固定）
+    private UploadCredential previewCredential;
+    private String previewCredentialPath;
+
     public interface ConnectionCallback {
         void onConnected();
         void onDisconnected();
@@ -687,132 +693,198 @@ public class WechatCloudManager {
             }
             
             // 第一步：获取上传链接
-            String url = UPLOAD_FILE_URL + "?access_token=" + accessToken;
-            
-            JsonObject body = new JsonObject();
-            body.addProperty("env", cloudEnv);
-            body.addProperty("path", cloudPath);
-            
-            Request request = new Request.Builder()
-                    .url(url)
-                    .post(RequestBody.create(
-                            MediaType.parse("application/json; charset=utf-8"),
-                            gson.toJson(body)
-                    ))
-                    .build();
-            
-            String uploadUrl = null;
-            String authorization = null;
-            String token = null;
-            String cosFileId = null;
-            String fileId = null;
-            
-            try (Response response = httpClient.newCall(request).execute()) {
-                String responseBody = response.body() != null ? response.body().string() : "";
-                AppLog.d(TAG, "获取上传链接响应: " + responseBody);
-                
-                if (response.isSuccessful()) {
-                    JsonObject result = gson.fromJson(responseBody, JsonObject.class);
-                    if (result.has("errcode") && result.get("errcode").getAsInt() != 0) {
-                        AppLog.e(TAG, "获取上传链接失败: " + responseBody);
-                        return null;
-                    }
-                    
-                    uploadUrl = result.has("url") ? result.get("url").getAsString() : null;
-                    authorization = result.has("authorization") ? result.get("authorization").getAsString() : null;
-                    token = result.has("token") ? result.get("token").getAsString() : null;
-                    cosFileId = result.has("cos_file_id") ? result.get("cos_file_id").getAsString() : null;
-                    fileId = result.has("file_id") ? result.get("file_id").getAsString() : null;
-                }
-            }
-            
-            if (uploadUrl == null || authorization == null || token == null) {
-                AppLog.e(TAG, "获取上传凭证失败");
+            UploadCredential credential = requestUploadCredential(cloudPath);
+            if (credential == null) {
                 return null;
             }
             
             // 第二步：上传文件
             AppLog.d(TAG, "开始上传文件: " + file.getName() + " -> " + cloudPath);
+            return uploadWithCredential(credential, cloudPath, file.getName(),
+                    RequestBody.create(MediaType.parse(mimeTypeOf(cloudPath)), file));
             
-            String mimeType = cloudPath.endsWith(".jpg") || cloudPath.endsWith(".jpeg") 
-                    ? "image/jpeg" 
-                    : cloudPath.endsWith(".png") ? "image/png" 
-                    : cloudPath.endsWith(".mp4") ? "video/mp4" 
-                    : "application/octet-stream";
-            
-            MultipartBody.Builder multipartBuilder = new MultipartBody.Builder()
-                    .setType(MultipartBody.FORM)
-                    .addFormDataPart("key", cloudPath)
-                    .addFormDataPart("Signature", authorization)
-                    .addFormDataPart("x-cos-security-token", token)
-                    .addFormDataPart("x-cos-meta-fileid", cosFileId)
-                    .addFormDataPart("file", file.getName(),
-                            RequestBody.create(MediaType.parse(mimeType), file));
-            
-            Request uploadRequest = new Request.Builder()
-                    .url(uploadUrl)
-                    .post(multipartBuilder.build())
-                    .build();
+        } catch (Exception e) {
+            AppLog.e(TAG, "上传文件异常", e);
+            return null;
+        }
+    }
+
+    /**
+     * 云存储上传凭证（uploadfile 接口返回）
+     */
+    private static class UploadCredential {
+        String uploadUrl;
+        String authorization;
+        String token;
+        String cosFileId;
+        String fileId;
+        long obtainedAt;
+    }
+
+    /**
+     * 获取指定路径的上传凭证（调用前需已刷新 access_token）
+     * @return 凭证，失败返回 null
+     */
+    private UploadCredential requestUploadCredential(String cloudPath) throws IOException {
+        String url = UPLOAD_FILE_URL + "?access_token=" + accessToken;
+        
+        JsonObject body = new JsonObject();
+        body.addProperty("env", cloudEnv);
+        body.addProperty("path", cloudPath);
+        
+        Request request = new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(
+                        MediaType.parse("application/json; charset=utf-8"),
+                        gson.toJson(body)
+                ))
+                .build();
+        
+        UploadCredential credential = new UploadCredential();
+        
+        try (Response response = httpClient.newCall(request).execute()) {
+            String responseBody = response.body() != null ? response.body().string() : "";
+            AppLog.d(TAG, "获取上传链接响应: " + responseBody);
             
-            try (Response uploadResponse = httpClient.newCall(uploadRequest).execute()) {
-                if (uploadResponse.isSuccessful()) {
-                    AppLog.d(TAG, "文件上传成功: " + fileId);
-                    return fileId;
-                } else {
-                    String errorBody = uploadResponse.body() != null ? uploadResponse.body().string() : "";
-                    AppLog.e(TAG, "文件上传失败: " + uploadResponse.code() + " - " + errorBody);
+            if (response.isSuccessful()) {
+                JsonObject result = gson.fromJson(responseBody, JsonObject.class);
+                if (result.has("errcode") && result.get("errcode").getAsInt() != 0) {
+                    AppLog.e(TAG, "获取上传链接失败: " + responseBody);
                     return null;
                 }
+                
+                credential.uploadUrl = result.has("url") ? result.get("url").getAsString() : null;
+                credential.authorization = result.has("authorization") ? result.get("authorization").getAsString() : null;
+                credential.token = result.has("token") ? result.get("token").getAsString() : null;
+                credential.cosFileId = result.has("cos_file_id") ? result.get("cos_file_id").getAsString() : null;
+                credential.fileId = result.has("file_id") ? result.get("file_id").getAsString() : null;
             }
-            
-        } catch (Exception e) {
-            AppLog.e(TAG, "上传文件异常", e);
+        }
+        
+        if (credential.uploadUrl == null || credential.authorization == null || credential.token == null) {
+            AppLog.e(TAG, "获取上传凭证失败");
             return null;
         }
+        credential.obtainedAt = System.currentTimeMillis();
+        return credential;
+    }
+
+    /**
+     * 使用上传凭证把数据上传到 COS
+     * @return 云存储 fileID，失败返回 null
+     */
+    private String uploadWithCredential(UploadCredential credential, String cloudPath, String fileName,
+                                        RequestBody fileBody) throws IOException {
+        MultipartBody.Builder multipartBuilder = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("key", cloudPath)
+                .addFormDataPart("Signature", credential.authorization)
+                .addFormDataPart("x-cos-security-token", credential.token)
+                .addFormDataPart("x-cos-meta-fileid", credential.cosFileId)
+                .addFormDataPart("file", fileName, fileBody);
+        
+        Request uploadRequest = new Request.Builder()
+                .url(credential.uploadUrl)
+                .post(multipartBuilder.build())
+                .build();
+        
+        try (Response uploadResponse = httpClient.newCall(uploadRequest).execute()) {
+            if (uploadResponse.isSuccessful()) {
+                AppLog.d(TAG, "文件上传成功: " + credential.fileId);
+                return credential.fileId;
+            } else {
+                String errorBody = uploadResponse.body() != null ? uploadResponse.body().string() : "";
+                AppLog.e(TAG, "文件上传失败: " + uploadResponse.code() + " - " + errorBody);
+                return null;
+            }
+        }
+    }
+
+    private static String mimeTypeOf(String cloudPath) {
+        return cloudPath.endsWith(".jpg") || cloudPath.endsWith(".jpeg") 
+                ? "image/jpeg" 
+                : cloudPath.endsWith(".png") ? "image/png" 
+                : cloudPath.endsWith(".mp4") ? "video/mp4" 
+                : "application/octet-stream";
     }
     
     /**
-     * 上传预览帧
+     * 上传预览帧（异步）
      */
     public void uploadPreviewFrame(byte[] jpegData, PreviewCallback callback) {
         new Thread(() -> {
-            try {
-                if (!refreshAccessToken()) {
-                    return;
-                }
-                
-                String deviceId = config.getDeviceId();
-                long now = System.currentTimeMillis();
-                String cloudPath = "preview/" + deviceId + "/frame.jpg";
-                
-                // 创建临时文件
-                File tempFile = new File(context.getCacheDir(), "preview_frame.jpg");
-                try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-                    fos.write(jpegData);
+            String fileId = uploadPreviewFrameSync(jpegData);
+            if (fileId != null && callback != null) {
+                mainHandler.post(() -> callback.onPreviewUploaded(fileId));
+            }
+        }).start();
+    }
+
+    /**
+     * 同步上传预览帧（在调用线程上执行，由预览上传管线的工作线程调用）
+     * 预览帧固定写入同一路径，上传凭证在有效期内复用，每帧只需一次上传 + 一次数据库更新；
+     * JPEG 直接从内存上传，不写临时文件
+     * @return 云存储 fileID，失败返回 null
+     */
+    public String uploadPreviewFrameSync(byte[] jpegData) {
+        try {
+            if (!refreshAccessToken()) {
+                return null;
+            }
+            
+            String deviceId = config.getDeviceId();
+            String cloudPath = "preview/" + deviceId + "/frame.jpg";
+            RequestBody frameBody = RequestBody.create(jpegData, MediaType.parse("image/jpeg"));
+            
+            UploadCredential credential = obtainPreviewCredential(cloudPath);
+            if (credential == null) {
+                return null;
+            }
+            String fileId = uploadWithCredential(credential, cloudPath, "frame.jpg", frameBody);
+            if (fileId == null) {
+                // 凭证可能已失效：丢弃缓存，重新获取后重试一次
+                synchronized (this) {
+                    previewCredential = null;
                 }
-                
-                // 上传
-                String fileId = uploadFileToCloud(tempFile, cloudPath);
-                
-                // 删除临时文件
-                tempFile.delete();
-                
-                if (fileId != null) {
-                    // 更新设备的预览信息
-                    String query = "db.collection(\"devices\").where({deviceId:\"" + deviceId + "\"}).update({data:{" +
-                            "previewFileId:\"" + escapeString(fileId) + "\"," +
-                            "previewTime:" + now +
-                            "}})";
-                    executeDbUpdate(query);
-                    
-                    if (callback != null) {
-                        mainHandler.post(() -> callback.onPreviewUploaded(fileId));
-                    }
+                credential = obtainPreviewCredential(cloudPath);
+                if (credential == null) {
+                    return null;
                 }
-            } catch (Exception e) {
-                AppLog.e(TAG, "上传预览帧失败", e);
+                fileId = uploadWithCredential(credential, cloudPath, "frame.jpg", frameBody);
             }
-        }).start();
+            
+            if (fileId != null) {
+                // 更新设备的预览信息
+                long now = System.currentTimeMillis();
+                String query = "db.collection(\"devices\").where({deviceId:\"" + deviceId + "\"}).update({data:{" +
+                        "previewFileId:\"" + escapeString(fileId) + "\"," +
+                        "previewTime:" + now +
+                        "}})";
+                executeDbUpdate(query);
+            }
+            return fileId;
+        } catch (Exception e) {
+            AppLog.e(TAG, "上传预览帧失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 获取预览路径的上传凭证（有效期内复用缓存）
+     */
+    private UploadCredential obtainPreviewCredential(String cloudPath) throws IOException {
+        synchronized (this) {
+            if (previewCredential != null && cloudPath.equals(previewCredentialPath)
+                    && System.currentTimeMillis() - previewCredential.obtainedAt < PREVIEW_CREDENTIAL_TTL_MS) {
+                return previewCredential;
+            }
+        }
+        UploadCredential credential = requestUploadCredential(cloudPath);
+        synchronized (this) {
+            previewCredential = credential;
+            previewCredentialPath = cloudPath;
+        }
+        return credential;
     }
     
     /**
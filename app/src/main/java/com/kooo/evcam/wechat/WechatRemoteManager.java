@@ -6,14 +6,20 @@ import android.os.Handler;
 import android.os.Looper;
 import android.widget.Toast;
 
+import com.kooo.evcam.AppConfig;
 import com.kooo.evcam.AppLog;
 import com.kooo.evcam.WakeUpHelper;
+import com.kooo.evcam.camera.FrameChangeDetector;
+import com.kooo.evcam.camera.FrameLumaSampler;
 import com.kooo.evcam.remote.upload.MediaFileFinder;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 微信远程服务管理器
@@ -22,8 +28,13 @@ import java.util.List;
 public class WechatRemoteManager {
     private static final String TAG = "WechatRemoteManager";
     
-    // 预览流间隔
+    // 预览流间隔（最小值，链路慢时按上传耗时自动放大）
     private static final long PREVIEW_INTERVAL = 2000; // 2秒
+    // 每隔多少帧输出一次预览上传统计
+    private static final int PREVIEW_STATS_LOG_EVERY = 10;
+    // 画面无变化时最长跳过时长（到期后强制上传，保证小程序端画面时间戳刷新）
+    private static final long PREVIEW_MAX_UNCHANGED_MS = 30000;
+    private static final String PREVIEW_STREAM_KEY = "preview";
     
     private final Context context;
     private final WechatMiniConfig config;
@@ -34,6 +45,11 @@ public class WechatRemoteManager {
     private boolean isPreviewStreaming = false;
     private Handler previewHandler;
     private Runnable previewRunnable;
+    private PreviewUploadPipeline previewPipeline;
+    private ExecutorService previewCaptureExecutor;
+    private final AtomicBoolean isCapturingPreview = new AtomicBoolean(false);
+    private final FrameChangeDetector previewChangeDetector = new FrameChangeDetector(PREVIEW_MAX_UNCHANGED_MS);
+    private int previewTickCount = 0;
     
     // 当前命令ID
     private String currentCommandId;
@@ -228,6 +244,10 @@ public class WechatRemoteManager {
      */
     public void stopService() {
         stopPreviewStream();
+        if (previewCaptureExecutor != null) {
+            previewCaptureExecutor.shutdown();
+            previewCaptureExecutor = null;
+        }
         
         if (cloudManager != null) {
             cloudManager.stop();
@@ -507,6 +527,8 @@ public class WechatRemoteManager {
 
     /**
      * 启动预览流
+     * 抓帧在单独的抓拍线程上执行，上传交给单工作线程的预览上传管线（只保留最新帧），
+     * 抓帧间隔随上传耗时自适应
      */
     public void startPreviewStream() {
         if (isPreviewStreaming) {
@@ -516,6 +538,18 @@ public class WechatRemoteManager {
         
         AppLog.d(TAG, "启动预览流");
         isPreviewStreaming = true;
+        previewTickCount = 0;
+        
+        if (previewCaptureExecutor == null) {
+            previewCaptureExecutor = Executors.newSingleThreadExecutor();
+        }
+        previewChangeDetector.setThreshold(new AppConfig(context).getFrameChangeThreshold());
+        previewChangeDetector.reset();
+        previewPipeline = new PreviewUploadPipeline(jpeg -> {
+            WechatCloudManager manager = cloudManager;
+            return manager != null && manager.uploadPreviewFrameSync(jpeg) != null;
+        });
+        previewPipeline.start();
         
         previewRunnable = new Runnable() {
             @Override
@@ -523,7 +557,12 @@ public class WechatRemoteManager {
                 if (!isPreviewStreaming) return;
                 
                 captureAndUploadPreviewFrame();
-                previewHandler.postDelayed(this, PREVIEW_INTERVAL);
+                PreviewUploadPipeline pipeline = previewPipeline;
+                long interval = pipeline != null ? pipeline.getSuggestedIntervalMs(PREVIEW_INTERVAL) : PREVIEW_INTERVAL;
+                if (pipeline != null && ++previewTickCount % PREVIEW_STATS_LOG_EVERY == 0) {
+                    AppLog.d(TAG, "预览上传统计: " + pipeline.getStatsSummary() + ", 间隔=" + interval + "ms");
+                }
+                previewHandler.postDelayed(this, interval);
             }
         };
         
@@ -543,10 +582,16 @@ public class WechatRemoteManager {
             previewHandler.removeCallbacks(previewRunnable);
             previewRunnable = null;
         }
+        if (previewPipeline != null) {
+            previewPipeline.stop();
+            AppLog.d(TAG, "预览上传统计: " + previewPipeline.getStatsSummary()
+                    + ", 变化检测: " + previewChangeDetector.getStatsSummary());
+            previewPipeline = null;
+        }
     }
 
     /**
-     * 捕获并上传预览帧
+     * 捕获预览帧并提交到上传管线
      */
     private void captureAndUploadPreviewFrame() {
         if (cloudManager == null || !cloudManager.isRunning()) {
@@ -559,19 +604,40 @@ public class WechatRemoteManager {
             return;
         }
         
-        // 在后台线程执行
-        new Thread(() -> {
+        // 上一帧还在抓拍时跳过本次
+        if (!isCapturingPreview.compareAndSet(false, true)) {
+            return;
+        }
+        final PreviewUploadPipeline pipeline = previewPipeline;
+        previewCaptureExecutor.execute(() -> {
             try {
+                long captureTime = System.nanoTime();
                 byte[] jpegData = executor.capturePreviewFrame();
-                if (jpegData != null && jpegData.length > 0) {
-                    cloudManager.uploadPreviewFrame(jpegData, fileId -> {
-                        AppLog.d(TAG, "预览帧上传成功");
-                    });
+                if (jpegData != null && jpegData.length > 0 && pipeline != null) {
+                    // 画面与上次上传时无变化则跳过
+                    if (previewChangeDetector.isEnabled()) {
+                        int[] grid = FrameLumaSampler.fromJpeg(jpegData);
+                        long now = System.currentTimeMillis();
+                        if (previewChangeDetector.isUnchanged(PREVIEW_STREAM_KEY, grid, now)) {
+                            previewChangeDetector.recordFrame(true, jpegData.length);
+                            return;
+                        }
+                        // 只有真正上传成功的帧才作为比较基准（被新帧覆盖或上传失败的帧不算）
+                        final int uploadedBytes = jpegData.length;
+                        pipeline.offer(jpegData, captureTime, () -> {
+                            previewChangeDetector.markSent(PREVIEW_STREAM_KEY, grid, now);
+                            previewChangeDetector.recordFrame(false, uploadedBytes);
+                        });
+                        return;
+                    }
+                    pipeline.offer(jpegData, captureTime);
                 }
             } catch (Exception e) {
                 AppLog.e(TAG, "捕获预览帧失败", e);
+            } finally {
+                isCapturingPreview.set(false);
             }
-        }).start();
+        });
     }
 
     /**
@@ -664,9 +730,9 @@ public class WechatRemoteManager {
         
         AppLog.d(TAG, "找到 " + videoFiles.size() + " 个视频，开始上传到微信云");
         
-        // 上传视频
+        // 上传视频（有代理子码流时上传代理文件，原文件照常传输到最终目录）
         final List<File> filesToTransfer = videoFiles;
-        uploadVideos(videoFiles, commandId, (successCount, failCount, fileIds) -> {
+        uploadVideos(mediaFileFinder.preferProxyFiles(videoFiles), commandId, (successCount, failCount, fileIds) -> {
             if (successCount > 0) {
                 AppLog.d(TAG, "微信视频上传完成: 成功" + successCount + "个，失败" + failCount + "个");
                 reportCommandResult(commandId, true, "录制完成，已上传" + successCount + "个视频");
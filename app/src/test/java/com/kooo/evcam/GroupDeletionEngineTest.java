@@ -0,0 +1,177 @@
+package com.kooo.evcam;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * GroupDeletionEngine 测试（临时目录中的真实文件 + 独立的媒体索引实例）
+ */
+public class GroupDeletionEngineTest {
+
+    private static final String[] POSITIONS = {"front", "back", "left", "right"};
+
+    private File baseDir;
+    private File videoDir;
+    private File proxyDir;
+    private MediaIndex mediaIndex;
+
+    @Before
+    public void setUp() throws IOException {
+        baseDir = File.createTempFile("group_deletion", "");
+        assertTrue(baseDir.delete());
+        videoDir = new File(baseDir, "video");
+        proxyDir = new File(videoDir, StorageHelper.PROXY_DIR_NAME);
+        assertTrue(proxyDir.mkdirs());
+        mediaIndex = new MediaIndex(baseDir);
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(baseDir);
+    }
+
+    @Test
+    public void buildGroupsOrdersByFileNameTimestamp() throws IOException {
+        // 写入顺序与时间顺序不同，修改时间也不可信，只按文件名排序
+        writeSegment(videoDir, "20260102_080000_front.mp4", 100);
+        writeSegment(videoDir, "20260101_120000_front.mp4", 200);
+        writeSegment(videoDir, "20260101_120000_back.mp4", 300);
+        writeSegment(videoDir, "20260101_090000_left.mp4", 400);
+
+        List<GroupDeletionEngine.MediaGroup> groups = GroupDeletionEngine.buildGroups(mediaIndex.list(videoDir));
+
+        assertEquals(3, groups.size());
+        assertEquals("20260101_090000", groups.get(0).getKey());
+        assertEquals("20260101_120000", groups.get(1).getKey());
+        assertEquals("20260102_080000", groups.get(2).getKey());
+        assertEquals(2, groups.get(1).getEntries().size());
+        assertEquals(500, groups.get(1).getBytes());
+        assertTrue(groups.get(0).getTimestampMs() < groups.get(1).getTimestampMs());
+    }
+
+    @Test
+    public void selectOldestStopsAtTargetAndSkipsRecordingGroups() throws IOException {
+        writeGroup("20260101_080000", 1000);
+        writeGroup("20260101_080100", 1000);
+        writeGroup("20260101_080200", 1000);
+        writeGroup("20260101_080300", 1000);
+        // 第二组中有一路仍在写入
+        mediaIndex.markRecording(new File(videoDir, "20260101_080100_left.mp4"));
+
+        List<GroupDeletionEngine.MediaGroup> groups = GroupDeletionEngine.buildGroups(mediaIndex.list(videoDir));
+        assertTrue(groups.get(1).isRecording());
+
+        List<GroupDeletionEngine.MediaGroup> selected = GroupDeletionEngine.selectOldest(groups, 5000);
+        assertEquals(2, selected.size());
+        assertEquals("20260101_080000", selected.get(0).getKey());
+        assertEquals("20260101_080200", selected.get(1).getKey());
+
+        // 目标为 0 时不选取任何组；目标超过全部可删除大小时只返回未在写入的组
+        assertTrue(GroupDeletionEngine.selectOldest(groups, 0).isEmpty());
+        assertEquals(3, GroupDeletionEngine.selectOldest(groups, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void deleteGroupsLeavesNoPartialGroups() throws IOException {
+        // 40 组 × 4 路 = 160 个文件，超过单个批次的文件数，会分成多个批次并行删除
+        int groupCount = 40;
+        long totalBytes = 0;
+        for (int i = 0; i < groupCount; i++) {
+            totalBytes += writeGroup(groupKey(i), 1000 + i);
+        }
+        List<GroupDeletionEngine.MediaGroup> groups = GroupDeletionEngine.buildGroups(mediaIndex.list(videoDir));
+        List<GroupDeletionEngine.MediaGroup> selected = GroupDeletionEngine.selectOldest(groups, totalBytes / 2);
+
+        GroupDeletionEngine.Result result = new GroupDeletionEngine(mediaIndex).deleteGroups(selected, "视频");
+
+        assertEquals(selected.size(), result.deletedGroups);
+        assertEquals(selected.size() * POSITIONS.length, result.deletedFiles);
+        assertEquals(0, result.failedFiles);
+        long remainingBytes = 0;
+        for (int i = 0; i < groupCount; i++) {
+            int present = 0;
+            for (String position : POSITIONS) {
+                File file = new File(videoDir, groupKey(i) + "_" + position + ".mp4");
+                if (file.exists()) {
+                    present++;
+                    remainingBytes += file.length();
+                }
+            }
+            // 每组要么完整保留，要么整体删除；删除的是最旧的组
+            boolean shouldBeDeleted = i < selected.size();
+            assertEquals(groupKey(i), shouldBeDeleted ? 0 : POSITIONS.length, present);
+        }
+        assertEquals(totalBytes - result.deletedBytes, remainingBytes);
+        // 删除同步更新索引账本
+        assertEquals(remainingBytes, mediaIndex.getTotalSize(videoDir));
+        assertEquals((groupCount - selected.size()) * POSITIONS.length, mediaIndex.list(videoDir).size());
+    }
+
+    @Test
+    public void proxiesAreCountedAndDeletedWithTheirGroup() throws IOException {
+        writeGroup("20260101_080000", 1000);
+        writeGroup("20260101_080100", 1000);
+        writeSegment(proxyDir, "20260101_080000_front.mp4", 100);
+        writeSegment(proxyDir, "20260101_080000_back.mp4", 100);
+        // 主分段已不存在的孤立代理不归组
+        writeSegment(proxyDir, "20251231_235900_front.mp4", 100);
+
+        List<GroupDeletionEngine.MediaGroup> groups = GroupDeletionEngine.buildGroups(
+                mediaIndex.list(videoDir), mediaIndex.list(proxyDir));
+        assertEquals(2, groups.size());
+        assertEquals(2, groups.get(0).getProxies().size());
+        assertEquals(4 * 1000 + 2 * 100, groups.get(0).getBytes());
+        assertTrue(groups.get(1).getProxies().isEmpty());
+
+        List<GroupDeletionEngine.MediaGroup> selected = new ArrayList<>();
+        selected.add(groups.get(0));
+        GroupDeletionEngine.Result result = new GroupDeletionEngine(mediaIndex).deleteGroups(selected, "视频");
+
+        assertEquals(POSITIONS.length + 2, result.deletedFiles);
+        assertEquals(4 * 1000 + 2 * 100, result.deletedBytes);
+        assertFalse(new File(proxyDir, "20260101_080000_front.mp4").exists());
+        assertFalse(new File(proxyDir, "20260101_080000_back.mp4").exists());
+        assertTrue(new File(proxyDir, "20251231_235900_front.mp4").exists());
+        assertEquals(100, mediaIndex.getTotalSize(proxyDir));
+    }
+
+    private static String groupKey(int index) {
+        return String.format(Locale.US, "20260101_%02d%02d00", 8 + index / 60, index % 60);
+    }
+
+    /** 写入一个 4 路录制组，返回总字节数 */
+    private long writeGroup(String key, int bytesPerFile) throws IOException {
+        for (String position : POSITIONS) {
+            writeSegment(videoDir, key + "_" + position + ".mp4", bytesPerFile);
+        }
+        return (long) bytesPerFile * POSITIONS.length;
+    }
+
+    private void writeSegment(File dir, String name, int bytes) throws IOException {
+        File file = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[bytes]);
+        }
+        mediaIndex.put(file);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
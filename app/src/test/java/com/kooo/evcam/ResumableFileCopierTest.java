@@ -0,0 +1,259 @@
+package com.kooo.evcam;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResumableFileCopier 测试（通过 writeChunk/openTarget 模拟卡顿、出错的 U 盘）
+ */
+public class ResumableFileCopierTest {
+
+    private static final int CHUNK = 16 * 1024;
+    private static final int CHUNKS = 10;
+
+    private File dir;
+    private File source;
+    private File target;
+    private byte[] content;
+
+    /**
+     * 可编程故障的复制器：failChunk 处的写入先失败 failures 次；partialBytes > 0 时失败前只写入部分数据
+     */
+    private static class FaultyCopier extends ResumableFileCopier {
+        int failChunk = -1;
+        int failures;
+        int partialBytes;
+        boolean corruptInsteadOfFail;
+        int opens;
+
+        FaultyCopier(int maxRetries) {
+            super(CHUNK, maxRetries, 0);
+        }
+
+        @Override
+        protected void writeChunk(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+            if (position == (long) failChunk * CHUNK && failures > 0) {
+                failures--;
+                if (corruptInsteadOfFail) {
+                    // 写入路径损坏一个字节：读回校验不一致
+                    ByteBuffer corrupted = ByteBuffer.allocate(buffer.limit());
+                    ByteBuffer data = buffer.duplicate();
+                    data.rewind();
+                    corrupted.put(data);
+                    corrupted.put(0, (byte) (corrupted.get(0) ^ 0xFF));
+                    corrupted.flip();
+                    target.write(corrupted, position);
+                    return;
+                }
+                if (partialBytes > 0) {
+                    ByteBuffer data = buffer.duplicate();
+                    data.rewind();
+                    data.limit(partialBytes);
+                    target.write(data, position);
+                }
+                throw new IOException("Write stalled at " + position);
+            }
+            super.writeChunk(target, buffer, position);
+        }
+
+        @Override
+        protected FileChannel openTarget(File target) throws IOException {
+            opens++;
+            return super.openTarget(target);
+        }
+    }
+
+    /** 记录进度的回调，可在第 interruptAtChunk 块之前中断 */
+    private static class RecordingCallback implements ResumableFileCopier.Callback {
+        int chunks;
+        int interruptAtChunk = -1;
+        long lastProgress = -1;
+
+        @Override
+        public void beforeChunk(long bytes) throws InterruptedException {
+            if (chunks++ == interruptAtChunk) {
+                throw new InterruptedException();
+            }
+        }
+
+        @Override
+        public void onProgress(long verifiedOffset) {
+            assertTrue("progress must not go backwards", verifiedOffset >= lastProgress || lastProgress < 0);
+            lastProgress = verifiedOffset;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("resumable_copier", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        source = new File(dir, "source.mp4");
+        target = new File(dir, "target.mp4");
+        content = new byte[CHUNK * CHUNKS + 777];
+        new Random(11).nextBytes(content);
+        writeBytes(source, content);
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void cleanCopyMatchesSourceAndCrc() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        ResumableFileCopier.Result result = new ResumableFileCopier(CHUNK, 0, 0).copy(source, target, 0, callback);
+
+        assertArrayEquals(content, readBytes(target));
+        assertEquals(content.length, result.size);
+        assertEquals(content.length, result.bytesWritten);
+        assertEquals(0, result.resumedFrom);
+        assertEquals(0, result.retries);
+        assertEquals(crc32c(content), result.crc32c);
+        assertEquals(content.length, callback.lastProgress);
+        assertEquals(CHUNKS + 1, callback.chunks);
+    }
+
+    @Test
+    public void stallRetriesFromLastVerifiedOffsetOnReopenedTarget() throws Exception {
+        FaultyCopier copier = new FaultyCopier(3);
+        copier.failChunk = 4;
+        copier.failures = 2;
+        copier.partialBytes = CHUNK / 3;  // 卡顿前写入了一部分，重试前要截掉
+
+        ResumableFileCopier.Result result = copier.copy(source, target, 0, new RecordingCallback());
+
+        assertArrayEquals(content, readBytes(target));
+        assertEquals(2, result.retries);
+        assertEquals(content.length, result.bytesWritten);
+        // 首次打开 + 每次重试重新打开
+        assertEquals(3, copier.opens);
+    }
+
+    @Test
+    public void readBackMismatchIsRetried() throws Exception {
+        FaultyCopier copier = new FaultyCopier(3);
+        copier.failChunk = 2;
+        copier.failures = 1;
+        copier.corruptInsteadOfFail = true;
+
+        ResumableFileCopier.Result result = copier.copy(source, target, 0, new RecordingCallback());
+
+        assertArrayEquals(content, readBytes(target));
+        assertEquals(1, result.chunkMismatches);
+        assertEquals(1, result.retries);
+    }
+
+    @Test
+    public void exhaustedRetriesKeepVerifiedPrefixForResume() throws Exception {
+        FaultyCopier copier = new FaultyCopier(2);
+        copier.failChunk = 6;
+        copier.failures = Integer.MAX_VALUE;
+        RecordingCallback callback = new RecordingCallback();
+        try {
+            copier.copy(source, target, 0, callback);
+            fail("copy should fail after retries");
+        } catch (IOException expected) {
+            // 重试次数用尽
+        }
+        long verified = 6L * CHUNK;
+        assertEquals(verified, callback.lastProgress);
+        assertEquals(verified, target.length());
+
+        // U 盘恢复后从最后可信偏移续传
+        ResumableFileCopier.Result result = new ResumableFileCopier(CHUNK, 0, 0)
+                .copy(source, target, verified, new RecordingCallback());
+        assertEquals(verified, result.resumedFrom);
+        assertFalse(result.prefixMismatch);
+        assertEquals(content.length - verified, result.bytesWritten);
+        assertArrayEquals(content, readBytes(target));
+    }
+
+    @Test
+    public void prefixMismatchRecopiesFromScratch() throws Exception {
+        // 断电后检查点之前的数据没有正确落盘
+        byte[] damaged = Arrays.copyOf(content, 4 * CHUNK);
+        damaged[CHUNK + 5] ^= 0x55;
+        writeBytes(target, damaged);
+
+        ResumableFileCopier.Result result = new ResumableFileCopier(CHUNK, 0, 0)
+                .copy(source, target, 4L * CHUNK, new RecordingCallback());
+
+        assertTrue(result.prefixMismatch);
+        assertEquals(0, result.resumedFrom);
+        assertEquals(content.length, result.bytesWritten);
+        assertArrayEquals(content, readBytes(target));
+    }
+
+    @Test
+    public void resumeOffsetIsClampedToTargetLength() throws Exception {
+        writeBytes(target, Arrays.copyOf(content, 2 * CHUNK + 100));
+
+        ResumableFileCopier.Result result = new ResumableFileCopier(CHUNK, 0, 0)
+                .copy(source, target, 5L * CHUNK, new RecordingCallback());
+
+        assertEquals(2L * CHUNK + 100, result.resumedFrom);
+        assertArrayEquals(content, readBytes(target));
+    }
+
+    @Test
+    public void interruptKeepsWrittenPrefix() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        callback.interruptAtChunk = 3;
+        try {
+            new ResumableFileCopier(CHUNK, 0, 0).copy(source, target, 0, callback);
+            fail("copy should be interrupted");
+        } catch (InterruptedException expected) {
+            // 服务停止
+        }
+        assertEquals(3L * CHUNK, callback.lastProgress);
+        assertArrayEquals(Arrays.copyOf(content, 3 * CHUNK), readBytes(target));
+    }
+
+    private static long crc32c(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                read += in.read(data, read, data.length - read);
+            }
+        }
+        return data;
+    }
+
+    private static void writeBytes(File file, byte[] data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,195 @@
+package com.kooo.evcam;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * SpaceReservationPlanner 模拟测试（模拟文件系统，不依赖 Android）
+ */
+public class SpaceReservationPlannerTest {
+
+    private static final long MB = 1024L * 1024L;
+    private static final long GB = 1024L * MB;
+
+    /**
+     * 模拟文件系统：固定容量，录制组按写入顺序保存，可用空间不足时写入失败（ENOSPC）
+     */
+    private static class FakeStorage implements SpaceReservationPlanner.Storage {
+        final long capacityBytes;
+        final Map<String, Long> groups = new LinkedHashMap<>();
+        long otherBytes;       // 其他应用占用
+        long usedBytes;
+        int enospcCount;
+        int deleteCalls;
+
+        FakeStorage(long capacityBytes) {
+            this.capacityBytes = capacityBytes;
+        }
+
+        /** 写入一个分段组，空间不足时返回 false */
+        boolean write(String key, long bytes) {
+            if (getAvailableBytes() < bytes) {
+                enospcCount++;
+                return false;
+            }
+            groups.put(key, bytes);
+            usedBytes += bytes;
+            return true;
+        }
+
+        @Override
+        public long getAvailableBytes() {
+            return capacityBytes - otherBytes - usedBytes;
+        }
+
+        @Override
+        public long getUsedBytes() {
+            return usedBytes;
+        }
+
+        @Override
+        public List<SpaceReservationPlanner.Group> getGroupsOldestFirst() {
+            List<SpaceReservationPlanner.Group> result = new ArrayList<>();
+            for (Map.Entry<String, Long> entry : groups.entrySet()) {
+                result.add(new SpaceReservationPlanner.Group(entry.getKey(), entry.getValue()));
+            }
+            return result;
+        }
+
+        @Override
+        public long deleteGroups(List<SpaceReservationPlanner.Group> toDelete) {
+            deleteCalls++;
+            long freed = 0;
+            for (SpaceReservationPlanner.Group group : toDelete) {
+                Long bytes = groups.remove(group.getKey());
+                if (bytes != null) {
+                    usedBytes -= bytes;
+                    freed += bytes;
+                }
+            }
+            return freed;
+        }
+    }
+
+    @Test
+    public void estimateSegmentBytes_fromBitrateAndDuration() {
+        // 4 路 8Mbps，1 分钟：32Mbps * 60s / 8 = 240MB
+        assertEquals(240000000L, SpaceReservationPlanner.estimateSegmentBytes(4 * 8000000L, 60000));
+        assertEquals(0, SpaceReservationPlanner.estimateSegmentBytes(0, 60000));
+        assertEquals(0, SpaceReservationPlanner.estimateSegmentBytes(8000000L, 0));
+    }
+
+    @Test
+    public void computeNeedToFree_usesTighterOfDiskAndLimit() {
+        // 磁盘剩余 100，预留 300 -> 释放 200
+        assertEquals(200, SpaceReservationPlanner.computeNeedToFree(300, 100, 0, 0));
+        // 磁盘充足，但已用 900 + 预留 300 超过限制 1000 -> 释放 200
+        assertEquals(200, SpaceReservationPlanner.computeNeedToFree(300, 10000, 900, 1000));
+        // 可用空间未知时只看限制
+        assertEquals(0, SpaceReservationPlanner.computeNeedToFree(300, -1, 100, 1000));
+        assertEquals(0, SpaceReservationPlanner.computeNeedToFree(300, 10000, 100, 0));
+    }
+
+    @Test
+    public void reserve_noDeletionWhenSpaceSufficient() {
+        FakeStorage storage = new FakeStorage(100 * GB);
+        storage.write("20260101_000000", 240 * MB);
+
+        SpaceReservationPlanner planner = new SpaceReservationPlanner();
+        SpaceReservationPlanner.Result result = planner.reserve(storage, 32000000L, 60000, 0);
+
+        assertEquals(0, result.deletedGroups);
+        assertEquals(0, storage.deleteCalls);
+        assertTrue(result.isSatisfied());
+    }
+
+    @Test
+    public void reserve_deletesOldestGroupsFirst() {
+        FakeStorage storage = new FakeStorage(1 * GB);
+        storage.write("A", 300 * MB);
+        storage.write("B", 300 * MB);
+        storage.write("C", 300 * MB);
+
+        // 预留 2 个 240MB 分段（无余量）= 480MB，可用约 124MB -> 需要删除 A 和 B
+        SpaceReservationPlanner planner = new SpaceReservationPlanner(2, 0);
+        SpaceReservationPlanner.Result result = planner.reserve(storage, 32000000L, 60000, 0);
+
+        assertEquals(2, result.deletedGroups);
+        assertEquals("A", result.deletedKeys.get(0));
+        assertEquals("B", result.deletedKeys.get(1));
+        // 选中的组一次批量删除
+        assertEquals(1, storage.deleteCalls);
+        assertTrue(storage.groups.containsKey("C"));
+        assertTrue(storage.getAvailableBytes() >= result.reservationBytes);
+    }
+
+    @Test
+    public void reserve_reportsUnsatisfiedWhenNothingLeftToDelete() {
+        FakeStorage storage = new FakeStorage(1 * GB);
+        storage.otherBytes = 900 * MB;
+
+        SpaceReservationPlanner.Result result = new SpaceReservationPlanner().reserve(storage, 32000000L, 60000, 0);
+
+        assertTrue(result.needToFreeBytes > 0);
+        assertEquals(0, result.freedBytes);
+        assertFalse(result.isSatisfied());
+    }
+
+    /**
+     * 模拟 4 路高码率长时间录制：每个分段切换时先预留再写入，
+     * 实际分段大小在预估值上下波动，全程不应出现 ENOSPC
+     */
+    @Test
+    public void simulation_continuousRecordingNeverRunsOutOfSpace() {
+        long totalBitrate = 4 * 12000000L;       // 4 路 12Mbps
+        long segmentDurationMs = 60000;          // 1 分钟分段
+        long estimate = SpaceReservationPlanner.estimateSegmentBytes(totalBitrate, segmentDurationMs);
+
+        FakeStorage storage = new FakeStorage(32 * GB);
+        storage.otherBytes = 2 * GB;
+        SpaceReservationPlanner planner = new SpaceReservationPlanner();
+        java.util.Random random = new java.util.Random(42);
+
+        int segments = 2000;  // 远超磁盘容量，必须持续循环覆盖
+        for (int i = 0; i < segments; i++) {
+            planner.reserve(storage, totalBitrate, segmentDurationMs, 0);
+            // 实际大小在预估值的 90%-110% 之间（VBR 码率波动）
+            long actual = (long) (estimate * (0.9 + random.nextDouble() * 0.2));
+            storage.write(String.format("seg_%05d", i), actual);
+        }
+
+        assertEquals(0, storage.enospcCount);
+        // 循环覆盖：保留的组数接近容量能容纳的数量，而不是被清得过空
+        long capacityForRecording = storage.capacityBytes - storage.otherBytes;
+        assertTrue(storage.usedBytes > capacityForRecording / 2);
+        // 最新的分段一定保留
+        assertTrue(storage.groups.containsKey(String.format("seg_%05d", segments - 1)));
+    }
+
+    /**
+     * 模拟设置了存储限制：已用空间 + 预留始终不超过限制
+     */
+    @Test
+    public void simulation_respectsUserLimit() {
+        long totalBitrate = 2 * 8000000L;
+        long segmentDurationMs = 180000;
+        long limit = 5 * GB;
+
+        FakeStorage storage = new FakeStorage(64 * GB);
+        SpaceReservationPlanner planner = new SpaceReservationPlanner();
+        long estimate = SpaceReservationPlanner.estimateSegmentBytes(totalBitrate, segmentDurationMs);
+
+        for (int i = 0; i < 500; i++) {
+            planner.reserve(storage, totalBitrate, segmentDurationMs, limit);
+            storage.write(String.format("seg_%05d", i), estimate);
+            assertTrue("used " + storage.usedBytes + " exceeds limit at segment " + i, storage.usedBytes <= limit);
+        }
+        assertEquals(0, storage.enospcCount);
+    }
+}
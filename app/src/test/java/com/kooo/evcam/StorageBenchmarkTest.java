@@ -0,0 +1,183 @@
+package com.kooo.evcam;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * StorageBenchmark 测试（模拟限速存储，虚拟时钟，不依赖 Android）
+ */
+public class StorageBenchmarkTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    /**
+     * 模拟存储卷：写入按固定速率消耗虚拟时间，每隔若干次写入卡顿一次，fsync 固定耗时
+     */
+    private static class ThrottledVolume implements StorageBenchmark.IoBackend {
+        final long bytesPerSecond;
+        final int stallEveryWrites;     // 0 表示不卡顿
+        final long stallNs;
+        final long syncNs;
+        long nowNs = 0;
+        int writes = 0;
+        boolean deleted = false;
+        final List<Long> writePositions = new ArrayList<>();
+        final List<Integer> writeSizes = new ArrayList<>();
+
+        ThrottledVolume(long bytesPerSecond, int stallEveryWrites, long stallNs, long syncNs) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.stallEveryWrites = stallEveryWrites;
+            this.stallNs = stallNs;
+            this.syncNs = syncNs;
+        }
+
+        @Override
+        public StorageBenchmark.ScratchFile create(File file) {
+            return new StorageBenchmark.ScratchFile() {
+                @Override
+                public void write(ByteBuffer data, long position) {
+                    int size = data.remaining();
+                    data.position(data.limit());
+                    writePositions.add(position);
+                    writeSizes.add(size);
+                    writes++;
+                    nowNs += size * 1000000000L / bytesPerSecond;
+                    if (stallEveryWrites > 0 && writes % stallEveryWrites == 0) {
+                        nowNs += stallNs;
+                    }
+                }
+
+                @Override
+                public void sync() {
+                    nowNs += syncNs;
+                }
+
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public void delete() {
+                    deleted = true;
+                }
+            };
+        }
+    }
+
+    private static StorageBenchmark.Result run(ThrottledVolume volume, int chunkBytes) throws IOException {
+        StorageBenchmark benchmark = new StorageBenchmark(volume, 32 * MB, chunkBytes, 16) {
+            @Override
+            protected long nanoTime() {
+                return volume.nowNs;
+            }
+        };
+        return benchmark.run(new File("/fake"));
+    }
+
+    @Test
+    public void fastStableVolume_directWrite() throws IOException {
+        ThrottledVolume volume = new ThrottledVolume(40 * MB, 0, 0, 5000000L);
+        StorageBenchmark.Result result = run(volume, (int) MB);
+
+        // fsync 时间计入持续写入速率，略低于 40MB/s
+        assertTrue(result.writeBytesPerSec > 38 * MB && result.writeBytesPerSec <= 40 * MB);
+        assertEquals(25000, result.chunkP99Us, 1000);
+        assertEquals(5000, result.fsyncP50Us, 200);
+        assertTrue(volume.deleted);
+
+        StorageBenchmark.Decision decision = StorageBenchmark.decide(result, 4 * 8000000L);
+        assertTrue(decision.reason, decision.directWrite);
+        assertTrue(decision.bitrateCeilingBps > 4 * 8000000L);
+    }
+
+    @Test
+    public void slowVolume_relayWithBitrateCeiling() throws IOException {
+        ThrottledVolume volume = new ThrottledVolume(3 * MB, 0, 0, 20000000L);
+        StorageBenchmark.Result result = run(volume, (int) MB);
+
+        StorageBenchmark.Decision decision = StorageBenchmark.decide(result, 4 * 8000000L);
+        assertFalse(decision.directWrite);
+        // 3MB/s * 8 * 70% ≈ 17Mbps，低于 4 路 8Mbps
+        assertTrue(decision.bitrateCeilingBps < 4 * 8000000L);
+        assertTrue(decision.bitrateCeilingBps > 15000000L);
+    }
+
+    @Test
+    public void fastButStallingVolume_relayWithoutCapping() throws IOException {
+        // 速度足够，但每 10 次写入卡顿 800ms（p99 落在卡顿上）
+        ThrottledVolume volume = new ThrottledVolume(40 * MB, 10, 800000000L, 5000000L);
+        StorageBenchmark.Result result = run(volume, (int) MB);
+
+        assertTrue(result.chunkMaxUs >= 800000);
+        StorageBenchmark.Decision decision = StorageBenchmark.decide(result, 2 * 8000000L);
+        assertFalse(decision.reason, decision.directWrite);
+        assertTrue(decision.bitrateCeilingBps > 2 * 8000000L);
+    }
+
+    @Test
+    public void writesAreBlockAligned() throws IOException {
+        ThrottledVolume volume = new ThrottledVolume(40 * MB, 0, 0, 0);
+        run(volume, 1000);  // 向上对齐到 4KB
+
+        for (int i = 0; i < volume.writePositions.size(); i++) {
+            assertEquals(0, volume.writePositions.get(i) % 4096);
+            assertEquals(0, volume.writeSizes.get(i) % 4096);
+        }
+    }
+
+    @Test
+    public void capStreamBitrate_onlyLowersBitrate() {
+        // 不限制
+        assertEquals(8000000, StorageBenchmark.capStreamBitrate(8000000, 0, 4));
+        // 总上限 20Mbps 平分 4 路：每路 5Mbps
+        assertEquals(5000000, StorageBenchmark.capStreamBitrate(8000000, 20000000, 4));
+        assertEquals(3000000, StorageBenchmark.capStreamBitrate(3000000, 20000000, 4));
+        // 每路上限低于 500kbps 时按 500kbps 限制，但不会把更低的配置码率抬高
+        assertEquals(500000, StorageBenchmark.capStreamBitrate(8000000, 1000000, 4));
+        assertEquals(400000, StorageBenchmark.capStreamBitrate(400000, 1000000, 4));
+        assertEquals(300000, StorageBenchmark.capStreamBitrate(300000, 1000000, 4));
+    }
+
+    @Test
+    public void resultEncodeDecodeRoundTrip() {
+        StorageBenchmark.Result result = new StorageBenchmark.Result();
+        result.measuredAtMs = 1700000000000L;
+        result.writeBytesPerSec = 12345678;
+        result.chunkP50Us = 1;
+        result.chunkP99Us = 2;
+        result.chunkMaxUs = 3;
+        result.fsyncP50Us = 4;
+        result.fsyncP99Us = 5;
+        result.fsyncMaxUs = 6;
+        result.durationMs = 7;
+
+        StorageBenchmark.Result decoded = StorageBenchmark.Result.decode(result.encode());
+        assertNotNull(decoded);
+        assertEquals(result.encode(), decoded.encode());
+        assertNull(StorageBenchmark.Result.decode(null));
+        assertNull(StorageBenchmark.Result.decode("v0,1,2"));
+        assertNull(StorageBenchmark.Result.decode("v1,a,b,c,d,e,f,g,h,i"));
+    }
+
+    @Test
+    public void realFileBackend_measuresAndRemovesScratchFile() throws IOException {
+        File dir = File.createTempFile("storage_benchmark", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        try {
+            StorageBenchmark.Result result = new StorageBenchmark(new StorageBenchmark.FileChannelBackend(),
+                    2 * MB, 256 * 1024, 4).run(dir);
+            assertTrue(result.writeBytesPerSec > 0);
+            assertFalse(new File(dir, StorageBenchmark.SCRATCH_FILE_NAME).exists());
+        } finally {
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.kooo.evcam;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * TransferJournal 崩溃模拟测试
+ *
+ * “崩溃”即丢弃日志对象不调用 close（每条记录一次 write，与进程被杀等价），
+ * 或把日志文件截断到任意字节（模拟写到一半的记录），然后用新对象重放。
+ */
+public class TransferJournalTest {
+
+    private File dir;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("transfer_journal", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        journalFile = new File(dir, "transfer.journal");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void enqueuedTaskSurvivesCrash() {
+        File source = new File(dir, "temp/a.mp4");
+        File target = new File(dir, "usb/a.mp4");
+        new TransferJournal(journalFile).recordEnqueue(source, target);
+
+        List<TransferJournal.PendingTransfer> pending = new TransferJournal(journalFile).load();
+        assertEquals(1, pending.size());
+        assertEquals(source.getAbsolutePath(), pending.get(0).getSourceFile().getAbsolutePath());
+        assertEquals(target.getAbsolutePath(), pending.get(0).getTargetFile().getAbsolutePath());
+        assertFalse(pending.get(0).isStarted());
+        assertEquals(0, pending.get(0).getCheckpointOffset());
+    }
+
+    /**
+     * 依次执行 加入 -> 开始 -> 检查点 -> 检查点 -> 完成，在每一步之后崩溃并重放
+     */
+    @Test
+    public void crashAfterEveryStep_replaysLastRecordedState() {
+        File source = new File(dir, "temp/a.mp4");
+        File target = new File(dir, "usb/a.mp4");
+        int steps = 5;
+        for (int crashAfter = 0; crashAfter <= steps; crashAfter++) {
+            journalFile.delete();
+            TransferJournal journal = new TransferJournal(journalFile);
+            if (crashAfter >= 1) journal.recordEnqueue(source, target);
+            if (crashAfter >= 2) journal.recordStart(source);
+            if (crashAfter >= 3) journal.recordCheckpoint(source, 8 << 20);
+            if (crashAfter >= 4) journal.recordCheckpoint(source, 16 << 20);
+            if (crashAfter >= 5) journal.recordDone(source);
+
+            List<TransferJournal.PendingTransfer> pending = new TransferJournal(journalFile).load();
+            String step = "crash after step " + crashAfter;
+            if (crashAfter == 0 || crashAfter == 5) {
+                assertEquals(step, 0, pending.size());
+                continue;
+            }
+            assertEquals(step, 1, pending.size());
+            assertEquals(step, crashAfter >= 2, pending.get(0).isStarted());
+            long expectedOffset = crashAfter >= 4 ? 16 << 20 : crashAfter >= 3 ? 8 << 20 : 0;
+            assertEquals(step, expectedOffset, pending.get(0).getCheckpointOffset());
+        }
+    }
+
+    @Test
+    public void failedTaskIsNotReplayed() {
+        File source = new File(dir, "temp/a.mp4");
+        TransferJournal journal = new TransferJournal(journalFile);
+        journal.recordEnqueue(source, new File(dir, "usb/a.mp4"));
+        journal.recordStart(source);
+        journal.recordFailed(source, "Copy failed\tafter 3 retries");
+
+        assertEquals(0, new TransferJournal(journalFile).load().size());
+    }
+
+    /**
+     * 把日志截断到最后一条记录内的每一个字节：写到一半的记录被丢弃，之前的记录不受影响，
+     * 之后追加的记录不会和半行拼在一起
+     */
+    @Test
+    public void tornRecordAtEveryByte_isDiscarded() throws IOException {
+        File a = new File(dir, "temp/a.mp4");
+        File b = new File(dir, "temp/b.mp4");
+        TransferJournal writer = new TransferJournal(journalFile);
+        writer.recordEnqueue(a, new File(dir, "usb/a.mp4"));
+        long firstRecordEnd = journalFile.length();
+        writer.recordEnqueue(b, new File(dir, "usb/b.mp4"));
+        writer.close();
+        byte[] full = readBytes(journalFile);
+
+        for (int length = (int) firstRecordEnd; length <= full.length; length++) {
+            writeBytes(journalFile, Arrays.copyOf(full, length));
+            TransferJournal journal = new TransferJournal(journalFile);
+            List<TransferJournal.PendingTransfer> pending = journal.load();
+            boolean complete = length == full.length;
+            assertEquals("length " + length, complete ? 2 : 1, pending.size());
+            assertEquals(a.getAbsolutePath(), pending.get(0).getSourceFile().getAbsolutePath());
+
+            // 恢复后继续写入，再次重放
+            journal.recordDone(a);
+            journal.close();
+            List<TransferJournal.PendingTransfer> after = new TransferJournal(journalFile).load();
+            assertEquals("length " + length, complete ? 1 : 0, after.size());
+        }
+    }
+
+    @Test
+    public void compaction_keepsPendingStateAndShrinksJournal() {
+        TransferJournal journal = new TransferJournal(journalFile);
+        File keep1 = new File(dir, "temp/keep1.mp4");
+        File keep2 = new File(dir, "temp/keep2.mp4");
+        journal.recordEnqueue(keep1, new File(dir, "usb/keep1.mp4"));
+        journal.recordStart(keep1);
+        journal.recordCheckpoint(keep1, 12345);
+        journal.recordEnqueue(keep2, new File(dir, "usb/keep2.mp4"));
+        for (int i = 0; i < 500; i++) {
+            File source = new File(dir, "temp/seg_" + i + ".mp4");
+            journal.recordEnqueue(source, new File(dir, "usb/seg_" + i + ".mp4"));
+            journal.recordStart(source);
+            journal.recordDone(source);
+        }
+        assertTrue("journal lines " + journal.getLineCount(), journal.getLineCount() < 300);
+
+        List<TransferJournal.PendingTransfer> pending = new TransferJournal(journalFile).load();
+        assertEquals(2, pending.size());
+        assertEquals(keep1.getAbsolutePath(), pending.get(0).getSourceFile().getAbsolutePath());
+        assertTrue(pending.get(0).isStarted());
+        assertEquals(12345, pending.get(0).getCheckpointOffset());
+        assertFalse(pending.get(1).isStarted());
+    }
+
+    /**
+     * 压缩写临时文件时崩溃：原日志仍完整，临时文件被丢弃
+     */
+    @Test
+    public void crashDuringCompaction_ignoresTempFile() throws IOException {
+        File source = new File(dir, "temp/a.mp4");
+        new TransferJournal(journalFile).recordEnqueue(source, new File(dir, "usb/a.mp4"));
+        File tmp = new File(journalFile.getPath() + ".tmp");
+        writeBytes(tmp, "E\t/garbage\t/gar".getBytes("UTF-8"));
+
+        List<TransferJournal.PendingTransfer> pending = new TransferJournal(journalFile).load();
+        assertEquals(1, pending.size());
+        assertFalse(tmp.exists());
+    }
+
+    @Test
+    public void resumeOffset_neverExceedsTargetOrSource() {
+        assertEquals(0, TransferJournal.resumeOffset(0, 100, 1000));
+        assertEquals(0, TransferJournal.resumeOffset(500, -1, 1000));        // 目标不存在
+        assertEquals(300, TransferJournal.resumeOffset(500, 300, 1000));     // 检查点后的数据未落盘
+        assertEquals(500, TransferJournal.resumeOffset(500, 700, 1000));     // 检查点之后的部分不可信
+        assertEquals(0, TransferJournal.resumeOffset(500, 2000, 1000));      // 源文件已变化
+        assertEquals(1000, TransferJournal.resumeOffset(1000, 1000, 1000));  // 复制完成后、删除源文件前崩溃
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                read += in.read(data, read, data.length - read);
+            }
+        }
+        return data;
+    }
+
+    private static void writeBytes(File file, byte[] data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,105 @@
+package com.kooo.evcam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * TransferRateLimiter 令牌桶测试（覆盖 nanoTime 的模拟时钟，不实际睡眠）
+ */
+public class TransferRateLimiterTest {
+
+    private static final long MB = 1024L * 1024L;
+    private static final long SECOND_NS = 1000000000L;
+
+    /** 时间只在测试中手动推进的限速器 */
+    private static class FakeClockLimiter extends TransferRateLimiter {
+        long nowNs;
+
+        FakeClockLimiter(long bytesPerSecond) {
+            super(bytesPerSecond);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return nowNs;
+        }
+    }
+
+    @Test
+    public void unlimitedNeverWaits() {
+        FakeClockLimiter limiter = new FakeClockLimiter(0);
+        assertFalse(limiter.isLimited());
+        assertEquals(0, limiter.reserve(100 * MB));
+        assertEquals(0, limiter.getTotalWaitMs());
+    }
+
+    @Test
+    public void burstUpToOneSecondIsImmediate() {
+        FakeClockLimiter limiter = new FakeClockLimiter(10 * MB);
+        assertEquals(0, limiter.reserve(4 * MB));
+        assertEquals(0, limiter.reserve(6 * MB));
+        // 桶已空：再申请 5MB 需要等待 0.5 秒
+        assertEquals(SECOND_NS / 2, limiter.reserve(5 * MB));
+    }
+
+    @Test
+    public void overdraftIsRepaidByLaterCallers() {
+        FakeClockLimiter limiter = new FakeClockLimiter(10 * MB);
+        assertEquals(0, limiter.reserve(10 * MB));
+        assertEquals(SECOND_NS, limiter.reserve(10 * MB));
+        // 第二个调用者透支的部分由第三个调用者继续等待
+        assertEquals(2 * SECOND_NS, limiter.reserve(10 * MB));
+        assertEquals(3000, limiter.getTotalWaitMs());
+    }
+
+    @Test
+    public void refillIsCappedAtOneSecond() {
+        FakeClockLimiter limiter = new FakeClockLimiter(10 * MB);
+        assertEquals(0, limiter.reserve(10 * MB));
+        // 空闲 5 秒只积累 1 秒的配额
+        limiter.nowNs += 5 * SECOND_NS;
+        assertEquals(0, limiter.reserve(10 * MB));
+        assertEquals(SECOND_NS / 10, limiter.reserve(1 * MB));
+    }
+
+    @Test
+    public void partialRefillMatchesElapsedTime() {
+        FakeClockLimiter limiter = new FakeClockLimiter(10 * MB);
+        assertEquals(0, limiter.reserve(10 * MB));
+        limiter.nowNs += SECOND_NS / 4;
+        // 0.25 秒补充 2.5MB：申请 2MB 不等待，再申请 2MB 等待 1.5MB 的时间
+        assertEquals(0, limiter.reserve(2 * MB));
+        assertEquals(SECOND_NS * 3 / 20, limiter.reserve(2 * MB));
+    }
+
+    @Test
+    public void longRunRateMatchesLimit() {
+        long rate = 8 * MB;
+        long chunk = 256 * 1024;
+        FakeClockLimiter limiter = new FakeClockLimiter(rate);
+        long totalBytes = 0;
+        // 调用者按返回的等待时间睡眠（推进时钟），持续写入 60 秒的数据量
+        while (totalBytes < 60 * rate) {
+            limiter.nowNs += limiter.reserve(chunk);
+            totalBytes += chunk;
+        }
+        double seconds = (double) limiter.nowNs / SECOND_NS;
+        // 第一秒的突发配额之外严格按速率写入
+        assertEquals(totalBytes - rate, (long) (seconds * rate), chunk);
+    }
+
+    @Test
+    public void setRateTakesEffectImmediately() {
+        FakeClockLimiter limiter = new FakeClockLimiter(10 * MB);
+        assertEquals(0, limiter.reserve(10 * MB));
+        assertTrue(limiter.reserve(10 * MB) > 0);
+        // 修改速率重新装满令牌桶
+        limiter.setRate(20 * MB);
+        assertEquals(20 * MB, limiter.getRate());
+        assertEquals(0, limiter.reserve(20 * MB));
+        limiter.setRate(0);
+        assertFalse(limiter.isLimited());
+        assertEquals(0, limiter.reserve(100 * MB));
+    }
+}
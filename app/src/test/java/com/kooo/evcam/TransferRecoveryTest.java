@@ -0,0 +1,220 @@
+package com.kooo.evcam;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TransferRecovery 测试：传输日志重放与带检查点的续传复制
+ *
+ * “崩溃”即在写入某一块之后抛出非受检异常，复制和日志都不再有机会记录任何内容，与进程被杀等价。
+ */
+public class TransferRecoveryTest {
+
+    private static final int CHUNK = 64 * 1024;
+    private static final int CHUNKS = 12;
+
+    private File dir;
+    private File journalFile;
+    private File source;
+    private File target;
+    private byte[] content;
+
+    /** 模拟进程被杀 */
+    private static class SimulatedCrash extends RuntimeException {
+    }
+
+    /** 写完第 crashAfterChunk 块后“崩溃”或报 I/O 错误的复制器 */
+    private static class FailingCopier extends ResumableFileCopier {
+        final int failAfterChunk;
+        final boolean crash;
+        int chunksWritten;
+
+        FailingCopier(int failAfterChunk, boolean crash) {
+            super(CHUNK, 0, 0);
+            this.failAfterChunk = failAfterChunk;
+            this.crash = crash;
+        }
+
+        @Override
+        protected void writeChunk(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+            if (!crash && chunksWritten == failAfterChunk) {
+                throw new IOException("simulated USB error");
+            }
+            super.writeChunk(target, buffer, position);
+            chunksWritten++;
+            if (crash && chunksWritten == failAfterChunk) {
+                throw new SimulatedCrash();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("transfer_recovery", "");
+        assertTrue(dir.delete());
+        assertTrue(new File(dir, "temp").mkdirs());
+        assertTrue(new File(dir, "usb").mkdirs());
+        journalFile = new File(dir, "transfer.journal");
+        source = new File(dir, "temp/seg.mp4");
+        target = new File(dir, "usb/seg.mp4");
+        content = new byte[CHUNK * CHUNKS + 1234];
+        new Random(7).nextBytes(content);
+        writeBytes(source, content);
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(dir);
+    }
+
+    private static ResumableFileCopier.Result copy(ResumableFileCopier copier, TransferJournal journal,
+                                                   File source, File target, long resumeOffset)
+            throws IOException, InterruptedException {
+        return TransferRecovery.copy(copier, journal, source, target, resumeOffset, CHUNK, null, null);
+    }
+
+    /**
+     * 在每一块写入之后、记录检查点之前崩溃，重放后续传：最终目标与源文件一致，且续传不会从头复制
+     * crashAt 为 0 表示复制完成、记录完成之前崩溃
+     */
+    @Test
+    public void crashDuringCopyAtEveryChunk_resumesToIdenticalTarget() throws Exception {
+        for (int crashAt = 0; crashAt <= CHUNKS + 1; crashAt++) {
+            String step = "crash at " + crashAt;
+            journalFile.delete();
+            target.delete();
+            TransferJournal journal = new TransferJournal(journalFile);
+            journal.recordEnqueue(source, target);
+            journal.recordStart(source);
+            try {
+                copy(new FailingCopier(crashAt, true), journal, source, target, 0);
+                assertEquals(step, 0, crashAt);
+            } catch (SimulatedCrash e) {
+                assertTrue(step, crashAt > 0);
+            }
+
+            TransferJournal recovered = new TransferJournal(journalFile);
+            List<TransferRecovery.Plan> plans = TransferRecovery.replay(recovered);
+            assertEquals(step, 1, plans.size());
+            TransferRecovery.Plan plan = plans.get(0);
+            assertEquals(step, TransferRecovery.ACTION_RESUME, plan.getAction());
+            // 最后一块已写入但检查点未记录；最后不足一个间隔的尾部不单独记录检查点
+            long expected = crashAt == 0 ? (long) CHUNKS * CHUNK : (long) (crashAt - 1) * CHUNK;
+            assertEquals(step, expected, plan.getResumeOffset());
+
+            ResumableFileCopier.Result result = copy(new ResumableFileCopier(CHUNK, 0, 0), recovered,
+                    source, target, plan.getResumeOffset());
+            assertEquals(step, expected, result.resumedFrom);
+            assertEquals(step, content.length - expected, result.bytesWritten);
+            assertArrayEquals(step, content, readBytes(target));
+            recovered.recordDone(source);
+            assertEquals(step, 0, new TransferJournal(journalFile).load().size());
+        }
+    }
+
+    @Test
+    public void ioErrorRecordsLastVerifiedOffset() throws Exception {
+        TransferJournal journal = new TransferJournal(journalFile);
+        journal.recordEnqueue(source, target);
+        long[] progress = {-1};
+        try {
+            TransferRecovery.copy(new FailingCopier(5, false), journal, source, target, 0,
+                    CHUNK * 4L, null, offset -> progress[0] = offset);
+            fail("copy should fail");
+        } catch (IOException expected) {
+            // 重试次数为 0，第一次写入错误即失败
+        }
+        // 检查点间隔为 4 块，失败时补记最后可信偏移（5 块）
+        assertEquals(5L * CHUNK, progress[0]);
+        assertEquals(5L * CHUNK, new TransferJournal(journalFile).load().get(0).getCheckpointOffset());
+        assertEquals(5L * CHUNK, TransferRecovery.replay(new TransferJournal(journalFile)).get(0).getResumeOffset());
+    }
+
+    @Test
+    public void interruptRecordsLastVerifiedOffset() throws Exception {
+        TransferJournal journal = new TransferJournal(journalFile);
+        journal.recordEnqueue(source, target);
+        // 服务停止：第 4 块限速等待时被中断
+        TransferRateLimiter interrupting = new TransferRateLimiter(0) {
+            int calls;
+
+            @Override
+            public void acquire(long bytes) throws InterruptedException {
+                if (++calls == 4) {
+                    throw new InterruptedException();
+                }
+            }
+        };
+        try {
+            TransferRecovery.copy(new ResumableFileCopier(CHUNK, 0, 0), journal, source, target, 0,
+                    Long.MAX_VALUE, interrupting, null);
+            fail("copy should be interrupted");
+        } catch (InterruptedException expected) {
+            // 已写入 3 块
+        }
+        assertEquals(3L * CHUNK, new TransferJournal(journalFile).load().get(0).getCheckpointOffset());
+    }
+
+    @Test
+    public void replayFinishesTasksWhoseSourceIsGone() throws IOException {
+        File done = new File(dir, "temp/done.mp4");
+        File doneTarget = new File(dir, "usb/done.mp4");
+        File lost = new File(dir, "temp/lost.mp4");
+        writeBytes(doneTarget, new byte[16]);  // 源文件已删除，目标已存在：崩溃前已完成
+        TransferJournal journal = new TransferJournal(journalFile);
+        journal.recordEnqueue(done, doneTarget);
+        journal.recordEnqueue(lost, new File(dir, "usb/lost.mp4"));
+        journal.recordEnqueue(source, target);
+
+        List<TransferRecovery.Plan> plans = TransferRecovery.replay(new TransferJournal(journalFile));
+
+        assertEquals(3, plans.size());
+        assertEquals(TransferRecovery.ACTION_ALREADY_DONE, plans.get(0).getAction());
+        assertEquals(TransferRecovery.ACTION_SOURCE_LOST, plans.get(1).getAction());
+        assertEquals(TransferRecovery.ACTION_RESUME, plans.get(2).getAction());
+        assertEquals(0, plans.get(2).getResumeOffset());
+        // 已完成和丢失的任务在日志中结束，下次重放不再出现
+        List<TransferJournal.PendingTransfer> remaining = new TransferJournal(journalFile).load();
+        assertEquals(1, remaining.size());
+        assertEquals(source.getAbsolutePath(), remaining.get(0).getSourceFile().getAbsolutePath());
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                read += in.read(data, read, data.length - read);
+            }
+        }
+        return data;
+    }
+
+    private static void writeBytes(File file, byte[] data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,129 @@
+package com.kooo.evcam.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * AdaptiveBitrateController 测试（模拟存储：每秒最多落盘固定字节数，写不完的数据在缓存中排队）
+ */
+public class AdaptiveBitrateControllerTest {
+
+    private static final int MAX_BITRATE = 8000000;
+    private static final int MIN_BITRATE = 2000000;
+    private static final int FPS = 30;
+
+    /** 模拟存储：按 1 秒采样间隔交给 muxer 当前码率的数据量，按写入速度落盘 */
+    private static class SimulatedSink {
+        long bytesPerSecond;
+        long pendingBytes = 0;
+
+        SimulatedSink(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        /** 运行一个采样间隔，返回调整后的码率 */
+        int tick(AdaptiveBitrateController controller, int transferQueueDepth, long encoderQueueDepth) {
+            long submitted = controller.getCurrentBitrate() / 8;
+            pendingBytes += submitted;
+            long persisted = Math.min(pendingBytes, bytesPerSecond);
+            pendingBytes -= persisted;
+            return controller.update(submitted, persisted, transferQueueDepth, encoderQueueDepth);
+        }
+    }
+
+    private static AdaptiveBitrateController newController() {
+        return new AdaptiveBitrateController(MIN_BITRATE, MAX_BITRATE, FPS);
+    }
+
+    @Test
+    public void fastStorageKeepsMaxBitrate() {
+        AdaptiveBitrateController controller = newController();
+        SimulatedSink sink = new SimulatedSink(MAX_BITRATE / 8 * 2);
+        for (int i = 0; i < 60; i++) {
+            assertEquals(MAX_BITRATE, sink.tick(controller, 0, 0));
+        }
+        assertEquals(0, controller.getDecreaseCount());
+        assertEquals(0, controller.getStorageBacklogBytes());
+    }
+
+    @Test
+    public void slowStorageLowersBitrateBelowSinkSpeed() {
+        AdaptiveBitrateController controller = newController();
+        // 存储只能写入 4Mbps
+        SimulatedSink sink = new SimulatedSink(4000000 / 8);
+        for (int i = 0; i < 60; i++) {
+            sink.tick(controller, 0, 0);
+        }
+        assertTrue(controller.getDecreaseCount() > 0);
+        assertTrue("bitrate " + controller.getCurrentBitrate(), controller.getCurrentBitrate() <= 4000000 * 11 / 10);
+        assertTrue(controller.getCurrentBitrate() >= MIN_BITRATE);
+        // 降码率后积压不再无限增长
+        assertTrue(sink.pendingBytes < (long) MAX_BITRATE / 8 * 4);
+    }
+
+    @Test
+    public void bitrateNeverDropsBelowMinimum() {
+        AdaptiveBitrateController controller = newController();
+        SimulatedSink sink = new SimulatedSink(100000 / 8);
+        for (int i = 0; i < 120; i++) {
+            int bitrate = sink.tick(controller, 0, 0);
+            assertTrue(bitrate >= MIN_BITRATE);
+        }
+        assertEquals(MIN_BITRATE, controller.getCurrentBitrate());
+    }
+
+    @Test
+    public void bitrateRecoversAfterStorageSpeedsUp() {
+        AdaptiveBitrateController controller = newController();
+        SimulatedSink sink = new SimulatedSink(3000000 / 8);
+        for (int i = 0; i < 30; i++) {
+            sink.tick(controller, 0, 0);
+        }
+        int lowered = controller.getCurrentBitrate();
+        assertTrue(lowered < MAX_BITRATE);
+
+        sink.bytesPerSecond = MAX_BITRATE / 8 * 2;
+        for (int i = 0; i < 120; i++) {
+            sink.tick(controller, 0, 0);
+        }
+        assertEquals(MAX_BITRATE, controller.getCurrentBitrate());
+        assertTrue(controller.getIncreaseCount() > 0);
+    }
+
+    @Test
+    public void transferBacklogLowersBitrate() {
+        AdaptiveBitrateController controller = newController();
+        SimulatedSink sink = new SimulatedSink(MAX_BITRATE / 8 * 2);
+        // 每路积压在阈值内：不降码率
+        for (int i = 0; i < 10; i++) {
+            sink.tick(controller, 3, 0);
+        }
+        assertEquals(MAX_BITRATE, controller.getCurrentBitrate());
+
+        int bitrate = sink.tick(controller, 4, 0);
+        assertTrue(bitrate < MAX_BITRATE);
+        assertTrue(controller.getLastReason().startsWith("transfer queue"));
+    }
+
+    @Test
+    public void encoderBacklogLowersBitrate() {
+        AdaptiveBitrateController controller = newController();
+        SimulatedSink sink = new SimulatedSink(MAX_BITRATE / 8 * 2);
+        assertEquals(MAX_BITRATE, sink.tick(controller, 0, FPS));
+        int bitrate = sink.tick(controller, 0, FPS + 1);
+        assertTrue(bitrate < MAX_BITRATE);
+        assertTrue(controller.getLastReason().startsWith("encoder backlog"));
+    }
+
+    @Test
+    public void unknownIntervalResetsStorageBacklog() {
+        AdaptiveBitrateController controller = newController();
+        SimulatedSink sink = new SimulatedSink(MAX_BITRATE / 8 / 2);
+        sink.tick(controller, 0, 0);
+        assertTrue(controller.getStorageBacklogBytes() > 0);
+        // 分段切换等无法统计的间隔：积压重新计算
+        controller.update(-1, 0, 0, 0);
+        assertEquals(0, controller.getStorageBacklogBytes());
+    }
+}
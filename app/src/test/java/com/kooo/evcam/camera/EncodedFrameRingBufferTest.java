@@ -0,0 +1,189 @@
+package com.kooo.evcam.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * EncodedFrameRingBuffer 测试（合成样本：30fps，每秒一个关键帧）
+ */
+public class EncodedFrameRingBufferTest {
+
+    private static final long FRAME_US = 33333;
+    private static final int GOP_FRAMES = 30;
+
+    /** 写出的样本记录 */
+    private static class Recorder implements EncodedFrameRingBuffer.SampleWriter {
+        final List<Long> pts = new ArrayList<>();
+        final List<Boolean> keyFrames = new ArrayList<>();
+        final List<Integer> firstBytes = new ArrayList<>();
+
+        @Override
+        public void writeSample(ByteBuffer data, long ptsUs, boolean keyFrame) {
+            pts.add(ptsUs);
+            keyFrames.add(keyFrame);
+            firstBytes.add(data.get(0) & 0xFF);
+        }
+    }
+
+    private static ByteBuffer sample(int size, int marker) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) marker);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /** 追加 frames 帧，返回下一帧的序号 */
+    private static int addFrames(EncodedFrameRingBuffer ring, int firstFrame, int frames, int size) {
+        for (int i = firstFrame; i < firstFrame + frames; i++) {
+            ring.add(sample(size, i & 0xFF), i * FRAME_US, i % GOP_FRAMES == 0);
+        }
+        return firstFrame + frames;
+    }
+
+    @Test
+    public void leadingNonKeyFramesAreDropped() {
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(1 << 20, 10000000L);
+        assertFalse(ring.add(sample(100, 1), 0, false));
+        assertFalse(ring.add(sample(100, 2), FRAME_US, false));
+        assertTrue(ring.add(sample(100, 3), 2 * FRAME_US, true));
+        assertTrue(ring.add(sample(100, 4), 3 * FRAME_US, false));
+        assertEquals(2, ring.getSampleCount());
+        assertEquals(2, ring.getDroppedSamples());
+    }
+
+    @Test
+    public void addDoesNotMoveSourcePosition() {
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(1 << 20, 10000000L);
+        ByteBuffer src = sample(100, 7);
+        src.position(10);
+        ring.add(src, 0, true);
+        assertEquals(10, src.position());
+
+        Recorder out = new Recorder();
+        ring.writeTo(0, out);
+        assertEquals(1, out.pts.size());
+    }
+
+    @Test
+    public void durationLimit_evictsWholeGops() {
+        // 上限 3 秒：写入 10 秒后只保留最后约 3 个 GOP，且总以关键帧开头
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(64L << 20, 3000000L);
+        addFrames(ring, 0, 10 * GOP_FRAMES, 1000);
+
+        Recorder out = new Recorder();
+        int written = ring.writeTo(0, out);
+        assertEquals(ring.getSampleCount(), written);
+        assertTrue(out.keyFrames.get(0));
+        assertEquals(0, (out.pts.get(0) / FRAME_US) % GOP_FRAMES);
+        assertTrue("buffered " + ring.getBufferedDurationUs(), ring.getBufferedDurationUs() <= 3000000L);
+        assertTrue("buffered " + ring.getBufferedDurationUs(), ring.getBufferedDurationUs() > 2000000L);
+        assertEquals(9 * GOP_FRAMES + GOP_FRAMES - 1, out.pts.get(out.pts.size() - 1) / FRAME_US);
+    }
+
+    @Test
+    public void memoryLimit_evictsOldestGopsAndKeepsNewest() {
+        // 每帧 8KB，一个 GOP 240KB；上限 1MB 最多容纳 4 个完整 GOP
+        long cap = 1L << 20;
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(cap, 60000000L);
+        addFrames(ring, 0, 20 * GOP_FRAMES, 8192);
+
+        assertTrue("memory " + ring.getMemoryUsage(), ring.getMemoryUsage() <= cap);
+        Recorder out = new Recorder();
+        ring.writeTo(0, out);
+        assertTrue(out.keyFrames.get(0));
+        assertEquals(20 * GOP_FRAMES - 1, out.pts.get(out.pts.size() - 1) / FRAME_US);
+        // 保留的样本连续，中间没有空洞
+        for (int i = 1; i < out.pts.size(); i++) {
+            assertEquals(FRAME_US, out.pts.get(i) - out.pts.get(i - 1));
+        }
+    }
+
+    @Test
+    public void singleGopLargerThanLimit_isKept() {
+        // 至少保留最新的一个 GOP，即使超过时长上限
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(64L << 20, 100000L);
+        addFrames(ring, 0, GOP_FRAMES, 1000);
+        assertEquals(GOP_FRAMES, ring.getSampleCount());
+    }
+
+    @Test
+    public void writeTo_alignsStartToKeyFrameBeforeWindow() {
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(64L << 20, 60000000L);
+        addFrames(ring, 0, 5 * GOP_FRAMES + 10, 1000);
+        long lastPts = (5 * GOP_FRAMES + 9) * FRAME_US;
+
+        // 窗口 1.5 秒：起点落在第 3 个 GOP 中间，应从该 GOP 的关键帧开始
+        Recorder out = new Recorder();
+        ring.writeTo(1500000L, out);
+        long windowStart = lastPts - 1500000L;
+        assertTrue(out.keyFrames.get(0));
+        assertTrue(out.pts.get(0) <= windowStart);
+        assertTrue(windowStart - out.pts.get(0) < GOP_FRAMES * FRAME_US);
+        assertEquals(3 * GOP_FRAMES, out.pts.get(0) / FRAME_US);
+        assertEquals(lastPts, (long) out.pts.get(out.pts.size() - 1));
+
+        // 窗口正好落在关键帧上：从该关键帧开始
+        Recorder exact = new Recorder();
+        ring.writeTo(lastPts - 4 * GOP_FRAMES * FRAME_US, exact);
+        assertEquals(4 * GOP_FRAMES, exact.pts.get(0) / FRAME_US);
+    }
+
+    @Test
+    public void writeTo_windowLongerThanBuffer_writesEverything() {
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(64L << 20, 60000000L);
+        addFrames(ring, 0, 2 * GOP_FRAMES, 1000);
+        Recorder out = new Recorder();
+        assertEquals(2 * GOP_FRAMES, ring.writeTo(30000000L, out));
+        assertEquals(0L, (long) out.pts.get(0));
+    }
+
+    @Test
+    public void samplesKeepTheirContent() {
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(64L << 20, 60000000L);
+        addFrames(ring, 0, 3 * GOP_FRAMES, 5000);
+        Recorder out = new Recorder();
+        ring.writeTo(0, out);
+        for (int i = 0; i < out.pts.size(); i++) {
+            assertEquals((int) ((out.pts.get(i) / FRAME_US) & 0xFF), (int) out.firstBytes.get(i));
+        }
+    }
+
+    @Test
+    public void steadyState_reusesPooledBuffers() {
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(64L << 20, 2000000L);
+        int next = addFrames(ring, 0, 10 * GOP_FRAMES, 6000);
+        long allocated = ring.getAllocatedBuffers();
+        addFrames(ring, next, 20 * GOP_FRAMES, 6000);
+        // 淘汰的缓冲区被复用，稳定后只在 GOP 交替的边界多分配少量缓冲
+        assertTrue("allocated " + allocated + " -> " + ring.getAllocatedBuffers(),
+                ring.getAllocatedBuffers() - allocated <= GOP_FRAMES);
+    }
+
+    @Test
+    public void clear_requiresNewKeyFrame() {
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(64L << 20, 60000000L);
+        addFrames(ring, 0, GOP_FRAMES + 5, 1000);
+        ring.clear();
+        assertEquals(0, ring.getSampleCount());
+        assertFalse(ring.add(sample(100, 1), 100 * FRAME_US, false));
+        assertTrue(ring.add(sample(100, 1), 101 * FRAME_US, true));
+    }
+
+    @Test
+    public void setLimits_trimsImmediately() {
+        EncodedFrameRingBuffer ring = new EncodedFrameRingBuffer(64L << 20, 60000000L);
+        addFrames(ring, 0, 10 * GOP_FRAMES, 1000);
+        ring.setLimits(64L << 20, 2000000L);
+        assertTrue(ring.getBufferedDurationUs() <= 2000000L);
+        Recorder out = new Recorder();
+        ring.writeTo(0, out);
+        assertTrue(out.keyFrames.get(0));
+    }
+}
@@ -0,0 +1,117 @@
+package com.kooo.evcam.camera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * FragmentedMp4Writer 写入开销基准（JVM）
+ *
+ * 模拟一路 1 分钟、30fps、8Mbps 的编码输出，测量每个样本 writeSample 的耗时分布、
+ * 每个分片的写入/fsync 次数和总吞吐。MediaMuxer 只能在设备上运行，
+ * 同一组输入与 MediaMuxer 的对比见 androidTest 中的 FragmentedMp4MuxerBenchmark。
+ */
+public class FragmentedMp4WriterBenchmarkTest {
+
+    private static final int FPS = 30;
+    private static final long FRAME_US = 1000000L / FPS;
+    private static final int BITRATE = 8000000;
+    private static final int SECONDS = 60;
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x64, 0x00, 0x28, (byte) 0xAC, 0x2B, 0x40, 0x3C};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xEE, 0x3C, (byte) 0x80};
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("fmp4_bench").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /** 按目标码率生成一帧（关键帧为平均帧的 4 倍），负载不含 0 */
+    private static ByteBuffer[] frames(int count) {
+        Random random = new Random(42);
+        int meanFrame = BITRATE / 8 / FPS;
+        ByteBuffer[] frames = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            boolean key = i % FPS == 0;
+            int size = key ? meanFrame * 4 : meanFrame * 3 / 4 + random.nextInt(meanFrame / 2);
+            ByteBuffer frame = ByteBuffer.allocateDirect(size + 5);
+            frame.put(new byte[]{0, 0, 0, 1, (byte) (key ? 0x65 : 0x41)});
+            byte[] payload = new byte[size];
+            for (int j = 0; j < size; j++) {
+                payload[j] = (byte) (1 + random.nextInt(255));
+            }
+            frame.put(payload);
+            frame.flip();
+            frames[i] = frame;
+        }
+        return frames;
+    }
+
+    private static long[] run(File output, ByteBuffer[] gop, boolean sync, FragmentedMp4Writer[] writerOut)
+            throws IOException {
+        int samples = SECONDS * FPS;
+        long[] latencyNs = new long[samples];
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(output, 1920, 1080, SPS, PPS, FPS, 1000000L, sync);
+        for (int i = 0; i < samples; i++) {
+            ByteBuffer frame = gop[i % gop.length];
+            long start = System.nanoTime();
+            writer.writeSample(frame, i * FRAME_US, i % FPS == 0);
+            latencyNs[i] = System.nanoTime() - start;
+        }
+        writer.close();
+        writerOut[0] = writer;
+        return latencyNs;
+    }
+
+    @Test
+    public void writeOverhead() throws IOException {
+        ByteBuffer[] gop = frames(FPS);
+        FragmentedMp4Writer[] writer = new FragmentedMp4Writer[1];
+        // 预热（JIT）
+        run(new File(dir, "warmup.mp4"), gop, false, writer);
+
+        long startNs = System.nanoTime();
+        long[] latencyNs = run(new File(dir, "bench.mp4"), gop, true, writer);
+        long elapsedNs = System.nanoTime() - startNs;
+        Arrays.sort(latencyNs);
+
+        long bytes = writer[0].getBytesWritten();
+        System.out.println(String.format(Locale.US,
+                "fMP4 %ds @ %d Mbps: %.1f MB in %d ms (%.0f MB/s), writeSample p50 %d us / p99 %d us / max %d us, "
+                        + "%d fragments, %d writes, %d fsyncs",
+                SECONDS, BITRATE / 1000000, bytes / 1048576.0, elapsedNs / 1000000,
+                bytes / 1048576.0 / (elapsedNs / 1e9),
+                latencyNs[latencyNs.length / 2] / 1000, latencyNs[latencyNs.length * 99 / 100] / 1000,
+                latencyNs[latencyNs.length - 1] / 1000,
+                writer[0].getFragmentCount(), writer[0].getWriteCalls(), writer[0].getSyncCalls()));
+
+        // 每个分片一次聚集写入 + 一次 fsync，与样本数无关
+        assertEquals(SECONDS, writer[0].getFragmentCount());
+        assertEquals(SECONDS + 1, writer[0].getWriteCalls());
+        assertEquals(SECONDS + 1, writer[0].getSyncCalls());
+        // 非切分帧只做内存拷贝：中位数远低于一帧的时间
+        assertTrue("p50 " + latencyNs[latencyNs.length / 2] + " ns", latencyNs[latencyNs.length / 2] < FRAME_US * 1000 / 10);
+    }
+}
@@ -0,0 +1,388 @@
+package com.kooo.evcam.camera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * FragmentedMp4Writer 测试：用合成 Annex-B access unit 写文件，再按 ISO BMFF 结构解析回来，
+ * 检查 box 布局、分片时间线，以及样本数据逐字节还原
+ */
+public class FragmentedMp4WriterTest {
+
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x64, 0x00, 0x1F, (byte) 0xAC, 0x2B, 0x40, 0x28};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xEE, 0x3C, (byte) 0x80};
+    private static final int FPS = 30;
+    private static final long FRAME_US = 1000000L / FPS;
+    private static final int TIMESCALE = 90000;
+
+    private File dir;
+    private File output;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("fmp4").toFile();
+        output = new File(dir, "test.mp4");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // ===== 合成输入 =====
+
+    /** 合成的 access unit：AUD + 一个 slice NAL（负载不含 0，不会出现伪起始码） */
+    private static final class AccessUnit {
+        final long ptsUs;
+        final boolean keyFrame;
+        final byte[] annexB;
+        final byte[] sliceNal;
+
+        AccessUnit(long ptsUs, boolean keyFrame, byte[] payload) {
+            this.ptsUs = ptsUs;
+            this.keyFrame = keyFrame;
+            sliceNal = new byte[payload.length + 1];
+            sliceNal[0] = (byte) (keyFrame ? 0x65 : 0x41);
+            System.arraycopy(payload, 0, sliceNal, 1, payload.length);
+            byte[] aud = {0, 0, 0, 1, 0x09, (byte) 0xF0};
+            annexB = new byte[aud.length + 4 + sliceNal.length];
+            System.arraycopy(aud, 0, annexB, 0, aud.length);
+            annexB[aud.length + 3] = 1;
+            System.arraycopy(sliceNal, 0, annexB, aud.length + 4, sliceNal.length);
+        }
+    }
+
+    private static List<AccessUnit> stream(int frames, int gopFrames, int meanSize, long seed) {
+        Random random = new Random(seed);
+        List<AccessUnit> units = new ArrayList<>();
+        for (int i = 0; i < frames; i++) {
+            boolean key = i % gopFrames == 0;
+            int size = key ? meanSize * 4 : meanSize / 2 + random.nextInt(meanSize);
+            byte[] payload = new byte[size];
+            for (int j = 0; j < size; j++) {
+                payload[j] = (byte) (1 + random.nextInt(255));
+            }
+            units.add(new AccessUnit(i * FRAME_US, key, payload));
+        }
+        return units;
+    }
+
+    private FragmentedMp4Writer write(List<AccessUnit> units, long fragmentUs, boolean sync) throws IOException {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(output, 1280, 720, SPS, PPS, FPS, fragmentUs, sync);
+        for (AccessUnit unit : units) {
+            ByteBuffer data = ByteBuffer.allocateDirect(unit.annexB.length);
+            data.put(unit.annexB).flip();
+            writer.writeSample(data, unit.ptsUs, unit.keyFrame);
+            assertEquals(0, data.position());
+        }
+        writer.close();
+        return writer;
+    }
+
+    // ===== 解析 =====
+
+    private static final class Box {
+        final String type;
+        final int offset;   // box 起点（含头）
+        final int size;
+
+        Box(String type, int offset, int size) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        int payload() {
+            return offset + 8;
+        }
+    }
+
+    /** 解析 [from, to) 范围内的 box 序列，遇到不完整的 box 停止 */
+    private static List<Box> boxes(ByteBuffer file, int from, int to) {
+        List<Box> result = new ArrayList<>();
+        int position = from;
+        while (position + 8 <= to) {
+            int size = file.getInt(position);
+            if (size < 8 || position + size > to) {
+                break;
+            }
+            byte[] type = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                type[i] = file.get(position + 4 + i);
+            }
+            result.add(new Box(new String(type), position, size));
+            position += size;
+        }
+        return result;
+    }
+
+    private static Box child(ByteBuffer file, Box parent, String type, int headerSkip) {
+        for (Box box : boxes(file, parent.payload() + headerSkip, parent.offset + parent.size)) {
+            if (box.type.equals(type)) {
+                return box;
+            }
+        }
+        fail("missing " + type + " in " + parent.type);
+        return null;
+    }
+
+    private static Box path(ByteBuffer file, Box root, String... types) {
+        Box box = root;
+        for (String type : types) {
+            box = child(file, box, type, 0);
+        }
+        return box;
+    }
+
+    /** 从分片中还原的样本 */
+    private static final class ParsedSample {
+        long decodeTicks;
+        int duration;
+        boolean sync;
+        byte[] data;
+    }
+
+    private static final class ParsedFile {
+        List<Box> topLevel;
+        List<ParsedSample> samples = new ArrayList<>();
+        List<Long> fragmentBaseTicks = new ArrayList<>();
+    }
+
+    private static ParsedFile parse(byte[] bytes) {
+        ByteBuffer file = ByteBuffer.wrap(bytes);
+        ParsedFile parsed = new ParsedFile();
+        parsed.topLevel = boxes(file, 0, bytes.length);
+        int expectedSequence = 1;
+        for (int i = 0; i < parsed.topLevel.size(); i++) {
+            Box moof = parsed.topLevel.get(i);
+            if (!moof.type.equals("moof")) {
+                continue;
+            }
+            assertTrue("moof must be followed by mdat", i + 1 < parsed.topLevel.size());
+            Box mdat = parsed.topLevel.get(i + 1);
+            assertEquals("mdat", mdat.type);
+
+            Box mfhd = child(file, moof, "mfhd", 0);
+            assertEquals(expectedSequence++, file.getInt(mfhd.payload() + 4));
+            Box traf = child(file, moof, "traf", 0);
+            Box tfhd = child(file, traf, "tfhd", 0);
+            assertEquals(0x020000, file.getInt(tfhd.payload()) & 0xFFFFFF);   // default-base-is-moof
+            assertEquals(1, file.getInt(tfhd.payload() + 4));
+            Box tfdt = child(file, traf, "tfdt", 0);
+            assertEquals(1, file.get(tfdt.payload()));                       // version 1
+            long decodeTicks = file.getLong(tfdt.payload() + 4);
+            parsed.fragmentBaseTicks.add(decodeTicks);
+
+            Box trun = child(file, traf, "trun", 0);
+            int flags = file.getInt(trun.payload()) & 0xFFFFFF;
+            assertEquals(0x000701, flags);
+            int count = file.getInt(trun.payload() + 4);
+            int dataOffset = file.getInt(trun.payload() + 8);
+            int position = moof.offset + dataOffset;
+            assertEquals("data offset points at mdat payload", mdat.payload(), position);
+            int entry = trun.payload() + 12;
+            for (int s = 0; s < count; s++) {
+                ParsedSample sample = new ParsedSample();
+                sample.decodeTicks = decodeTicks;
+                sample.duration = file.getInt(entry);
+                int size = file.getInt(entry + 4);
+                int sampleFlags = file.getInt(entry + 8);
+                sample.sync = (sampleFlags & 0x00010000) == 0;
+                sample.data = Arrays.copyOfRange(bytes, position, position + size);
+                parsed.samples.add(sample);
+                decodeTicks += sample.duration;
+                position += size;
+                entry += 12;
+            }
+            assertEquals("samples fill the mdat exactly", mdat.offset + mdat.size, position);
+        }
+        return parsed;
+    }
+
+    private static byte[] withoutStartCode(byte[] nal) {
+        return Arrays.copyOfRange(nal, 4, nal.length);
+    }
+
+    /** 样本应为 4 字节长度前缀的 slice NAL（AUD 被去掉） */
+    private static void assertSampleMatches(AccessUnit unit, ParsedSample sample) {
+        ByteBuffer data = ByteBuffer.wrap(sample.data);
+        assertEquals(unit.sliceNal.length, data.getInt());
+        byte[] nal = new byte[unit.sliceNal.length];
+        data.get(nal);
+        assertArrayEquals(unit.sliceNal, nal);
+        assertFalse(data.hasRemaining());
+        assertEquals(unit.keyFrame, sample.sync);
+    }
+
+    // ===== 测试 =====
+
+    @Test
+    public void boxLayout_initSegmentThenMoofMdatPairs() throws IOException {
+        FragmentedMp4Writer writer = write(stream(10 * FPS, FPS, 2000, 1), 1000000L, false);
+        byte[] bytes = Files.readAllBytes(output.toPath());
+        ByteBuffer file = ByteBuffer.wrap(bytes);
+        List<Box> top = boxes(file, 0, bytes.length);
+
+        assertEquals("ftyp", top.get(0).type);
+        assertEquals("moov", top.get(1).type);
+        int end = top.get(top.size() - 1).offset + top.get(top.size() - 1).size;
+        assertEquals("boxes cover the whole file", bytes.length, end);
+        for (int i = 2; i < top.size(); i += 2) {
+            assertEquals("moof", top.get(i).type);
+            assertEquals("mdat", top.get(i + 1).type);
+        }
+        assertEquals(writer.getFragmentCount(), (top.size() - 2) / 2);
+        assertEquals(10, writer.getFragmentCount());
+        assertEquals(bytes.length, writer.getBytesWritten());
+
+        // moov：空样本表 + mvex/trex，avcC 中的 SPS/PPS 不带起始码
+        Box moov = top.get(1);
+        assertNotNull(path(file, moov, "mvex", "trex"));
+        Box stbl = path(file, moov, "trak", "mdia", "minf", "stbl");
+        assertEquals(0, file.getInt(child(file, stbl, "stsz", 0).payload() + 8));
+        Box mdhd = path(file, moov, "trak", "mdia", "mdhd");
+        assertEquals(TIMESCALE, file.getInt(mdhd.payload() + 12));
+        Box stsd = child(file, stbl, "stsd", 0);
+        Box avc1 = child(file, stsd, "avc1", 8);
+        assertEquals(1280, file.getShort(avc1.payload() + 24));
+        assertEquals(720, file.getShort(avc1.payload() + 26));
+        Box avcC = child(file, avc1, "avcC", 78);
+        int spsLength = file.getShort(avcC.payload() + 6);
+        byte[] sps = Arrays.copyOfRange(bytes, avcC.payload() + 8, avcC.payload() + 8 + spsLength);
+        assertArrayEquals(withoutStartCode(SPS), sps);
+        int ppsStart = avcC.payload() + 8 + spsLength;
+        assertEquals(1, bytes[ppsStart]);
+        int ppsLength = file.getShort(ppsStart + 1);
+        assertArrayEquals(withoutStartCode(PPS), Arrays.copyOfRange(bytes, ppsStart + 3, ppsStart + 3 + ppsLength));
+    }
+
+    @Test
+    public void roundTrip_samplesAndTimelineSurvive() throws IOException {
+        List<AccessUnit> units = stream(7 * FPS + 11, FPS, 3000, 2);
+        write(units, 2000000L, false);
+        ParsedFile parsed = parse(Files.readAllBytes(output.toPath()));
+
+        assertEquals(units.size(), parsed.samples.size());
+        for (int i = 0; i < units.size(); i++) {
+            assertSampleMatches(units.get(i), parsed.samples.get(i));
+            // 解码时间由 tfdt + 累计时长得到，与原始 PTS 的误差小于一个 tick
+            long expectedTicks = units.get(i).ptsUs * TIMESCALE / 1000000L;
+            assertTrue("sample " + i, Math.abs(expectedTicks - parsed.samples.get(i).decodeTicks) <= 1);
+        }
+        // 分片在关键帧处切分，且至少满足分片时长
+        long previousBase = -1;
+        for (long base : parsed.fragmentBaseTicks) {
+            assertTrue(base > previousBase);
+            previousBase = base;
+        }
+        for (int i = 0, sampleIndex = 0; i < parsed.fragmentBaseTicks.size(); i++) {
+            while (parsed.samples.get(sampleIndex).decodeTicks != parsed.fragmentBaseTicks.get(i)) {
+                sampleIndex++;
+            }
+            assertTrue("fragment " + i + " starts on a key frame", parsed.samples.get(sampleIndex).sync);
+        }
+        assertEquals(4, parsed.fragmentBaseTicks.size());
+    }
+
+    @Test
+    public void leadingNonKeyFramesAreSkipped() throws IOException {
+        List<AccessUnit> units = stream(2 * FPS, FPS, 500, 3);
+        List<AccessUnit> shifted = new ArrayList<>(units.subList(5, units.size()));
+        write(shifted, 1000000L, false);
+        ParsedFile parsed = parse(Files.readAllBytes(output.toPath()));
+        assertEquals(FPS, parsed.samples.size());
+        assertTrue(parsed.samples.get(0).sync);
+        assertEquals(0, parsed.fragmentBaseTicks.get(0).longValue());
+    }
+
+    @Test
+    public void truncatedFile_playsUpToLastCompleteFragment() throws IOException {
+        List<AccessUnit> units = stream(6 * FPS, FPS, 2000, 4);
+        write(units, 1000000L, true);
+        byte[] full = Files.readAllBytes(output.toPath());
+        List<Box> top = boxes(ByteBuffer.wrap(full), 0, full.length);
+
+        // 在第 4 个 mdat 中间断电：前 3 个分片完整可读
+        Box fourthMdat = top.get(2 + 3 * 2 + 1);
+        int cut = fourthMdat.offset + fourthMdat.size / 2;
+        try (RandomAccessFile raf = new RandomAccessFile(output, "rw")) {
+            raf.setLength(cut);
+        }
+        byte[] truncated = Files.readAllBytes(output.toPath());
+        List<Box> readable = boxes(ByteBuffer.wrap(truncated), 0, truncated.length);
+        assertEquals("moof", readable.get(readable.size() - 1).type);
+
+        // 去掉没有 mdat 的最后一个 moof 后解析
+        Box lastMoof = readable.get(readable.size() - 1);
+        ParsedFile parsed = parse(Arrays.copyOf(truncated, lastMoof.offset));
+        assertEquals(3 * FPS, parsed.samples.size());
+        for (int i = 0; i < parsed.samples.size(); i++) {
+            assertSampleMatches(units.get(i), parsed.samples.get(i));
+        }
+    }
+
+    @Test
+    public void multipleNalsPerAccessUnit_areLengthPrefixedIndividually() throws IOException {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(output, 640, 480, SPS, PPS, FPS, 1000000L, false);
+        // 关键帧带 SEI + 两个 slice，使用 3 字节起始码
+        byte[] au = {0, 0, 1, 0x06, 0x05, 0x01, 0x7F,
+                0, 0, 1, 0x65, 0x11, 0x22,
+                0, 0, 0, 1, 0x65, 0x33};
+        ByteBuffer data = ByteBuffer.wrap(au);
+        writer.writeSample(data, 0, true);
+        writer.close();
+
+        ParsedFile parsed = parse(Files.readAllBytes(output.toPath()));
+        ByteBuffer sample = ByteBuffer.wrap(parsed.samples.get(0).data);
+        assertEquals(4, sample.getInt());
+        assertEquals(0x06, sample.get());
+        sample.position(sample.position() + 3);
+        assertEquals(3, sample.getInt());           // 4 字节起始码的前导 0 不计入上一个 NAL
+        assertEquals(0x65, sample.get());
+        sample.position(sample.position() + 2);
+        assertEquals(2, sample.getInt());
+        assertEquals(0x65, sample.get());
+        assertEquals(0x33, sample.get());
+        assertFalse(sample.hasRemaining());
+    }
+
+    @Test
+    public void oneGatheredWritePerFragment() throws IOException {
+        FragmentedMp4Writer writer = write(stream(20 * FPS, FPS, 4000, 5), 1000000L, true);
+        // 初始化段一次写入，之后每个分片一次聚集写入，每个分片一次 fsync（加上关闭时一次）
+        assertEquals(writer.getFragmentCount() + 1, writer.getWriteCalls());
+        assertEquals(writer.getFragmentCount() + 1, writer.getSyncCalls());
+    }
+
+    @Test
+    public void closedWriterRejectsSamples() throws IOException {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(output, 640, 480, SPS, PPS, FPS, 1000000L, false);
+        writer.close();
+        writer.close();
+        try {
+            writer.writeSample(ByteBuffer.wrap(new byte[]{0, 0, 1, 0x65, 1}), 0, true);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+}
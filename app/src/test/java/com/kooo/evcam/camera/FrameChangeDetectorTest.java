@@ -0,0 +1,198 @@
+package com.kooo.evcam.camera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameChangeDetector 测试（合成亮度网格）
+ */
+public class FrameChangeDetectorTest {
+
+    private static final int CELLS = FrameChangeDetector.GRID_SIZE * FrameChangeDetector.GRID_SIZE;
+    private static final long MAX_UNCHANGED_MS = 60000;
+    private static final String KEY = "front";
+
+    /** 水平渐变加随机纹理的场景 */
+    private static int[] scene(long seed) {
+        Random random = new Random(seed);
+        int[] grid = new int[CELLS];
+        for (int i = 0; i < CELLS; i++) {
+            int x = i % FrameChangeDetector.GRID_SIZE;
+            grid[i] = clamp(40 + x * 10 + random.nextInt(40));
+        }
+        return grid;
+    }
+
+    /** 每格加 [-amplitude, amplitude] 的噪声 */
+    private static int[] noisy(int[] grid, int amplitude, long seed) {
+        Random random = new Random(seed);
+        int[] result = new int[grid.length];
+        for (int i = 0; i < grid.length; i++) {
+            result[i] = clamp(grid[i] + random.nextInt(amplitude * 2 + 1) - amplitude);
+        }
+        return result;
+    }
+
+    private static int[] shifted(int[] grid, int delta) {
+        int[] result = new int[grid.length];
+        for (int i = 0; i < grid.length; i++) {
+            result[i] = clamp(grid[i] + delta);
+        }
+        return result;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static FrameChangeDetector sentDetector(int[] baseline) {
+        FrameChangeDetector detector = new FrameChangeDetector(MAX_UNCHANGED_MS);
+        detector.markSent(KEY, baseline, 0);
+        return detector;
+    }
+
+    @Test
+    public void meanAbsDiffOfKnownGrids() {
+        int[] a = new int[CELLS];
+        int[] b = new int[CELLS];
+        for (int i = 0; i < CELLS; i++) {
+            b[i] = i % 2 == 0 ? 10 : 0;
+        }
+        assertEquals(0, FrameChangeDetector.meanAbsDiff(a, a), 1e-9);
+        assertEquals(5, FrameChangeDetector.meanAbsDiff(a, b), 1e-9);
+    }
+
+    @Test
+    public void hashIgnoresGlobalBrightnessShift() {
+        int[] base = scene(1);
+        int[] brighter = shifted(base, 30);
+        // 整体亮度变化不改变相邻格子的大小关系（未触及 0/255 截断）
+        assertEquals(0, FrameChangeDetector.hashDistance(base, shifted(base, 0)));
+        assertTrue(FrameChangeDetector.hashDistance(base, brighter) <= 2);
+        assertTrue(FrameChangeDetector.meanAbsDiff(base, brighter) > FrameChangeDetector.DEFAULT_THRESHOLD);
+    }
+
+    @Test
+    public void hashDetectsStructuralChange() {
+        int[] base = scene(1);
+        int[] mirrored = new int[CELLS];
+        for (int y = 0; y < FrameChangeDetector.GRID_SIZE; y++) {
+            for (int x = 0; x < FrameChangeDetector.GRID_SIZE; x++) {
+                mirrored[y * FrameChangeDetector.GRID_SIZE + x] =
+                        base[y * FrameChangeDetector.GRID_SIZE + FrameChangeDetector.GRID_SIZE - 1 - x];
+            }
+        }
+        assertTrue(FrameChangeDetector.hashDistance(base, mirrored) > 12);
+    }
+
+    @Test
+    public void flatAreaNoiseDoesNotFlipHash() {
+        int[] flat = new int[CELLS];
+        java.util.Arrays.fill(flat, 128);
+        // 噪声幅度不超过 HASH_NOISE_MARGIN 的一半：相邻差不超过 4，全部视为平坦
+        assertEquals(0, FrameChangeDetector.hashDistance(flat, noisy(flat, 2, 7)));
+    }
+
+    @Test
+    public void sensorNoiseIsUnchanged() {
+        int[] base = scene(1);
+        FrameChangeDetector detector = sentDetector(base);
+        assertTrue(detector.isUnchanged(KEY, noisy(base, 3, 2), 1000));
+    }
+
+    @Test
+    public void brightnessShiftAboveThresholdIsChange() {
+        int[] base = scene(1);
+        FrameChangeDetector detector = sentDetector(base);
+        assertTrue(detector.isUnchanged(KEY, shifted(base, FrameChangeDetector.DEFAULT_THRESHOLD - 1), 1000));
+        assertFalse(detector.isUnchanged(KEY, shifted(base, FrameChangeDetector.DEFAULT_THRESHOLD + 1), 1000));
+    }
+
+    @Test
+    public void localObjectIsChange() {
+        int[] base = scene(1);
+        int[] withObject = base.clone();
+        // 画面中出现一个 6x6 格的暗色物体
+        for (int y = 5; y < 11; y++) {
+            for (int x = 5; x < 11; x++) {
+                withObject[y * FrameChangeDetector.GRID_SIZE + x] = 0;
+            }
+        }
+        FrameChangeDetector detector = sentDetector(base);
+        assertFalse(detector.isUnchanged(KEY, withObject, 1000));
+    }
+
+    @Test
+    public void thresholdControlsSensitivity() {
+        int[] base = scene(1);
+        int[] changed = shifted(base, 10);
+        FrameChangeDetector detector = sentDetector(base);
+        assertFalse(detector.isUnchanged(KEY, changed, 1000));
+        detector.setThreshold(20);
+        assertTrue(detector.isUnchanged(KEY, changed, 1000));
+        // 0 表示关闭：所有帧都视为有变化
+        detector.setThreshold(0);
+        assertFalse(detector.isEnabled());
+        assertFalse(detector.isUnchanged(KEY, base, 1000));
+        detector.setThreshold(-5);
+        assertEquals(0, detector.getThreshold());
+    }
+
+    @Test
+    public void maxUnchangedForcesSend() {
+        int[] base = scene(1);
+        FrameChangeDetector detector = sentDetector(base);
+        assertTrue(detector.isUnchanged(KEY, base, MAX_UNCHANGED_MS - 1));
+        assertFalse(detector.isUnchanged(KEY, base, MAX_UNCHANGED_MS));
+        detector.markSent(KEY, base, MAX_UNCHANGED_MS);
+        assertTrue(detector.isUnchanged(KEY, base, MAX_UNCHANGED_MS + 1));
+    }
+
+    @Test
+    public void streamsAreIndependentAndResetClearsBaseline() {
+        int[] base = scene(1);
+        FrameChangeDetector detector = sentDetector(base);
+        assertFalse(detector.isUnchanged("rear", base, 1000));
+        assertFalse(detector.isUnchanged(KEY, null, 1000));
+        detector.reset();
+        assertFalse(detector.isUnchanged(KEY, base, 1000));
+    }
+
+    @Test
+    public void baselineIsCopied() {
+        int[] base = scene(1);
+        FrameChangeDetector detector = sentDetector(base);
+        int[] original = base.clone();
+        java.util.Arrays.fill(base, 0);
+        assertTrue(detector.isUnchanged(KEY, original, 1000));
+    }
+
+    @Test
+    public void lumaGridAveragesCells() {
+        int size = FrameChangeDetector.GRID_SIZE * 2;
+        int[] argb = new int[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                // 左半白、右半黑
+                argb[y * size + x] = x < size / 2 ? 0xFFFFFFFF : 0xFF000000;
+            }
+        }
+        int[] grid = FrameChangeDetector.lumaGrid(argb, size, size);
+        assertEquals(CELLS, grid.length);
+        assertEquals(255, grid[0]);
+        assertEquals(0, grid[FrameChangeDetector.GRID_SIZE - 1]);
+    }
+
+    @Test
+    public void statsCountSentAndSkipped() {
+        FrameChangeDetector detector = new FrameChangeDetector(MAX_UNCHANGED_MS);
+        detector.recordFrame(false, 2048);
+        detector.recordFrame(true, 2048);
+        detector.recordFrame(true, 1024);
+        assertEquals(2, detector.getSkippedFrames());
+        assertEquals(3072, detector.getBytesSaved());
+    }
+}
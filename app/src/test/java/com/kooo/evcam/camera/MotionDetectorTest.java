@@ -0,0 +1,205 @@
+package com.kooo.evcam.camera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * MotionDetector 测试（合成 160x120 Y 平面，5fps）
+ */
+public class MotionDetectorTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final int STRIDE = 176;  // 行跨度大于宽度，验证按 rowStride 取数
+    private static final long FRAME_MS = 200;
+
+    private final Random random = new Random(7);
+    private final List<String> events = new ArrayList<>();
+    private MotionDetector detector;
+    private long timeMs = 0;
+
+    @Before
+    public void setUp() {
+        detector = new MotionDetector(WIDTH, HEIGHT);
+        detector.setListener(new MotionDetector.Listener() {
+            @Override
+            public void onMotionStarted(long timestampMs, int activeBlocks) {
+                events.add("start@" + timestampMs);
+            }
+
+            @Override
+            public void onMotionEnded(long timestampMs, long durationMs) {
+                events.add("end@" + timestampMs + "/" + durationMs);
+            }
+        });
+    }
+
+    /**
+     * 生成一帧：带纹理的背景 + 亮度偏移 + 传感器噪声，可选一个亮色方块
+     */
+    private byte[] frame(int brightnessShift, int noise, int squareX, int squareSize) {
+        byte[] luma = new byte[STRIDE * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int value = 60 + (x * 3 + y * 2) % 80 + brightnessShift;
+                if (noise > 0) {
+                    value += random.nextInt(noise * 2 + 1) - noise;
+                }
+                if (squareSize > 0 && x >= squareX && x < squareX + squareSize && y >= 40 && y < 40 + squareSize) {
+                    value = 250;
+                }
+                luma[y * STRIDE + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        return luma;
+    }
+
+    private boolean feed(byte[] luma) {
+        boolean active = detector.process(luma, 0, STRIDE, timeMs);
+        timeMs += FRAME_MS;
+        return active;
+    }
+
+    private void feedStill(int frames) {
+        for (int i = 0; i < frames; i++) {
+            feed(frame(0, 3, 0, 0));
+        }
+    }
+
+    @Test
+    public void blockGridMatchesFrameSize() {
+        assertEquals((WIDTH / MotionDetector.BLOCK_SIZE) * (HEIGHT / MotionDetector.BLOCK_SIZE), detector.getBlockCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFramesSmallerThanBlock() {
+        new MotionDetector(MotionDetector.BLOCK_SIZE - 1, HEIGHT);
+    }
+
+    @Test
+    public void sensorNoiseIsNotMotion() {
+        for (int i = 0; i < 100; i++) {
+            assertFalse(feed(frame(0, 6, 0, 0)));
+        }
+        assertTrue(events.isEmpty());
+        assertEquals(0, detector.getEventCount());
+    }
+
+    @Test
+    public void movingObjectStartsAfterTriggerFramesAndEndsAfterHold() {
+        feedStill(10);
+        // 第一帧运动：未达到连续触发帧数
+        assertFalse(feed(frame(0, 3, 20, 32)));
+        assertTrue(events.isEmpty());
+        long startMs = timeMs;
+        assertTrue(feed(frame(0, 3, 30, 32)));
+        assertEquals(1, events.size());
+        assertEquals("start@" + startMs, events.get(0));
+        assertTrue(detector.getLastActiveBlocks() > 0);
+        long lastMotionMs = timeMs;
+        assertTrue(feed(frame(0, 3, 40, 32)));
+
+        // 物体离开后保持 holdMs 才结束
+        long framesToEnd = MotionDetector.DEFAULT_HOLD_MS / FRAME_MS;
+        for (int i = 0; i < framesToEnd - 1; i++) {
+            assertTrue(feed(frame(0, 3, 0, 0)));
+        }
+        assertFalse(feed(frame(0, 3, 0, 0)));
+        long endMs = lastMotionMs + MotionDetector.DEFAULT_HOLD_MS;
+        assertEquals("end@" + endMs + "/" + (endMs - startMs), events.get(1));
+        assertEquals(1, detector.getEventCount());
+    }
+
+    @Test
+    public void smallObjectBelowMinActiveBlocksIsIgnored() {
+        feedStill(10);
+        // 一个 8x8 方块只覆盖 1 块，低于默认 1.5% 的最少活动块数
+        for (int i = 0; i < 10; i++) {
+            assertFalse(feed(frame(0, 3, 80, MotionDetector.BLOCK_SIZE)));
+        }
+        assertTrue(events.isEmpty());
+        // 降低最少活动块比例后可以检测到
+        detector.setMinActivePermille(0);
+        feed(frame(0, 3, 88, MotionDetector.BLOCK_SIZE));
+        feed(frame(0, 3, 96, MotionDetector.BLOCK_SIZE));
+        assertEquals(1, detector.getEventCount());
+    }
+
+    @Test
+    public void gradualLightingChangeIsNotMotion() {
+        feedStill(10);
+        // 云层遮挡：整体亮度每帧变化 3，均匀扣除后不算运动
+        for (int shift = 0; shift <= 30; shift += 3) {
+            assertFalse(feed(frame(shift, 3, 0, 0)));
+        }
+        assertTrue(events.isEmpty());
+        assertEquals(0, detector.getLightingResets());
+    }
+
+    @Test
+    public void lightingJumpResetsBackground() {
+        feedStill(10);
+        // 路灯打开：整体亮度突增超过阈值，重建背景，不触发运动
+        assertFalse(feed(frame(60, 3, 0, 0)));
+        assertEquals(1, detector.getLightingResets());
+        for (int i = 0; i < 10; i++) {
+            assertFalse(feed(frame(60, 3, 0, 0)));
+        }
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void blockThresholdControlsSensitivity() {
+        feedStill(10);
+        // 物体只比背景亮约 10：默认阈值 14 下不算运动
+        for (int i = 0; i < 5; i++) {
+            assertFalse(feed(dimObjectFrame(10)));
+        }
+        detector.setBlockThreshold(5);
+        feed(dimObjectFrame(10));
+        feed(dimObjectFrame(10));
+        assertEquals(1, detector.getEventCount());
+    }
+
+    /** 左侧 1/4 画面变亮 delta（整体偏移只扣除其中 1/4，其余仍算作块偏差） */
+    private byte[] dimObjectFrame(int delta) {
+        byte[] luma = frame(0, 0, 0, 0);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH / 4; x++) {
+                luma[y * STRIDE + x] = (byte) Math.min(255, (luma[y * STRIDE + x] & 0xFF) + delta);
+            }
+        }
+        return luma;
+    }
+
+    @Test
+    public void parkedObjectBlendsIntoBackground() {
+        feedStill(10);
+        // 一辆车停进来后不再移动：背景逐渐吸收，运动事件最终结束
+        for (int i = 0; i < 400 && (events.isEmpty() || detector.isMotionActive()); i++) {
+            feed(frame(0, 3, 60, 48));
+        }
+        assertEquals(1, detector.getEventCount());
+        assertFalse(detector.isMotionActive());
+        assertEquals(2, events.size());
+    }
+
+    @Test
+    public void resetClearsMotionState() {
+        feedStill(10);
+        feed(frame(0, 3, 20, 32));
+        feed(frame(0, 3, 30, 32));
+        assertTrue(detector.isMotionActive());
+        detector.reset();
+        assertFalse(detector.isMotionActive());
+        // 重置后的第一帧只用于建立背景
+        assertFalse(feed(frame(0, 3, 40, 32)));
+        assertEquals(0, detector.getLastActiveBlocks());
+    }
+}
@@ -0,0 +1,268 @@
+package com.kooo.evcam.heartbeat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * 心跳传输格式测试
+ *
+ * 在 127.0.0.1 上启动一个最小的 HTTP 模拟服务器，分别用 json 和 multipart 格式发送同一张图片，
+ * 统计服务器实际收到的字节数（请求头 + 请求体），并验证格式协商和 multipart 被拒绝时的回退。
+ * 只依赖 Content-Length 请求体（两种格式的 OkHttp 请求体长度均已知）。
+ */
+public class HeartbeatApiClientWireTest {
+
+    private static final int IMAGE_BYTES = 300 * 1024;
+    private static final String VEHICLE_ID = "wiretest";
+    private static final String SECRET = "wiretest-secret";
+
+    private MockServer server;
+    private String url;
+    private byte[] image;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockServer();
+        server.start();
+        url = "http://127.0.0.1:" + server.getPort() + "/heartbeat";
+        // 随机数据与 JPEG 同样不可压缩
+        image = new byte[IMAGE_BYTES];
+        new Random(IMAGE_BYTES).nextBytes(image);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private HeartbeatApiClient.HeartbeatResult send(HeartbeatApiClient client, String wire) {
+        return client.sendWithWire(wire, url, VEHICLE_ID, SECRET, image, image.length, 1920, 1080, 4,
+                "{\"wireTest\":true}");
+    }
+
+    @Test
+    public void multipartSendsFewerBytesThanJson() {
+        HeartbeatApiClient client = new HeartbeatApiClient();
+
+        assertTrue(send(client, HeartbeatApiClient.WIRE_JSON).success);
+        MockServer.Request json = server.lastRequest();
+        assertTrue(send(client, HeartbeatApiClient.WIRE_MULTIPART).success);
+        MockServer.Request multipart = server.lastRequest();
+
+        System.out.println(String.format(Locale.US, "image %dKB: json %dKB, multipart %dKB",
+                IMAGE_BYTES / 1024, json.bytes / 1024, multipart.bytes / 1024));
+        assertEquals(HeartbeatApiClient.WIRE_JSON, json.wire);
+        assertEquals(HeartbeatApiClient.WIRE_MULTIPART, multipart.wire);
+        // json 内嵌 Base64，至少是图片的 4/3；multipart 直接写入图片字节，只多出分段头和请求头
+        assertTrue(json.bytes >= IMAGE_BYTES * 4L / 3);
+        assertTrue(multipart.bytes >= IMAGE_BYTES);
+        assertTrue(multipart.bytes < IMAGE_BYTES + 4096);
+        assertTrue(multipart.bytes < json.bytes);
+    }
+
+    @Test
+    public void jsonUntilServerAdvertisesMultipart() {
+        HeartbeatApiClient client = new HeartbeatApiClient();
+        assertEquals(HeartbeatApiClient.WIRE_JSON, client.getNegotiatedWire(url));
+
+        server.advertiseMultipart = false;
+        assertTrue(client.sendHeartbeat(url, VEHICLE_ID, SECRET, image, image.length, 1920, 1080, 4, null).success);
+        assertEquals(HeartbeatApiClient.WIRE_JSON, server.lastRequest().wire);
+        assertEquals(HeartbeatApiClient.WIRE_JSON, client.getNegotiatedWire(url));
+
+        server.advertiseMultipart = true;
+        assertTrue(client.sendHeartbeat(url, VEHICLE_ID, SECRET, image, image.length, 1920, 1080, 4, null).success);
+        assertEquals(HeartbeatApiClient.WIRE_JSON, server.lastRequest().wire);
+        assertEquals(HeartbeatApiClient.WIRE_MULTIPART, client.getNegotiatedWire(url));
+
+        assertTrue(client.sendHeartbeat(url, VEHICLE_ID, SECRET, image, image.length, 1920, 1080, 4, null).success);
+        assertEquals(HeartbeatApiClient.WIRE_MULTIPART, server.lastRequest().wire);
+    }
+
+    @Test
+    public void rejectedMultipartFallsBackToJson() {
+        HeartbeatApiClient client = new HeartbeatApiClient();
+        server.advertiseMultipart = true;
+        assertTrue(client.sendHeartbeat(url, VEHICLE_ID, SECRET, image, image.length, 1920, 1080, 4, null).success);
+        assertEquals(HeartbeatApiClient.WIRE_MULTIPART, client.getNegotiatedWire(url));
+
+        // 服务器升级后不再支持 multipart：同一次调用内用 json 重发，并记住该服务器不支持
+        server.advertiseMultipart = false;
+        server.rejectMultipart = true;
+        int before = server.requests.size();
+        HeartbeatApiClient.HeartbeatResult result =
+                client.sendHeartbeat(url, VEHICLE_ID, SECRET, image, image.length, 1920, 1080, 4, null);
+        assertTrue(result.success);
+        assertEquals(before + 2, server.requests.size());
+        assertEquals(HeartbeatApiClient.WIRE_MULTIPART, server.requests.get(before).wire);
+        assertEquals(HeartbeatApiClient.WIRE_JSON, server.requests.get(before + 1).wire);
+        assertEquals(HeartbeatApiClient.WIRE_JSON, client.getNegotiatedWire(url));
+    }
+
+    @Test
+    public void unchangedPingCarriesMetadataOnly() {
+        HeartbeatApiClient client = new HeartbeatApiClient();
+        server.advertiseMultipart = false;
+        // 未协商 multipart 的服务器：json 请求体，图片为空
+        assertTrue(client.sendUnchangedPing(url, VEHICLE_ID, SECRET, 4, "{\"wireTest\":true}").success);
+        MockServer.Request jsonPing = server.lastRequest();
+        assertEquals(HeartbeatApiClient.WIRE_JSON, jsonPing.wire);
+        assertEquals("1", jsonPing.imageUnchanged);
+        assertTrue(jsonPing.bytes < 4096);
+
+        server.advertiseMultipart = true;
+        assertTrue(client.sendHeartbeat(url, VEHICLE_ID, SECRET, image, image.length, 1920, 1080, 4, null).success);
+        assertTrue(client.sendUnchangedPing(url, VEHICLE_ID, SECRET, 4, "{\"wireTest\":true}").success);
+        MockServer.Request multipartPing = server.lastRequest();
+        assertEquals(HeartbeatApiClient.WIRE_MULTIPART, multipartPing.wire);
+        assertEquals("1", multipartPing.imageUnchanged);
+        assertTrue(multipartPing.bytes < 4096);
+    }
+
+    /**
+     * 最小 HTTP/1.1 模拟服务器：读取请求头和 Content-Length 请求体并计数，返回 200
+     * advertiseMultipart 时响应头声明支持 multipart，与真实服务器的协商方式一致
+     */
+    private static class MockServer {
+        /** 服务器收到的一次请求 */
+        static class Request {
+            long bytes;
+            String wire;
+            String imageUnchanged;
+        }
+
+        final List<Request> requests = new CopyOnWriteArrayList<>();
+        volatile boolean advertiseMultipart = true;
+        volatile boolean rejectMultipart = false;
+        private ServerSocket serverSocket;
+
+        void start() throws IOException {
+            serverSocket = new ServerSocket(0, 4, InetAddress.getLoopbackAddress());
+            Thread acceptThread = new Thread(this::acceptLoop, "HeartbeatMockServer");
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        Request lastRequest() {
+            assertFalse("no request received", requests.isEmpty());
+            return requests.get(requests.size() - 1);
+        }
+
+        void stop() {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void acceptLoop() {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    serveConnection(socket);
+                } catch (IOException e) {
+                    // 服务器关闭或连接断开
+                }
+            }
+        }
+
+        private void serveConnection(Socket socket) throws IOException {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            byte[] skipBuffer = new byte[8192];
+            while (true) {
+                Request request = new Request();
+                long contentLength = 0;
+                String line;
+                boolean first = true;
+                while (true) {
+                    line = readLine(input);
+                    if (line == null) {
+                        return;  // 连接关闭
+                    }
+                    request.bytes += line.length() + 2;
+                    if (line.isEmpty()) {
+                        if (first) {
+                            continue;
+                        }
+                        break;
+                    }
+                    first = false;
+                    String lower = line.toLowerCase(Locale.ROOT);
+                    if (lower.startsWith("content-length:")) {
+                        contentLength = Long.parseLong(line.substring(15).trim());
+                    } else if (lower.startsWith("x-heartbeat-wire:")) {
+                        request.wire = line.substring(17).trim();
+                    } else if (lower.startsWith("x-image-unchanged:")) {
+                        request.imageUnchanged = line.substring(18).trim();
+                    }
+                }
+
+                long remaining = contentLength;
+                while (remaining > 0) {
+                    int read = input.read(skipBuffer, 0, (int) Math.min(skipBuffer.length, remaining));
+                    if (read < 0) {
+                        return;
+                    }
+                    remaining -= read;
+                }
+                request.bytes += contentLength;
+                requests.add(request);
+
+                String response;
+                if (rejectMultipart && HeartbeatApiClient.WIRE_MULTIPART.equals(request.wire)) {
+                    response = "HTTP/1.1 415 Unsupported Media Type\r\n"
+                            + "Content-Length: 0\r\n"
+                            + "\r\n";
+                } else {
+                    response = "HTTP/1.1 200 OK\r\n"
+                            + "Content-Type: application/json\r\n"
+                            + (advertiseMultipart ? "X-Heartbeat-Wire-Accept: json, multipart\r\n" : "")
+                            + "Content-Length: 11\r\n"
+                            + "\r\n"
+                            + "{\"ok\":true}";
+                }
+                output.write(response.getBytes(StandardCharsets.US_ASCII));
+                output.flush();
+            }
+        }
+
+        /**
+         * 读取一行请求头（ASCII，去掉 CRLF），连接关闭时返回 null
+         */
+        private static String readLine(InputStream input) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while ((b = input.read()) != -1) {
+                if (b == '\n') {
+                    int len = sb.length();
+                    if (len > 0 && sb.charAt(len - 1) == '\r') {
+                        sb.setLength(len - 1);
+                    }
+                    return sb.toString();
+                }
+                sb.append((char) b);
+            }
+            return sb.length() > 0 ? sb.toString() : null;
+        }
+    }
+}
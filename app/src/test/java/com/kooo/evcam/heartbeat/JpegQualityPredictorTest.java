@@ -0,0 +1,147 @@
+package com.kooo.evcam.heartbeat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JpegQualityPredictor 测试（合成体积曲线：size(q) = 像素数 × 复杂度 × 参考曲线(q)）
+ */
+public class JpegQualityPredictorTest {
+
+    private static final long PIXELS = 1920L * 1080;
+    private static final String SCENE = JpegQualityPredictor.sceneKey(4, 1920, 1080, 1);
+
+    /** 记录每次编码质量的合成编码器 */
+    private static class CurveEncoder implements JpegQualityPredictor.Encoder {
+        final double complexity;
+        final List<Integer> qualities = new ArrayList<>();
+
+        CurveEncoder(double complexity) {
+            this.complexity = complexity;
+        }
+
+        @Override
+        public int encode(int quality) {
+            qualities.add(quality);
+            return (int) (PIXELS * complexity * JpegQualityPredictor.relativeSize(quality));
+        }
+    }
+
+    /** 质量 >= 50 时体积为目标的 4 倍、否则为 1/4 的阶跃曲线，参考曲线对它的预测总是偏差很大 */
+    private static class StepEncoder implements JpegQualityPredictor.Encoder {
+        final int targetBytes;
+        final List<Integer> qualities = new ArrayList<>();
+
+        StepEncoder(int targetSizeKB) {
+            this.targetBytes = targetSizeKB * 1024;
+        }
+
+        @Override
+        public int encode(int quality) {
+            qualities.add(quality);
+            return quality >= 50 ? targetBytes * 4 : targetBytes / 4;
+        }
+    }
+
+    @Test
+    public void referenceCurveRoundTrips() {
+        for (int quality : new int[]{10, 30, 50, 75, 90, 95}) {
+            assertEquals(quality, JpegQualityPredictor.qualityForRelativeSize(JpegQualityPredictor.relativeSize(quality)));
+        }
+        assertEquals(JpegQualityPredictor.MIN_QUALITY, JpegQualityPredictor.qualityForRelativeSize(0.01));
+        assertEquals(JpegQualityPredictor.MAX_QUALITY, JpegQualityPredictor.qualityForRelativeSize(100));
+    }
+
+    @Test
+    public void unknownSceneStartsAtDefaultQuality() {
+        JpegQualityPredictor predictor = new JpegQualityPredictor();
+        assertEquals(JpegQualityPredictor.DEFAULT_QUALITY, predictor.predictQuality(SCENE, 0.2));
+        CurveEncoder encoder = new CurveEncoder(0.3);
+        predictor.compress(SCENE, PIXELS, 300, encoder);
+        assertEquals(JpegQualityPredictor.DEFAULT_QUALITY, (int) encoder.qualities.get(0));
+        assertEquals(1, predictor.getSceneCount());
+    }
+
+    @Test
+    public void complexityIsExponentialMovingAverage() {
+        JpegQualityPredictor predictor = new JpegQualityPredictor();
+        // 质量 75 的参考相对体积为 1.0，复杂度即实测 bytesPerPixel
+        predictor.record(SCENE, 75, 1.0);
+        assertEquals(75, predictor.predictQuality(SCENE, 1.0));
+        // 新样本权重 0.6：1.0 + (2.0 - 1.0) × 0.6 = 1.6
+        predictor.record(SCENE, 75, 2.0);
+        assertEquals(75, predictor.predictQuality(SCENE, 1.6));
+        assertNotEquals(75, predictor.predictQuality(SCENE, 1.0));
+        assertNotEquals(75, predictor.predictQuality(SCENE, 2.0));
+        // 无效样本不更新
+        predictor.record(SCENE, 75, 0);
+        assertEquals(75, predictor.predictQuality(SCENE, 1.6));
+    }
+
+    @Test
+    public void secondFrameHitsOnFirstPass() {
+        JpegQualityPredictor predictor = new JpegQualityPredictor();
+        CurveEncoder encoder = new CurveEncoder(0.25);
+        int targetKB = 200;
+
+        JpegQualityPredictor.Result first = predictor.compress(SCENE, PIXELS, targetKB, encoder);
+        assertTrue(first.passes <= 2);
+        JpegQualityPredictor.Result second = predictor.compress(SCENE, PIXELS, targetKB, encoder);
+        assertEquals(1, second.passes);
+        assertTrue(Math.abs(second.sizeBytes / 1024 - targetKB) <= JpegQualityPredictor.toleranceKB(targetKB));
+        assertEquals(0.5, predictor.getFirstPassHitRate(), 1e-9);
+    }
+
+    @Test
+    public void predictionNeedsFewerPassesThanBisection() {
+        JpegQualityPredictor predictor = new JpegQualityPredictor();
+        int predictedPasses = 0;
+        int bisectionPasses = 0;
+        for (int i = 0; i < 20; i++) {
+            // 画面复杂度缓慢变化
+            CurveEncoder encoder = new CurveEncoder(0.15 + 0.01 * (i % 5));
+            predictedPasses += predictor.compress(SCENE, PIXELS, 250, encoder).passes;
+            bisectionPasses += JpegQualityPredictor.compressBisection(250, new CurveEncoder(0.15 + 0.01 * (i % 5))).passes;
+        }
+        assertTrue(predictedPasses + " vs " + bisectionPasses, predictedPasses < bisectionPasses);
+    }
+
+    @Test
+    public void outOfBoundsPredictionFallsBackToBisection() {
+        JpegQualityPredictor predictor = new JpegQualityPredictor();
+        int targetKB = 200;
+        StepEncoder encoder = new StepEncoder(targetKB);
+
+        JpegQualityPredictor.Result result = predictor.compress(SCENE, PIXELS, targetKB, encoder);
+
+        // 70 过大 → 预测到最低质量 10；10 过小 → 预测 75 超出上界 69，退回二分 (11 + 69) / 2
+        assertEquals(70, (int) encoder.qualities.get(0));
+        assertEquals(10, (int) encoder.qualities.get(1));
+        assertEquals(40, (int) encoder.qualities.get(2));
+        // 之后每次预测都跑出上下界，继续二分
+        assertEquals((41 + 69) / 2, (int) encoder.qualities.get(3));
+        // 无法命中时最多编码 MAX_PASSES 次
+        assertEquals(JpegQualityPredictor.MAX_PASSES, result.passes);
+        assertEquals(JpegQualityPredictor.MAX_PASSES, encoder.qualities.size());
+        for (int quality : encoder.qualities) {
+            assertTrue(quality >= JpegQualityPredictor.MIN_QUALITY && quality <= JpegQualityPredictor.MAX_QUALITY);
+        }
+    }
+
+    @Test
+    public void stopsAtQualityBounds() {
+        JpegQualityPredictor predictor = new JpegQualityPredictor();
+        // 极复杂画面：最低质量仍超过目标
+        JpegQualityPredictor.Result tooBig = predictor.compress("big", PIXELS, 50, new CurveEncoder(10));
+        assertEquals(JpegQualityPredictor.MIN_QUALITY, tooBig.quality);
+        assertTrue(tooBig.passes < JpegQualityPredictor.MAX_PASSES);
+        // 极简单画面：最高质量仍低于目标
+        JpegQualityPredictor.Result tooSmall = predictor.compress("small", PIXELS, 500, new CurveEncoder(0.001));
+        assertEquals(JpegQualityPredictor.MAX_QUALITY, tooSmall.quality);
+        assertTrue(tooSmall.passes < JpegQualityPredictor.MAX_PASSES);
+    }
+}
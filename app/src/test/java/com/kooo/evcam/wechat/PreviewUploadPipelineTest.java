@@ -0,0 +1,141 @@
+package com.kooo.evcam.wechat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * PreviewUploadPipeline 测试（模拟慢链路：每次上传阻塞到测试放行）
+ */
+public class PreviewUploadPipelineTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    /** 慢链路：记录上传的帧编号和同时进行的上传数 */
+    private static class SlowLink implements PreviewUploadPipeline.Uploader {
+        final List<Integer> uploaded = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final Semaphore started = new Semaphore(0);
+        final Semaphore release = new Semaphore(0);
+
+        @Override
+        public boolean upload(byte[] jpeg) throws Exception {
+            int now = active.incrementAndGet();
+            maxActive.accumulateAndGet(now, Math::max);
+            started.release();
+            try {
+                if (!release.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("upload was never released");
+                }
+                uploaded.add((int) jpeg[0]);
+                return true;
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    private SlowLink link;
+    private PreviewUploadPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        link = new SlowLink();
+        pipeline = new PreviewUploadPipeline(link);
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.stop();
+        link.release.release(100);
+    }
+
+    @Test
+    public void onlyNewestFrameIsUploadedWhileLinkIsBusy() throws Exception {
+        pipeline.start();
+        pipeline.offer(frame(1), System.nanoTime());
+        assertTrue(link.started.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(pipeline.isIdle());
+
+        // 第 1 帧上传期间到达的帧互相覆盖，只保留最新的第 4 帧
+        pipeline.offer(frame(2), System.nanoTime());
+        pipeline.offer(frame(3), System.nanoTime());
+        pipeline.offer(frame(4), System.nanoTime());
+        link.release.release(2);
+        awaitUploaded(2);
+
+        assertEquals(Arrays.asList(1, 4), new ArrayList<>(link.uploaded));
+        assertEquals(2, pipeline.getDroppedCount());
+        assertEquals(1, link.maxActive.get());
+    }
+
+    @Test
+    public void restartWhileUploadInFlightKeepsSingleUpload() throws Exception {
+        pipeline.start();
+        pipeline.offer(frame(1), System.nanoTime());
+        assertTrue(link.started.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // 第 1 帧仍在上传时停止并重新启动
+        pipeline.stop();
+        pipeline.start();
+        pipeline.offer(frame(2), System.nanoTime());
+        // 新工作线程不能在旧上传完成前开始上传
+        assertFalse(link.started.tryAcquire(200, TimeUnit.MILLISECONDS));
+
+        link.release.release(2);
+        awaitUploaded(2);
+        // 旧工作线程已退出：再提交的帧只上传一次
+        pipeline.offer(frame(3), System.nanoTime());
+        link.release.release(1);
+        awaitUploaded(3);
+        Thread.sleep(100);
+
+        assertEquals(Arrays.asList(1, 2, 3), new ArrayList<>(link.uploaded));
+        assertEquals(1, link.maxActive.get());
+        assertEquals(3, pipeline.getUploadedCount());
+    }
+
+    @Test
+    public void stopDropsPendingFrameAndRejectsNewFrames() throws Exception {
+        pipeline.start();
+        pipeline.offer(frame(1), System.nanoTime());
+        assertTrue(link.started.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        pipeline.offer(frame(2), System.nanoTime());
+
+        pipeline.stop();
+        pipeline.offer(frame(3), System.nanoTime());
+        link.release.release(1);
+        awaitUploaded(1);
+        Thread.sleep(100);
+
+        // 正在进行的上传完成，待上传帧被丢弃，停止后提交的帧被忽略
+        assertEquals(Collections.singletonList(1), new ArrayList<>(link.uploaded));
+        assertEquals(1, pipeline.getDroppedCount());
+        assertTrue(pipeline.isIdle());
+    }
+
+    private static byte[] frame(int id) {
+        return new byte[]{(byte) id, 0x11, 0x22};
+    }
+
+    private void awaitUploaded(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (pipeline.getUploadedCount() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("expected " + count + " uploads, got " + pipeline.getUploadedCount());
+            }
+            Thread.sleep(10);
+        }
+    }
+}